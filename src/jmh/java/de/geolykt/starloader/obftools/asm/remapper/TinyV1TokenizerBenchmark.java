@@ -0,0 +1,137 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the {@link TinyV1Tokenizer} against the regex-based line splitting that was used by
+ * {@link RemapperUtils#readTinyV1File(java.io.File, Remapper)} before. Both read the same in-memory map and
+ * pass every column they would register to a {@link Blackhole}, so the remapper itself is not part of the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+public class TinyV1TokenizerBenchmark {
+
+    private static final class ConsumingVisitor implements TinyV1Tokenizer.Visitor {
+
+        private final Blackhole blackhole;
+
+        private ConsumingVisitor(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void visitClass(int lineNr, String oldName, String newName) {
+            blackhole.consume(oldName);
+            blackhole.consume(newName);
+        }
+
+        @Override
+        public void visitField(int lineNr, String owner, String desc, String oldName, String newName) {
+            blackhole.consume(owner);
+            blackhole.consume(desc);
+            blackhole.consume(oldName);
+            blackhole.consume(newName);
+        }
+
+        @Override
+        public void visitMethod(int lineNr, String owner, String desc, String oldName, String newName) {
+            blackhole.consume(owner);
+            blackhole.consume(desc);
+            blackhole.consume(oldName);
+            blackhole.consume(newName);
+        }
+    }
+
+    /**
+     * The amount of lines of the generated map.
+     */
+    @Param("200000")
+    public int lines;
+
+    private byte[] map;
+
+    @Setup
+    public void generateMap() {
+        StringBuilder sb = new StringBuilder(lines * 64);
+        sb.append("v1\tofficial\tintermediary\n");
+        int classes = Math.max(1, lines / 20);
+        int written = 1;
+        for (int c = 0; written < lines; c++) {
+            String owner = "snoddasmannen/galimulator/Class" + (c % classes);
+            sb.append("CLASS\t").append(owner).append("\tgalimulator/class_").append(c).append('\n');
+            written++;
+            for (int m = 0; m < 19 && written < lines; m++, written++) {
+                if ((m & 1) == 0) {
+                    sb.append("FIELD\t").append(owner).append("\tLjava/lang/String;\t").append((char) ('a' + m))
+                        .append("\tfield_").append(written).append('\n');
+                } else {
+                    sb.append("METHOD\t").append(owner).append("\t(ILjava/util/List;)Ljava/lang/String;\t").append((char) ('a' + m))
+                        .append("\tmethod_").append(written).append('\n');
+                }
+            }
+        }
+        map = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void split(Blackhole blackhole) throws IOException {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(map), StandardCharsets.UTF_8))) {
+            String[] headerTokens = br.readLine().split("\\s+");
+            if (headerTokens.length != 3 || !headerTokens[0].equals("v1")) {
+                throw new IllegalStateException("Invalid header");
+            }
+            for (String line = br.readLine(); line != null; line = br.readLine()) {
+                if (line.isBlank() || line.charAt(0) == '#') {
+                    continue;
+                }
+                line = line.split("#", 2)[0];
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] colums = line.split("\\s+");
+                String type = colums[0].toUpperCase(Locale.ROOT);
+                if (type.equals("CLASS")) {
+                    blackhole.consume(colums[1]);
+                    blackhole.consume(colums[2]);
+                } else if (type.equals("METHOD") || type.equals("FIELD")) {
+                    blackhole.consume(colums[1]);
+                    blackhole.consume(colums[2]);
+                    blackhole.consume(colums[3]);
+                    blackhole.consume(colums[4]);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public int tokenizer(Blackhole blackhole) {
+        ByteBuffer buffer = ByteBuffer.wrap(map);
+        int end = buffer.limit();
+        int start = TinyV1Tokenizer.readHeader(buffer, end);
+        return new TinyV1Tokenizer(buffer, start, end, 2).tokenize(new ConsumingVisitor(blackhole));
+    }
+}
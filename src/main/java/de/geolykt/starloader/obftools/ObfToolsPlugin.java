@@ -20,6 +20,10 @@ import de.geolykt.starloader.obftools.asm.access.AccessWidenerReader;
 
 public class ObfToolsPlugin implements Plugin<Project> {
 
+    /**
+     * The suffix of the file next to an intermediary map which contains the fingerprints of the obfuscated classes.
+     */
+    public static final String FINGERPRINTS_SUFFIX = ".fingerprints";
     public static final String FOLDER = "build/obftools/";
     public static final String INTERMEDIARY_JAR = FOLDER + "intermediary.jar";
     public static final String INTERMEDIARY_MAP = FOLDER + "slintermediary.tiny";
@@ -53,21 +57,28 @@ public class ObfToolsPlugin implements Plugin<Project> {
                     JarFile jar = new JarFile(f);
                     deobfuscator.index(jar);
                     jar.close();
+                    deobfuscator.useParallelProcessing(true);
                     deobfuscator.fixInnerClasses();
                     deobfuscator.fixParameterLVT();
-                    deobfuscator.guessFieldGenerics();
-                    deobfuscator.inferMethodGenerics(true);
-                    deobfuscator.inferConstructorGenerics(true);
+                    deobfuscator.inferGenerics(true);
                     deobfuscator.fixSwitchMaps(true);
                     deobfuscator.fixForeachOnArray(true);
                     deobfuscator.fixComparators(true, true);
 
-                    IntermediaryGenerator generator = new IntermediaryGenerator(map, null, deobfuscator.getClassNodesDirectly());
+                    IntermediaryGenerator generator = new IntermediaryGenerator(map, null, deobfuscator.getClassGraph());
                     generator.useAlternateClassNaming(extension.alternateNaming != null && extension.alternateNaming == true);
+                    generator.useParallelProcessing(true);
+                    if (extension.previousIntermediaryMap != null) {
+                        // Keep the names of unchanged classes, so that dependents of the intermediary jar stay valid
+                        File previousMap = project.file(extension.previousIntermediaryMap);
+                        File previousFingerprints = new File(previousMap.getPath() + FINGERPRINTS_SUFFIX);
+                        generator.usePreviousMappings(previousMap, previousFingerprints.exists() ? previousFingerprints : null);
+                    }
                     generator.addResources(f);
                     generator.remapClassesV2();
                     generator.doProposeEnumFieldsV2();
                     generator.remapGetters();
+                    generator.writeFingerprints(new File(map.getPath() + FINGERPRINTS_SUFFIX));
                     generator.deobfuscate();
 
                     if (extension.accessWidener != null) {
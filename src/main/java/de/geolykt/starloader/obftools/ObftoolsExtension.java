@@ -6,4 +6,5 @@ public class ObftoolsExtension {
     public String annotation;
     public String reobfOverrides;
     public Boolean alternateNaming;
+    public String previousIntermediaryMap;
 }
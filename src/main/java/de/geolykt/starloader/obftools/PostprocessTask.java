@@ -22,16 +22,53 @@ import org.gradle.api.internal.file.copy.CopyActionProcessingStream;
 import org.gradle.api.tasks.WorkResult;
 import org.gradle.api.tasks.WorkResults;
 import org.gradle.jvm.tasks.Jar;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
 
+import de.geolykt.starloader.obftools.asm.remapper.MappingValidationReport;
+import de.geolykt.starloader.obftools.asm.remapper.MappingValidator;
 import de.geolykt.starloader.obftools.asm.remapper.Remapper;
-import de.geolykt.starloader.obftools.asm.remapper.RemapperUtils;
 
 public class PostprocessTask extends Jar {
 
+    /**
+     * The amount of mapping issues that are logged in detail.
+     */
+    static final int REPORTED_ISSUES = 20;
+
+    /**
+     * Reads the mappings used by the postprocess task. The returned validator can both check the mappings for conflicts
+     * and register them to a remapper, so the files only need to be read once.
+     *
+     * @param map The intermediary map, which is read in reverse
+     * @param reobfOverrides The reobfuscation overrides or null if there are none
+     * @return The validator holding the mappings
+     * @throws IOException If an IO issue occurred
+     */
+    static MappingValidator readMappings(File map, @Nullable File reobfOverrides) throws IOException {
+        MappingValidator validator = new MappingValidator();
+        validator.addTinyV1File(map, true);
+        if (reobfOverrides != null) {
+            validator.addTinyV1File(reobfOverrides, false);
+        }
+        return validator;
+    }
+
+    /**
+     * Checks the mappings used by the postprocess task for conflicts, without having to remap anything.
+     *
+     * @param map The intermediary map, which is read in reverse
+     * @param reobfOverrides The reobfuscation overrides or null if there are none
+     * @return The report
+     * @throws IOException If an IO issue occurred
+     */
+    public static MappingValidationReport validateMappings(File map, @Nullable File reobfOverrides) throws IOException {
+        return readMappings(map, reobfOverrides).validate(REPORTED_ISSUES);
+    }
+
     private final ObftoolsExtension extension;
 
     @Inject
@@ -72,14 +109,16 @@ public class PostprocessTask extends Jar {
     public WorkResult execute(CopyActionProcessingStream stream) {
         List<ClassNode> nodes = new ArrayList<>();
         List<Map.Entry<String, byte[]>> resources = new ArrayList<>();
-        Remapper remapper = new Remapper();
+        Remapper remapper = new Remapper(true); // The merged mappings are large and the task runs within the daemon
 
         try {
-            RemapperUtils.readReversedTinyV1File(mapLocation, remapper);
-
-            if (reobfOverrides.isPresent()) {
-                RemapperUtils.readTinyV1File(reobfOverrides.get(), remapper);
+            MappingValidator mappings = PostprocessTask.readMappings(mapLocation, reobfOverrides.orElse(null));
+            MappingValidationReport report = mappings.validate(PostprocessTask.REPORTED_ISSUES);
+            if (!report.isEmpty()) {
+                System.err.println(report);
             }
+            // The remapper gets the same entries that were validated, so the report describes exactly what is applied
+            mappings.registerTo(remapper);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,150 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Computes name-independent fingerprints of classes. Two classes have the same fingerprint if they have the same
+ * structure (access flags, amount of interfaces, member access flags, member descriptors and method sizes), regardless of
+ * how they or the classes they refer to are named. Only references to JDK classes are kept verbatim, as these classes
+ * are never obfuscated.
+ *<p>
+ * Fingerprints are used to recognise classes across different versions of an obfuscated application,
+ * where the obfuscated name of a class may change without the class itself changing.
+ */
+public final class ClassFingerprint {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * The access flags that are relevant for the fingerprint. Synthetic and deprecation flags
+     * may change depending on the compiler used and are thus not included.
+     */
+    private static final int RELEVANT_ACCESS = Opcodes.ACC_PUBLIC | Opcodes.ACC_PRIVATE | Opcodes.ACC_PROTECTED
+            | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT | Opcodes.ACC_ENUM
+            | Opcodes.ACC_ANNOTATION | Opcodes.ACC_VOLATILE | Opcodes.ACC_TRANSIENT | Opcodes.ACC_NATIVE;
+
+    /**
+     * Computes the fingerprint of a single class.
+     *
+     * @param node The class to fingerprint
+     * @return The fingerprint
+     */
+    public static long compute(ClassNode node) {
+        StringBuilder builder = new StringBuilder();
+        List<String> members = new ArrayList<>();
+        for (FieldNode field : node.fields) {
+            builder.setLength(0);
+            builder.append('F').append(field.access & RELEVANT_ACCESS).append(':');
+            normalizeDescriptor(field.desc, builder);
+            members.add(builder.toString());
+        }
+        for (MethodNode method : node.methods) {
+            builder.setLength(0);
+            builder.append('M').append(method.access & RELEVANT_ACCESS).append(':');
+            if (method.name.charAt(0) == '<') {
+                // Constructors and static initializers are never renamed
+                builder.append(method.name);
+            }
+            normalizeDescriptor(method.desc, builder);
+            builder.append(':').append(countOpcodes(method));
+            members.add(builder.toString());
+        }
+        // The order of members may change between compilations
+        Collections.sort(members);
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, Integer.toString(node.access & RELEVANT_ACCESS));
+        hash = hash(hash, Integer.toString(node.interfaces.size()));
+        builder.setLength(0);
+        if (node.superName != null) {
+            normalizeInternalName(node.superName, builder);
+        }
+        hash = hash(hash, builder.toString());
+        for (String member : members) {
+            hash = hash(hash, member);
+        }
+        return hash;
+    }
+
+    /**
+     * Computes the fingerprints of multiple classes.
+     *
+     * @param nodes The classes to fingerprint
+     * @return A map that maps the internal name of each class to it's fingerprint
+     */
+    public static Map<String, Long> computeAll(Collection<ClassNode> nodes) {
+        Map<String, Long> fingerprints = new HashMap<>(nodes.size() * 2);
+        for (ClassNode node : nodes) {
+            fingerprints.put(node.name, compute(node));
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Counts the instructions of a method, excluding labels, line numbers and frames. These pseudo-instructions
+     * depend on the line numbers of the source code, which may change without the method changing.
+     *
+     * @param method The method
+     * @return The amount of real instructions
+     */
+    private static int countOpcodes(MethodNode method) {
+        int count = 0;
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn.getOpcode() >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long hash(long hash, String string) {
+        for (byte b : string.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        // Separator, so that "ab" + "c" and "a" + "bc" result in different hashes
+        hash ^= 0xFF;
+        hash *= FNV_PRIME;
+        return hash;
+    }
+
+    private static void normalizeDescriptor(String desc, StringBuilder out) {
+        int length = desc.length();
+        for (int i = 0; i < length; i++) {
+            char c = desc.charAt(i);
+            if (c == 'L') {
+                int end = desc.indexOf(';', i);
+                out.append('L');
+                normalizeInternalName(desc.substring(i + 1, end), out);
+                out.append(';');
+                i = end;
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private static void normalizeInternalName(String internalName, StringBuilder out) {
+        if (internalName.startsWith("java/") || internalName.startsWith("javax/")) {
+            out.append(internalName);
+        }
+    }
+
+    /**
+     * Static utility class.
+     */
+    private ClassFingerprint() {
+    }
+}
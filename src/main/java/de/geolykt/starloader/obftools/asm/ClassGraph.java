@@ -0,0 +1,166 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * The class graph of an application, which maps class names to their nodes and provides the {@link ClassHierarchy}
+ * of the classes. The graph is built once while indexing the application and shared by all passes
+ * ({@link Oaktree}, {@link IntermediaryGenerator} and {@link ClassWrapperPool}), so the class graph does not need
+ * to be rebuilt by every pass.
+ *<p>
+ * The hierarchy is computed lazily and is discarded whenever classes are added or removed. Renamed classes
+ * (see {@link #renameClasses(Map)}) only rename the hierarchy, as the structure of the hierarchy does not change.
+ * The {@link de.geolykt.starloader.obftools.asm.remapper.Remapper} renames the classes of the graph set via
+ * {@link de.geolykt.starloader.obftools.asm.remapper.Remapper#setClassGraph(ClassGraph)} when it processes it's targets.
+ * The graph also carries the {@link SymbolInterner} of the application, which is used by all passes that
+ * read or remap the classes of the graph.
+ */
+public final class ClassGraph {
+
+    private ClassHierarchy hierarchy;
+    private int modificationCount;
+    private final Map<String, ClassNode> nameToNode = new HashMap<>();
+    private final List<ClassNode> nodes = new ArrayList<>();
+    private final SymbolInterner symbols = new SymbolInterner();
+
+    public ClassGraph() {
+    }
+
+    public ClassGraph(@NotNull Collection<ClassNode> nodes) {
+        for (ClassNode node : nodes) {
+            add(node);
+        }
+    }
+
+    /**
+     * Adds a class to the graph. If a class with the same name is already part of the graph, it is replaced.
+     *
+     * @param node The class to add
+     */
+    public void add(@NotNull ClassNode node) {
+        ClassNode old = nameToNode.put(node.name, node);
+        if (old != null) {
+            nodes.remove(old);
+        }
+        nodes.add(node);
+        hierarchy = null;
+        modificationCount++;
+    }
+
+    public boolean contains(@NotNull String name) {
+        return nameToNode.containsKey(name);
+    }
+
+    @Nullable
+    public ClassNode get(@NotNull String name) {
+        return nameToNode.get(name);
+    }
+
+    /**
+     * Obtains the classes within the graph, keyed by their internal name. The map reflects later changes of the graph.
+     *
+     * @return An unmodifiable view of the classes
+     */
+    @NotNull
+    public Map<String, ClassNode> getNodeMap() {
+        return Collections.unmodifiableMap(nameToNode);
+    }
+
+    /**
+     * Obtains the hierarchy of all classes within the graph. The hierarchy is computed on the first call
+     * and reused until classes are added or removed.
+     *
+     * @return The hierarchy
+     */
+    @NotNull
+    public ClassHierarchy getHierarchy() {
+        ClassHierarchy hierarchy = this.hierarchy;
+        if (hierarchy == null) {
+            hierarchy = ClassHierarchy.build(nodes);
+            this.hierarchy = hierarchy;
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Obtains a counter that is increased whenever the graph changes. Consumers that cache information
+     * about the classes can use it to detect stale information.
+     *
+     * @return The modification count
+     */
+    public int getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * Obtains all classes within the graph, in the order they were added.
+     *
+     * @return An unmodifiable view of the classes
+     */
+    @NotNull
+    public List<ClassNode> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * Obtains the symbol table that is shared by everything that reads or remaps the classes of the graph.
+     * Classes are not interned when they are added, this is up to the code that reads the classes.
+     *
+     * @return The symbol table
+     */
+    @NotNull
+    public SymbolInterner getSymbols() {
+        return symbols;
+    }
+
+    @Nullable
+    public ClassNode remove(@NotNull String name) {
+        ClassNode node = nameToNode.remove(name);
+        if (node != null) {
+            nodes.remove(node);
+            hierarchy = null;
+            modificationCount++;
+        }
+        return node;
+    }
+
+    /**
+     * Updates the graph after classes have been renamed. The names of the nodes themselves are not changed by this method.
+     *
+     * @param oldToNewNames A map that maps old class names to new class names
+     */
+    public void renameClasses(@NotNull Map<String, String> oldToNewNames) {
+        if (oldToNewNames.isEmpty()) {
+            return;
+        }
+        // Two phases, as a class may be renamed to the former name of another class
+        Map<String, ClassNode> renamed = new HashMap<>();
+        oldToNewNames.forEach((oldName, newName) -> {
+            ClassNode node = nameToNode.remove(oldName);
+            if (node != null) {
+                renamed.put(newName, node);
+            }
+        });
+        if (renamed.isEmpty()) {
+            return;
+        }
+        nameToNode.putAll(renamed);
+        if (hierarchy != null) {
+            hierarchy = hierarchy.rename(oldToNewNames);
+        }
+        modificationCount++;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+}
@@ -0,0 +1,320 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * Immutable view of the type hierarchy of a closed set of classes, which contains the direct as well as the transitive
+ * subtypes and supertypes of every class. Supertypes that are not part of the set (such as JDK classes) are not
+ * part of the hierarchy.
+ *<p>
+ * The transitive closures are computed once in topological order, where every closure is the union of the closures
+ * of the direct neighbours. The closures are stored as bitsets over the class indices and classes without any
+ * subtypes or supertypes share the same empty bitset, so the memory used is proportional to the amount of non-leaf classes.
+ */
+public final class ClassHierarchy {
+
+    private static final BitSet EMPTY = new BitSet(0);
+
+    /**
+     * Creates the hierarchy of a set of classes.
+     *
+     * @param nodes The classes
+     * @return The hierarchy of the classes
+     */
+    public static ClassHierarchy build(Collection<ClassNode> nodes) {
+        Map<String, List<String>> directSubtypes = new LinkedHashMap<>(nodes.size() * 2);
+        for (ClassNode node : nodes) {
+            directSubtypes.put(node.name, new ArrayList<>());
+        }
+        for (ClassNode node : nodes) {
+            List<String> subtypes = directSubtypes.get(node.superName);
+            if (subtypes != null) {
+                subtypes.add(node.name);
+            }
+            for (String interfaceName : node.interfaces) {
+                subtypes = directSubtypes.get(interfaceName);
+                if (subtypes != null) {
+                    subtypes.add(node.name);
+                }
+            }
+        }
+        return new ClassHierarchy(directSubtypes);
+    }
+
+    private final int[][] directSubtypes;
+    private final int[][] directSupertypes;
+    private final Map<String, Integer> ids;
+    private final String[] names;
+    private final int[] order;
+    private final BitSet[] subtypes;
+    private final BitSet[] supertypes;
+
+    /**
+     * Creates the hierarchy from the direct subtypes of each class. Names that only occur as a subtype are part of
+     * the hierarchy too, but are assumed to not have any subtypes on their own.
+     *
+     * @param directSubtypes A map that maps the internal name of every class to the internal names of it's direct subtypes
+     */
+    public ClassHierarchy(Map<String, ? extends Collection<String>> directSubtypes) {
+        ids = new HashMap<>(directSubtypes.size() * 2);
+        List<String> names = new ArrayList<>(directSubtypes.size());
+        for (String name : directSubtypes.keySet()) {
+            ids.put(name, names.size());
+            names.add(name);
+        }
+        for (Collection<String> subtypes : directSubtypes.values()) {
+            for (String subtype : subtypes) {
+                if (ids.putIfAbsent(subtype, names.size()) == null) {
+                    names.add(subtype);
+                }
+            }
+        }
+        int size = names.size();
+        this.names = names.toArray(new String[size]);
+
+        this.directSubtypes = new int[size][];
+        int[] supertypeCounts = new int[size];
+        for (int i = 0; i < size; i++) {
+            Collection<String> subtypeNames = directSubtypes.get(this.names[i]);
+            if (subtypeNames == null) {
+                this.directSubtypes[i] = new int[0];
+                continue;
+            }
+            int[] subtypeIds = new int[subtypeNames.size()];
+            int j = 0;
+            for (String subtype : subtypeNames) {
+                int id = ids.get(subtype);
+                subtypeIds[j++] = id;
+                supertypeCounts[id]++;
+            }
+            this.directSubtypes[i] = subtypeIds;
+        }
+        this.directSupertypes = new int[size][];
+        for (int i = 0; i < size; i++) {
+            directSupertypes[i] = new int[supertypeCounts[i]];
+            supertypeCounts[i] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            for (int subtype : this.directSubtypes[i]) {
+                directSupertypes[subtype][supertypeCounts[subtype]++] = i;
+            }
+        }
+
+        // Post-order: every class comes after all of it's subtypes
+        order = topologicalOrder();
+        subtypes = new BitSet[size];
+        for (int id : order) {
+            subtypes[id] = closure(this.directSubtypes[id], subtypes);
+        }
+        supertypes = new BitSet[size];
+        for (int i = size - 1; i >= 0; i--) {
+            int id = order[i];
+            supertypes[id] = closure(directSupertypes[id], supertypes);
+        }
+    }
+
+    private ClassHierarchy(ClassHierarchy source, String[] names) {
+        this.names = names;
+        this.ids = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            ids.put(names[i], i);
+        }
+        this.directSubtypes = source.directSubtypes;
+        this.directSupertypes = source.directSupertypes;
+        this.order = source.order;
+        this.subtypes = source.subtypes;
+        this.supertypes = source.supertypes;
+    }
+
+    private BitSet closure(int[] neighbours, BitSet[] closures) {
+        if (neighbours.length == 0) {
+            return EMPTY;
+        }
+        BitSet closure = new BitSet(names.length);
+        for (int neighbour : neighbours) {
+            closure.set(neighbour);
+            BitSet other = closures[neighbour];
+            if (other != null) {
+                // Null only in case of a circular hierarchy, which cannot be loaded by the JVM anyways
+                closure.or(other);
+            }
+        }
+        return closure;
+    }
+
+    private List<String> collect(BitSet set) {
+        List<String> out = new ArrayList<>(set.cardinality());
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            out.add(names[i]);
+        }
+        return out;
+    }
+
+    public boolean contains(String name) {
+        return ids.containsKey(name);
+    }
+
+    /**
+     * Obtains all classes within the hierarchy that directly or indirectly extend or implement the given class.
+     *
+     * @param name The internal name of the class
+     * @return A new list of the internal names of all subtypes, empty if the class is not part of the hierarchy
+     */
+    public List<String> getAllSubtypes(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            return new ArrayList<>();
+        }
+        return collect(subtypes[id]);
+    }
+
+    /**
+     * Obtains all classes within the hierarchy that the given class directly or indirectly extends or implements.
+     *
+     * @param name The internal name of the class
+     * @return A new list of the internal names of all supertypes, empty if the class is not part of the hierarchy
+     */
+    public List<String> getAllSupertypes(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            return new ArrayList<>();
+        }
+        return collect(supertypes[id]);
+    }
+
+    /**
+     * Obtains all classes within the hierarchy that the given class directly extends or implements.
+     *
+     * @param name The internal name of the class
+     * @return A new list of the internal names of the direct supertypes, empty if the class is not part of the hierarchy
+     */
+    public List<String> getDirectSupertypes(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            return new ArrayList<>();
+        }
+        int[] supertypeIds = directSupertypes[id];
+        List<String> out = new ArrayList<>(supertypeIds.length);
+        for (int supertype : supertypeIds) {
+            out.add(names[supertype]);
+        }
+        return out;
+    }
+
+    /**
+     * Obtains all classes within the hierarchy that directly extend or implement the given class.
+     *
+     * @param name The internal name of the class
+     * @return A new list of the internal names of the direct subtypes, empty if the class is not part of the hierarchy
+     */
+    public List<String> getDirectSubtypes(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            return new ArrayList<>();
+        }
+        int[] subtypeIds = directSubtypes[id];
+        List<String> out = new ArrayList<>(subtypeIds.length);
+        for (int subtype : subtypeIds) {
+            out.add(names[subtype]);
+        }
+        return out;
+    }
+
+    /**
+     * Checks whether a class directly or indirectly extends or implements another class.
+     * A class is not a subtype of itself.
+     *
+     * @param subtype The internal name of the potential subtype
+     * @param supertype The internal name of the potential supertype
+     * @return True if both classes are part of the hierarchy and the first class is a subtype of the second class
+     */
+    public boolean isSubtype(String subtype, String supertype) {
+        Integer subId = ids.get(subtype);
+        Integer superId = ids.get(supertype);
+        return subId != null && superId != null && subtypes[superId].get(subId);
+    }
+
+    /**
+     * Obtains all classes within the hierarchy, ordered so that every class comes after all of it's supertypes.
+     * This is the order in which information can be inherited from supertypes to subtypes in a single pass.
+     *
+     * @return A new list of the internal names of all classes
+     */
+    public List<String> getSupertypesFirstOrder() {
+        List<String> out = new ArrayList<>(order.length);
+        for (int i = order.length - 1; i >= 0; i--) {
+            out.add(names[order[i]]);
+        }
+        return out;
+    }
+
+    /**
+     * Creates a copy of this hierarchy where classes are renamed. As the structure of the hierarchy does not change,
+     * the closures are shared with this hierarchy and are not computed again.
+     *
+     * @param oldToNewNames A map that maps old class names to new class names. Classes that are not part of this map keep their name
+     * @return The renamed hierarchy
+     */
+    ClassHierarchy rename(Map<String, String> oldToNewNames) {
+        String[] newNames = names.clone();
+        for (int i = 0; i < newNames.length; i++) {
+            String newName = oldToNewNames.get(newNames[i]);
+            if (newName != null) {
+                newNames[i] = newName;
+            }
+        }
+        return new ClassHierarchy(this, newNames);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Orders the classes so that every class comes after all of it's subtypes. An iterative depth-first search
+     * is used as hierarchies can be deeper than the stack allows for.
+     *
+     * @return The class ids in post-order
+     */
+    private int[] topologicalOrder() {
+        int size = names.length;
+        int[] order = new int[size];
+        int orderSize = 0;
+        boolean[] visited = new boolean[size];
+        int[] stack = new int[size];
+        int[] cursor = new int[size];
+        for (int root = 0; root < size; root++) {
+            if (visited[root]) {
+                continue;
+            }
+            visited[root] = true;
+            int depth = 0;
+            stack[0] = root;
+            cursor[0] = 0;
+            while (depth >= 0) {
+                int current = stack[depth];
+                int[] children = directSubtypes[current];
+                if (cursor[depth] < children.length) {
+                    int child = children[cursor[depth]++];
+                    if (!visited[child]) {
+                        visited[child] = true;
+                        stack[++depth] = child;
+                        cursor[depth] = 0;
+                    }
+                } else {
+                    order[orderSize++] = current;
+                    depth--;
+                }
+            }
+        }
+        return order;
+    }
+}
@@ -8,18 +8,43 @@ import org.objectweb.asm.tree.ClassNode;
 
 public class ClassWrapperPool {
 
+    protected final ClassGraph graph;
+    private int graphModificationCount;
     protected final ClassLoader loader;
+    /**
+     * The classes known to the pool. If the pool was created from a class graph, this is a read-only view of the graph
+     * and classes need to be added through {@link #addClassnode(ClassNode)}.
+     */
     protected final Map<String, ClassNode> nodes;
     protected final Map<String, ClassWrapper> wrappers;
 
+    /**
+     * Creates a pool that resolves classes from a shared class graph. Wrappers are discarded whenever the graph changes.
+     *
+     * @param graph The class graph
+     * @param cl The classloader to resolve classes that are not part of the graph with
+     */
+    public ClassWrapperPool(ClassGraph graph, ClassLoader cl) {
+        this.graph = graph;
+        this.nodes = graph.getNodeMap();
+        this.wrappers = new HashMap<>();
+        this.loader = cl;
+        this.graphModificationCount = graph.getModificationCount();
+    }
+
     public ClassWrapperPool(Map<String, ClassNode> nodes, ClassLoader cl) {
+        this.graph = null;
         this.nodes = nodes;
         this.wrappers = new HashMap<>();
         this.loader = cl;
     }
 
     public void addClassnode(ClassNode node) {
-        this.nodes.put(node.name, node);
+        if (graph != null) {
+            graph.add(node);
+        } else {
+            this.nodes.put(node.name, node);
+        }
     }
 
     private boolean canAssign(ClassWrapper superType, ClassWrapper subType) {
@@ -42,6 +67,11 @@ public class ClassWrapperPool {
 
 
     public ClassWrapper get(String className) {
+        if (graph != null && graph.getModificationCount() != graphModificationCount) {
+            // Classes were added, removed or renamed
+            wrappers.clear();
+            graphModificationCount = graph.getModificationCount();
+        }
         ClassWrapper wrapper = wrappers.get(className);
         if (wrapper != null) {
             return wrapper;
@@ -0,0 +1,230 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.util.NoSuchElementException;
+
+import org.jetbrains.annotations.NotNull;
+import org.objectweb.asm.Type;
+
+/**
+ * Cursor over the parameter types of a method descriptor. Unlike {@link DescString} the cursor does not copy
+ * the descriptor or allocate a string for every type; the current type is reported as a range within the original
+ * descriptor alongside it's sort and the amount of array dimensions. A string is only created if it is explicitly
+ * requested via {@link #getDescriptor()}, and even then primitive types do not allocate.
+ *<p>
+ * The sorts are the sorts used by {@link Type}, for example {@link Type#INT} or {@link Type#OBJECT}.
+ */
+public final class DescCursor {
+
+    private static final String[] PRIMITIVE_DESCRIPTORS = new String[Type.DOUBLE + 1];
+
+    static {
+        PRIMITIVE_DESCRIPTORS[Type.VOID] = "V";
+        PRIMITIVE_DESCRIPTORS[Type.BOOLEAN] = "Z";
+        PRIMITIVE_DESCRIPTORS[Type.CHAR] = "C";
+        PRIMITIVE_DESCRIPTORS[Type.BYTE] = "B";
+        PRIMITIVE_DESCRIPTORS[Type.SHORT] = "S";
+        PRIMITIVE_DESCRIPTORS[Type.INT] = "I";
+        PRIMITIVE_DESCRIPTORS[Type.FLOAT] = "F";
+        PRIMITIVE_DESCRIPTORS[Type.LONG] = "J";
+        PRIMITIVE_DESCRIPTORS[Type.DOUBLE] = "D";
+    }
+
+    private static int getSort(char c) {
+        switch (c) {
+        case 'V':
+            return Type.VOID;
+        case 'Z':
+            return Type.BOOLEAN;
+        case 'C':
+            return Type.CHAR;
+        case 'B':
+            return Type.BYTE;
+        case 'S':
+            return Type.SHORT;
+        case 'I':
+            return Type.INT;
+        case 'F':
+            return Type.FLOAT;
+        case 'J':
+            return Type.LONG;
+        case 'D':
+            return Type.DOUBLE;
+        case 'L':
+            return Type.OBJECT;
+        default:
+            throw new IllegalStateException("Unknown type: " + c);
+        }
+    }
+
+    private final String desc;
+    private int dimensions;
+    private int elementSort;
+    private int end;
+    private int index = -1;
+    private final int parametersEnd;
+    private int start;
+
+    /**
+     * Creates a cursor that is positioned before the first parameter of a method descriptor.
+     *
+     * @param desc The method descriptor
+     */
+    public DescCursor(@NotNull String desc) {
+        this.desc = desc;
+        this.parametersEnd = desc.lastIndexOf(')');
+        this.end = 1; // Always starts with a paranthesis
+    }
+
+    /**
+     * Appends the descriptor of the current type to a string builder without creating a string.
+     *
+     * @param builder The builder
+     * @return The builder, for chaining
+     */
+    @NotNull
+    public StringBuilder appendTo(@NotNull StringBuilder builder) {
+        return builder.append(desc, start, end);
+    }
+
+    /**
+     * Obtains the descriptor of the current type. Primitive types do not allocate a new string.
+     *
+     * @return The descriptor of the current type
+     */
+    @NotNull
+    public String getDescriptor() {
+        if (dimensions == 0 && elementSort != Type.OBJECT) {
+            return PRIMITIVE_DESCRIPTORS[elementSort];
+        }
+        return desc.substring(start, end);
+    }
+
+    /**
+     * Obtains the amount of array dimensions of the current type.
+     *
+     * @return The amount of dimensions, 0 if the type is not an array
+     */
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Obtains the sort of the current type, or the sort of the element type if the current type is an array.
+     *
+     * @return The sort of the element type
+     */
+    public int getElementSort() {
+        return elementSort;
+    }
+
+    /**
+     * Obtains the index of the character after the current type within the descriptor.
+     *
+     * @return The exclusive end index
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Obtains the index of the current parameter, starting at 0 for the first parameter.
+     *
+     * @return The index of the current parameter
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Obtains the sort of the current type. The sort of arrays is {@link Type#ARRAY}, regardless of the element type.
+     *
+     * @return The sort
+     */
+    public int getSort() {
+        return dimensions == 0 ? elementSort : Type.ARRAY;
+    }
+
+    /**
+     * Obtains the method descriptor the cursor walks over.
+     *
+     * @return The descriptor
+     */
+    @NotNull
+    public String getSource() {
+        return desc;
+    }
+
+    /**
+     * Obtains the index of the first character of the current type within the descriptor.
+     *
+     * @return The inclusive start index
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Checks whether there is another parameter after the current one.
+     *
+     * @return True if {@link #next()} will succeed
+     */
+    public boolean hasNext() {
+        return end < parametersEnd;
+    }
+
+    /**
+     * Checks whether the current type is a long or a double, which take up two local variable slots.
+     *
+     * @return True if the current type is a long or a double
+     */
+    public boolean isWide() {
+        return dimensions == 0 && (elementSort == Type.LONG || elementSort == Type.DOUBLE);
+    }
+
+    /**
+     * Checks whether the current type is described by the given type descriptor, without creating a string.
+     *
+     * @param typeDescriptor The type descriptor
+     * @return True if the descriptors are equal
+     */
+    public boolean matches(@NotNull String typeDescriptor) {
+        return typeDescriptor.length() == end - start && desc.startsWith(typeDescriptor, start);
+    }
+
+    /**
+     * Moves the cursor to the next parameter.
+     *
+     * @return The sort of the next parameter, see {@link #getSort()}
+     * @throws NoSuchElementException If there are no further parameters
+     */
+    public int next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No further parameters in " + desc);
+        }
+        start = end;
+        int position = start;
+        while (desc.charAt(position) == '[') {
+            position++;
+        }
+        dimensions = position - start;
+        elementSort = getSort(desc.charAt(position));
+        if (elementSort == Type.OBJECT) {
+            end = desc.indexOf(';', position) + 1;
+        } else {
+            end = position + 1;
+        }
+        index++;
+        return getSort();
+    }
+
+    /**
+     * Moves the cursor back in front of the first parameter.
+     */
+    public void reset() {
+        start = 0;
+        end = 1;
+        index = -1;
+        dimensions = 0;
+        elementSort = 0;
+    }
+}
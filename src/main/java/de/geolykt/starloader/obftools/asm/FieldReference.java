@@ -14,6 +14,7 @@ import org.objectweb.asm.tree.FieldNode;
 public final class FieldReference {
 
     private final String desc;
+    private final int hash;
     private final String name;
     private final String owner;
 
@@ -29,6 +30,8 @@ public final class FieldReference {
         this.owner = owner;
         this.name = name;
         this.desc = desc;
+        // Equal to Objects.hash(owner, name, desc), without the varargs array and the rehashing on every lookup
+        this.hash = 31 * (31 * (31 + Objects.hashCode(owner)) + Objects.hashCode(name)) + Objects.hashCode(desc);
     }
 
     @Override
@@ -40,7 +43,7 @@ public final class FieldReference {
             return false;
         }
         FieldReference other = (FieldReference) obj;
-        return other.name.equals(this.name) && other.desc.equals(this.desc) && other.owner.equals(this.owner);
+        return other.hash == this.hash && other.name.equals(this.name) && other.desc.equals(this.desc) && other.owner.equals(this.owner);
     }
 
     public String getName() {
@@ -68,8 +71,7 @@ public final class FieldReference {
 
     @Override
     public int hashCode() {
-//        return (owner.hashCode() & 0xFFFF0000 | name.hashCode() & 0x0000FFFF) ^ desc.hashCode();
-        return Objects.hash(owner, name, desc);
+        return hash;
     }
 
     @Override
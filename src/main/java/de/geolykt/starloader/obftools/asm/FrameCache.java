@@ -0,0 +1,149 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.Frame;
+import org.objectweb.asm.tree.analysis.SourceInterpreter;
+import org.objectweb.asm.tree.analysis.SourceValue;
+
+/**
+ * Cache of the dataflow frames of methods, as computed by an {@link Analyzer} with a {@link SourceInterpreter}.
+ * The frame of an instruction tells which instructions may have produced the values on the stack and within the
+ * local variables before the instruction is executed, which allows passes to follow the flow of a value
+ * instead of relying on the values being produced by adjacent instructions.
+ *<p>
+ * The frames of a method are computed on the first request and are reused by all later passes. Frames
+ * are recomputed if the amount of instructions of the method changed, other changes of the instructions
+ * need an explicit call to {@link #invalidate(MethodNode)}. As the frames of a method are rather large,
+ * the cache should be cleared via {@link #clear()} as soon as the last pass that uses it completed.
+ */
+final class FrameCache {
+
+    private static final class Entry {
+        @Nullable
+        final Frame<SourceValue>[] frames;
+        final int size;
+
+        Entry(@Nullable Frame<SourceValue>[] frames, int size) {
+            this.frames = frames;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Obtains the only instruction that may have produced a value.
+     *
+     * @param value The value
+     * @return The instruction, or null if the value has no or multiple sources (for example if it is a parameter or merged from multiple branches)
+     */
+    @Nullable
+    public static AbstractInsnNode getSource(@NotNull SourceValue value) {
+        if (value.insns.size() != 1) {
+            return null;
+        }
+        return value.insns.iterator().next();
+    }
+
+    private final Map<MethodNode, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Discards all frames.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Computes the frames of multiple methods in parallel. Frames that are already known are not computed again.
+     *
+     * @param methods A map that maps the methods to the classes that declare them
+     */
+    public void computeAll(@NotNull Map<MethodNode, ClassNode> methods) {
+        methods.entrySet().parallelStream().forEach(entry -> get(entry.getValue(), entry.getKey()));
+    }
+
+    /**
+     * Obtains the frames of a method, computing them if needed.
+     *
+     * @param node The class that declares the method
+     * @param method The method
+     * @return The frames of the method with one frame per instruction, or null if the method could not be analyzed.
+     * The frames of unreachable instructions are null.
+     */
+    @Nullable
+    public Frame<SourceValue>[] get(@NotNull ClassNode node, @NotNull MethodNode method) {
+        Entry entry = entries.get(method);
+        if (entry == null || entry.size != method.instructions.size()) {
+            Frame<SourceValue>[] frames;
+            try {
+                frames = new Analyzer<>(new SourceInterpreter()).analyze(node.name, method);
+            } catch (AnalyzerException e) {
+                // Bytecode that cannot be analyzed is not worth following, so it is not reported
+                frames = null;
+            }
+            entry = new Entry(frames, method.instructions.size());
+            entries.put(method, entry);
+        }
+        return entry.frames;
+    }
+
+    /**
+     * Obtains the frame before the execution of an instruction.
+     *
+     * @param node The class that declares the method
+     * @param method The method that contains the instruction
+     * @param insn The instruction
+     * @return The frame, or null if the method could not be analyzed or the instruction is unreachable
+     */
+    @Nullable
+    public Frame<SourceValue> getFrame(@NotNull ClassNode node, @NotNull MethodNode method, @NotNull AbstractInsnNode insn) {
+        Frame<SourceValue>[] frames = get(node, method);
+        if (frames == null) {
+            return null;
+        }
+        return frames[method.instructions.indexOf(insn)];
+    }
+
+    /**
+     * Obtains the only instruction that may have produced a value, looking through DUP instructions.
+     * As the copies created by a DUP instruction are the same value, this method returns the instruction that
+     * produced the duplicated value instead of the DUP instruction.
+     *
+     * @param node The class that declares the method
+     * @param method The method that contains the value
+     * @param value The value
+     * @return The instruction, or null if the value has no or multiple sources or the frame of a DUP instruction is not known
+     */
+    @Nullable
+    public AbstractInsnNode getOrigin(@NotNull ClassNode node, @NotNull MethodNode method, @NotNull SourceValue value) {
+        AbstractInsnNode source = getSource(value);
+        while (source != null && source.getOpcode() == Opcodes.DUP) {
+            Frame<SourceValue> frame = getFrame(node, method, source);
+            if (frame == null) {
+                // The method could not be analyzed (anymore) or the DUP instruction is unreachable
+                return null;
+            }
+            source = getSource(frame.getStack(frame.getStackSize() - 1));
+        }
+        return source;
+    }
+
+    /**
+     * Discards the frames of a method. This method needs to be called whenever instructions of the method are
+     * changed without changing the amount of instructions.
+     *
+     * @param method The method whose frames should be discarded
+     */
+    public void invalidate(@NotNull MethodNode method) {
+        entries.remove(method);
+    }
+}
@@ -0,0 +1,562 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.Frame;
+import org.objectweb.asm.tree.analysis.SourceValue;
+
+/**
+ * Infers the generic signatures of getters, of constructors and of the fields that constructors assign their parameters to.
+ *<p>
+ * Signatures that are found are fed back into the inference via a worklist: the signature of a field re-queues the getters
+ * of the field and the constructors that are invoked by methods that read the field, the signature of a method re-queues the
+ * constructors that are invoked by methods that call the method. Constructors that gain a signature propose signatures for
+ * the fields they assign their parameters to. This is performed in rounds until no new signature is found, see {@link #run(boolean)}.
+ * Signatures are only ever added - signatures that were present beforehand or that were inferred in an earlier round are never changed.
+ */
+final class GenericInference {
+
+    /**
+     * The maximum amount of rounds {@link #run(boolean)} performs before giving up on reaching a fixpoint.
+     */
+    static final int MAX_ROUNDS = 16;
+
+    /**
+     * Obtains the type arguments of a reference type signature, for example {@code <Ljava/lang/String;>}
+     * for {@code Ljava/util/List<Ljava/lang/String;>;}.
+     *
+     * @param typeSignature The type signature
+     * @param allowTypeVariables Whether the type arguments may refer to type variables
+     * @return The type arguments, or an empty string if there are no type arguments that can be used
+     */
+    @NotNull
+    private static String getTypeArguments(@NotNull String typeSignature, boolean allowTypeVariables) {
+        int start = typeSignature.indexOf('<');
+        if (start == -1) {
+            return "";
+        }
+        if (!allowTypeVariables) {
+            boolean[] usesTypeVariables = new boolean[1];
+            new SignatureReader(typeSignature).acceptType(new SignatureVisitor(Opcodes.ASM9) {
+                @Override
+                public void visitTypeVariable(String name) {
+                    usesTypeVariables[0] = true;
+                }
+            });
+            if (usesTypeVariables[0]) {
+                // Type variables are only valid within the class or method that declares them
+                return "";
+            }
+        }
+        return typeSignature.substring(start, typeSignature.lastIndexOf('>') + 1);
+    }
+
+    /**
+     * Checks whether a method is a signatureless getter that directly returns the value obtained
+     * by the given field instruction.
+     *
+     * @param method The method to check
+     * @param fieldInsn The instruction that reads the field
+     * @return True if the method is a getter of the field
+     */
+    private static boolean isGetterOf(MethodNode method, AbstractInsnNode fieldInsn) {
+        if (method.signature != null) {
+            return false; // We already know the signature
+        }
+        if (method.desc.codePointAt(1) != ')') {
+            return false; // not a getter
+        }
+        String returnValue = method.desc.substring(2);
+        int indexOfL = returnValue.indexOf('L');
+        if (indexOfL == -1) {
+            // We cannot add generics to primitives
+            return false;
+        }
+        String rawObject = returnValue.substring(indexOfL);
+        if (!Oaktree.ITERABLES.contains(rawObject)) {
+            return false; // Not something we know can be a generic
+        }
+        AbstractInsnNode insn = method.instructions.getLast().getPrevious();
+        if (insn != fieldInsn) {
+            return false; // We only accept getters that directly return a field
+        }
+        while (insn != null && insn.getOpcode() != Opcodes.ARETURN) {
+            insn = insn.getPrevious();
+        }
+        return insn == null; // otherwise not a straightforward getter
+    }
+
+    private final ClassGraph classGraph;
+    private Map<MethodNode, Set<MethodReference>> constructorCalls;
+    private Set<MethodReference> constructors;
+    private final Map<FieldReference, String> fieldSignatures = new LinkedHashMap<>();
+    private final FrameCache frameCache;
+    private final List<ClassNode> nodes;
+    private final ReferenceSiteIndex referenceSites;
+    private final ReferencePool references = new ReferencePool(); // Shared by the worklists and the constructor index
+
+    GenericInference(@NotNull List<ClassNode> nodes, @NotNull ClassGraph classGraph, @NotNull ReferenceSiteIndex referenceSites, @NotNull FrameCache frameCache) {
+        this.nodes = nodes;
+        this.classGraph = classGraph;
+        this.referenceSites = referenceSites;
+        this.frameCache = frameCache;
+    }
+
+    private void addCalledConstructors(MethodNode method, Set<MethodReference> out) {
+        Set<MethodReference> called = constructorCalls.get(method);
+        if (called == null) {
+            return;
+        }
+        for (MethodReference constructor : called) {
+            if (constructors.contains(constructor)) {
+                out.add(constructor);
+            }
+        }
+    }
+
+    /**
+     * Applies the inferred signature of a constructor and proposes signatures for the fields that the constructor
+     * assigns the parameters to.
+     *
+     * @param node The class that declares the constructor
+     * @param method The constructor
+     * @param argumentSignatures The type arguments of the parameters
+     * @return True if the signature was applied
+     */
+    private boolean applyConstructorSignature(ClassNode node, MethodNode method, List<String> argumentSignatures) {
+        // TODO test whether this code really deals with the long/double quirk correctly
+        int[] parameterIndices = new int[argumentSignatures.size() + 1];
+        DescCursor plainDescriptor = new DescCursor(method.desc);
+        StringBuilder signatureAssembler = new StringBuilder();
+        signatureAssembler.append('(');
+        int paramIndex = 1;
+        for (int i = 0; i < argumentSignatures.size(); i++) {
+            if (plainDescriptor.next() == Type.OBJECT) {
+                parameterIndices[i + 1] = paramIndex++;
+                signatureAssembler.append(method.desc, plainDescriptor.getStart(), plainDescriptor.getEnd() - 1);
+                String argSignature = argumentSignatures.get(i);
+                if (argSignature != null) {
+                    signatureAssembler.append(argSignature);
+                }
+                signatureAssembler.append(';');
+            } else {
+                if (plainDescriptor.isWide()) {
+                    parameterIndices[i + 1] = paramIndex;
+                    paramIndex += 2;
+                } else {
+                    parameterIndices[i + 1] = paramIndex++;
+                }
+                plainDescriptor.appendTo(signatureAssembler);
+            }
+        }
+        if (plainDescriptor.hasNext()) {
+            System.err.println("Signature for method " + node.name + "." + method.name + method.desc + " could not be completed fully because some parameters are missing.");
+            return false;
+        }
+        signatureAssembler.append(')');
+        signatureAssembler.append('V');
+        method.signature = signatureAssembler.toString();
+
+        int[] localToParam = new int[paramIndex];
+        for (int i = 0; i < parameterIndices.length; i++) {
+            localToParam[parameterIndices[i]] = i;
+        }
+        // The constructor is never static and the `this` local variable is not capable of generics.
+        // As it is parameter 0 (which is also used for the second slot of longs and doubles), parameter 0 is ignored
+        Frame<SourceValue>[] frames = frameCache.get(node, method);
+        if (frames == null) {
+            return true;
+        }
+
+        // Infer field signatures too
+        int insnIndex = 0;
+        for (AbstractInsnNode insn : method.instructions) {
+            Frame<SourceValue> frame = frames[insnIndex++];
+            if (frame == null || (insn.getOpcode() != Opcodes.PUTFIELD && insn.getOpcode() != Opcodes.PUTSTATIC)) {
+                continue;
+            }
+            AbstractInsnNode load = frameCache.getOrigin(node, method, frame.getStack(frame.getStackSize() - 1));
+            if (!(load instanceof VarInsnNode) || !OPHelper.isVarLoad(load.getOpcode())) {
+                continue;
+            }
+            VarInsnNode varInsn = (VarInsnNode) load;
+            if (varInsn.var >= localToParam.length || localToParam[varInsn.var] == 0) {
+                continue;
+            }
+            int loadedParameter = localToParam[varInsn.var];
+            // The local variable may not have been overwritten before it was loaded, in which case it would have a source.
+            // Parameters do not have a source
+            if (!frames[method.instructions.indexOf(varInsn)].getLocal(varInsn.var).insns.isEmpty()) {
+                continue;
+            }
+            FieldReference fref = references.field((FieldInsnNode) insn);
+            String suggested = argumentSignatures.get(loadedParameter - 1);
+            if (fieldSignatures.containsKey(fref)) {
+                String oldProposal = fieldSignatures.get(fref);
+                if (oldProposal != null && suggested != null && !suggested.isEmpty()) {
+                    if (oldProposal.isEmpty()) {
+                        // Nothing was known about the field so far
+                        fieldSignatures.put(fref, suggested);
+                    } else if (!oldProposal.equals(suggested)) {
+                        fieldSignatures.put(fref, null);
+                    }
+                }
+            } else {
+                fieldSignatures.put(fref, suggested);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies the field signatures that were proposed by the constructors so far, unless the field already has a signature
+     * or the proposals are contradicting.
+     *
+     * @return The fields whose signature was applied
+     */
+    @NotNull
+    List<FieldReference> applyFieldSignatures() {
+        List<FieldReference> resolved = new ArrayList<>();
+        for (Map.Entry<FieldReference, String> proposal : fieldSignatures.entrySet()) {
+            String suggested = proposal.getValue();
+            if (suggested == null || suggested.isEmpty()) {
+                continue;
+            }
+            FieldNode field = findField(proposal.getKey());
+            if (field == null || field.signature != null) {
+                continue;
+            }
+            field.signature = field.desc.substring(0, field.desc.length() - 1) + suggested + ';';
+            resolved.add(proposal.getKey());
+        }
+        return resolved;
+    }
+
+    @Nullable
+    private FieldNode findField(FieldReference reference) {
+        ClassNode node = classGraph.get(reference.getOwner());
+        return node == null ? null : MemberIndex.findField(node, reference.getName(), reference.getDesc());
+    }
+
+    @Nullable
+    private MethodNode findMethod(MethodReference reference) {
+        ClassNode node = classGraph.get(reference.getOwner());
+        return node == null ? null : MemberIndex.findMethod(node, reference.getName(), reference.getDesc());
+    }
+
+    /**
+     * Obtains the fields whose generic signature is known and which are of a type that is capable of generics.
+     *
+     * @return The fields
+     */
+    @NotNull
+    List<FieldReference> getGenericFields() {
+        List<FieldReference> fields = new ArrayList<>();
+        for (ClassNode node : nodes) {
+            for (FieldNode field : node.fields) {
+                if (field.signature != null && Oaktree.ITERABLES.contains(field.desc)) {
+                    fields.add(references.field(node.name, field));
+                }
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Obtains the methods whose generic signature is known and which return a type that is capable of generics.
+     *
+     * @return The methods
+     */
+    @NotNull
+    List<MethodReference> getGenericMethods() {
+        List<MethodReference> methods = new ArrayList<>();
+        for (ClassNode node : nodes) {
+            for (MethodNode method : node.methods) {
+                if (method.signature != null && Oaktree.ITERABLES.contains(method.desc.substring(method.desc.lastIndexOf(')') + 1))) {
+                    methods.add(references.method(node.name, method));
+                }
+            }
+        }
+        return methods;
+    }
+
+    private void indexConstructors() {
+        constructors = new HashSet<>();
+        for (ClassNode node : nodes) {
+            for (MethodNode method : node.methods) {
+                if (method.signature != null) {
+                    continue; // No point in guessing the signature if we already know it
+                }
+                if (!method.name.equals("<init>")) {
+                    continue; // Not a constructor
+                }
+                if (method.desc.codePointAt(1) == ')') {
+                    continue; // No arguments to infer stuff from
+                }
+                DescCursor cursor = new DescCursor(method.desc);
+                while (cursor.hasNext()) {
+                    // Only object types are capable of generics, so there is no point in creating the descriptors of the others
+                    if (cursor.next() == Type.OBJECT && Oaktree.ITERABLES.contains(cursor.getDescriptor())) {
+                        // The constructor has at least 1 generic-able argument
+                        constructors.add(references.method(node.name, method));
+                        break;
+                    }
+                }
+            }
+        }
+
+        constructorCalls = new HashMap<>();
+        for (ReferenceSiteIndex.Site site : referenceSites.getMethodSites(constructors)) {
+            if (site.getInstruction().getOpcode() == Opcodes.INVOKESPECIAL) {
+                constructorCalls.computeIfAbsent(site.getMethod(), method -> new HashSet<>())
+                    .add(references.method((MethodInsnNode) site.getInstruction()));
+            }
+        }
+    }
+
+    /**
+     * Infers the type arguments of the arguments of a single constructor invocation.
+     *
+     * @param site The invocation
+     * @return The type arguments of the arguments, or null if the invocation is not the construction of a new instance
+     */
+    @Nullable
+    private List<String> inferArguments(ReferenceSiteIndex.Site site) {
+        MethodInsnNode ctorCall = (MethodInsnNode) site.getInstruction();
+        Frame<SourceValue> frame = frameCache.getFrame(site.getOwner(), site.getMethod(), ctorCall);
+        if (frame == null) {
+            return null; // Unreachable or not analyzable
+        }
+        Type[] argumentTypes = Type.getArgumentTypes(ctorCall.desc);
+        int receiverIndex = frame.getStackSize() - argumentTypes.length - 1;
+
+        // Only consider the construction of new instances, super() and this() calls are not of interest
+        AbstractInsnNode newCall = frameCache.getOrigin(site.getOwner(), site.getMethod(), frame.getStack(receiverIndex));
+        if (newCall == null || newCall.getOpcode() != Opcodes.NEW || !((TypeInsnNode) newCall).desc.equals(ctorCall.owner)) {
+            return null;
+        }
+
+        List<String> ourArgs = new ArrayList<>();
+        for (int i = 0; i < argumentTypes.length; i++) {
+            AbstractInsnNode source = frameCache.getOrigin(site.getOwner(), site.getMethod(), frame.getStack(receiverIndex + i + 1));
+            if (!Oaktree.ITERABLES.contains(argumentTypes[i].getDescriptor())) {
+                ourArgs.add(null);
+            } else if (source instanceof MethodInsnNode) {
+                MethodInsnNode invokeInsn = (MethodInsnNode) source;
+                String returnType = invokeInsn.desc.substring(invokeInsn.desc.lastIndexOf(')') + 1);
+                if (!Oaktree.ITERABLES.contains(returnType)) {
+                    ourArgs.add(null);
+                    continue;
+                }
+                MethodNode invoked = findMethod(new MethodReference(invokeInsn));
+                String fetchedSignature = invoked == null ? null : invoked.signature;
+                if (fetchedSignature == null || fetchedSignature.codePointAt(0) == '<') {
+                    // Unable to fetch signature (or the type arguments might refer to the type parameters of the method)
+                    ourArgs.add("");
+                    continue;
+                }
+                int endSign = fetchedSignature.indexOf('^');
+                String returnSignature = fetchedSignature.substring(fetchedSignature.lastIndexOf(')') + 1, endSign == -1 ? fetchedSignature.length() : endSign);
+                ourArgs.add(getTypeArguments(returnSignature, invokeInsn.owner.equals(ctorCall.owner)));
+            } else if (source != null && (source.getOpcode() == Opcodes.GETSTATIC || source.getOpcode() == Opcodes.GETFIELD)) {
+                FieldInsnNode getInsn = (FieldInsnNode) source;
+                if (!Oaktree.ITERABLES.contains(getInsn.desc)) {
+                    ourArgs.add(null);
+                    continue;
+                }
+
+                // Fetch generic signature of the field
+                FieldNode ownerField = findField(new FieldReference(getInsn));
+                String fetchedSignature = ownerField == null ? null : ownerField.signature;
+                if (fetchedSignature == null) {
+                    // Unable to fetch signature
+                    ourArgs.add("");
+                    continue;
+                }
+                ourArgs.add(getTypeArguments(fetchedSignature, getInsn.owner.equals(ctorCall.owner)));
+            } else {
+                // The value is not obtained from a field or method (or from multiple places), so nothing is known about it
+                ourArgs.add("");
+            }
+        }
+        return ourArgs;
+    }
+
+    /**
+     * Infers the signatures of the constructors that are invoked by the methods that make use of the given fields or methods.
+     * Only constructors that are invoked with a value that is obtained from a field or method with a known generic
+     * signature can gain generics, so constructors that are only invoked elsewhere are not considered.
+     * The signatures that are proposed for the fields that the parameters are assigned to are collected
+     * and can be applied via {@link #applyFieldSignatures()}.
+     *
+     * @param fields The fields
+     * @param methods The methods
+     * @return The amount of constructors that gained a signature
+     */
+    int inferConstructors(@NotNull Collection<FieldReference> fields, @NotNull Collection<MethodReference> methods) {
+        if (constructors == null) {
+            indexConstructors();
+        }
+        Set<MethodReference> queued = new LinkedHashSet<>();
+        for (ReferenceSiteIndex.Site site : referenceSites.getFieldSites(fields)) {
+            addCalledConstructors(site.getMethod(), queued);
+        }
+        for (ReferenceSiteIndex.Site site : referenceSites.getMethodSites(methods)) {
+            addCalledConstructors(site.getMethod(), queued);
+        }
+        if (queued.isEmpty()) {
+            return 0;
+        }
+
+        // Index references to constructors
+        List<ReferenceSiteIndex.Site> ctorCalls = referenceSites.getMethodSites(queued);
+        Map<MethodNode, ClassNode> callingMethods = new HashMap<>();
+        for (ReferenceSiteIndex.Site site : ctorCalls) {
+            callingMethods.put(site.getMethod(), site.getOwner());
+        }
+        frameCache.computeAll(callingMethods);
+
+        Map<MethodReference, List<String>> arguments = new LinkedHashMap<>();
+        for (ReferenceSiteIndex.Site site : ctorCalls) {
+            if (site.getInstruction().getOpcode() != Opcodes.INVOKESPECIAL) {
+                continue;
+            }
+            List<String> ourArgs = inferArguments(site);
+            if (ourArgs == null) {
+                continue;
+            }
+            MethodReference ctorReference = references.method((MethodInsnNode) site.getInstruction());
+            List<String> old = arguments.get(ctorReference);
+            if (old != null) {
+                // Merge the two lists
+                if (old.size() != ourArgs.size()) {
+                    throw new IllegalStateException("Argument sizes do not match.");
+                }
+                for (int i = 0; i < old.size(); i++) {
+                    String oldElement = old.get(i);
+                    String newElement = ourArgs.get(i);
+                    if (oldElement == null || newElement == null) {
+                        ourArgs.set(i, null);
+                    } else if (newElement.isEmpty()) {
+                        ourArgs.set(i, oldElement);
+                    } else if (oldElement.isEmpty()) {
+                        // Don't do anything
+                    } else if (!oldElement.equals(newElement)) {
+                        ourArgs.set(i, null);
+                    }
+                }
+            }
+            arguments.put(ctorReference, ourArgs);
+        }
+
+        // Constructors that would not gain any generics are left alone
+        arguments.values().removeIf(argumentSignatures -> argumentSignatures.stream().allMatch(signature -> signature == null || signature.isEmpty()));
+        Map<MethodNode, ClassNode> inferredConstructors = new LinkedHashMap<>();
+        for (MethodReference ctorReference : arguments.keySet()) {
+            MethodNode method = findMethod(ctorReference);
+            if (method != null && method.signature == null) {
+                inferredConstructors.put(method, classGraph.get(ctorReference.getOwner()));
+            }
+        }
+        frameCache.computeAll(inferredConstructors);
+
+        int inferred = 0;
+        for (Map.Entry<MethodNode, ClassNode> constructor : inferredConstructors.entrySet()) {
+            MethodReference ctorReference = references.method(constructor.getValue().name, constructor.getKey());
+            if (applyConstructorSignature(constructor.getValue(), constructor.getKey(), arguments.get(ctorReference))) {
+                constructors.remove(ctorReference);
+                inferred++;
+            }
+        }
+        return inferred;
+    }
+
+    /**
+     * Infers the signatures of the getters of the given fields.
+     *
+     * @param fields The fields
+     * @return The getters that gained a signature
+     */
+    @NotNull
+    List<MethodReference> inferGetters(@NotNull Collection<FieldReference> fields) {
+        List<MethodReference> resolved = new ArrayList<>();
+        for (FieldReference fref : fields) {
+            FieldNode field = findField(fref);
+            if (field == null || field.signature == null || !Oaktree.ITERABLES.contains(field.desc)) {
+                continue;
+            }
+            for (ReferenceSiteIndex.Site site : referenceSites.getFieldSites(fref)) {
+                if (isGetterOf(site.getMethod(), site.getInstruction())) {
+                    // FIXME Casts?
+                    site.getMethod().signature = "()" + field.signature;
+                    resolved.add(references.method(site.getOwner().name, site.getMethod()));
+                }
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Infers signatures until no new signatures are found, at most for {@link #MAX_ROUNDS} rounds.
+     * The first round considers all fields and methods whose signature is already known, later rounds only
+     * consider the signatures that were found in the previous round.
+     *
+     * @param doLogging Whether to log the amount of signatures that were found in each round
+     */
+    void run(boolean doLogging) {
+        long startTime = System.currentTimeMillis();
+        List<FieldReference> resolvedFields = getGenericFields();
+        List<MethodReference> resolvedMethods = getGenericMethods();
+        int round = 0;
+        int methodSignatures = 0;
+        int constructorSignatures = 0;
+        int fieldSignatures = 0;
+        while (!resolvedFields.isEmpty() || !resolvedMethods.isEmpty()) {
+            if (round == MAX_ROUNDS) {
+                System.err.println("Generic signature inference did not reach a fixpoint within " + MAX_ROUNDS + " rounds.");
+                break;
+            }
+            round++;
+            long roundStart = System.currentTimeMillis();
+            List<MethodReference> getters = inferGetters(resolvedFields);
+            resolvedMethods.addAll(getters);
+            int inferredConstructors = inferConstructors(resolvedFields, resolvedMethods);
+            resolvedFields = applyFieldSignatures();
+            resolvedMethods = new ArrayList<>();
+            methodSignatures += getters.size();
+            constructorSignatures += inferredConstructors;
+            fieldSignatures += resolvedFields.size();
+            if (doLogging) {
+                System.out.printf(Locale.ROOT, "Inference round %d: %d method, %d constructor and %d field signatures. (%d ms)%n",
+                        round, getters.size(), inferredConstructors, resolvedFields.size(), System.currentTimeMillis() - roundStart);
+            }
+        }
+        if (doLogging) {
+            System.out.printf(Locale.ROOT, "Inferred %d method, %d constructor and %d field signatures in %d rounds! (%d ms)%n",
+                    methodSignatures, constructorSignatures, fieldSignatures, round, System.currentTimeMillis() - startTime);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * A declarative pattern of consecutive instructions, which replaces hand-written {@link AbstractInsnNode#getNext()} chains.
+ * A pattern is a sequence of steps, each of which matches a single instruction. Steps may capture the instruction they matched
+ * under a name, which allows later steps to refer to it (for example to require that the same local variable is loaded
+ * that was stored before) and allows the user of the pattern to obtain the instructions of a match.
+ *<p>
+ * By default the instructions matched by two consecutive steps need to be adjacent. A step may declare that
+ * pseudo-instructions (labels, frames and line numbers) that precede the instruction it matches are skipped,
+ * see {@link Builder#skipping(int)}, or that all instructions that meet a condition are skipped,
+ * see {@link Builder#skippingWhile(Condition)}. An instruction is only skipped if it is not matched by the step itself.
+ *<p>
+ * Patterns can either be matched at a known position via {@link #match(AbstractInsnNode)} or be searched for
+ * by an {@link InsnPatternMatcher}, which searches for any amount of patterns within a single walk over the instructions of a method.
+ */
+final class InsnPattern {
+
+    public static final class Builder {
+
+        private final Map<String, Integer> captures = new HashMap<>();
+        private int nextSkip;
+        private Condition nextSkipCondition;
+        private final List<Step> steps = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        private Builder add(@Nullable String name, @NotNull Condition condition, boolean optional) {
+            if (name != null && captures.putIfAbsent(name, steps.size()) != null) {
+                throw new IllegalArgumentException("Duplicate capture name: " + name);
+            }
+            steps.add(new Step(condition, nextSkip, nextSkipCondition, optional));
+            nextSkip = 0;
+            nextSkipCondition = null;
+            return this;
+        }
+
+        @NotNull
+        public InsnPattern build() {
+            if (steps.isEmpty()) {
+                throw new IllegalStateException("A pattern requires at least one step.");
+            }
+            return new InsnPattern(steps.toArray(new Step[0]), captures);
+        }
+
+        /**
+         * Declares the pseudo-instructions that are skipped before the instruction of the next step.
+         *
+         * @param skipRule A combination of {@link InsnPattern#SKIP_LABELS}, {@link InsnPattern#SKIP_FRAMES}
+         * and {@link InsnPattern#SKIP_LINES}
+         * @return This builder instance
+         */
+        @NotNull
+        public Builder skipping(int skipRule) {
+            nextSkip = skipRule;
+            return this;
+        }
+
+        /**
+         * Declares that any amount of instructions that precede the instruction of the next step are skipped as long as
+         * they meet a condition. This allows the next step to match an instruction at an unknown distance, such as the call
+         * of a constructor after it's arguments were pushed. The condition is combined with the rule set by {@link #skipping(int)}.
+         *
+         * @param condition The condition that skipped instructions need to meet
+         * @return This builder instance
+         */
+        @NotNull
+        public Builder skippingWhile(@NotNull Condition condition) {
+            nextSkipCondition = condition;
+            return this;
+        }
+
+        /**
+         * Adds a step that matches the next instruction if the condition is met.
+         *
+         * @param name The name to capture the instruction under, or null if the instruction is not captured
+         * @param condition The condition
+         * @return This builder instance
+         */
+        @NotNull
+        public Builder then(@Nullable String name, @NotNull Condition condition) {
+            return add(name, condition, false);
+        }
+
+        /**
+         * Adds a step that matches the next instruction if it has the given opcode.
+         *
+         * @param name The name to capture the instruction under, or null if the instruction is not captured
+         * @param opcode The opcode
+         * @return This builder instance
+         */
+        @NotNull
+        public Builder then(@Nullable String name, int opcode) {
+            return add(name, (insn, match) -> insn.getOpcode() == opcode, false);
+        }
+
+        /**
+         * Adds a step that matches the next instruction if the condition is met. If it is not met,
+         * the step is ignored and the instruction is matched against the following step instead.
+         * If the step is ignored, {@link Match#get(String)} returns null for the name of the step.
+         *
+         * @param name The name to capture the instruction under, or null if the instruction is not captured
+         * @param condition The condition
+         * @return This builder instance
+         */
+        @NotNull
+        public Builder thenOptional(@Nullable String name, @NotNull Condition condition) {
+            return add(name, condition, true);
+        }
+    }
+
+    @FunctionalInterface
+    public static interface Condition {
+
+        /**
+         * Checks whether an instruction is matched by a step.
+         *
+         * @param insn The instruction
+         * @param match The instructions captured by the previous steps
+         * @return True if the step matches the instruction
+         */
+        boolean test(@NotNull AbstractInsnNode insn, @NotNull Match match);
+    }
+
+    /**
+     * A (possibly partial) match of a pattern.
+     */
+    public static final class Match {
+
+        private final AbstractInsnNode[] insns;
+        private final InsnPattern pattern;
+
+        /**
+         * The index under which the pattern was registered to the {@link InsnPatternMatcher} that searches for the match.
+         */
+        int registration;
+        int step;
+
+        Match(InsnPattern pattern) {
+            this.pattern = pattern;
+            this.insns = new AbstractInsnNode[pattern.steps.length];
+        }
+
+        /**
+         * Obtains the instruction that was captured under the given name.
+         *
+         * @param <T> The type of the instruction
+         * @param name The name of the capture
+         * @return The captured instruction, or null if the step was optional and did not match
+         */
+        @SuppressWarnings("unchecked")
+        public <T extends AbstractInsnNode> T get(@NotNull String name) {
+            Integer index = pattern.captures.get(name);
+            if (index == null) {
+                throw new IllegalArgumentException("Unknown capture name: " + name);
+            }
+            return (T) insns[index];
+        }
+
+        /**
+         * Obtains the last instruction of the match.
+         *
+         * @return The last instruction
+         */
+        @NotNull
+        public AbstractInsnNode getLast() {
+            for (int i = insns.length - 1;; i--) {
+                if (insns[i] != null) {
+                    return insns[i];
+                }
+            }
+        }
+
+        @NotNull
+        public InsnPattern getPattern() {
+            return pattern;
+        }
+
+        /**
+         * Obtains the local variable index of the {@link VarInsnNode} that was captured under the given name.
+         *
+         * @param name The name of the capture
+         * @return The local variable index
+         */
+        public int getVar(@NotNull String name) {
+            return ((VarInsnNode) get(name)).var;
+        }
+
+        boolean isComplete() {
+            return step == insns.length;
+        }
+
+        /**
+         * Feeds the next instruction to the match.
+         *
+         * @param insn The instruction
+         * @return False if the instruction cannot be part of the match, in which case the match is dead
+         */
+        boolean feed(AbstractInsnNode insn) {
+            while (step < insns.length) {
+                Step current = pattern.steps[step];
+                if (current.condition.test(insn, this)) {
+                    insns[step++] = insn;
+                    return true;
+                }
+                if (current.skips(insn, this)) {
+                    return true;
+                }
+                if (!current.optional) {
+                    return false;
+                }
+                step++;
+            }
+            return false;
+        }
+    }
+
+    private static final class Step {
+        final Condition condition;
+        final boolean optional;
+        final Condition skipCondition;
+        final int skipRule;
+
+        Step(Condition condition, int skipRule, Condition skipCondition, boolean optional) {
+            this.condition = condition;
+            this.skipRule = skipRule;
+            this.skipCondition = skipCondition;
+            this.optional = optional;
+        }
+
+        boolean skips(AbstractInsnNode insn, Match match) {
+            if (skipRule != 0 && insn.getType() < 32 && (skipRule & (1 << insn.getType())) != 0) {
+                return true;
+            }
+            return skipCondition != null && skipCondition.test(insn, match);
+        }
+    }
+
+    public static final int SKIP_FRAMES = 1 << AbstractInsnNode.FRAME;
+    public static final int SKIP_LABELS = 1 << AbstractInsnNode.LABEL;
+    public static final int SKIP_LINES = 1 << AbstractInsnNode.LINE;
+    public static final int SKIP_PSEUDO_INSNS = SKIP_FRAMES | SKIP_LABELS | SKIP_LINES;
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final Map<String, Integer> captures;
+    final Step[] steps;
+
+    private InsnPattern(Step[] steps, Map<String, Integer> captures) {
+        this.steps = steps;
+        this.captures = captures;
+    }
+
+    /**
+     * Checks whether the first step of the pattern is optional. Such patterns can only be matched
+     * at a known position via {@link #match(AbstractInsnNode)}.
+     *
+     * @return True if the first step is optional
+     */
+    boolean isAnchored() {
+        return steps[0].optional;
+    }
+
+    /**
+     * Checks whether the first step of the pattern matches an instruction.
+     *
+     * @param insn The instruction
+     * @return A new match that has consumed the instruction, or null if the first step does not match
+     */
+    @Nullable
+    Match start(AbstractInsnNode insn) {
+        Match match = new Match(this);
+        if (steps[0].condition.test(insn, match)) {
+            match.insns[match.step++] = insn;
+            return match;
+        }
+        return null;
+    }
+
+    /**
+     * Matches the pattern against the instructions that begin at a given instruction.
+     * Pseudo-instructions that precede the instruction of the first step are skipped according to the skip rule of the first step.
+     *
+     * @param start The first instruction
+     * @return The match, or null if the pattern does not match
+     */
+    @Nullable
+    public Match match(@Nullable AbstractInsnNode start) {
+        Match match = new Match(this);
+        for (AbstractInsnNode insn = start; insn != null; insn = insn.getNext()) {
+            if (!match.feed(insn)) {
+                return null;
+            }
+            if (match.isComplete()) {
+                return match;
+            }
+        }
+        return null;
+    }
+}
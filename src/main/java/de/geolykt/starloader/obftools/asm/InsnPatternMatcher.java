@@ -0,0 +1,144 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Searches for occurrences of any amount of {@link InsnPattern InsnPatterns} within methods.
+ * All registered patterns are combined into a single automaton, so each method is only walked once regardless of the amount
+ * of patterns. The automaton keeps one partial match for every position where a pattern could have begun and that
+ * has not been ruled out yet; a partial match is discarded as soon as an instruction does not fit the pattern.
+ *<p>
+ * Matches of the same pattern never overlap: once a pattern matched, all other partial matches of the pattern are discarded
+ * and the pattern may only begin again at the instruction after the match. Methods that do not use the opcodes that a pattern
+ * was registered with (see {@link OpcodeBitmap}) are not searched for the pattern.
+ * Handlers may modify the instructions of the method, as long as they do not remove or insert instructions after the
+ * last instruction of the match.
+ */
+final class InsnPatternMatcher {
+
+    @FunctionalInterface
+    public static interface MatchHandler {
+
+        /**
+         * Called whenever a pattern matched.
+         *
+         * @param node The class that declares the method
+         * @param method The method that contains the match
+         * @param match The match
+         */
+        void onMatch(@NotNull ClassNode node, @NotNull MethodNode method, @NotNull InsnPattern.Match match);
+    }
+
+    private final List<MatchHandler> handlers = new ArrayList<>();
+    private final List<InsnPattern> patterns = new ArrayList<>();
+    private final List<OpcodeBitmap> requiredOpcodes = new ArrayList<>();
+
+    /**
+     * Registers a pattern.
+     *
+     * @param pattern The pattern
+     * @param opcodes The opcodes that a method needs to use in order to be able to contain the pattern, or null
+     * @param handler The handler that is called for every match of the pattern
+     * @return This instance, for chaining
+     * @throws IllegalArgumentException If the first step of the pattern is optional
+     */
+    @NotNull
+    public InsnPatternMatcher register(@NotNull InsnPattern pattern, @Nullable OpcodeBitmap opcodes, @NotNull MatchHandler handler) {
+        if (pattern.isAnchored()) {
+            throw new IllegalArgumentException("Patterns whose first step is optional cannot be searched for.");
+        }
+        patterns.add(pattern);
+        requiredOpcodes.add(opcodes);
+        handlers.add(handler);
+        return this;
+    }
+
+    /**
+     * Searches for the registered patterns in every method of the given classes.
+     *
+     * @param nodes The classes
+     */
+    public void scan(@NotNull Iterable<ClassNode> nodes) {
+        for (ClassNode node : nodes) {
+            for (MethodNode method : node.methods) {
+                scan(node, method);
+            }
+        }
+    }
+
+    /**
+     * Searches for the registered patterns within a method.
+     *
+     * @param node The class that declares the method
+     * @param method The method
+     */
+    public void scan(@NotNull ClassNode node, @NotNull MethodNode method) {
+        OpcodeBitmap opcodes = OpcodeBitmap.get(method);
+        int[] candidates = new int[patterns.size()];
+        int candidateCount = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            OpcodeBitmap required = requiredOpcodes.get(i);
+            if (required == null || opcodes.containsAll(required)) {
+                candidates[candidateCount++] = i;
+            }
+        }
+        if (candidateCount == 0) {
+            return;
+        }
+
+        List<InsnPattern.Match> partialMatches = new ArrayList<>();
+        List<InsnPattern.Match> survivors = new ArrayList<>();
+        boolean[] matched = new boolean[patterns.size()];
+        AbstractInsnNode insn = method.instructions.getFirst();
+        while (insn != null) {
+            boolean anyMatched = false;
+            for (InsnPattern.Match match : partialMatches) {
+                int index = match.registration;
+                if (matched[index] || !match.feed(insn)) {
+                    continue;
+                }
+                if (match.isComplete()) {
+                    matched[index] = true;
+                    anyMatched = true;
+                    handlers.get(index).onMatch(node, method, match);
+                } else {
+                    survivors.add(match);
+                }
+            }
+            if (anyMatched) {
+                // Discard the partial matches that overlap with a match
+                survivors.removeIf(match -> matched[match.registration]);
+            }
+            List<InsnPattern.Match> swap = partialMatches;
+            partialMatches = survivors;
+            survivors = swap;
+            survivors.clear();
+
+            for (int i = 0; i < candidateCount; i++) {
+                int index = candidates[i];
+                if (matched[index]) {
+                    matched[index] = false;
+                    continue; // The pattern may not begin within it's previous match
+                }
+                InsnPattern.Match match = patterns.get(index).start(insn);
+                if (match == null) {
+                    continue;
+                }
+                match.registration = index;
+                if (match.isComplete()) {
+                    handlers.get(index).onMatch(node, method, match);
+                } else {
+                    partialMatches.add(match);
+                }
+            }
+            insn = insn.getNext();
+        }
+    }
+}
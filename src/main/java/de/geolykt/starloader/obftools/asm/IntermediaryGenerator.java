@@ -3,10 +3,10 @@ package de.geolykt.starloader.obftools.asm;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -14,35 +14,35 @@ import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.zip.ZipEntry;
+import java.util.stream.Collectors;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.commons.SimpleRemapper;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.FieldNode;
-import org.objectweb.asm.tree.FrameNode;
-import org.objectweb.asm.tree.InsnNode;
-import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.LdcInsnNode;
-import org.objectweb.asm.tree.LineNumberNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
 
 import de.geolykt.starloader.obftools.asm.remapper.ConflicitingMappingException;
+import de.geolykt.starloader.obftools.asm.remapper.MappingTable;
 import de.geolykt.starloader.obftools.asm.remapper.Remapper;
 
 class ClassNodeNameComparator implements Comparator<ClassNode> {
@@ -61,11 +61,69 @@ class ClassNodeNameComparator implements Comparator<ClassNode> {
     }
 } public class IntermediaryGenerator {
 
+    /**
+     * The prefixes of the new names of classes, by kind of class.
+     */
+    private static final String[] CLASS_PREFIXES = {
+            "enum_",
+            "interface_",
+            "innerclass_",
+            "localclass_",
+            "class_",
+            "pclass_", // protected class
+            "ppclass_" // package-private class
+    };
+
+    /**
+     * The instructions that the static initializer of an enum uses to create an enum constant and store it in it's field.
+     * The constructor arguments that follow the name and the ordinal of the constant are skipped.
+     */
+    private static final InsnPattern ENUM_CONSTANT_INIT = InsnPattern.builder()
+            .then("new", Opcodes.NEW)
+            .then(null, Opcodes.DUP)
+            .then("name", (insn, match) -> insn.getOpcode() == Opcodes.LDC && ((LdcInsnNode) insn).cst instanceof String)
+            // SIPUSH or whatever, not relevant
+            .then(null, (insn, match) -> true)
+            // other args for the constructor
+            .skippingWhile((insn, match) -> true)
+            .then("init", (insn, match) -> insn.getOpcode() == Opcodes.INVOKESPECIAL
+                    && ((MethodInsnNode) insn).owner.equals(match.<TypeInsnNode>get("new").desc))
+            .then("field", Opcodes.PUTSTATIC)
+            .build();
+
+    /**
+     * The opcodes that the static initializer of an enum needs to use for the initialization of the enum constants.
+     */
+    private static final OpcodeBitmap ENUM_CONSTANT_INIT_OPCODES = OpcodeBitmap.of(Opcodes.NEW, Opcodes.DUP, Opcodes.LDC,
+            Opcodes.INVOKESPECIAL, Opcodes.PUTSTATIC);
+
+    /**
+     * The instructions of a method that does nothing but return the value of a field, see {@link #remapGetters()}.
+     * The load of "this" may only be present in non-static methods.
+     */
+    private static final InsnPattern GETTER = InsnPattern.builder()
+            .skipping(InsnPattern.SKIP_PSEUDO_INSNS)
+            .thenOptional("this", (insn, match) -> insn instanceof VarInsnNode && ((VarInsnNode) insn).var == 0)
+            .then("field", (insn, match) -> insn.getOpcode() == Opcodes.GETSTATIC || insn.getOpcode() == Opcodes.GETFIELD)
+            .skipping(InsnPattern.SKIP_FRAMES | InsnPattern.SKIP_LINES)
+            .then(null, (insn, match) -> insn.getOpcode() == Opcodes.ARETURN
+                    || insn.getOpcode() == Opcodes.IRETURN
+                    || insn.getOpcode() == Opcodes.DRETURN
+                    || insn.getOpcode() == Opcodes.FRETURN
+                    || insn.getOpcode() == Opcodes.LRETURN)
+            .build();
+
     private boolean alternateClassNaming;
+    private ClassGraph classGraph;
     private final File map;
+    private final MappingSink mappingSink = new MappingSink();
     private final List<ClassNode> nodes = new ArrayList<>();
 
     private final File output;
+    private boolean parallelProcessing;
+    private Map<String, String> previousClassNames;
+    private Map<String, Long> previousFingerprints;
+    private MappingTable previousMappings;
     private final Remapper remapper = new Remapper();
     private final List<Map.Entry<String, byte[]>> resources = new ArrayList<>();
 
@@ -77,8 +135,22 @@ class ClassNodeNameComparator implements Comparator<ClassNode> {
         }
     }
 
+    /**
+     * Creates a generator for the classes of a class graph. The graph is shared with the generator
+     * and kept up to date when the classes are remapped by {@link #deobfuscate()}.
+     *
+     * @param map The file to write the mappings to, or null to not write any mappings
+     * @param output The jar to write the remapped classes to, or null to not write the classes
+     * @param graph The class graph
+     */
+    public IntermediaryGenerator(@Nullable File map, File output, @NotNull ClassGraph graph) {
+        this(map, output, graph.getNodes());
+        this.classGraph = graph;
+    }
+
     public IntermediaryGenerator(File input, File map, File output) {
         this(map, output, (Collection<ClassNode>) null);
+        ClassGraph graph = new ClassGraph();
         try {
             JarFile inJar = new JarFile(input);
             Enumeration<JarEntry> entries = inJar.entries();
@@ -94,10 +166,13 @@ class ClassNodeNameComparator implements Comparator<ClassNode> {
                 ClassNode node = new ClassNode(Opcodes.ASM9);
                 ClassReader reader = new ClassReader(is);
                 reader.accept(node, 0);
+                graph.getSymbols().intern(node);
+                graph.add(node);
                 nodes.add(node);
                 is.close();
             }
             inJar.close();
+            classGraph = graph;
             remapper.addTargets(nodes);
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -128,31 +203,24 @@ class ClassNodeNameComparator implements Comparator<ClassNode> {
         }
     }
 
+    /**
+     * Computes all transitive subtypes of every class based on the direct subtypes of every class.
+     *
+     * @param nearbyHierarchy A map that maps every class to it's direct subtypes
+     * @return A map that maps every class to all of it's subtypes
+     * @deprecated Use {@link ClassHierarchy} directly, which does not require a list per class and also
+     * provides the supertypes of each class
+     */
+    @Deprecated
     protected Map<String, List<String>> computeFullHierarchy(Map<String, List<String>> nearbyHierarchy) {
+        ClassHierarchy hierarchy = new ClassHierarchy(nearbyHierarchy);
         Map<String, List<String>> allSubtypes = new HashMap<>();
-        for (Map.Entry<String, List<String>> clazz : nearbyHierarchy.entrySet()) {
-            String name = clazz.getKey();
-            List<String> subtypes = new ArrayList<>();
-            for (String subtype : clazz.getValue()) {
-                computeFullHierarchy0(subtypes, nearbyHierarchy, subtype);
-            }
-            allSubtypes.put(name, subtypes);
+        for (String name : nearbyHierarchy.keySet()) {
+            allSubtypes.put(name, hierarchy.getAllSubtypes(name));
         }
         return allSubtypes;
     }
 
-
-    private void computeFullHierarchy0(List<String> out, Map<String, List<String>> nearbyHierarchy, String current) {
-        out.add(current);
-        List<String> l = nearbyHierarchy.get(current);
-        if (l == null) {
-            return;
-        }
-        for (String subtype : l) {
-            computeFullHierarchy0(out, nearbyHierarchy, subtype);
-        }
-    }
-
     private String createString(int num) {
         if (alternateClassNaming) {
             return Integer.toString(num);
@@ -171,6 +239,9 @@ class ClassNodeNameComparator implements Comparator<ClassNode> {
     }
 
     public void deobfuscate() {
+        writeMappings();
+        remapper.setClassGraph(getClassGraph());
+        remapper.setSymbols(getClassGraph().getSymbols());
         remapper.process();
         if (output != null) {
             try (JarOutputStream jarOut = new JarOutputStream(new FileOutputStream(output))) {
@@ -196,326 +267,291 @@ class ClassNodeNameComparator implements Comparator<ClassNode> {
      * Proposes new field names within enum class that can be easily guessed by the computer.
      */
     public void doProposeEnumFieldsV2() {
-        BufferedWriter bw = null;
-        if (map != null) {
-            try {
-                @SuppressWarnings("resource")
-                BufferedWriter dontcomplain = new BufferedWriter(new FileWriter(map, StandardCharsets.UTF_8, true));
-                bw = dontcomplain;
-                bw.write("# begin enum field remapping");
-                bw.newLine();
-            } catch (IOException e) {
-                e.printStackTrace();
+        InsnPatternMatcher matcher = new InsnPatternMatcher().register(ENUM_CONSTANT_INIT, ENUM_CONSTANT_INIT_OPCODES, (node, method, match) -> {
+            MethodInsnNode init = match.get("init");
+            FieldInsnNode field = match.get("field");
+            String expectedDesc = 'L' + node.name + ';';
+            if (!init.name.equals("<init>") || !field.owner.equals(node.name) || !field.desc.equals(expectedDesc)
+                    || MemberIndex.findField(node, field.name, expectedDesc) == null) {
+                return;
             }
-        }
-        // We share this map instance for performance reasons (TM)
-        Map<String, FieldNode> memberNames = new HashMap<>();
+            String enumName = (String) match.<LdcInsnNode>get("name").cst;
+            if (field.name.equals(enumName)) {
+                return;
+            }
+            // Comment from Nov 21 2021:
+            // Yes, this sounds incredibly wrong (right now at least), but apparently is right.
+            // For whatever reason
+            mappingSink.addField(node.name, expectedDesc, field.name, enumName);
+            remapper.remapField(node.name, expectedDesc, field.name, enumName);
+        });
         for (ClassNode node : nodes) {
             if (node.superName.equals("java/lang/Enum")) {
-                memberNames.clear();
-                String expectedDesc = 'L' + node.name + ';';
-                for (FieldNode field : node.fields) {
-                    if (!field.desc.equals(expectedDesc)) {
-                        continue;
-                    }
-                    memberNames.put(field.name, field);
-                }
                 for (MethodNode method : node.methods) {
                     if (method.name.equals("<clinit>")) {
-                        AbstractInsnNode instruction = method.instructions.getFirst();
-                        while (instruction != null) {
-                            if (instruction.getOpcode() == Opcodes.NEW) {
-                                TypeInsnNode newCall = (TypeInsnNode) instruction;
-                                instruction = newCall.getNext();
-                                if (instruction == null || instruction.getOpcode() != Opcodes.DUP) {
-                                    break;
-                                }
-                                instruction = instruction.getNext();
-                                if (instruction == null || instruction.getOpcode() != Opcodes.LDC) {
-                                    break;
-                                }
-                                LdcInsnNode enumName = (LdcInsnNode) instruction;
-                                if (!(enumName.cst instanceof String)) {
-                                    continue;
-                                }
-                                instruction = instruction.getNext();
-                                if (instruction == null) {
-                                    break;
-                                }
-                                // SIPUSH or whatever, not relevant
-                                instruction = instruction.getNext();
-                                if (instruction == null) {
-                                    break;
-                                }
-                                // other args for the constructor
-                                AbstractInsnNode formerInsn = instruction;
-                                while (instruction != null && (instruction.getOpcode() != Opcodes.INVOKESPECIAL || !((MethodInsnNode) instruction).owner.equals(newCall.desc))) {
-                                    instruction = instruction.getNext();
-                                }
-                                if (instruction == null) {
-                                    instruction = formerInsn;
-                                    continue;
-                                }
-                                if (!((MethodInsnNode) instruction).name.equals("<init>")) {
-                                    instruction = formerInsn;
-                                    continue;
-                                }
-                                instruction = instruction.getNext();
-                                if (instruction.getOpcode() != Opcodes.PUTSTATIC) {
-                                    instruction = formerInsn;
-                                    continue;
-                                }
-                                FieldInsnNode field = (FieldInsnNode) instruction;
-                                if (!field.owner.equals(node.name) || !field.desc.equals(expectedDesc) || !memberNames.containsKey(field.name)) {
-                                    instruction = formerInsn;
-                                    continue;
-                                }
-                                if (field.name.equals(enumName.cst)) {
-                                    continue;
-                                }
-                                if (bw != null) {
-                                    try {
-                                        // Comment from Nov 21 2021:
-                                        // Yes, this sounds incredibly wrong (right now at least), but apparently is right.
-                                        // For whatever reason
-                                        bw.write("FIELD\t");
-                                        bw.write(node.name);
-                                        bw.write('\t');
-                                        bw.write(expectedDesc);
-                                        bw.write('\t');
-                                        bw.write(field.name);
-                                        bw.write('\t');
-                                        bw.write(enumName.cst.toString());
-                                        bw.write('\n');
-                                    } catch (IOException e) {
-                                        e.printStackTrace();
-                                    }
-                                }
-                                remapper.remapField(node.name, expectedDesc, field.name, enumName.cst.toString());
-                                continue;
-                            }
-                            instruction = instruction.getNext();
-                        }
+                        matcher.scan(node, method);
                     }
                 }
             }
         }
-        if (bw != null) {
-            try {
-                bw.flush();
-                bw.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    }
+
+    /**
+     * Obtains the class graph of the classes of this generator. If the generator was not created with a graph,
+     * the graph is created on the first call.
+     *
+     * @return The class graph
+     */
+    public ClassGraph getClassGraph() {
+        ClassGraph graph = classGraph;
+        if (graph == null) {
+            graph = new ClassGraph(nodes);
+            classGraph = graph;
         }
+        return graph;
     }
 
     public List<ClassNode> getAsClassNodes() {
         return nodes;
     }
 
-    private Map<String, List<String>> invertHierarchy(Map<String, List<String>> allSubtypes) {
-        Map<String, List<String>> allSupertypes = new HashMap<>();
-        allSubtypes.forEach((superType, inSubtypes) -> {
-            for (String subtype : inSubtypes) {
-                List<String> outSupertypes = allSupertypes.get(subtype);
-                if (outSupertypes == null) {
-                    outSupertypes = new ArrayList<>();
-                    allSupertypes.put(subtype, outSupertypes);
-                }
-                outSupertypes.add(superType);
-            }
-        });
-        return allSupertypes;
+    private void remapClass(String oldName, String newName) {
+        remapper.remapClassName(oldName, newName);
+        mappingSink.addClass(oldName, newName);
     }
 
-    private void propagateDownwards(Map<String, List<String>> directChildren, Collection<MethodReference> output,
-            ClassNode currentNode, MethodReference declaringRef, Map<String, ClassNode> name2Node, OverrideScope currentScope) {
-
-        if (currentScope == OverrideScope.NEVER) {
-            // This is futile
-            return;
+    /**
+     * Determines the classes whose name is kept from the previous mappings, as set by
+     * {@link #usePreviousMappings(File, File)}. A class keeps it's previous name if it would be remapped to a name
+     * of the same package and kind, and if the class did not change structurally. If no fingerprints of the previous
+     * version are known, the structure is not compared. Otherwise classes whose obfuscated name changed are matched with
+     * their previous version if their fingerprint is unique within both versions.
+     *
+     * @return A map that maps the current name of each class to the name it keeps
+     */
+    private Map<String, String> computeKeptClassNames() {
+        Map<String, String> keptNames = new HashMap<>();
+        if (previousClassNames == null) {
+            return keptNames;
+        }
+        Map<String, Long> fingerprints = previousFingerprints == null ? null : ClassFingerprint.computeAll(nodes);
+        Set<String> usedNames = new HashSet<>();
+        List<ClassNode> unmatched = new ArrayList<>();
+        for (ClassNode node : nodes) {
+            String previousName = previousClassNames.get(node.name);
+            if (previousName == null || !isValidKeptName(node, previousName)) {
+                unmatched.add(node);
+                continue;
+            }
+            if (fingerprints != null && !fingerprints.get(node.name).equals(previousFingerprints.get(node.name))) {
+                // Changed class, it gets a new name
+                continue;
+            }
+            keptNames.put(node.name, previousName);
+            usedNames.add(previousName);
+        }
+        if (fingerprints == null) {
+            return keptNames;
         }
 
-        List<String> children = directChildren.get(currentNode.name);
-        for (String childName : children) {
-            ClassNode childNode = name2Node.get(childName);
-            boolean canOverride = currentScope == OverrideScope.ALWAYS;
-            if (!canOverride) {
-                // scope is OverrideScope.PACKAGE
-                String superMethodPackage = declaringRef.getOwner().substring(0, declaringRef.getOwner().lastIndexOf('/'));
-                String overrdingMethodPackage = childName.substring(0, childName.lastIndexOf('/'));
-                if (superMethodPackage.equals(overrdingMethodPackage)) {
-                    canOverride = true;
-                }
+        // Match classes that were renamed by the obfuscator via their fingerprint
+        Map<Long, String> previousByFingerprint = getUniquePreviousFingerprints(fingerprints);
+        for (ClassNode node : unmatched) {
+            Long fingerprint = fingerprints.get(node.name);
+            String previousObfName = previousByFingerprint.get(fingerprint);
+            if (previousObfName == null) {
+                continue;
             }
-            // This also accounts for implicit inheritance
-            output.add(new MethodReference(childName, declaringRef.getDesc(), declaringRef.getName()));
-            boolean found = false;
-            for (MethodNode childMethod : childNode.methods) {
-                if (childMethod.name.equals(declaringRef.getName())
-                        && childMethod.desc.equals(declaringRef.getDesc())
-                        && (childMethod.access & Opcodes.ACC_STATIC) != 0) {
-                    found = true;
-                    int flagWithoutFinal = childMethod.access & ~Opcodes.ACC_FINAL; // Better be safe than sorry
-                    propagateDownwards(directChildren, output, childNode, declaringRef, name2Node, OverrideScope.fromFlags(flagWithoutFinal));
-                    break;
-                }
+            String previousName = previousClassNames.get(previousObfName);
+            if (previousName != null && isValidKeptName(node, previousName) && usedNames.add(previousName)) {
+                keptNames.put(node.name, previousName);
             }
-            if (!found) {
-                propagateDownwards(directChildren, output, childNode, declaringRef, name2Node, currentScope);
+        }
+        return keptNames;
+    }
+
+    /**
+     * Obtains the classes of the previous version whose fingerprint is unique within both the previous and the current version.
+     *
+     * @param fingerprints The fingerprints of the current classes
+     * @return A map that maps each unique fingerprint to the obfuscated name of the previous class
+     */
+    private Map<Long, String> getUniquePreviousFingerprints(Map<String, Long> fingerprints) {
+        Map<Long, String> previousByFingerprint = new HashMap<>();
+        Set<Long> ambiguous = new HashSet<>();
+        previousFingerprints.forEach((name, fingerprint) -> {
+            if (previousByFingerprint.putIfAbsent(fingerprint, name) != null) {
+                ambiguous.add(fingerprint);
+            }
+        });
+        Set<Long> currentFingerprints = new HashSet<>();
+        for (ClassNode node : nodes) {
+            if (!currentFingerprints.add(fingerprints.get(node.name))) {
+                ambiguous.add(fingerprints.get(node.name));
             }
         }
+        previousByFingerprint.keySet().removeAll(ambiguous);
+        return previousByFingerprint;
     }
 
-    private void remapClass(String oldName, String newName, BufferedWriter bw) {
-        remapper.remapClassName(oldName, newName);
-        if (bw != null) {
-            try {
-                bw.write("CLASS\t");
-                bw.write(oldName);
-                bw.write('\t');
-                bw.write(newName);
-                bw.write('\n'); // The tiny format does not make use of system-dependent newlines
-            } catch (IOException e) {
-                e.printStackTrace();
+    /**
+     * Matches the classes with the classes of the previous version that have the same structure. A class is matched with
+     * the previous class of the same name if their fingerprints are equal, otherwise with the previous class of the same
+     * fingerprint if the fingerprint is unique within both versions. Nothing is matched if the fingerprints of the previous
+     * version are not known.
+     *
+     * @return A map that maps the name of each matched class to the obfuscated name of it's previous version
+     */
+    private Map<String, String> matchPreviousClasses() {
+        Map<String, String> matches = new HashMap<>();
+        if (previousFingerprints == null) {
+            return matches;
+        }
+        Map<String, Long> fingerprints = ClassFingerprint.computeAll(nodes);
+        Map<Long, String> previousByFingerprint = getUniquePreviousFingerprints(fingerprints);
+        for (ClassNode node : nodes) {
+            Long fingerprint = fingerprints.get(node.name);
+            if (fingerprint.equals(previousFingerprints.get(node.name))) {
+                matches.put(node.name, node.name);
+            } else {
+                String previousObfName = previousByFingerprint.get(fingerprint);
+                if (previousObfName != null) {
+                    matches.put(node.name, previousObfName);
+                }
             }
         }
+        return matches;
     }
 
-    public void remapClassesV2() {
-        BufferedWriter bw = null;
-        if (map != null) {
-            try {
-                @SuppressWarnings("resource")
-                BufferedWriter dontcomplain = new BufferedWriter(new FileWriter(map, StandardCharsets.UTF_8, false));
-                bw = dontcomplain;
-                bw.write("v1\tofficial\tintermediary\n");
-            } catch (IOException e) {
-                e.printStackTrace();
+    private boolean isValidKeptName(ClassNode node, String keptName) {
+        int lastSlash = node.name.lastIndexOf('/');
+        if (lastSlash == -1) {
+            return false;
+        }
+        String packageName = node.name.substring(0, lastSlash);
+        int kind = classify(node, packageName, node.name.substring(lastSlash + 1));
+        if (kind == -1) {
+            return false;
+        }
+        String prefix = packageName + '/' + CLASS_PREFIXES[kind];
+        return keptName.startsWith(prefix) && keptName.indexOf('/', prefix.length()) == -1;
+    }
+
+    /**
+     * Determines the kind of class a class is. The index of the kind is the index of the prefix of it's new name in
+     * {@link #CLASS_PREFIXES}.
+     *
+     * @param node The class
+     * @param packageName The package of the class
+     * @param className The name of the class without the package
+     * @return The kind of class, or -1 if the class should not be remapped
+     */
+    private static int classify(ClassNode node, String packageName, String className) {
+        if (packageName.startsWith("org/hamcrest") || packageName.startsWith("org/lwjgl")) {
+            // the three (?) packages contain classes that should not be remapped
+            return -1;
+        }
+        if (className.length() >= 3) {
+            return -1;
+        }
+        if ("java/lang/Enum".equals(node.superName)) {
+            return 0;
+        } else if (node.outerClass != null) {
+            if (node.outerMethod == null) {
+                return 2;
+            } else {
+                return 3;
             }
+        } else if ((node.access & Opcodes.ACC_INTERFACE) != 0) {
+            return 1;
+        } else if ((node.access & Opcodes.ACC_PUBLIC) != 0) {
+            return 4;
+        } else if ((node.access & Opcodes.ACC_PROTECTED) != 0) {
+            return 5;
+        } else {
+            return 6;
         }
+    }
 
-        Map<String, TreeSet<ClassNode>> remappedEnums = new HashMap<>();
-        Map<String, TreeSet<ClassNode>> remappedInterfaces = new HashMap<>();
-        Map<String, TreeSet<ClassNode>> remappedInners = new HashMap<>();
-        Map<String, TreeSet<ClassNode>> remappedLocals = new HashMap<>();
-        Map<String, TreeSet<ClassNode>> remappedPrivateClasses = new HashMap<>();
-        Map<String, TreeSet<ClassNode>> remappedProtectedClasses = new HashMap<>();
-        Map<String, TreeSet<ClassNode>> remappedPublicClasses = new HashMap<>();
+    public void remapClassesV2() {
+        if (parallelProcessing) {
+            remapClassesV2Parallel();
+            return;
+        }
+        List<Map<String, TreeSet<ClassNode>>> remappedClasses = new ArrayList<>(CLASS_PREFIXES.length);
+        for (int i = 0; i < CLASS_PREFIXES.length; i++) {
+            remappedClasses.add(new HashMap<>());
+        }
+        Map<String, String> keptNames = computeKeptClassNames();
+        Set<String> reservedNames = new HashSet<>(keptNames.values());
         for (ClassNode node : nodes) {
             int lastSlash = node.name.lastIndexOf('/');
             String className = node.name.substring(lastSlash + 1);
             String packageName = node.name.substring(0, lastSlash);
-            if (packageName.startsWith("org/hamcrest") || packageName.startsWith("org/lwjgl")) {
-                // the three (?) packages contain classes that should not be remapped
-                continue;
-            }
-            if (className.length() < 3) {
-                if ("java/lang/Enum".equals(node.superName)) {
-                    TreeSet<ClassNode> remapSet = remappedEnums.get(packageName);
-                    if (remapSet == null) {
-                        remapSet = new TreeSet<>(ClassNodeNameComparator.INSTANCE);
-                        remappedEnums.put(packageName, remapSet);
-                    }
-                    remapSet.add(node);
-                } else if (node.outerClass != null) {
-                    if (node.outerMethod == null) {
-                        TreeSet<ClassNode> remapSet = remappedInners.get(packageName);
-                        if (remapSet == null) {
-                            remapSet = new TreeSet<>(ClassNodeNameComparator.INSTANCE);
-                            remappedInners.put(packageName, remapSet);
-                        }
-                        remapSet.add(node);
-                    } else {
-                        TreeSet<ClassNode> remapSet = remappedLocals.get(packageName);
-                        if (remapSet == null) {
-                            remapSet = new TreeSet<>(ClassNodeNameComparator.INSTANCE);
-                            remappedLocals.put(packageName, remapSet);
-                        }
-                        remapSet.add(node);
-                    }
-                } else if ((node.access & Opcodes.ACC_INTERFACE) != 0) {
-                    TreeSet<ClassNode> remapSet = remappedInterfaces.get(packageName);
-                    if (remapSet == null) {
-                        remapSet = new TreeSet<>(ClassNodeNameComparator.INSTANCE);
-                        remappedInterfaces.put(packageName, remapSet);
-                    }
-                    remapSet.add(node);
-                } else if ((node.access & Opcodes.ACC_PUBLIC) != 0) {
-                    TreeSet<ClassNode> remapSet = remappedPublicClasses.get(packageName);
-                    if (remapSet == null) {
-                        remapSet = new TreeSet<>(ClassNodeNameComparator.INSTANCE);
-                        remappedPublicClasses.put(packageName, remapSet);
-                    }
-                    remapSet.add(node);
-                } else if ((node.access & Opcodes.ACC_PROTECTED) != 0) {
-                    TreeSet<ClassNode> remapSet = remappedProtectedClasses.get(packageName);
-                    if (remapSet == null) {
-                        remapSet = new TreeSet<>(ClassNodeNameComparator.INSTANCE);
-                        remappedProtectedClasses.put(packageName, remapSet);
-                    }
-                    remapSet.add(node);
-                } else {
-                    TreeSet<ClassNode> remapSet = remappedPrivateClasses.get(packageName);
-                    if (remapSet == null) {
-                        remapSet = new TreeSet<>(ClassNodeNameComparator.INSTANCE);
-                        remappedPrivateClasses.put(packageName, remapSet);
-                    }
-                    remapSet.add(node);
-                }
+            int kind = classify(node, packageName, className);
+            String keptName = keptNames.get(node.name);
+            if (keptName != null) {
+                remapClass(node.name, keptName);
+            } else if (kind != -1) {
+                remappedClasses.get(kind).computeIfAbsent(packageName, key -> new TreeSet<>(ClassNodeNameComparator.INSTANCE)).add(node);
             }
         }
-
-        remapSet(remappedEnums, bw, "enum_");
-        remapSet(remappedInterfaces, bw, "interface_");
-        remapSet(remappedInners, bw, "innerclass_");
-        remapSet(remappedLocals, bw, "localclass_");
-        remapSet(remappedPublicClasses, bw, "class_");
-        remapSet(remappedProtectedClasses, bw, "pclass_"); // protected class
-        remapSet(remappedPrivateClasses, bw, "ppclass_"); // package-private class
-
-        if (bw != null) {
-            try {
-                bw.flush();
-                bw.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        for (int i = 0; i < CLASS_PREFIXES.length; i++) {
+            remapSet(remappedClasses.get(i), CLASS_PREFIXES[i], reservedNames);
         }
     }
 
-    public void remapGetters() {
-        BufferedWriter bw = null;
-        if (map != null) {
-            try {
-                @SuppressWarnings("resource")
-                BufferedWriter dontcomplain = new BufferedWriter(new FileWriter(map, StandardCharsets.UTF_8, true));
-                bw = dontcomplain;
-                bw.write("# begin getter remapping");
-                bw.newLine();
-            } catch (IOException e) {
-                e.printStackTrace();
+    /**
+     * Parallel variant of {@link #remapClassesV2()}. The classes are grouped by package and every package is classified and
+     * numbered on it's own thread. As classes are only numbered within their package and kind, the proposed names
+     * are identical to the names proposed by the sequential variant.
+     * The renames are registered on the calling thread afterwards, as the remapper is not thread-safe.
+     */
+    private void remapClassesV2Parallel() {
+        Map<String, String> keptNames = computeKeptClassNames();
+        Set<String> reservedNames = new HashSet<>(keptNames.values());
+        keptNames.forEach(this::remapClass);
+        Map<String, List<ClassNode>> packages = nodes.parallelStream()
+                .collect(Collectors.groupingByConcurrent(node -> node.name.substring(0, node.name.lastIndexOf('/'))));
+        List<Map.Entry<String, String>> renames = packages.entrySet().parallelStream().flatMap(entry -> {
+            String packageName = entry.getKey();
+            List<TreeSet<ClassNode>> remappedClasses = new ArrayList<>(CLASS_PREFIXES.length);
+            for (int i = 0; i < CLASS_PREFIXES.length; i++) {
+                remappedClasses.add(new TreeSet<>(ClassNodeNameComparator.INSTANCE));
+            }
+            for (ClassNode node : entry.getValue()) {
+                int kind = classify(node, packageName, node.name.substring(packageName.length() + 1));
+                if (kind != -1 && !keptNames.containsKey(node.name)) {
+                    remappedClasses.get(kind).add(node);
+                }
+            }
+            List<Map.Entry<String, String>> packageRenames = new ArrayList<>();
+            for (int i = 0; i < CLASS_PREFIXES.length; i++) {
+                String prefix = packageName + '/' + CLASS_PREFIXES[i];
+                int counter = 0;
+                for (ClassNode node : remappedClasses.get(i)) {
+                    String newName;
+                    do {
+                        newName = prefix + createString(counter++);
+                    } while (reservedNames.contains(newName));
+                    packageRenames.add(Map.entry(node.name, newName));
+                }
             }
+            return packageRenames.stream();
+        }).collect(Collectors.toList());
+        for (Map.Entry<String, String> rename : renames) {
+            remapClass(rename.getKey(), rename.getValue());
         }
+    }
 
-        Map<String, ClassNode> name2Node = new HashMap<>(nodes.size());
+    public void remapGetters() {
+        ClassGraph graph = getClassGraph();
+        // The references are used as keys by a lot of maps and sets, which are compared by identity if the instances are shared
+        ReferencePool references = new ReferencePool();
         List<Map.Entry<MethodReference, FieldReference>> getterCandidates = new ArrayList<>();
-        Map<String, List<String>> directSubtypes = new HashMap<>(nodes.size());
-        Map<String, List<MethodReference>> declaredMethods = new HashMap<>();
 
         for (ClassNode node : nodes) {
-            name2Node.put(node.name, node);
-            if ((node.access & Opcodes.ACC_FINAL) != 0) {
-                directSubtypes.put(node.name, Collections.emptyList());
-            } else {
-                directSubtypes.put(node.name, new ArrayList<>());
-            }
-            List<MethodReference> methods = new ArrayList<>();
-            declaredMethods.put(node.name, methods);
             for (MethodNode method : node.methods) {
-                MethodReference mref = new MethodReference(node.name, method);
-                methods.add(mref);
                 if (method.name.length() > 2) {
                     // unlikely to be obfuscated
                     continue;
@@ -524,54 +560,17 @@ class ClassNodeNameComparator implements Comparator<ClassNode> {
                     // getter methods must be no-args methods
                     continue;
                 }
-                AbstractInsnNode insn = method.instructions.getFirst();
-                if (insn == null) {
-                    // Abstract method? In any case it can never be a getter method
+                // Abstract methods can never be getter methods and will not match either
+                InsnPattern.Match match = GETTER.match(method.instructions.getFirst());
+                if (match == null || (match.get("this") != null && (method.access & Opcodes.ACC_STATIC) != 0)) {
                     continue;
                 }
-                while ((insn instanceof FrameNode || insn instanceof LineNumberNode || insn instanceof LabelNode)) {
-                    insn = insn.getNext();
-                }
-                if ((method.access & Opcodes.ACC_STATIC) == 0 && insn instanceof VarInsnNode && ((VarInsnNode) insn).var == 0) {
-                    insn = insn.getNext();
-                }
-                if (insn.getOpcode() == Opcodes.GETSTATIC || insn.getOpcode() == Opcodes.GETFIELD) {
-                    FieldInsnNode getField = (FieldInsnNode) insn;
-                    insn = insn.getNext();
-                    while ((insn instanceof FrameNode || insn instanceof LineNumberNode)) {
-                        insn = insn.getNext();
-                    }
-                    if (!(insn instanceof InsnNode)) {
-                        continue;
-                    }
-                    if (insn.getOpcode() != Opcodes.ARETURN
-                            && insn.getOpcode() != Opcodes.IRETURN
-                            && insn.getOpcode() != Opcodes.DRETURN
-                            && insn.getOpcode() != Opcodes.FRETURN
-                            && insn.getOpcode() != Opcodes.LRETURN) {
-                        continue;
-                    }
-                    if (!getField.owner.equals(node.name)) {
-                        continue;
-                    }
-                    FieldReference fref = new FieldReference(getField);
-                    getterCandidates.add(Map.entry(mref, fref));
-                }
-            }
-        }
-
-        // Calculate nearby hierarchy
-        for (ClassNode node : nodes) {
-            // As of now this has to be on another loop and cannot be merged easily into the loop above, albeit this is theoretically possible
-            List<String> a = directSubtypes.get(node.superName);
-            if (a != null) {
-                a.add(node.name);
-            }
-            for (String interfaceName : node.interfaces) {
-                a = directSubtypes.get(interfaceName);
-                if (a != null) {
-                    a.add(node.name);
+                FieldInsnNode getField = match.get("field");
+                if (!getField.owner.equals(node.name)) {
+                    continue;
                 }
+                FieldReference fref = references.field(getField);
+                getterCandidates.add(Map.entry(references.method(node.name, method), fref));
             }
         }
 
@@ -596,82 +595,10 @@ class ClassNodeNameComparator implements Comparator<ClassNode> {
             }
         }
 
-        // calculate the full hierarchy based on the nearby hierarchy
-        Map<String, List<String>> allSubtypes = computeFullHierarchy(directSubtypes); // super -> children map
-        Map<String, List<String>> allSupertypes = invertHierarchy(allSubtypes); // child -> super
 
         // Based on the hierarchy and the declared method's access flags, we can try to identify the methods that are the same.
         // In our case, we will call these connected methods a "method group".
-        Map<MethodReference, Set<MethodReference>> methodGroups = new HashMap<>();
-
-        declaredMethods.forEach((declarerName, declaredMethodRefs) -> {
-            ClassNode declarerNode = name2Node.get(declarerName);
-
-            List<String> supers = allSupertypes.get(declarerName);
-            if (supers == null) {
-                // This can likely happen if a class is a superclass of a class that does not exit or is java-specific. However given the circumstances it shouldn't be too much of an issue (heh)
-                // System.err.println(declarerName + " extends " + declarerNode.superName + " and implements " + Arrays.toString(declarerNode.interfaces.toArray()));
-                supers = Collections.emptyList();
-            }
-            List<ClassNode> superNodes = new ArrayList<>();
-            supers.forEach(name -> superNodes.add(name2Node.get(name)));
-            List<MethodNode> declaredMethodNodes = new ArrayList<>(); // This is required in order to obtain the access flags of the method
-            for (MethodReference mref : declaredMethodRefs) {
-                for (MethodNode method : declarerNode.methods) {
-                    if (method.name.equals(mref.getName()) && method.desc.equals(mref.getDesc())) {
-                        declaredMethodNodes.add(method);
-                        break;
-                    }
-                }
-            }
-
-            declaredMethodNodes.removeIf(method -> {
-                boolean isStatic = (method.access & Opcodes.ACC_STATIC) != 0;
-                if (isStatic) {
-                    MethodReference ref = new MethodReference(declarerName, method);
-                    methodGroups.put(ref, Collections.singleton(ref)); // A static method is more or less a standalone method
-                    return true; // as such they are not relevant after that and are removed from the methodNodes list.
-                } else {
-                    return false;
-                }
-            });
-
-            for (MethodNode method : declaredMethodNodes) {
-                Set<MethodReference> group = new HashSet<>();
-                MethodReference declaredMethodRef = new MethodReference(declarerName, method);
-                methodGroups.put(declaredMethodRef, group);
-                group.add(declaredMethodRef);
-                for (ClassNode node : superNodes) {
-                    for (MethodNode superMethod : node.methods) {
-                        if (method.name.equals(superMethod.name)
-                                && method.desc.equals(superMethod.desc)
-                                && (superMethod.access & Opcodes.ACC_STATIC) == 0) {
-                            // Check whether 'method' can possibly override 'superMethod'
-                            OverrideScope superMethodScope = OverrideScope.fromFlags(superMethod.access);
-                            if (superMethodScope == OverrideScope.ALWAYS) {
-                                group.add(new MethodReference(node.name, superMethod));
-                                propagateDownwards(directSubtypes, group, node, declaredMethodRef, name2Node, superMethodScope);
-                            } else if (superMethodScope == OverrideScope.PACKAGE) {
-                                String superMethodPackage = node.name.substring(0, node.name.lastIndexOf('/'));
-                                String overrdingMethodPackage = declarerName.substring(0, declarerName.lastIndexOf('/'));
-                                if (superMethodPackage.equals(overrdingMethodPackage)) {
-                                    group.add(new MethodReference(node.name, superMethod));
-                                }
-                                // TODO this is terribly inefficient as we are propagating the same set of classes multiple times.
-                                // A solution to this issue would be to have a stop condition of some sorts, either when the reference
-                                // was already added or when the same class is scanned twice
-                                // however it is also required as we have implicit inheritance, so a removal is not the solution
-                                propagateDownwards(directSubtypes, group, node, declaredMethodRef, name2Node, superMethodScope);
-                            } else {
-                                // private (or final) method. Not it
-                            }
-                            break; // We found our method declaration - or at least think we have
-                        }
-                    }
-                }
-                propagateDownwards(directSubtypes, group, declarerNode, declaredMethodRef, name2Node, OverrideScope.fromFlags(method.access));
-            }
-        });
+        Map<MethodReference, Set<MethodReference>> methodGroups = MethodGroups.compute(graph, references);
 
         // prevent renaming two methods to the same name
         // (does not fully work)
@@ -681,17 +608,11 @@ class ClassNodeNameComparator implements Comparator<ClassNode> {
             if (oldReference != null && !oldReference.equals(mref)) {
                 if (oldReference.getOwner().equals(mref.getOwner()) && fref.getOwner().equals(oldReference.getOwner())) {
                     // One of the two methods is likely a synthetic method. We will try to only invalidate that synthetic method
-                    ClassNode node = name2Node.get(oldReference.getOwner());
-                    boolean oldRefSynthetic = false;
-                    boolean newRefSynthetic = false;
-                    for (MethodNode method : node.methods) {
-                        if (method.name.equals(oldReference.getName()) && (method.desc.equals(oldReference.getDesc()))) {
-                            oldRefSynthetic = (method.access & Opcodes.ACC_SYNTHETIC) != 0;
-                        }
-                        if (method.name.equals(mref.getName()) && (method.desc.equals(mref.getDesc()))) {
-                            newRefSynthetic = (method.access & Opcodes.ACC_SYNTHETIC) != 0;
-                        }
-                    }
+                    ClassNode node = graph.get(oldReference.getOwner());
+                    MethodNode oldMethod = MemberIndex.findMethod(node, oldReference.getName(), oldReference.getDesc());
+                    MethodNode newMethod = MemberIndex.findMethod(node, mref.getName(), mref.getDesc());
+                    boolean oldRefSynthetic = oldMethod != null && (oldMethod.access & Opcodes.ACC_SYNTHETIC) != 0;
+                    boolean newRefSynthetic = newMethod != null && (newMethod.access & Opcodes.ACC_SYNTHETIC) != 0;
                     if (oldRefSynthetic == newRefSynthetic) {
                         // Either both are synthetic or both are not synthetic. A preference thus cannot be established
                         conflictingMappings.add(mref);
@@ -741,7 +662,7 @@ class ClassNodeNameComparator implements Comparator<ClassNode> {
                     // What to do with the old mapping? (especially those that are connected to this one)
                     break;
                 }
-                ClassNode node = name2Node.get(groupRef.getOwner());
+                ClassNode node = graph.get(groupRef.getOwner());
                 for (MethodNode method : node.methods) {
                     if (method.name.equals(newName) && method.desc.startsWith("()")) {
                         invalid = true; // Method name already present. (Could we use another name?)
@@ -783,7 +704,7 @@ class ClassNodeNameComparator implements Comparator<ClassNode> {
                 sharedBuilder.append(fref.getName());
             }
             String newName = sharedBuilder.toString();
-            MethodReference future = new MethodReference(mref.getOwner(), mref.getDesc(), newName);
+            MethodReference future = references.method(mref.getOwner(), mref.getDesc(), newName);
             MethodReference current = potentialRemaps.getOrDefault(future, mref);
             if (!current.equals(mref) && !methodGroups.get(mref).contains(current)) {
                 // Bigger group "wins", to avoid nullifying large method groups
@@ -808,7 +729,7 @@ class ClassNodeNameComparator implements Comparator<ClassNode> {
                 if (conflictingMappings.contains(groupRef)) {
                     continue;
                 }
-                future = new MethodReference(groupRef.getOwner(), groupRef.getDesc(), newName);
+                future = references.method(groupRef.getOwner(), groupRef.getDesc(), newName);
                 current = potentialRemaps.getOrDefault(future, mref);
                 if (!current.equals(groupRef) && !methodGroups.get(mref).contains(current)) {
                     // Bigger group "wins", to avoid nullifying large method groups
@@ -873,6 +794,10 @@ class ClassNodeNameComparator implements Comparator<ClassNode> {
             }
         });
 
+        if (previousMappings != null) {
+            seedPreviousGetterNames(proposedNames, methodGroups, graph);
+        }
+
         for (Map.Entry<MethodReference, String> entry : proposedNames.entrySet()) {
             MethodReference method = entry.getKey();
             String newName = entry.getValue();
@@ -882,44 +807,146 @@ class ClassNodeNameComparator implements Comparator<ClassNode> {
             } catch (ConflicitingMappingException e1) {
                 throw new IllegalStateException("Conflict filtering was not done throughout enough.", e1);
             }
-            if (bw != null) {
-                try {
-                    bw.write("METHOD\t");
-                    bw.write(method.getOwner());
-                    bw.write('\t');
-                    bw.write(method.getName());
-                    bw.write('\t');
-                    bw.write(method.getDesc());
-                    bw.write('\t');
-                    bw.write(newName);
-                    bw.write('\n');
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            mappingSink.addMethod(method.getOwner(), method.getDesc(), method.getName(), newName);
         }
 
-        if (bw != null) {
-            try {
-                bw.flush();
-                bw.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+    }
+
+    /**
+     * Reserves the name of a method group, unless a method within the group would collide with another method.
+     *
+     * @param group The methods of the group
+     * @param newName The name of the group
+     * @param reservedNames The reserved owner, name and descriptor triples of all methods
+     * @param graph The class graph of the classes
+     * @return True if the name was reserved, false if it collides
+     */
+    private static boolean reserveGroupName(Set<MethodReference> group, String newName, Set<String> reservedNames, ClassGraph graph) {
+        List<String> keys = new ArrayList<>(group.size());
+        for (MethodReference groupRef : group) {
+            String key = groupRef.getOwner() + ' ' + newName + groupRef.getDesc();
+            if (reservedNames.contains(key)) {
+                return false;
+            }
+            for (MethodNode method : graph.get(groupRef.getOwner()).methods) {
+                if (method.name.equals(newName) && method.desc.startsWith("()")) {
+                    return false;
+                }
             }
+            keys.add(key);
         }
+        reservedNames.addAll(keys);
+        return true;
     }
 
-    private void remapSet(Map<String, TreeSet<ClassNode>> set, BufferedWriter writer, String prefix) {
+    private void remapSet(Map<String, TreeSet<ClassNode>> set, String prefix, Set<String> reservedNames) {
         prefix = '/' + prefix;
         for (Map.Entry<String, TreeSet<ClassNode>> packageNode : set.entrySet()) {
             String packageName = packageNode.getKey();
             int counter = 0;
             for (ClassNode node : packageNode.getValue()) {
-                remapClass(node.name, packageName + prefix + createString(counter++), writer);
+                String newName;
+                do {
+                    newName = packageName + prefix + createString(counter++);
+                } while (reservedNames.contains(newName));
+                remapClass(node.name, newName);
             }
         }
     }
 
+    /**
+     * Replaces the proposed names of getter methods with their names from the previous mappings, as set by
+     * {@link #usePreviousMappings(File, File)}. Getters are named after the field they return, but the obfuscated
+     * name of that field may change between versions even if the class did not change. A method group keeps it's
+     * previous name if all methods of the group belong to classes that match a previous class
+     * (see {@link #matchPreviousClasses()}) and all of them were renamed to the same getter name by the previous mappings.
+     * If the previous name collides with another method, the group keeps the proposed name instead.
+     * Should that name collide with a previous name that was kept, the group is not renamed at all.
+     *
+     * @param proposedNames The proposed names of the getter methods, which are modified in place
+     * @param methodGroups The method groups of the getter methods
+     * @param graph The class graph of the classes
+     */
+    private void seedPreviousGetterNames(Map<MethodReference, String> proposedNames,
+            Map<MethodReference, Set<MethodReference>> methodGroups, ClassGraph graph) {
+        Map<String, String> matchedClasses = matchPreviousClasses();
+        if (matchedClasses.isEmpty()) {
+            return;
+        }
+        String obfuscatedNamespace = previousMappings.getNamespaces().get(0);
+        String intermediaryNamespace = previousMappings.getNamespaces().get(1);
+        // The descriptors of the previous mappings use the obfuscated class names of the previous version
+        SimpleRemapper previousDescriptors = new SimpleRemapper(matchedClasses);
+        Map<String, Map<String, String>> previousMethodNames = new HashMap<>();
+
+        Set<Set<MethodReference>> visitedGroups = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Map.Entry<Set<MethodReference>, String>> seededGroups = new ArrayList<>();
+        Set<String> reservedNames = new HashSet<>();
+        proposedNames.forEach((mref, proposedName) -> {
+            Set<MethodReference> group = methodGroups.get(mref);
+            if (!visitedGroups.add(group)) {
+                return;
+            }
+            String previousGroupName = null;
+            for (MethodReference groupRef : group) {
+                String previousOwner = matchedClasses.get(groupRef.getOwner());
+                if (previousOwner == null) {
+                    previousGroupName = null;
+                    break;
+                }
+                String previousName = previousMethodNames
+                        .computeIfAbsent(previousOwner, owner -> previousMappings.getMethodNames(owner, obfuscatedNamespace, intermediaryNamespace))
+                        .get(groupRef.getName().concat(previousDescriptors.mapMethodDesc(groupRef.getDesc())));
+                if (previousName == null || !previousName.startsWith("get")
+                        || (previousGroupName != null && !previousGroupName.equals(previousName))) {
+                    previousGroupName = null;
+                    break;
+                }
+                previousGroupName = previousName;
+            }
+            if (previousGroupName == null || previousGroupName.equals(proposedName)) {
+                for (MethodReference groupRef : group) {
+                    reservedNames.add(groupRef.getOwner() + ' ' + proposedName + groupRef.getDesc());
+                }
+            } else {
+                seededGroups.add(Map.entry(group, previousGroupName));
+            }
+        });
+
+        List<Set<MethodReference>> collidingGroups = new ArrayList<>();
+        for (Map.Entry<Set<MethodReference>, String> seededGroup : seededGroups) {
+            Set<MethodReference> group = seededGroup.getKey();
+            if (!reserveGroupName(group, seededGroup.getValue(), reservedNames, graph)) {
+                collidingGroups.add(group);
+                continue;
+            }
+            for (MethodReference groupRef : group) {
+                proposedNames.put(groupRef, seededGroup.getValue());
+            }
+        }
+        for (Set<MethodReference> group : collidingGroups) {
+            if (!reserveGroupName(group, proposedNames.get(group.iterator().next()), reservedNames, graph)) {
+                proposedNames.keySet().removeAll(group);
+            }
+        }
+    }
+
+    /**
+     * Writes all renames proposed so far to the map file, replacing the previous contents of the file.
+     * The entries are sorted, so the file is the same for the same input regardless of the order in which the renames were proposed.
+     * This method is invoked by {@link #deobfuscate()} and does nothing if no map file was specified.
+     */
+    public void writeMappings() {
+        if (map == null) {
+            return;
+        }
+        try {
+            mappingSink.write(map);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Sets whether alternate class naming should be employed. This is very useful if obftools has to be updated or
      * when the application to link to has changed. Making use of this feature eliminates large portions of issues
@@ -934,21 +961,68 @@ class ClassNodeNameComparator implements Comparator<ClassNode> {
         alternateClassNaming = toggle;
     }
 
-} enum OverrideScope {
-    ALWAYS,
-    NEVER,
-    PACKAGE;
-
-    public static OverrideScope fromFlags(int accessFlags) {
-        if ((accessFlags & Opcodes.ACC_STATIC) != 0
-                || (accessFlags & Opcodes.ACC_FINAL) != 0
-                || (accessFlags & Opcodes.ACC_PRIVATE) != 0) {
-            return OverrideScope.NEVER;
+    /**
+     * Seeds the class names from the mappings of a previous run, so that the names of classes that did not change
+     * stay the same across versions of the application. Only new or changed classes are named anew and their
+     * names never collide with kept names. The names of getters are seeded too, as they are derived from the
+     * obfuscated name of the returned field, which may change even if the class did not. Getters are only seeded
+     * if the fingerprints of the previous run are known.
+     *<p>
+     * This method needs to be called before {@link #remapClassesV2()} and {@link #remapGetters()}.
+     *
+     * @param previousMap The mappings written by a previous run
+     * @param previousFingerprints The fingerprints written by {@link #writeFingerprints(File)} in the previous run, or null
+     * if unknown. Without them classes that changed structurally keep their name too.
+     * @throws IOException If an IO issue occurred
+     */
+    public void usePreviousMappings(@NotNull File previousMap, @Nullable File previousFingerprints) throws IOException {
+        previousMappings = MappingTable.readTinyV1File(previousMap);
+        List<String> namespaces = previousMappings.getNamespaces();
+        previousClassNames = previousMappings.getClassNames(namespaces.get(0), namespaces.get(1));
+        if (previousFingerprints == null) {
+            this.previousFingerprints = null;
+            return;
         }
-        if ((accessFlags & Opcodes.ACC_PROTECTED) != 0
-                || (accessFlags & Opcodes.ACC_PUBLIC) != 0) {
-            return OverrideScope.ALWAYS;
+        Map<String, Long> fingerprints = new HashMap<>();
+        for (String line : Files.readAllLines(previousFingerprints.toPath(), StandardCharsets.UTF_8)) {
+            int tab = line.indexOf('\t');
+            if (tab == -1) {
+                continue;
+            }
+            fingerprints.put(line.substring(0, tab), Long.parseUnsignedLong(line.substring(tab + 1), 16));
+        }
+        this.previousFingerprints = fingerprints;
+    }
+
+    /**
+     * Writes the structural fingerprints of all classes, which can be used by {@link #usePreviousMappings(File, File)}
+     * in a later run. This method must be called before {@link #deobfuscate()}, as the fingerprints are keyed by the
+     * obfuscated class names.
+     *
+     * @param file The file to write to
+     * @throws IOException If an IO issue occurred
+     */
+    public void writeFingerprints(@NotNull File file) throws IOException {
+        Map<String, Long> fingerprints = new TreeMap<>(ClassFingerprint.computeAll(nodes));
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> entry : fingerprints.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(Long.toHexString(entry.getValue()));
+                writer.write('\n');
+            }
         }
-        return OverrideScope.PACKAGE;
     }
+
+    /**
+     * Sets whether passes that support it should be run on multiple threads. The output of these passes is
+     * identical regardless of whether they are run in parallel or not.
+     * Currently only {@link #remapClassesV2()} makes use of this.
+     *
+     * @param toggle Whether to process classes in parallel
+     */
+    public void useParallelProcessing(boolean toggle) {
+        parallelProcessing = toggle;
+    }
+
 }
@@ -0,0 +1,168 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Buffer for the tiny v1 entries produced by the {@link IntermediaryGenerator}.
+ * Entries are collected in flat arrays and written in a single go, sorted by type, owner, name and descriptor.
+ * This makes the written file independent of the order in which the entries were produced.
+ */
+final class MappingSink {
+
+    private static final byte CLASS = 0;
+    private static final byte FIELD = 1;
+    private static final byte METHOD = 2;
+
+    /**
+     * Four columns per entry: owner (or old class name), descriptor, old name and new name.
+     * Class entries do not make use of the descriptor and old name columns.
+     */
+    private String[] columns = new String[256];
+    private int size;
+    private byte[] types = new byte[64];
+
+    private void add(byte type, String owner, String desc, String oldName, String newName) {
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size * 2);
+            columns = Arrays.copyOf(columns, size * 8);
+        }
+        types[size] = type;
+        int base = size * 4;
+        columns[base] = owner;
+        columns[base + 1] = desc;
+        columns[base + 2] = oldName;
+        columns[base + 3] = newName;
+        size++;
+    }
+
+    public void addClass(String oldName, String newName) {
+        add(CLASS, oldName, null, null, newName);
+    }
+
+    public void addField(String owner, String desc, String oldName, String newName) {
+        add(FIELD, owner, desc, oldName, newName);
+    }
+
+    public void addMethod(String owner, String desc, String oldName, String newName) {
+        add(METHOD, owner, desc, oldName, newName);
+    }
+
+    private int compare(int a, int b) {
+        int cmp = Byte.compare(types[a], types[b]);
+        if (cmp != 0) {
+            return cmp;
+        }
+        int baseA = a * 4;
+        int baseB = b * 4;
+        cmp = columns[baseA].compareTo(columns[baseB]);
+        if (cmp != 0 || types[a] == CLASS) {
+            return cmp;
+        }
+        cmp = columns[baseA + 2].compareTo(columns[baseB + 2]);
+        if (cmp != 0) {
+            return cmp;
+        }
+        return columns[baseA + 1].compareTo(columns[baseB + 1]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sorts the entry indices. A merge sort is used as it is stable, which keeps duplicate entries in the
+     * order they were added.
+     *
+     * @return The sorted indices
+     */
+    private int[] sortedIndices() {
+        int[] indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            indices[i] = i;
+        }
+        int[] buffer = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int left = 0; left < size; left += 2 * width) {
+                int middle = Math.min(left + width, size);
+                int right = Math.min(left + 2 * width, size);
+                int i = left;
+                int j = middle;
+                int k = left;
+                while (i < middle && j < right) {
+                    buffer[k++] = compare(indices[j], indices[i]) < 0 ? indices[j++] : indices[i++];
+                }
+                while (i < middle) {
+                    buffer[k++] = indices[i++];
+                }
+                while (j < right) {
+                    buffer[k++] = indices[j++];
+                }
+            }
+            int[] swap = indices;
+            indices = buffer;
+            buffer = swap;
+        }
+        return indices;
+    }
+
+    /**
+     * Writes all entries in the tiny v1 format.
+     *
+     * @param writer The writer to write to, it is not closed by this method
+     * @throws IOException If an IO issue occurred
+     */
+    public void write(Writer writer) throws IOException {
+        // The tiny format does not make use of system-dependent newlines
+        writer.write("v1\tofficial\tintermediary\n");
+        for (int index : sortedIndices()) {
+            int base = index * 4;
+            switch (types[index]) {
+            case CLASS:
+                writer.write("CLASS\t");
+                writer.write(columns[base]);
+                break;
+            case FIELD:
+                // Format: FIELD owner descriptor originalName newName
+                writer.write("FIELD\t");
+                writer.write(columns[base]);
+                writer.write('\t');
+                writer.write(columns[base + 1]);
+                writer.write('\t');
+                writer.write(columns[base + 2]);
+                break;
+            case METHOD:
+                // Format: METHOD owner originalName descriptor newName
+                writer.write("METHOD\t");
+                writer.write(columns[base]);
+                writer.write('\t');
+                writer.write(columns[base + 2]);
+                writer.write('\t');
+                writer.write(columns[base + 1]);
+                break;
+            default:
+                throw new IllegalStateException("Unknown entry type: " + types[index]);
+            }
+            writer.write('\t');
+            writer.write(columns[base + 3]);
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Writes all entries in the tiny v1 format to a file, overwriting the file if it already exists.
+     *
+     * @param file The file to write to
+     * @throws IOException If an IO issue occurred
+     */
+    public void write(File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            write(writer);
+        }
+    }
+}
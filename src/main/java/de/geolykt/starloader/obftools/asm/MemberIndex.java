@@ -0,0 +1,127 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Lookup index of the fields and methods of a class by their name and descriptor, which replaces linear scans
+ * over {@link ClassNode#fields} and {@link ClassNode#methods}.
+ *<p>
+ * The index of a class is built lazily on the first lookup and is shared by all passes that operate on the same
+ * {@link ClassNode} instance. Members that are added or removed are detected by the lookup and cause the index to be rebuilt.
+ * Members whose name or descriptor are changed in place cannot be detected up front, so a lookup that misses falls back to
+ * a linear scan and rebuilds the index if the scan finds the member. Code that renames members in place should still call
+ * {@link #invalidate(ClassNode)} to avoid the scan; the {@link de.geolykt.starloader.obftools.asm.remapper.Remapper} does so
+ * for all classes it processes.
+ */
+public final class MemberIndex {
+
+    private static final Map<ClassNode, MemberIndex> INDICES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Finds the field with the given name and descriptor. If there are multiple such fields (which is not valid),
+     * the first field is returned.
+     *
+     * @param node The class to search in
+     * @param name The name of the field
+     * @param desc The descriptor of the field
+     * @return The field, or null if it is not declared in the class
+     */
+    @Nullable
+    public static FieldNode findField(@NotNull ClassNode node, @NotNull String name, @NotNull String desc) {
+        FieldNode field = get(node).fields.get(key(name, desc));
+        if (field == null) {
+            // A field may have been renamed to the requested name in place
+            for (FieldNode candidate : node.fields) {
+                if (candidate.name.equals(name) && candidate.desc.equals(desc)) {
+                    return rebuild(node).fields.get(key(name, desc));
+                }
+            }
+        } else if (!field.name.equals(name) || !field.desc.equals(desc)) {
+            // The field was changed in place
+            field = rebuild(node).fields.get(key(name, desc));
+        }
+        return field;
+    }
+
+    /**
+     * Finds the method with the given name and descriptor. If there are multiple such methods (which is not valid),
+     * the first method is returned.
+     *
+     * @param node The class to search in
+     * @param name The name of the method
+     * @param desc The descriptor of the method
+     * @return The method, or null if it is not declared in the class
+     */
+    @Nullable
+    public static MethodNode findMethod(@NotNull ClassNode node, @NotNull String name, @NotNull String desc) {
+        MethodNode method = get(node).methods.get(key(name, desc));
+        if (method == null) {
+            // A method may have been renamed to the requested name in place
+            for (MethodNode candidate : node.methods) {
+                if (candidate.name.equals(name) && candidate.desc.equals(desc)) {
+                    return rebuild(node).methods.get(key(name, desc));
+                }
+            }
+        } else if (!method.name.equals(name) || !method.desc.equals(desc)) {
+            // The method was changed in place
+            method = rebuild(node).methods.get(key(name, desc));
+        }
+        return method;
+    }
+
+    private static MemberIndex get(ClassNode node) {
+        MemberIndex index = INDICES.get(node);
+        if (index == null || index.fieldCount != node.fields.size() || index.methodCount != node.methods.size()) {
+            return rebuild(node);
+        }
+        return index;
+    }
+
+    /**
+     * Discards the index of a class. This method needs to be called whenever the name or descriptor
+     * of a member of the class is changed.
+     *
+     * @param node The class whose index should be discarded
+     */
+    public static void invalidate(@NotNull ClassNode node) {
+        INDICES.remove(node);
+    }
+
+    private static String key(String name, String desc) {
+        // Dots are not valid within member names, so the key is unambiguous
+        return name + '.' + desc;
+    }
+
+    private static MemberIndex rebuild(ClassNode node) {
+        MemberIndex index = new MemberIndex(node);
+        INDICES.put(node, index);
+        return index;
+    }
+
+    private final int fieldCount;
+    private final Map<String, FieldNode> fields;
+    private final int methodCount;
+    private final Map<String, MethodNode> methods;
+
+    private MemberIndex(ClassNode node) {
+        fieldCount = node.fields.size();
+        methodCount = node.methods.size();
+        fields = new HashMap<>(fieldCount * 2);
+        for (FieldNode field : node.fields) {
+            fields.putIfAbsent(key(field.name, field.desc), field);
+        }
+        methods = new HashMap<>(methodCount * 2);
+        for (MethodNode method : node.methods) {
+            methods.putIfAbsent(key(method.name, method.desc), method);
+        }
+    }
+}
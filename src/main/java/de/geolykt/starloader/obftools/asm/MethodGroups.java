@@ -0,0 +1,238 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Groups methods that must share the same name because they override each other. A group also contains the
+ * references to inherited methods through subclasses that do not declare the method themselves (implicit inheritance).
+ *<p>
+ * The classes are visited once with their supertypes first. Each class inherits the (name, descriptor)-indexed
+ * overridable methods of it's direct supertypes and every declared or inherited method is merged with the methods
+ * it overrides or inherits via union-find, respecting the {@link OverrideScope} of the methods.
+ * Static methods are never merged with other methods.
+ */
+final class MethodGroups {
+
+    /**
+     * An inheritable method, as seen by a subclass.
+     */
+    private static final class Slot {
+        final int id;
+        final String packageName;
+        final OverrideScope scope;
+
+        Slot(int id, OverrideScope scope, String packageName) {
+            this.id = id;
+            this.scope = scope;
+            this.packageName = packageName;
+        }
+
+        /**
+         * Checks whether a method declared within a given package overrides the method of this slot.
+         *
+         * @param overridingPackage The package of the class that declares the overriding method
+         * @return True if the method is overridden
+         */
+        boolean isOverriddenFrom(String overridingPackage) {
+            return scope == OverrideScope.ALWAYS || (scope == OverrideScope.PACKAGE && packageName.equals(overridingPackage));
+        }
+    }
+
+    private static String getPackage(String internalName) {
+        int lastSlash = internalName.lastIndexOf('/');
+        return lastSlash == -1 ? "" : internalName.substring(0, lastSlash);
+    }
+
+    /**
+     * Computes the method groups of a closed set of classes.
+     *
+     * @param graph The class graph of the classes
+     * @param references The pool to obtain the references of the methods from
+     * @return A map that maps every declared and implicitly inherited method to it's group. Methods of the same group
+     * share the same set instance.
+     */
+    static Map<MethodReference, Set<MethodReference>> compute(ClassGraph graph, ReferencePool references) {
+        MethodGroups groups = new MethodGroups(references);
+        ClassHierarchy hierarchy = graph.getHierarchy();
+        Map<String, Map<String, List<Slot>>> visibleMethods = new HashMap<>(graph.size() * 2);
+        for (String name : hierarchy.getSupertypesFirstOrder()) {
+            ClassNode node = graph.get(name);
+            if (node != null) {
+                visibleMethods.put(name, groups.visit(node, groups.inherit(hierarchy.getDirectSupertypes(name), visibleMethods)));
+            }
+        }
+        return groups.collect();
+    }
+
+    private final Map<MethodReference, Integer> ids = new HashMap<>();
+    private int[] parents = new int[256];
+    private final ReferencePool pool;
+    private final List<MethodReference> references = new ArrayList<>();
+    private int[] sizes = new int[256];
+
+    private MethodGroups(ReferencePool pool) {
+        this.pool = pool;
+    }
+
+    private Map<MethodReference, Set<MethodReference>> collect() {
+        Map<Integer, Set<MethodReference>> groups = new HashMap<>();
+        Map<MethodReference, Set<MethodReference>> out = new HashMap<>(references.size() * 2);
+        for (int i = 0; i < references.size(); i++) {
+            int root = find(i);
+            Set<MethodReference> group;
+            if (sizes[root] == 1) {
+                group = Collections.singleton(references.get(i));
+            } else {
+                group = groups.computeIfAbsent(root, key -> new HashSet<>());
+                group.add(references.get(i));
+            }
+            out.put(references.get(i), group);
+        }
+        return out;
+    }
+
+    private int find(int id) {
+        while (parents[id] != id) {
+            // Path halving
+            parents[id] = parents[parents[id]];
+            id = parents[id];
+        }
+        return id;
+    }
+
+    private int getId(MethodReference reference) {
+        Integer id = ids.get(reference);
+        if (id != null) {
+            return id;
+        }
+        int newId = references.size();
+        if (newId == parents.length) {
+            parents = Arrays.copyOf(parents, newId * 2);
+            sizes = Arrays.copyOf(sizes, newId * 2);
+        }
+        parents[newId] = newId;
+        sizes[newId] = 1;
+        references.add(reference);
+        ids.put(reference, newId);
+        return newId;
+    }
+
+    private Map<String, List<Slot>> inherit(List<String> supertypes, Map<String, Map<String, List<Slot>>> visibleMethods) {
+        if (supertypes.size() == 1) {
+            Map<String, List<Slot>> inherited = visibleMethods.get(supertypes.get(0));
+            return inherited == null ? Collections.emptyMap() : inherited;
+        }
+        Map<String, List<Slot>> inherited = new HashMap<>();
+        for (String supertype : supertypes) {
+            Map<String, List<Slot>> superMethods = visibleMethods.get(supertype);
+            if (superMethods == null) {
+                continue;
+            }
+            superMethods.forEach((key, slots) -> {
+                List<Slot> merged = inherited.get(key);
+                if (merged == null) {
+                    inherited.put(key, slots);
+                    return;
+                }
+                // The same method may be inherited through multiple interfaces
+                List<Slot> copy = new ArrayList<>(merged);
+                for (Slot slot : slots) {
+                    if (!copy.contains(slot)) {
+                        copy.add(slot);
+                    }
+                }
+                inherited.put(key, copy);
+            });
+        }
+        return inherited;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) {
+            return;
+        }
+        if (sizes[rootA] < sizes[rootB]) {
+            int swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        }
+        parents[rootB] = rootA;
+        sizes[rootA] += sizes[rootB];
+    }
+
+    /**
+     * Merges the methods of a class with the methods it inherits.
+     * The slot lists of the inherited map are shared with the supertypes and are thus never modified.
+     *
+     * @param node The class
+     * @param inherited The methods inherited from the direct supertypes, keyed by name and descriptor
+     * @return The methods visible to the direct subtypes of the class
+     */
+    private Map<String, List<Slot>> visit(ClassNode node, Map<String, List<Slot>> inherited) {
+        String packageName = getPackage(node.name);
+        Map<String, List<Slot>> visible = new HashMap<>(inherited);
+        Set<String> declared = new HashSet<>();
+        for (MethodNode method : node.methods) {
+            int id = getId(pool.method(node.name, method));
+            String key = method.name.concat(method.desc);
+            // Static methods are declared too, as references through this class resolve to them instead of the inherited method
+            declared.add(key);
+            if ((method.access & Opcodes.ACC_STATIC) != 0) {
+                // A static method is more or less a standalone method. It neither overrides nor hides the inherited
+                // methods from the subclasses, so they stay visible
+                continue;
+            }
+            List<Slot> slots = inherited.getOrDefault(key, Collections.emptyList());
+            List<Slot> remaining = new ArrayList<>();
+            boolean isPrivate = (method.access & Opcodes.ACC_PRIVATE) != 0;
+            for (Slot slot : slots) {
+                if (!isPrivate && slot.isOverriddenFrom(packageName)) {
+                    union(id, slot.id);
+                } else {
+                    // Package-private methods from other packages (or final methods) are not overridden, but still inherited
+                    remaining.add(slot);
+                }
+            }
+            if (!isPrivate) {
+                remaining.add(new Slot(id, OverrideScope.fromFlags(method.access), packageName));
+            }
+            if (remaining.isEmpty()) {
+                visible.remove(key);
+            } else {
+                visible.put(key, remaining);
+            }
+        }
+        inherited.forEach((key, slots) -> {
+            if (declared.contains(key)) {
+                return;
+            }
+            // Implicit inheritance: the method can be referenced through this class. The reference is only merged with the
+            // methods a declaration within this class would override, as package-private methods of other packages
+            // and final methods are unrelated to the other methods of the same name and descriptor
+            int id = -1;
+            for (Slot slot : slots) {
+                if (slot.isOverriddenFrom(packageName)) {
+                    if (id == -1) {
+                        MethodReference declaring = references.get(slot.id);
+                        id = getId(pool.method(node.name, declaring.getDesc(), declaring.getName()));
+                    }
+                    union(id, slot.id);
+                }
+            }
+        });
+        return visible;
+    }
+}
@@ -9,6 +9,7 @@ import org.objectweb.asm.tree.MethodNode;
 public class MethodReference {
 
     private final String desc;
+    private final int hash;
     private final String name;
     private final String owner;
 
@@ -24,6 +25,8 @@ public class MethodReference {
         this.owner = owner;
         this.name = name;
         this.desc = desc;
+        // References are mostly used as map keys, so the hash is computed once. Same value as Objects.hash(owner, name, desc)
+        this.hash = 31 * (31 * (31 + Objects.hashCode(owner)) + Objects.hashCode(name)) + Objects.hashCode(desc);
     }
 
     @Override
@@ -35,7 +38,7 @@ public class MethodReference {
             return false;
         }
         MethodReference other = (MethodReference) obj;
-        return other.name.equals(this.name) && other.desc.equals(this.desc) && other.owner.equals(this.owner);
+        return other.hash == this.hash && other.name.equals(this.name) && other.desc.equals(this.desc) && other.owner.equals(this.owner);
     }
 
     /**
@@ -63,7 +66,7 @@ public class MethodReference {
 
     @Override
     public int hashCode() {
-        return Objects.hash(owner, name, desc);
+        return hash;
     }
 
     @Override
@@ -18,6 +18,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.zip.ZipEntry;
@@ -30,18 +31,17 @@ import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.FieldNode;
-import org.objectweb.asm.tree.FrameNode;
 import org.objectweb.asm.tree.InnerClassNode;
-import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LabelNode;
-import org.objectweb.asm.tree.LineNumberNode;
 import org.objectweb.asm.tree.LocalVariableNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.ParameterNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.Frame;
+import org.objectweb.asm.tree.analysis.SourceValue;
 
 /**
  * Primitive class metadata recovery tool.
@@ -124,6 +124,102 @@ public class Oaktree {
 
     public static final int VISIBILITY_MODIFIERS = Opcodes.ACC_PRIVATE | Opcodes.ACC_PROTECTED | Opcodes.ACC_PUBLIC;
 
+    /**
+     * The instructions that javac emits for the head of a for loop on an array, see {@link #fixForeachOnArray(boolean)}.
+     */
+    private static final InsnPattern ARRAY_LOOP = InsnPattern.builder()
+            .then("arrayStore", (insn, match) -> OPHelper.isVarStore(insn.getOpcode()))
+            // Ensure that the variable that was just stored is reloaded again
+            .then(null, (insn, match) -> OPHelper.isVarLoad(insn.getOpcode()) && ((VarInsnNode) insn).var == match.getVar("arrayStore"))
+            // the array length needs to be obtained & stored
+            .then(null, Opcodes.ARRAYLENGTH)
+            .then("arrayLengthStore", Opcodes.ISTORE)
+            // the array index needs to be initialized and stored
+            .then(null, Opcodes.ICONST_0)
+            .then("indexStore", Opcodes.ISTORE)
+            // This is the loop starting point. The index needs to be loaded and compared do the array length
+            .skipping(InsnPattern.SKIP_FRAMES | InsnPattern.SKIP_LABELS)
+            .then(null, (insn, match) -> insn.getOpcode() == Opcodes.ILOAD && ((VarInsnNode) insn).var == match.getVar("indexStore"))
+            .then(null, (insn, match) -> insn.getOpcode() == Opcodes.ILOAD && ((VarInsnNode) insn).var == match.getVar("arrayLengthStore"))
+            // The end of the loop statement
+            .then("jumpToEnd", Opcodes.IF_ICMPGE)
+            // obtain array & loop index
+            .then("arrayLoad", (insn, match) -> OPHelper.isVarLoad(insn.getOpcode()) && ((VarInsnNode) insn).var == match.getVar("arrayStore"))
+            .then(null, (insn, match) -> insn.getOpcode() == Opcodes.ILOAD && ((VarInsnNode) insn).var == match.getVar("indexStore"))
+            // it should now proceed to actually obtain the referenced object
+            .then(null, (insn, match) -> OPHelper.isArrayLoad(insn.getOpcode())
+                    && OPHelper.isVarSimilarType(insn.getOpcode(), match.get("arrayLoad").getOpcode()))
+            .then("objectStore", (insn, match) -> OPHelper.isVarStore(insn.getOpcode())
+                    && OPHelper.isVarSimilarType(insn.getOpcode(), match.get("arrayStore").getOpcode()))
+            .build();
+
+    /**
+     * The opcodes that a method needs to use in order to contain a for loop on an array, see {@link #fixForeachOnArray(boolean)}.
+     */
+    private static final OpcodeBitmap ARRAY_LOOP_OPCODES = OpcodeBitmap.of(Opcodes.ARRAYLENGTH, Opcodes.ICONST_0, Opcodes.ISTORE,
+            Opcodes.ILOAD, Opcodes.IF_ICMPGE);
+
+    /**
+     * The instructions of a synthetic bridge method that implements {@link java.util.Comparator#compare(Object, Object)}
+     * by casting both arguments and calling the typed compare method, see {@link #fixComparators(boolean, boolean)}.
+     */
+    private static final InsnPattern COMPARATOR_BRIDGE = InsnPattern.builder()
+            .skipping(InsnPattern.SKIP_LABELS | InsnPattern.SKIP_LINES)
+            .then(null, (insn, match) -> insn.getOpcode() == Opcodes.ALOAD && ((VarInsnNode) insn).var == 0)
+            .then(null, Opcodes.ALOAD)
+            .then(null, Opcodes.CHECKCAST)
+            .then(null, Opcodes.ALOAD)
+            .then(null, Opcodes.CHECKCAST)
+            .then("invokevirtual", Opcodes.INVOKEVIRTUAL)
+            .then(null, Opcodes.IRETURN)
+            .build();
+
+    /**
+     * The instructions of a static initializer of a switch map class that look up the switch map and the enum constant
+     * whose ordinal is put in the switch map, see {@link #fixSwitchMaps(boolean)}. The enum constant may not be an int array,
+     * so that a lookup of an unrelated switch map does not consume the lookup of the switch map that is searched for.
+     */
+    private static final InsnPattern SWITCH_MAP_LOOKUP = InsnPattern.builder()
+            .then("switchMap", (insn, match) -> insn.getOpcode() == Opcodes.GETSTATIC && ((FieldInsnNode) insn).desc.equals("[I"))
+            // ASM is sometimes not so nice
+            .skipping(InsnPattern.SKIP_FRAMES | InsnPattern.SKIP_LABELS)
+            .then("enumConstant", (insn, match) -> insn.getOpcode() == Opcodes.GETSTATIC && !((FieldInsnNode) insn).desc.equals("[I"))
+            .build();
+
+    /**
+     * The instructions that javac emits for the head of an iterator-based loop on a field
+     * that casts the elements of the iterator, see {@link #guessFieldGenerics()}.
+     */
+    private static final InsnPattern ITERATOR_LOOP = InsnPattern.builder()
+            .then("field", (insn, match) -> insn instanceof FieldInsnNode)
+            // check whether the called method is Iterable#iterator
+            .then(null, (insn, match) -> insn instanceof MethodInsnNode
+                    && !((MethodInsnNode) insn).itf // FIXME huh?
+                    && ((MethodInsnNode) insn).name.equals("iterator")
+                    && ((MethodInsnNode) insn).desc.equals("()Ljava/util/Iterator;"))
+            // This instruction should store the iterator that was just obtained
+            .then("iteratorStore", Opcodes.ASTORE)
+            // this is the label that marks the beginning of the loop
+            .then(null, (insn, match) -> insn instanceof LabelNode)
+            // require the load instruction where the iterator will be obtained again
+            .skipping(InsnPattern.SKIP_FRAMES | InsnPattern.SKIP_LINES)
+            .then(null, (insn, match) -> insn.getOpcode() == Opcodes.ALOAD && ((VarInsnNode) insn).var == match.getVar("iteratorStore"))
+            .then(null, (insn, match) -> isIteratorCall(insn, "hasNext", "()Z"))
+            // it is pretty clear that this is a while loop now, but we have this for redundancy anyways
+            .then("loopEndJump", (insn, match) -> insn instanceof JumpInsnNode)
+            .then(null, (insn, match) -> insn.getOpcode() == Opcodes.ALOAD && ((VarInsnNode) insn).var == match.getVar("iteratorStore"))
+            .then(null, (insn, match) -> isIteratorCall(insn, "next", "()Ljava/lang/Object;"))
+            // this instruction is the core of our check, and the holy grail
+            .then("checkCast", Opcodes.CHECKCAST)
+            .build();
+
+    /**
+     * The opcodes that a method needs to use in order to contain an iterator-based loop with a cast of the elements,
+     * see {@link #guessFieldGenerics()}.
+     */
+    private static final OpcodeBitmap ITERATOR_LOOP_OPCODES = OpcodeBitmap.of(Opcodes.ASTORE, Opcodes.ALOAD,
+            Opcodes.INVOKEINTERFACE, Opcodes.CHECKCAST);
+
     public static void main(String[] args) {
         long start = System.currentTimeMillis();
         if (args.length < 2) {
@@ -135,12 +231,11 @@ public class Oaktree {
             JarFile file = new JarFile(args[0]);
             oakTree.index(file);
             file.close();
+            oakTree.useParallelProcessing(true);
             oakTree.definalizeAnonymousClasses();
             oakTree.fixInnerClasses();
             oakTree.fixParameterLVT();
-            oakTree.guessFieldGenerics();
-            oakTree.inferMethodGenerics(true);
-            oakTree.inferConstructorGenerics(true);
+            oakTree.inferGenerics(true);
             oakTree.fixSwitchMaps(true);
             oakTree.fixForeachOnArray(true);
             oakTree.fixComparators(true, true);
@@ -150,7 +245,7 @@ public class Oaktree {
             System.out.println("Applied inner class nodes to referencing classes. (" + (System.currentTimeMillis() - startStep) + " ms)");
             if (args.length == 3 && Boolean.valueOf(args[2]) == true) {
                 // remapper activate!
-                IntermediaryGenerator gen = new IntermediaryGenerator(new File("map.tiny"), new File(args[1]), oakTree.nodes);
+                IntermediaryGenerator gen = new IntermediaryGenerator(new File("map.tiny"), new File(args[1]), oakTree.classGraph);
                 gen.addResources(new File(args[0]));
                 gen.useAlternateClassNaming(false);
                 gen.remapClassesV2();
@@ -170,8 +265,11 @@ public class Oaktree {
         System.out.printf("Finished processing in record pace: Only %d ms!\n", System.currentTimeMillis() - start);
     }
 
-    private final Map<String, ClassNode> nameToNode = new HashMap<>();
+    private final ClassGraph classGraph = new ClassGraph();
+    private final FrameCache frameCache = new FrameCache(); // Shared by the generic inference passes
     private final List<ClassNode> nodes = new ArrayList<>();
+    private boolean parallelProcessing;
+    private final ReferenceSiteIndex referenceSites = new ReferenceSiteIndex();
     private final ClassWrapperPool wrapperPool;
 
     public Oaktree() {
@@ -179,7 +277,122 @@ public class Oaktree {
     }
 
     public Oaktree(ClassLoader classWrapperClassloader) {
-        wrapperPool = new ClassWrapperPool(nameToNode, classWrapperClassloader);
+        wrapperPool = new ClassWrapperPool(classGraph, classWrapperClassloader);
+    }
+
+    /**
+     * Adds the LVT entry of the iterated element of a for loop on an array, if the loop is a foreach loop
+     * and the type of the array can be guessed.
+     *
+     * @param node The class that declares the method
+     * @param method The method that contains the loop
+     * @param match The match of the {@link #ARRAY_LOOP} pattern
+     * @return True if an LVT entry was added
+     */
+    private static boolean addArrayLoopLVT(ClassNode node, MethodNode method, InsnPattern.Match match) {
+        VarInsnNode arrayStore = match.get("arrayStore");
+        VarInsnNode indexStore = match.get("indexStore");
+        JumpInsnNode jumpToEnd = match.get("jumpToEnd");
+        VarInsnNode objectStore = match.get("objectStore");
+        // This is now defenitely a for loop on an array. This does not mean however
+        // that it is a foreach loop, which is the kind of loop we were searching for.
+        // There is at least one operation that invalidate the use of a foreach loop:
+        // - obtaining the loop index
+        // Obtaining the array contents might be another issue, but I don't think it qualifies
+        // as it could also be that the array was declared earlier
+        boolean validForEachLoop = true;
+        AbstractInsnNode next = objectStore.getNext();
+        while (true) { // dangerous while (true) loop; but do not despair, it isn't as dangerous as you may believe
+            if (next == null) {
+                System.err.println("Method " + node.name + "." + method.name + method.desc + " has a cursed for loop.");
+                break;
+            }
+            if (next instanceof VarInsnNode && ((VarInsnNode)next).var == indexStore.var) {
+                validForEachLoop = false;
+                break;
+            }
+            if (next instanceof LabelNode && jumpToEnd.label.equals(next)) {
+                break;
+            }
+            next = next.getNext();
+        }
+        if (!validForEachLoop) {
+            return false;
+        }
+        // So this is a valid foreach loop on an array!
+        // Grats, but now we need to determine the correct type for LVT.
+        // Since I did a mistake while designing this method, we already know
+        // where the loop came from, so that thankfully is not an issue (yay)
+        AbstractInsnNode previous = arrayStore.getPrevious();
+        if (previous == null) {
+            System.err.println("Method " + node.name + "." + method.name + method.desc + " has invalid bytecode.");
+            return false;
+        }
+        String arrayDesc = null;
+        if (previous instanceof MethodInsnNode) {
+            MethodInsnNode methodInvocation = (MethodInsnNode) previous;
+            arrayDesc = methodInvocation.desc.substring(methodInvocation.desc.lastIndexOf(')') + 1);
+        } else if (previous instanceof FieldInsnNode) {
+            arrayDesc = ((FieldInsnNode)previous).desc;
+        } else if (previous instanceof TypeInsnNode) {
+            if (previous.getOpcode() == Opcodes.ANEWARRAY) {
+                arrayDesc = "[L" + ((TypeInsnNode)previous).desc + ";";
+            } else {
+                arrayDesc = ((TypeInsnNode)previous).desc;
+            }
+        } else if (previous instanceof VarInsnNode) {
+            if (OPHelper.isVarLoad(previous.getOpcode())) {
+                VarInsnNode otherArrayInstance = (VarInsnNode) previous;
+                while (previous != null) {
+                    if (previous instanceof VarInsnNode
+                            && ((VarInsnNode) previous).var == otherArrayInstance.var
+                            && OPHelper.isVarStore(previous.getOpcode())) {
+                        AbstractInsnNode origin = previous.getPrevious();
+                        if (origin instanceof VarInsnNode && OPHelper.isVarLoad(origin.getOpcode())) {
+                            // Ugh...
+                            otherArrayInstance = (VarInsnNode) origin;
+                            continue;
+                        } else if (origin instanceof MethodInsnNode) {
+                            MethodInsnNode methodInvocation = (MethodInsnNode) origin;
+                            arrayDesc = methodInvocation.desc.substring(methodInvocation.desc.lastIndexOf(')') + 1);
+                            break;
+                        } else if (origin instanceof FieldInsnNode) {
+                            arrayDesc = ((FieldInsnNode)origin).desc;
+                            break;
+                        } else if (origin instanceof TypeInsnNode) {
+                            if (origin.getOpcode() == Opcodes.ANEWARRAY) {
+                                arrayDesc = "[L" + ((TypeInsnNode)origin).desc + ";";
+                            } else {
+                                arrayDesc = ((TypeInsnNode)origin).desc;
+                            }
+                            break;
+                        } else {
+                            // I have come to the conclusion that it isn't worth the effort to attempt to recover the
+                            // type of the variable here
+                            // This is as it is likely that the array is hidden deep in the stack before it was stored
+                            break;
+                        }
+                    }
+                    previous = previous.getPrevious();
+                }
+            }
+        }
+        if (arrayDesc == null) {
+            return false;
+        }
+        if (arrayDesc.charAt(0) != '[') {
+            System.err.println("Method " + node.name + "." + method.name + method.desc + " has invalid bytecode.");
+            System.err.println("Guessed type: " + arrayDesc + ", but expected an array. Array found at index " + arrayStore.var);
+            return false;
+        }
+        // Copy my Quiltflower rant from the other genericsfixing method
+        // Actually - it might be for the better as otherwise I would have to spend my time checking if the LVT entry already exists
+        LabelNode startObjectStoreLabel = new LabelNode();
+        method.instructions.insertBefore(objectStore, startObjectStoreLabel);
+        LocalVariableNode localVar = new LocalVariableNode("var" + objectStore.var,
+                arrayDesc.substring(1), null, startObjectStoreLabel, jumpToEnd.label, objectStore.var);
+        method.localVariables.add(localVar);
+        return true;
     }
 
     /**
@@ -198,27 +411,20 @@ public class Oaktree {
         }
 
         // Find references to these classes
-        Set<String> encounteredClasses = new HashSet<>();
-        for (ClassNode node : nodes) {
-            encounteredClasses.clear();
-            for (InnerClassNode icn : node.innerClasses) {
-                encounteredClasses.add(icn.name);
-            }
-            for (MethodNode method : node.methods) {
-                if (method.instructions == null) {
-                    continue;
-                }
-                for (AbstractInsnNode insn : method.instructions) {
-                    if (insn instanceof MethodInsnNode) {
-                        MethodInsnNode methodRef = (MethodInsnNode) insn;
-                        if (encounteredClasses.add(methodRef.owner)) {
-                            InnerClassNode icn = innerClassNodes.get(methodRef.owner);
-                            if (icn != null) {
-                                node.innerClasses.add(icn);
-                            }
-                        }
-                    }
+        Map<ClassNode, Set<String>> encounteredClasses = new HashMap<>();
+        for (ReferenceSiteIndex.Site site : referenceSites.getMethodSitesByOwner(innerClassNodes.keySet())) {
+            ClassNode node = site.getOwner();
+            Set<String> encountered = encounteredClasses.get(node);
+            if (encountered == null) {
+                encountered = new HashSet<>();
+                for (InnerClassNode icn : node.innerClasses) {
+                    encountered.add(icn.name);
                 }
+                encounteredClasses.put(node, encountered);
+            }
+            String owner = ((MethodInsnNode) site.getInstruction()).owner;
+            if (encountered.add(owner)) {
+                node.innerClasses.add(innerClassNodes.get(owner));
             }
         }
     }
@@ -258,69 +464,28 @@ public class Oaktree {
                 continue;
             }
             // Ljava/lang/Object;Ljava/util/Comparator<Lorg/junit/runner/Description;>;
-            for (MethodNode method : node.methods) {
-                if ((method.access & Opcodes.ACC_SYNTHETIC) == 0) {
-                    continue;
-                }
-                if (method.name.equals("compare") && method.desc.equals("(Ljava/lang/Object;Ljava/lang/Object;)I")) {
-                    AbstractInsnNode insn = method.instructions.getFirst();
-                    while (insn instanceof LabelNode || insn instanceof LineNumberNode) {
-                        insn = insn.getNext();
-                    }
-                    if (insn.getOpcode() != Opcodes.ALOAD) {
-                        throw new IllegalStateException("invalid bridge method: unexpected opcode");
-                    }
-                    VarInsnNode aloadThis = (VarInsnNode) insn;
-                    if (aloadThis.var != 0) {
-                        throw new IllegalStateException("invalid bridge method: unexpected variable loaded");
-                    }
-                    insn = insn.getNext();
-                    if (insn.getOpcode() != Opcodes.ALOAD) {
-                        throw new IllegalStateException("invalid bridge method: unexpected opcode");
-                    }
-                    insn = insn.getNext();
-                    if (insn.getOpcode() != Opcodes.CHECKCAST) {
-                        throw new IllegalStateException("invalid bridge method: unexpected opcode");
-                    }
-                    insn = insn.getNext();
-                    if (insn.getOpcode() != Opcodes.ALOAD) {
-                        throw new IllegalStateException("invalid bridge method: unexpected opcode");
-                    }
-                    insn = insn.getNext();
-                    if (insn.getOpcode() != Opcodes.CHECKCAST) {
-                        throw new IllegalStateException("invalid bridge method: unexpected opcode");
-                    }
-                    insn = insn.getNext();
-                    if (insn.getOpcode() != Opcodes.INVOKEVIRTUAL) {
-                        throw new IllegalStateException("invalid bridge method: unexpected opcode");
-                    }
-                    MethodInsnNode invokevirtual = (MethodInsnNode) insn;
-                    insn = insn.getNext();
-                    if (insn.getOpcode() != Opcodes.IRETURN) {
-                        throw new IllegalStateException("invalid bridge method: unexpected opcode");
-                    }
-                    boolean methodCallIsInvalid = true;
-                    for (MethodNode m : node.methods) {
-                        if (m.name.equals(invokevirtual.name) && m.desc.equals(invokevirtual.desc)) {
-                            methodCallIsInvalid = false;
-                            break;
-                        }
-                    }
-                    if (methodCallIsInvalid) {
-                        if (resolveTRArtifact) {
-                            // Tiny remapper artifact
-                            invokevirtual.name = "compare";
-                        } else {
-                            throw new IllegalStateException("invalid bridge method: method does not exist (consider setting resolveTRArtifact to true)");
-                        }
-                    }
-                    String generics = invokevirtual.desc.substring(1, invokevirtual.desc.indexOf(';'));
-                    node.signature = "Ljava/lang/Object;Ljava/util/Comparator<" + generics + ";>;";
-                    fixedBridges++;
-                    method.access |= Opcodes.ACC_BRIDGE;
-                    break;
+            MethodNode method = MemberIndex.findMethod(node, "compare", "(Ljava/lang/Object;Ljava/lang/Object;)I");
+            if (method == null || (method.access & Opcodes.ACC_SYNTHETIC) == 0) {
+                continue;
+            }
+            InsnPattern.Match bridge = COMPARATOR_BRIDGE.match(method.instructions.getFirst());
+            if (bridge == null) {
+                throw new IllegalStateException("invalid bridge method: unexpected instructions");
+            }
+            MethodInsnNode invokevirtual = bridge.get("invokevirtual");
+            if (MemberIndex.findMethod(node, invokevirtual.name, invokevirtual.desc) == null) {
+                if (resolveTRArtifact) {
+                    // Tiny remapper artifact
+                    invokevirtual.name = "compare";
+                    referenceSites.index(node, method);
+                } else {
+                    throw new IllegalStateException("invalid bridge method: method does not exist (consider setting resolveTRArtifact to true)");
                 }
             }
+            String generics = invokevirtual.desc.substring(1, invokevirtual.desc.indexOf(';'));
+            node.signature = "Ljava/lang/Object;Ljava/util/Comparator<" + generics + ";>;";
+            fixedBridges++;
+            method.access |= Opcodes.ACC_BRIDGE;
         }
         if (doLogging) {
             System.out.printf("Fixed %d bridge methods! (%d ms)\n", fixedBridges, System.currentTimeMillis() - start);
@@ -337,207 +502,17 @@ public class Oaktree {
      * @param doLog Whether to perform any logging operations
      */
     public void fixForeachOnArray(boolean doLog) {
-        int addedLVTs = 0;
+        int[] addedLVTs = new int[1];
         long startTime = System.currentTimeMillis();
 
-        for (ClassNode node : nodes) {
-            for (MethodNode method : node.methods) {
-                AbstractInsnNode instruction = method.instructions.getFirst();
-                while (instruction != null) {
-                    if (instruction instanceof VarInsnNode && OPHelper.isVarStore(instruction.getOpcode())) {
-                        VarInsnNode arrayStore = (VarInsnNode) instruction;
-                        AbstractInsnNode next = arrayStore.getNext();
-                        // Ensure that the variable that was just stored is reloaded again
-                        if (!(next instanceof VarInsnNode && OPHelper.isVarLoad(next.getOpcode())
-                                && ((VarInsnNode) next).var == arrayStore.var)) {
-                            instruction = next;
-                            continue;
-                        }
-                        // the array length needs to be obtained & stored
-                        next = next.getNext();
-                        if (!(next instanceof InsnNode && next.getOpcode() == Opcodes.ARRAYLENGTH)) {
-                            instruction = next;
-                            continue;
-                        }
-                        next = next.getNext();
-                        if (!(next instanceof VarInsnNode && next.getOpcode() == Opcodes.ISTORE)) {
-                            instruction = next;
-                            continue;
-                        }
-                        VarInsnNode arrayLengthStore = (VarInsnNode) next;
-                        next = next.getNext();
-                        // the array index needs to be initialized and stored
-                        if (!(next instanceof InsnNode && next.getOpcode() == Opcodes.ICONST_0)) {
-                            // is not the init process
-                            instruction = next;
-                            continue;
-                        }
-                        next = next.getNext();
-                        if (!(next instanceof VarInsnNode && next.getOpcode() == Opcodes.ISTORE)) {
-                            // does not store the loop index
-                            instruction = next;
-                            continue;
-                        }
-                        VarInsnNode indexStore = (VarInsnNode) next;
-                        next = next.getNext();
-                        // This is the loop starting point
-                        while (next instanceof FrameNode || next instanceof LabelNode) {
-                            next = next.getNext();
-                        }
-                        // The index needs to be loaded and compared do the array length
-                        if (!(next instanceof VarInsnNode && next.getOpcode() == Opcodes.ILOAD
-                                && ((VarInsnNode)next).var == indexStore.var)) {
-                            instruction = next;
-                            continue;
-                        }
-                        next = next.getNext();
-                        if (!(next instanceof VarInsnNode && next.getOpcode() == Opcodes.ILOAD
-                                && ((VarInsnNode)next).var == arrayLengthStore.var)) {
-                            instruction = next;
-                            continue;
-                        }
-                        next = next.getNext();
-                        // The end of the loop statement
-                        if (!(next instanceof JumpInsnNode && next.getOpcode() == Opcodes.IF_ICMPGE)) {
-                            instruction = next;
-                            continue;
-                        }
-                        JumpInsnNode jumpToEnd = (JumpInsnNode) next;
-                        next = next.getNext();
-                        // obtain array & loop index
-                        if (!(next instanceof VarInsnNode && OPHelper.isVarLoad(next.getOpcode())
-                                && ((VarInsnNode)next).var == arrayStore.var)) {
-                            instruction = next;
-                            continue;
-                        }
-                        VarInsnNode arrayLoad = (VarInsnNode) next;
-                        next = next.getNext();
-                        if (!(next instanceof VarInsnNode && next.getOpcode() == Opcodes.ILOAD
-                                && ((VarInsnNode)next).var == indexStore.var)) {
-                            instruction = next;
-                            continue;
-                        }
-                        next = next.getNext();
-                        // it should now proceed to actually obtain the referenced object
-                        if (!(next instanceof InsnNode && OPHelper.isArrayLoad(next.getOpcode())
-                                && OPHelper.isVarSimilarType(next.getOpcode(), arrayLoad.getOpcode()))) {
-                            instruction = next;
-                            continue;
-                        }
-                        next = next.getNext();
-                        if (!(next instanceof VarInsnNode && OPHelper.isVarStore(next.getOpcode())
-                                && OPHelper.isVarSimilarType(next.getOpcode(), arrayStore.getOpcode()))) {
-                            instruction = next;
-                            continue;
-                        }
-                        VarInsnNode objectStore = (VarInsnNode) next;
-                        next = next.getNext();
-                        instruction = next; // There may be nested loops - we want to take a lookout for them
-                        // This is now defenitely a for loop on an array. This does not mean however
-                        // that it is a foreach loop, which is the kind of loop we were searching for.
-                        // There is at least one operation that invalidate the use of a foreach loop:
-                        // - obtaining the loop index
-                        // Obtaining the array contents might be another issue, but I don't think it qualifies
-                        // as it could also be that the array was declared earlier
-                        boolean validForEachLoop = true;
-                        while (true) { // dangerous while (true) loop; but do not despair, it isn't as dangerous as you may believe
-                            if (next == null) {
-                                System.err.println("Method " + node.name + "." + method.name + method.desc + " has a cursed for loop.");
-                                break;
-                            }
-                            if (next instanceof VarInsnNode && ((VarInsnNode)next).var == indexStore.var) {
-                                validForEachLoop = false;
-                                break;
-                            }
-                            if (next instanceof LabelNode && jumpToEnd.label.equals(next)) {
-                                break;
-                            }
-                            next = next.getNext();
-                        }
-                        if (validForEachLoop) {
-                            // So this is a valid foreach loop on an array!
-                            // Grats, but now we need to determine the correct type for LVT.
-                            // Since I did a mistake while designing this method, we already know
-                            // where the loop came from, so that thankfully is not an issue (yay)
-                            AbstractInsnNode previous = arrayStore.getPrevious();
-                            if (previous == null) {
-                                System.err.println("Method " + node.name + "." + method.name + method.desc + " has invalid bytecode.");
-                                continue;
-                            }
-                            String arrayDesc = null;
-                            if (previous instanceof MethodInsnNode) {
-                                MethodInsnNode methodInvocation = (MethodInsnNode) previous;
-                                arrayDesc = methodInvocation.desc.substring(methodInvocation.desc.lastIndexOf(')') + 1);
-                            } else if (previous instanceof FieldInsnNode) {
-                                arrayDesc = ((FieldInsnNode)previous).desc;
-                            } else if (previous instanceof TypeInsnNode) {
-                                if (previous.getOpcode() == Opcodes.ANEWARRAY) {
-                                    arrayDesc = "[L" + ((TypeInsnNode)previous).desc + ";";
-                                } else {
-                                    arrayDesc = ((TypeInsnNode)previous).desc;
-                                }
-                            } else if (previous instanceof VarInsnNode) {
-                                if (OPHelper.isVarLoad(previous.getOpcode())) {
-                                    VarInsnNode otherArrayInstance = (VarInsnNode) previous;
-                                    while (previous != null) {
-                                        if (previous instanceof VarInsnNode
-                                                && ((VarInsnNode) previous).var == otherArrayInstance.var
-                                                && OPHelper.isVarStore(previous.getOpcode())) {
-                                            AbstractInsnNode origin = previous.getPrevious();
-                                            if (origin instanceof VarInsnNode && OPHelper.isVarLoad(origin.getOpcode())) {
-                                                // Ugh...
-                                                otherArrayInstance = (VarInsnNode) origin;
-                                                continue;
-                                            } else if (origin instanceof MethodInsnNode) {
-                                                MethodInsnNode methodInvocation = (MethodInsnNode) origin;
-                                                arrayDesc = methodInvocation.desc.substring(methodInvocation.desc.lastIndexOf(')') + 1);
-                                                break;
-                                            } else if (origin instanceof FieldInsnNode) {
-                                                arrayDesc = ((FieldInsnNode)origin).desc;
-                                                break;
-                                            } else if (origin instanceof TypeInsnNode) {
-                                                if (origin.getOpcode() == Opcodes.ANEWARRAY) {
-                                                    arrayDesc = "[L" + ((TypeInsnNode)origin).desc + ";";
-                                                } else {
-                                                    arrayDesc = ((TypeInsnNode)origin).desc;
-                                                }
-                                                break;
-                                            } else {
-                                                // I have come to the conclusion that it isn't worth the effort to attempt to recover the
-                                                // type of the variable here
-                                                // This is as it is likely that the array is hidden deep in the stack before it was stored
-                                                break;
-                                            }
-                                        }
-                                        previous = previous.getPrevious();
-                                    }
-                                }
-                            }
-                            if (arrayDesc != null) {
-                                if (arrayDesc.charAt(0) != '[') {
-                                    System.err.println("Method " + node.name + "." + method.name + method.desc + " has invalid bytecode.");
-                                    System.err.println("Guessed type: " + arrayDesc + ", but expected an array. Array found at index " + arrayStore.var);
-                                    continue;
-                                }
-                                // Copy my Quiltflower rant from the other genericsfixing method
-                                // Actually - it might be for the better as otherwise I would have to spend my time checking if the LVT entry already exists
-                                LabelNode startObjectStoreLabel = new LabelNode();
-                                method.instructions.insertBefore(objectStore, startObjectStoreLabel);
-                                LocalVariableNode localVar = new LocalVariableNode("var" + objectStore.var,
-                                        arrayDesc.substring(1), null, startObjectStoreLabel, jumpToEnd.label, objectStore.var);
-                                method.localVariables.add(localVar);
-                                addedLVTs++;
-                            }
-                        }
-                        continue;
-                    }
-                    instruction = instruction.getNext();
-                }
+        new InsnPatternMatcher().register(ARRAY_LOOP, ARRAY_LOOP_OPCODES, (node, method, match) -> {
+            if (addArrayLoopLVT(node, method, match)) {
+                addedLVTs[0]++;
             }
-        }
+        }).scan(nodes);
 
         if (doLog) {
-            System.out.printf("Resolved %d foreach on array LVTs! (%d ms)\n", addedLVTs, System.currentTimeMillis() - startTime);
+            System.out.printf("Resolved %d foreach on array LVTs! (%d ms)\n", addedLVTs[0], System.currentTimeMillis() - startTime);
         }
     }
 
@@ -552,7 +527,6 @@ public class Oaktree {
 
         // Initial indexing sweep
         for (ClassNode node : nodes) {
-            parents.put(node.name, new ArrayList<>());
             if (node.superName.equals("java/lang/Enum")) {
                 enums.add(node.name); // Register enum
             }
@@ -574,7 +548,7 @@ public class Oaktree {
                     // We are using 16400 for access, but are there times where this is not wanted?
                     // 16400 = ACC_FINAL | ACC_ENUM
                     InnerClassNode innerNode = new InnerClassNode(node.name, null, null, 16400);
-                    parents.get(node.superName).add(innerNode);
+                    parents.computeIfAbsent(node.superName, key -> new ArrayList<>()).add(innerNode);
                     node.outerClass = node.superName;
                     node.innerClasses.add(innerNode);
                 }
@@ -614,7 +588,7 @@ public class Oaktree {
                         }
                         // Member classes of interfaces are implicitly static
                         if (!staticInnerClass) {
-                            ClassNode outerClassNode = nameToNode.get(outerNode);
+                            ClassNode outerClassNode = classGraph.get(outerNode);
                             staticInnerClass = outerClassNode != null && (outerClassNode.access & Opcodes.ACC_INTERFACE) != 0;
                             implicitStatic = staticInnerClass;
                         }
@@ -668,7 +642,7 @@ public class Oaktree {
                         }
                         innerClassNode = new InnerClassNode(node.name, outerNode, innerMost, innerClassAccess);
                     }
-                    parents.get(outerNode).add(innerClassNode);
+                    parents.computeIfAbsent(outerNode, key -> new ArrayList<>()).add(innerClassNode);
                     splitInner.put(node.name, innerClassNode);
                     node.innerClasses.add(innerClassNode);
                 }
@@ -717,7 +691,11 @@ public class Oaktree {
                 }
             }
             toRemove.forEach(entry.getValue()::remove);
-            ClassNode node = nameToNode.get(entry.getKey());
+            ClassNode node = classGraph.get(entry.getKey());
+            if (node == null) {
+                // The outer class is not part of the application
+                continue;
+            }
             for (InnerClassNode innerEntry : entry.getValue()) {
                 boolean skip = false;
                 for (InnerClassNode inner : node.innerClasses) {
@@ -745,141 +723,73 @@ public class Oaktree {
      */
     public void fixParameterLVT() {
         long startTime = System.currentTimeMillis();
-        for (ClassNode node : nodes) {
-            for (MethodNode method : node.methods) {
-                List<LocalVariableNode> locals = method.localVariables;
-                List<ParameterNode> params = method.parameters;
-                if (method.desc.indexOf(')') == 1 && params == null) {
-                    // since the description starts with a '(' we don't need to check that one
-                    // a closing parenthesis after the opening one suggests that there are no input parameters.
-                    continue;
-                }
-                if ((method.access & Opcodes.ACC_ABSTRACT) != 0) {
-                    // abstract methods do not have any local variables apparently.
-                    // It makes sense however given that abstract methods do not have a method body
-                    // where local variables could be declared
-                    continue;
-                }
-                if (!Objects.requireNonNull(locals).isEmpty()) {
-                    // LVTs that have been left alone by the obfuscator will have at least one declared local
-                    continue;
+        // The same descriptors are used by many methods, so the generated parameters are shared
+        Map<String, ParameterLayout> instanceLayouts = new ConcurrentHashMap<>();
+        Map<String, ParameterLayout> staticLayouts = new ConcurrentHashMap<>();
+        if (parallelProcessing) {
+            List<MethodNode> methods = new ArrayList<>();
+            for (ClassNode node : nodes) {
+                methods.addAll(node.methods);
+            }
+            methods.parallelStream().forEach(method -> fixParameterLVT(method, (method.access & Opcodes.ACC_STATIC) == 0 ? instanceLayouts : staticLayouts));
+        } else {
+            for (ClassNode node : nodes) {
+                for (MethodNode method : node.methods) {
+                    fixParameterLVT(method, (method.access & Opcodes.ACC_STATIC) == 0 ? instanceLayouts : staticLayouts);
                 }
+            }
+        }
+        System.out.printf("Resolved LVT conflicts! (%d ms)\n", System.currentTimeMillis() - startTime);
+    }
 
-                if (params == null) {
-                    method.parameters = new ArrayList<>();
-                    params = method.parameters;
-                    // Generate method parameter array
-                    DescString description = new DescString(method.desc);
-                    List<String> types = new ArrayList<>();
-                    while (description.hasNext()) {
-                        types.add(description.nextType());
-                    }
-                    Set<String> existingTypes = new HashSet<>();
-                    Set<String> duplicateTypes = new HashSet<>();
-                    duplicateTypes.add("Ljava/lang/Class;"); // class is a keyword
-                    boolean oneArray = false;
-                    boolean multipleArrays = false;
-                    for (String type : types) {
-                        if (type.charAt(0) == '[') {
-                            if (oneArray) {
-                                multipleArrays = true;
-                            } else {
-                                oneArray = true;
-                            }
-                        } else {
-                            if (!existingTypes.add(type)) {
-                                duplicateTypes.add(type);
-                            }
-                        }
-                    }
-                    for (int i = 0; i < types.size(); i++) {
-                        String type = types.get(i);
-                        String name = null;
-                        switch (type.charAt(0)) {
-                        case 'L':
-                            int cutOffIndex = Math.max(type.lastIndexOf('/'), type.lastIndexOf('$')) + 1;
-                            name = Character.toString(Character.toLowerCase(type.codePointAt(cutOffIndex))) + type.substring(cutOffIndex + 1, type.length() - 1);
-                            if (duplicateTypes.contains(type)) {
-                                name += i;
-                            }
-                            break;
-                        case '[':
-                            if (multipleArrays) {
-                                name = "arr" + i;
-                            } else {
-                                name = "arr";
-                            }
-                            break;
-                        case 'F': // float
-                            name = "float" + i;
-                            break;
-                        case 'D': // double
-                            name = "double" + i;
-                            break;
-                        case 'Z': // boolean
-                            name = "boolean" + i;
-                            break;
-                        case 'B': // byte
-                            name = "byte" + i;
-                            break;
-                        case 'C': // char
-                            if (duplicateTypes.contains(type)) {
-                                name = "character" + i;
-                            } else {
-                                name = "character";
-                            }
-                            break;
-                        case 'S': // short
-                            name = "short" + i;
-                            break;
-                        case 'I': // integer
-                            if (duplicateTypes.contains(type)) {
-                                name = "integer" + i;
-                            } else {
-                                name = "integer";
-                            }
-                            break;
-                        case 'J': // long
-                            name = "long" + i;
-                            break;
-                        default:
-                            throw new IllegalStateException("Unknown type: " + type);
-                        }
-                        params.add(new ParameterNode(Objects.requireNonNull(name), 0));
-                    }
-                }
+    /**
+     * Puts the LVT of a single method in an acceptable state, see {@link #fixParameterLVT()}.
+     *
+     * @param method The method
+     * @param layouts The layouts of the parameters of methods that have the same staticness as the method, by descriptor
+     */
+    private static void fixParameterLVT(MethodNode method, Map<String, ParameterLayout> layouts) {
+        List<LocalVariableNode> locals = method.localVariables;
+        List<ParameterNode> params = method.parameters;
+        if (method.desc.indexOf(')') == 1 && params == null) {
+            // since the description starts with a '(' we don't need to check that one
+            // a closing parenthesis after the opening one suggests that there are no input parameters.
+            return;
+        }
+        if ((method.access & Opcodes.ACC_ABSTRACT) != 0) {
+            // abstract methods do not have any local variables apparently.
+            // It makes sense however given that abstract methods do not have a method body
+            // where local variables could be declared
+            return;
+        }
+        if (!Objects.requireNonNull(locals).isEmpty()) {
+            // LVTs that have been left alone by the obfuscator will have at least one declared local
+            return;
+        }
 
-                int localVariableIndex = 0;
-                if ((method.access & Opcodes.ACC_STATIC) == 0) {
-                    localVariableIndex++;
-                }
-                DescString description = new DescString(method.desc);
-
-                // since we can only guess when the parameters are used and when they are not
-                // it only makes sense that we are cheating here and declaring empty label nodes.
-                // Apparently both ASM and quiltflower accept this, so /shrug
-                LabelNode start = new LabelNode();
-                LabelNode end = new LabelNode();
-                for (int i = 0; i < params.size(); i++) {
-                    String type = description.nextType();
-                    LocalVariableNode a = new LocalVariableNode(params.get(i).name,
-                            type,
-                            null, // we can only guess about the signature, so it'll be null
-                            start,
-                            end,
-                            localVariableIndex);
-                    char c = type.charAt(0);
-                    if (c == 'D' || c == 'J') {
-                        // doubles and longs take two frames on the stack. Makes sense, I know
-                        localVariableIndex += 2;
-                    } else {
-                        localVariableIndex++;
-                    }
-                    locals.add(a);
-                }
+        ParameterLayout layout = layouts.computeIfAbsent(method.desc, desc -> ParameterLayout.compute(desc, (method.access & Opcodes.ACC_STATIC) != 0));
+        if (params == null) {
+            // Generate method parameter array
+            method.parameters = new ArrayList<>(layout.names.length);
+            params = method.parameters;
+            for (String name : layout.names) {
+                params.add(new ParameterNode(name, 0));
             }
         }
-        System.out.printf("Resolved LVT conflicts! (%d ms)\n", System.currentTimeMillis() - startTime);
+
+        // since we can only guess when the parameters are used and when they are not
+        // it only makes sense that we are cheating here and declaring empty label nodes.
+        // Apparently both ASM and quiltflower accept this, so /shrug
+        LabelNode start = new LabelNode();
+        LabelNode end = new LabelNode();
+        for (int i = 0; i < params.size(); i++) {
+            locals.add(new LocalVariableNode(params.get(i).name,
+                    layout.types[i],
+                    null, // we can only guess about the signature, so it'll be null
+                    start,
+                    end,
+                    layout.localIndices[i]));
+        }
     }
 
     /**
@@ -891,7 +801,15 @@ public class Oaktree {
      */
     public void fixSwitchMaps(boolean doLogging) {
         Map<FieldReference, String> deobfNames = new HashMap<>(); // The deobf name will be something like $SwitchMap$org$bukkit$Material
+        Map<MethodNode, ClassNode> renamedMethods = new LinkedHashMap<>(); // Methods that need to be re-indexed
         long startTime = System.currentTimeMillis();
+        Set<String> enumNames = new HashSet<>();
+        InsnPatternMatcher lookups = new InsnPatternMatcher().register(SWITCH_MAP_LOOKUP, OpcodeBitmap.of(Opcodes.GETSTATIC), (node, method, match) -> {
+            FieldInsnNode switchMap = match.get("switchMap");
+            if (switchMap.owner.equals(node.name) && switchMap.name.equals(node.fields.get(0).name)) {
+                enumNames.add(match.<FieldInsnNode>get("enumConstant").owner);
+            }
+        });
 
         // index switch map classes - or at least their candidates
         for (ClassNode node : nodes) {
@@ -903,50 +821,27 @@ public class Oaktree {
                             && field.desc.equals("[I")
                             && (field.access & Opcodes.ACC_STATIC) != 0) {
                         FieldReference fieldRef = new FieldReference(node.name, field);
-                        String enumName = null;
-                        AbstractInsnNode instruction = method.instructions.getFirst();
-                        while (instruction != null) {
-                            if (instruction instanceof FieldInsnNode && instruction.getOpcode() == Opcodes.GETSTATIC) {
-                                FieldInsnNode fieldInstruction = (FieldInsnNode) instruction;
-                                if (fieldRef.equals(new FieldReference(fieldInstruction))) {
-                                    AbstractInsnNode next = instruction.getNext();
-                                    while (next instanceof FrameNode || next instanceof LabelNode) {
-                                        // ASM is sometimes not so nice
-                                        next = next.getNext();
-                                    }
-                                    if (next instanceof FieldInsnNode && next.getOpcode() == Opcodes.GETSTATIC) {
-                                        if (enumName == null) {
-                                            enumName = ((FieldInsnNode) next).owner;
-                                        } else if (!enumName.equals(((FieldInsnNode) next).owner)) {
-                                            enumName = null;
-                                            break; // It may not be a switchmap field
-                                        }
-                                    }
-                                }
-                            }
-                            instruction = instruction.getNext();
-                        }
-                        if (enumName != null) {
+                        enumNames.clear();
+                        lookups.scan(node, method);
+                        // If the switch map is used for constants of multiple classes it may not be a switchmap field
+                        if (enumNames.size() == 1) {
+                            String enumName = enumNames.iterator().next();
                             if (fieldRef.getName().indexOf('$') == -1) {
                                 // The deobf name will be something like $SwitchMap$org$bukkit$Material
                                 String newName = "$SwitchMap$" + enumName.replace('/', '$');
                                 deobfNames.put(fieldRef, newName);
-                                instruction = method.instructions.getFirst();
                                 // Remap references within this class
-                                while (instruction != null) {
-                                    if (instruction instanceof FieldInsnNode) {
-                                        FieldInsnNode fieldInsn = (FieldInsnNode) instruction;
-                                        if ((fieldInsn.getOpcode() == Opcodes.GETSTATIC || fieldInsn.getOpcode() == Opcodes.PUTSTATIC)
-                                                && fieldInsn.owner.equals(node.name)
-                                                && fieldRef.equals(new FieldReference(fieldInsn))) {
-                                            fieldInsn.name = newName;
-                                        }
+                                for (ReferenceSiteIndex.Site site : referenceSites.getFieldSites(fieldRef)) {
+                                    int opcode = site.getInstruction().getOpcode();
+                                    if (site.getOwner() == node && (opcode == Opcodes.GETSTATIC || opcode == Opcodes.PUTSTATIC)) {
+                                        ((FieldInsnNode) site.getInstruction()).name = newName;
+                                        renamedMethods.put(site.getMethod(), node);
                                     }
-                                    instruction = instruction.getNext();
                                 }
                                 // Remap the actual field declaration
                                 // Switch maps can only contain a single field and we have already obtained said field, so it isn't much of a deal here
                                 field.name = newName;
+                                MemberIndex.invalidate(node);
                             }
                         }
                     }
@@ -954,57 +849,67 @@ public class Oaktree {
             }
         }
 
-        // Rename references to the field
-        for (ClassNode node : nodes) {
-            Set<String> addedInnerClassNodes = new HashSet<>();
-            for (MethodNode method : node.methods) {
-                AbstractInsnNode instruction = method.instructions.getFirst();
-                while (instruction != null) {
-                    if (instruction instanceof FieldInsnNode && instruction.getOpcode() == Opcodes.GETSTATIC) {
-                        FieldInsnNode fieldInstruction = (FieldInsnNode) instruction;
-                        if (fieldInstruction.owner.equals(node.name)) { // I have no real idea what I was doing here
-                            instruction = instruction.getNext();
-                            continue;
-                        }
-                        FieldReference fRef = new FieldReference(fieldInstruction);
-                        String newName = deobfNames.get(fRef);
-                        if (newName != null) {
-                            fieldInstruction.name = newName;
-                            if (!addedInnerClassNodes.contains(fRef.getOwner())) {
-                                InnerClassNode innerClassNode = new InnerClassNode(fRef.getOwner(), node.name, null, Opcodes.ACC_STATIC ^ Opcodes.ACC_SYNTHETIC ^ Opcodes.ACC_FINAL);
-                                ClassNode outerNode = nameToNode.get(fRef.getOwner());
-                                if (outerNode != null) {
-                                    outerNode.innerClasses.add(innerClassNode);
-                                }
-                                ClassNode outermostClassnode = null;
-                                if (node.outerClass != null) {
-                                    outermostClassnode = nameToNode.get(node.outerClass);
-                                }
-                                if (outermostClassnode == null) {
-                                    for (InnerClassNode inner : node.innerClasses) {
-                                        if (inner.name.equals(node.name) && inner.outerName != null) {
-                                            outermostClassnode = nameToNode.get(inner.outerName);
-                                            break;
-                                        }
-                                    }
-                                }
-                                if (outermostClassnode != null) {
-                                    outermostClassnode.innerClasses.add(innerClassNode);
-                                }
-                                node.innerClasses.add(innerClassNode);
-                            }
-                        }
+        // Rename references to the field. The references within the switch map classes were already renamed
+        // and are thus no longer returned by the index
+        for (ReferenceSiteIndex.Site site : referenceSites.getFieldSites(deobfNames.keySet())) {
+            if (site.getInstruction().getOpcode() != Opcodes.GETSTATIC) {
+                continue;
+            }
+            ClassNode node = site.getOwner();
+            FieldInsnNode fieldInstruction = (FieldInsnNode) site.getInstruction();
+            if (fieldInstruction.owner.equals(node.name)) { // I have no real idea what I was doing here
+                continue;
+            }
+            FieldReference fRef = new FieldReference(fieldInstruction);
+            fieldInstruction.name = deobfNames.get(fRef);
+            renamedMethods.put(site.getMethod(), node);
+            InnerClassNode innerClassNode = new InnerClassNode(fRef.getOwner(), node.name, null, Opcodes.ACC_STATIC ^ Opcodes.ACC_SYNTHETIC ^ Opcodes.ACC_FINAL);
+            ClassNode outerNode = classGraph.get(fRef.getOwner());
+            if (outerNode != null) {
+                outerNode.innerClasses.add(innerClassNode);
+            }
+            ClassNode outermostClassnode = null;
+            if (node.outerClass != null) {
+                outermostClassnode = classGraph.get(node.outerClass);
+            }
+            if (outermostClassnode == null) {
+                for (InnerClassNode inner : node.innerClasses) {
+                    if (inner.name.equals(node.name) && inner.outerName != null) {
+                        outermostClassnode = classGraph.get(inner.outerName);
+                        break;
                     }
-                    instruction = instruction.getNext();
                 }
             }
+            if (outermostClassnode != null) {
+                outermostClassnode.innerClasses.add(innerClassNode);
+            }
+            node.innerClasses.add(innerClassNode);
         }
+        renamedMethods.forEach((method, node) -> referenceSites.index(node, method));
 
         if (doLogging) {
             System.out.printf("Recovered %d switch-on-enum switchmap classes! (%d ms)\n", deobfNames.size(), System.currentTimeMillis() - startTime);
         }
     }
 
+    /**
+     * Obtains the class graph of the indexed classes, which is shared with other passes such as the {@link IntermediaryGenerator}.
+     *
+     * @return The class graph
+     */
+    public ClassGraph getClassGraph() {
+        return classGraph;
+    }
+
+    /**
+     * Obtains the index of the use sites of all fields and methods referenced by the indexed classes.
+     *
+     * @return The reference site index
+     */
+    public ReferenceSiteIndex getReferenceSiteIndex() {
+        return referenceSites;
+    }
+
     public List<ClassNode> getClassNodesDirectly() {
         return nodes;
     }
@@ -1069,11 +974,11 @@ public class Oaktree {
             }
             // since we have the potential reference to the outer class and we know that it has to be set
             // via the constructor's parameter, we can check whether this is the case here
-            DescString desc = new DescString(constructor.desc);
+            DescCursor desc = new DescCursor(constructor.desc);
             skipClass = true;
             while (desc.hasNext()) {
-                String type = desc.nextType();
-                if (type.equals(outerClassReference.desc)) {
+                desc.next();
+                if (desc.matches(outerClassReference.desc)) {
                     skipClass = false;
                     break;
                 }
@@ -1090,34 +995,29 @@ public class Oaktree {
         }
 
         // Make sure that the constructor is only invoked in a single class, which should be the outer class
-        for (ClassNode node : nodes) {
-            for (MethodNode method : node.methods) {
-                AbstractInsnNode instruction = method.instructions.getFirst();
-                while (instruction != null) {
-                    if (instruction instanceof MethodInsnNode && ((MethodInsnNode)instruction).name.equals("<init>")) {
-                        MethodInsnNode methodInvocation = (MethodInsnNode) instruction;
-                        String owner = methodInvocation.owner;
-                        if (candidates.containsKey(owner)) {
-                            if (owner.equals(node.name)) {
-                                // this is no really valid anonymous class
-                                candidates.remove(owner);
-                            } else {
-                                Map.Entry<String, MethodNode> invoker = candidates.get(owner);
-                                if (invoker == null) {
-                                    candidates.put(owner, Map.entry(node.name, method));
-                                } else if (!invoker.getKey().equals(node.name)
-                                        || !invoker.getValue().name.equals(method.name)
-                                        || !invoker.getValue().desc.equals(method.desc)) {
-                                    // constructor referenced by multiple classes, cannot be valid
-                                    // However apparently these classes could be extended? I am not entirely sure how that is possible, but it is.
-                                    // That being said, we are going to ignore that this is possible and just consider them invalid
-                                    // as everytime this happens the decompiler is able to decompile the class without any issues.
-                                    candidates.remove(owner);
-                                }
-                            }
-                        }
-                    }
-                    instruction = instruction.getNext();
+        for (ReferenceSiteIndex.Site site : referenceSites.getMethodSitesByOwner(candidates.keySet())) {
+            MethodInsnNode methodInvocation = (MethodInsnNode) site.getInstruction();
+            String owner = methodInvocation.owner;
+            if (!methodInvocation.name.equals("<init>") || !candidates.containsKey(owner)) {
+                continue;
+            }
+            ClassNode node = site.getOwner();
+            MethodNode method = site.getMethod();
+            if (owner.equals(node.name)) {
+                // this is no really valid anonymous class
+                candidates.remove(owner);
+            } else {
+                Map.Entry<String, MethodNode> invoker = candidates.get(owner);
+                if (invoker == null) {
+                    candidates.put(owner, Map.entry(node.name, method));
+                } else if (!invoker.getKey().equals(node.name)
+                        || !invoker.getValue().name.equals(method.name)
+                        || !invoker.getValue().desc.equals(method.desc)) {
+                    // constructor referenced by multiple classes, cannot be valid
+                    // However apparently these classes could be extended? I am not entirely sure how that is possible, but it is.
+                    // That being said, we are going to ignore that this is possible and just consider them invalid
+                    // as everytime this happens the decompiler is able to decompile the class without any issues.
+                    candidates.remove(owner);
                 }
             }
         }
@@ -1150,8 +1050,8 @@ public class Oaktree {
             if (outer == null) {
                 continue;
             }
-            ClassNode innerNode = nameToNode.get(inner);
-            ClassNode outernode = nameToNode.get(outer.getKey());
+            ClassNode innerNode = classGraph.get(inner);
+            ClassNode outernode = classGraph.get(outer.getKey());
 
             MethodNode outerMethod = outer.getValue();
             if (outernode == null) {
@@ -1206,262 +1106,185 @@ public class Oaktree {
         int addedFieldSignatures = 0;
         long startTime = System.currentTimeMillis();
         // index signatureless fields
+        List<FieldReference> candidateFields = new ArrayList<>();
         for (ClassNode node : nodes) {
             for (FieldNode field : node.fields) {
                 if (field.signature == null && ITERABLES.contains(field.desc)) {
-                    newFieldSignatures.put(new FieldReference(node.name, field), null);
+                    FieldReference fref = new FieldReference(node.name, field);
+                    candidateFields.add(fref);
+                    newFieldSignatures.put(fref, null);
                 }
             }
         }
 
         // guess signatures based on iterators
-        for (ClassNode node : nodes) {
-            for (MethodNode method : node.methods) {
-                AbstractInsnNode instruction = method.instructions.getFirst();
-                while (instruction != null) {
-                    if (instruction instanceof FieldInsnNode) {
-                        FieldInsnNode fieldNode = (FieldInsnNode) instruction;
-                        FieldReference key = new FieldReference(fieldNode);
-                        AbstractInsnNode next = instruction.getNext();
-                        if (!newFieldSignatures.containsKey(key) // The field doesn't actively search for a new signature
-                                || !(next instanceof MethodInsnNode)) { // We cannot work with this instruction
-                            instruction = next;
-                            continue;
-                        }
-                        MethodInsnNode iteratorMethod = (MethodInsnNode) next;
-                        next = next.getNext();
-                        // check whether the called method is Iterable#iterator
-                        if (iteratorMethod.itf // definitely not it // FIXME huh?
-                                || !iteratorMethod.name.equals("iterator")
-                                || !iteratorMethod.desc.equals("()Ljava/util/Iterator;")
-                                || !(next instanceof VarInsnNode)) { // We cannot work with this instruction
-                            instruction = next;
-                            continue;
-                        }
-                        // cache instruction for later. This instruction should store the iterator that was just obtained
-                        VarInsnNode storeInstruction = (VarInsnNode) next;
-                        next = next.getNext();
-                        if (!(next instanceof LabelNode)) { // this is the label that marks the beginning of the loop
-                            instruction = next;
-                            continue;
-                        }
-                        // I *might* use this later, but right now we do not
-                        // LabelNode loopStartLabel = (LabelNode) next;
-                        next = next.getNext();
-                        while ((next instanceof FrameNode) || (next instanceof LineNumberNode)) {
-                            // filter out pseudo-instructions
-                            next = next.getNext();
-                        }
-                        if (!(next instanceof VarInsnNode)) { // require the load instruction where the iterator will be obtained again
-                            instruction = next;
-                            continue;
-                        }
-                        VarInsnNode loadInstruction = (VarInsnNode) next;
-                        next = next.getNext();
-                        if (loadInstruction.var != storeInstruction.var // both instruction should load/save the same local
-                                || loadInstruction.getOpcode() != Opcodes.ALOAD // the load instruction should actually load
-                                || storeInstruction.getOpcode() != Opcodes.ASTORE // and the store instruction should actually store
-                                || !(next instanceof MethodInsnNode)) { // we cannot work with this instruction
-                            instruction = next;
-                            continue;
-                        }
-                        MethodInsnNode hasNextInstruction = (MethodInsnNode) next;
-                        next = next.getNext();
-                        if (!hasNextInstruction.itf // iterator is an interface
-                                || !hasNextInstruction.owner.equals("java/util/Iterator") // check whether this is the right method
-                                || !hasNextInstruction.name.equals("hasNext")
-                                || !hasNextInstruction.desc.equals("()Z")
-                                || !(next instanceof JumpInsnNode)) { // it is pretty clear that this is a while loop now, but we have this for redundancy anyways
-                            instruction = next;
-                            continue;
-                        }
-                        JumpInsnNode loopEndJump = (JumpInsnNode) next;
-                        LabelNode loopEndLabel = loopEndJump.label;
-                        next = next.getNext();
-                        if (!(next instanceof VarInsnNode)) { // require the load instruction where the iterator will be obtained again
-                            instruction = next;
-                            continue;
-                        }
-                        // redo the load instruction check
-                        loadInstruction = (VarInsnNode) next;
-                        next = next.getNext();
-                        if (loadInstruction.var != storeInstruction.var // both instruction should load/save the same local
-                                || loadInstruction.getOpcode() != Opcodes.ALOAD // the load instruction should actually load
-                                || storeInstruction.getOpcode() != Opcodes.ASTORE // and the store instruction should actually store
-                                || !(next instanceof MethodInsnNode)) { // we cannot work with this instruction
-                            instruction = next;
-                            continue;
-                        }
-                        MethodInsnNode getNextInstruction = (MethodInsnNode) next;
-                        next = next.getNext();
-                        if (!getNextInstruction.itf // iterator is an interface
-                                || !getNextInstruction.owner.equals("java/util/Iterator") // check whether this is the right method
-                                || !getNextInstruction.name.equals("next")
-                                || !getNextInstruction.desc.equals("()Ljava/lang/Object;")
-                                || !(next instanceof TypeInsnNode)) { // this instruction is the core of our check, and the holy grail - sadly it wasn't here. Hopefully we have better luck next time
-                            instruction = next;
-                            continue;
-                        }
-                        TypeInsnNode checkCastInstruction = (TypeInsnNode) next;
-                        next = next.getNext();
-                        if (checkCastInstruction.getOpcode() != Opcodes.CHECKCAST) {
-                            // so close!
-                            instruction = next;
-                            continue;
-                        }
-                        String suggestion = "L" + checkCastInstruction.desc + ";";
-                        SignatureNode suggestedSignature = new SignatureNode(fieldNode.desc, suggestion);
-                        SignatureNode currentlySuggested = newFieldSignatures.get(key);
-                        instruction = next;
-                        if (currentlySuggested != null) {
-                            if (!suggestedSignature.equals(currentlySuggested)) {
-                                addedFieldSignatures--;
-                                System.out.println("Contested signatures for " + key);
-                                newFieldSignatures.remove(key);
-                                continue;
-                            }
-                        } else {
-                            addedFieldSignatures++;
-                            newFieldSignatures.put(key, suggestedSignature);
-                        }
+        for (ReferenceSiteIndex.Site site : referenceSites.getFieldSites(candidateFields)) {
+            FieldInsnNode fieldNode = (FieldInsnNode) site.getInstruction();
+            FieldReference key = new FieldReference(fieldNode);
+            if (!newFieldSignatures.containsKey(key) // The signature of the field was contested
+                    || !OpcodeBitmap.get(site.getMethod()).containsAll(ITERATOR_LOOP_OPCODES)) { // Cannot contain the loop
+                continue;
+            }
+            InsnPattern.Match match = ITERATOR_LOOP.match(fieldNode);
+            if (match == null) {
+                continue;
+            }
+            TypeInsnNode checkCastInstruction = match.get("checkCast");
+            LabelNode loopEndLabel = match.<JumpInsnNode>get("loopEndJump").label;
+            AbstractInsnNode next = checkCastInstruction.getNext();
+            String suggestion = "L" + checkCastInstruction.desc + ";";
+            SignatureNode suggestedSignature = new SignatureNode(fieldNode.desc, suggestion);
+            SignatureNode currentlySuggested = newFieldSignatures.get(key);
+            if (currentlySuggested != null) {
+                if (!suggestedSignature.equals(currentlySuggested)) {
+                    addedFieldSignatures--;
+                    System.out.println("Contested signatures for " + key);
+                    newFieldSignatures.remove(key);
+                    continue;
+                }
+            } else {
+                addedFieldSignatures++;
+                newFieldSignatures.put(key, suggestedSignature);
+            }
 
-                        // Add arbitrary LVT entries to reduce the amount of <unknown>
-                        if (!(next instanceof VarInsnNode) || next.getOpcode() != Opcodes.ASTORE) {
-                            // We don't have a variable to attach anything to (???) - not critical, so shrug
-                            continue;
-                        }
-                        VarInsnNode iteratedObject = (VarInsnNode) next;
-                        List<LocalVariableNode> localVars = method.localVariables;
-                        boolean alreadyDeclaredLVT = false;
-                        for (LocalVariableNode var0 : localVars) {
-                            if (var0.index == iteratedObject.var && var0.desc.equals(suggestion)) {
-                                alreadyDeclaredLVT = true;
-                                break;
-                            }
-                        }
-                        if (!alreadyDeclaredLVT) {
-                            // Quiltflower has a bug where it does not correctly identify LVT entries
-                            // and acts as if they weren't there. This precisely occurs as the decompiler
-                            // expects that the start label provided by of the LVT entry is equal to the first declaration of the
-                            // entry. While I have already brought forward a fix for this, unfortunately this results in a few other
-                            // (more serious) issues that result in formerly broken but technically correct and compilable code
-                            // being no longer compilable. This makes it unlikely that the fix would be pushed anytime soon.
-                            // My assumption is that this has something to do with another bug in the decompiler,
-                            // but in the meantime I guess that we will have to work around this bug by adding a LabelNode
-                            // just before the first astore operation.
-                            // Developers have to make sacrifices to attain perfection after all
-                            LabelNode firstDeclaration = new LabelNode();
-                            method.instructions.insertBefore(iteratedObject, firstDeclaration);
-                            // add LVT entry for the iterator
-                            LocalVariableNode lvtNode = new LocalVariableNode(
-                                    "var" + iteratedObject.var, suggestion,
-                                    null,
-                                    firstDeclaration, loopEndLabel, iteratedObject.var);
-                            localVars.add(lvtNode);
-                        }
-                        continue;
-                    }
-                    instruction = instruction.getNext();
+            // Add arbitrary LVT entries to reduce the amount of <unknown>
+            if (!(next instanceof VarInsnNode) || next.getOpcode() != Opcodes.ASTORE) {
+                // We don't have a variable to attach anything to (???) - not critical, so shrug
+                continue;
+            }
+            VarInsnNode iteratedObject = (VarInsnNode) next;
+            List<LocalVariableNode> localVars = site.getMethod().localVariables;
+            boolean alreadyDeclaredLVT = false;
+            for (LocalVariableNode var0 : localVars) {
+                if (var0.index == iteratedObject.var && var0.desc.equals(suggestion)) {
+                    alreadyDeclaredLVT = true;
+                    break;
                 }
             }
+            if (!alreadyDeclaredLVT) {
+                // Quiltflower has a bug where it does not correctly identify LVT entries
+                // and acts as if they weren't there. This precisely occurs as the decompiler
+                // expects that the start label provided by of the LVT entry is equal to the first declaration of the
+                // entry. While I have already brought forward a fix for this, unfortunately this results in a few other
+                // (more serious) issues that result in formerly broken but technically correct and compilable code
+                // being no longer compilable. This makes it unlikely that the fix would be pushed anytime soon.
+                // My assumption is that this has something to do with another bug in the decompiler,
+                // but in the meantime I guess that we will have to work around this bug by adding a LabelNode
+                // just before the first astore operation.
+                // Developers have to make sacrifices to attain perfection after all
+                LabelNode firstDeclaration = new LabelNode();
+                site.getMethod().instructions.insertBefore(iteratedObject, firstDeclaration);
+                // add LVT entry for the iterator
+                LocalVariableNode lvtNode = new LocalVariableNode(
+                        "var" + iteratedObject.var, suggestion,
+                        null,
+                        firstDeclaration, loopEndLabel, iteratedObject.var);
+                localVars.add(lvtNode);
+            }
         }
 
         // guess signatures based on Collection#add
         Map<FieldReference, Map.Entry<ClassWrapper, String>> collectionSignatures = new HashMap<>();
 
-        for (ClassNode node : nodes) {
-            for (MethodNode method : node.methods) {
-                AbstractInsnNode insn = method.instructions.getFirst();
-                while (insn != null) {
-                    if (insn instanceof FieldInsnNode) {
-                        AbstractInsnNode next = insn.getNext();
-                        if (insn.getOpcode() != Opcodes.GETFIELD && insn.getOpcode() != Opcodes.GETSTATIC) {
-                            insn = next;
-                            continue;
-                        }
-                        FieldInsnNode fieldInsn = (FieldInsnNode) insn;
-                        FieldReference fref = new FieldReference(fieldInsn);
-                        if (newFieldSignatures.get(fref) != null) {
-                            // Already mapped via iteration, which is deemed more safe than checking through .add
-                            insn = next;
-                            continue;
-                        }
-                        if (collectionSignatures.containsKey(fref) && collectionSignatures.get(fref) == null) {
-                            // Inconclusive type
-                            insn = next;
-                            continue;
-                        }
-                        if (next == null || next.getOpcode() != Opcodes.NEW) {
-                            insn = next;
-                            continue;
-                        }
-                        TypeInsnNode newInsn = (TypeInsnNode) next;
-                        next = next.getNext();
-                        // FIXME this is a terrible and potentially dangerous solution
-                        while (next != null) {
-                            // FIXME arrays are not initialised that way
-                            if (next.getOpcode() == Opcodes.INVOKESPECIAL && ((MethodInsnNode) next).name.equals("<init>")
-                                    && ((MethodInsnNode) next).owner.equals(newInsn.desc)) {
-                                break;
-                            }
-                            next = next.getNext();
-                        }
-                        if (next == null) {
-                            insn = newInsn.getNext();
-                            continue;
-                        }
-                        next = next.getNext();
-                        if (next == null || !(next instanceof MethodInsnNode)) {
-                            insn = insn.getNext();
-                            continue;
-                        }
-                        MethodInsnNode collectionAdd = (MethodInsnNode) next;
-                        if (!collectionAdd.name.equals("add") || !COLLECTIONS.contains("L" + collectionAdd.owner + ";")) {
-                            insn = next;
-                            continue;
-                        }
-                        Type type = Type.getObjectType(newInsn.desc);
-                        String internalClassName;
-                        if (type.getSort() == Type.ARRAY) {
-                            internalClassName = type.getElementType().getInternalName();
-                        } else {
-                            internalClassName = type.getInternalName();
-                        }
-                        ClassWrapper wrapper = wrapperPool.get(internalClassName);
-                        String signatureDesc;
-                        Map.Entry<ClassWrapper, String> oldEntry = collectionSignatures.get(fref);
-                        if (oldEntry != null) {
-                            // FIXME does not verify compatitibllity with different array sizes
-                            ClassWrapper common = wrapperPool.getCommonSuperClass(wrapper, oldEntry.getKey());
-                            if (common != wrapper) {
-                                if (common == oldEntry.getKey()) {
-                                    signatureDesc = oldEntry.getValue();
-                                } else {
-                                    StringBuilder b = new StringBuilder();
-                                    for (int i = 0; i < newInsn.desc.length(); i++) {
-                                        if (newInsn.desc.codePointAt(i) == '[') {
-                                            b.append('[');
-                                        } else {
-                                            break;
-                                        }
-                                    }
-                                    b.append('L');
-                                    b.append(common.getName());
-                                    b.append(';');
-                                    signatureDesc = b.toString();
-                                }
-                                wrapper = common;
+        Set<FieldReference> candidateFieldSet = new HashSet<>(candidateFields);
+        Set<MethodNode> readingMethods = new HashSet<>();
+        for (ReferenceSiteIndex.Site site : referenceSites.getFieldSites(candidateFields)) {
+            int opcode = site.getInstruction().getOpcode();
+            if ((opcode == Opcodes.GETFIELD || opcode == Opcodes.GETSTATIC) && OpcodeBitmap.get(site.getMethod()).contains(Opcodes.NEW)) {
+                readingMethods.add(site.getMethod());
+            }
+        }
+        List<String> collectionOwners = new ArrayList<>();
+        for (String collectionDesc : COLLECTIONS) {
+            collectionOwners.add(collectionDesc.substring(1, collectionDesc.length() - 1));
+        }
+        List<ReferenceSiteIndex.Site> addSites = new ArrayList<>();
+        Map<MethodNode, ClassNode> addingMethods = new HashMap<>();
+        for (ReferenceSiteIndex.Site site : referenceSites.getMethodSitesByOwner(collectionOwners)) {
+            MethodInsnNode collectionAdd = (MethodInsnNode) site.getInstruction();
+            if (!collectionAdd.name.equals("add") || !collectionAdd.desc.endsWith("Ljava/lang/Object;)Z") || !readingMethods.contains(site.getMethod())) {
+                continue;
+            }
+            // The added element can only be a freshly created instance if it's constructor was invoked right before
+            AbstractInsnNode previous = collectionAdd.getPrevious();
+            while (previous != null && previous.getOpcode() == -1) {
+                previous = previous.getPrevious();
+            }
+            if (previous != null && previous.getOpcode() == Opcodes.INVOKESPECIAL && ((MethodInsnNode) previous).name.equals("<init>")) {
+                addSites.add(site);
+                addingMethods.put(site.getMethod(), site.getOwner());
+            }
+        }
+        frameCache.computeAll(addingMethods);
+
+        for (ReferenceSiteIndex.Site site : addSites) {
+            MethodInsnNode collectionAdd = (MethodInsnNode) site.getInstruction();
+            Frame<SourceValue> frame = frameCache.getFrame(site.getOwner(), site.getMethod(), collectionAdd);
+            if (frame == null) {
+                continue; // Unreachable or not analyzable
+            }
+            int argumentCount = Type.getArgumentTypes(collectionAdd.desc).length;
+            AbstractInsnNode insn = frameCache.getOrigin(site.getOwner(), site.getMethod(), frame.getStack(frame.getStackSize() - argumentCount - 1));
+            if (insn == null || (insn.getOpcode() != Opcodes.GETFIELD && insn.getOpcode() != Opcodes.GETSTATIC)) {
+                continue;
+            }
+            FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+            FieldReference fref = new FieldReference(fieldInsn);
+            if (!candidateFieldSet.contains(fref)) {
+                continue;
+            }
+            if (newFieldSignatures.get(fref) != null) {
+                // Already mapped via iteration, which is deemed more safe than checking through .add
+                continue;
+            }
+            if (collectionSignatures.containsKey(fref) && collectionSignatures.get(fref) == null) {
+                // Inconclusive type
+                continue;
+            }
+            // The added element needs to be a freshly created instance
+            AbstractInsnNode element = frameCache.getOrigin(site.getOwner(), site.getMethod(), frame.getStack(frame.getStackSize() - 1));
+            if (element == null || element.getOpcode() != Opcodes.NEW) {
+                continue;
+            }
+            TypeInsnNode newInsn = (TypeInsnNode) element;
+            Type type = Type.getObjectType(newInsn.desc);
+            String internalClassName;
+            if (type.getSort() == Type.ARRAY) {
+                internalClassName = type.getElementType().getInternalName();
+            } else {
+                internalClassName = type.getInternalName();
+            }
+            ClassWrapper wrapper = wrapperPool.get(internalClassName);
+            String signatureDesc;
+            Map.Entry<ClassWrapper, String> oldEntry = collectionSignatures.get(fref);
+            if (oldEntry != null) {
+                // FIXME does not verify compatitibllity with different array sizes
+                ClassWrapper common = wrapperPool.getCommonSuperClass(wrapper, oldEntry.getKey());
+                if (common != wrapper) {
+                    if (common == oldEntry.getKey()) {
+                        signatureDesc = oldEntry.getValue();
+                    } else {
+                        StringBuilder b = new StringBuilder();
+                        for (int i = 0; i < newInsn.desc.length(); i++) {
+                            if (newInsn.desc.codePointAt(i) == '[') {
+                                b.append('[');
                             } else {
-                                signatureDesc = type.getDescriptor();
+                                break;
                             }
-                            collectionSignatures.put(fref, Map.entry(common, signatureDesc));
-                        } else {
-                            signatureDesc = type.getDescriptor();
-                            collectionSignatures.put(fref, Map.entry(wrapper, signatureDesc));
                         }
+                        b.append('L');
+                        b.append(common.getName());
+                        b.append(';');
+                        signatureDesc = b.toString();
                     }
-                    insn = insn.getNext();
+                    wrapper = common;
+                } else {
+                    signatureDesc = type.getDescriptor();
                 }
+                collectionSignatures.put(fref, Map.entry(common, signatureDesc));
+            } else {
+                signatureDesc = type.getDescriptor();
+                collectionSignatures.put(fref, Map.entry(wrapper, signatureDesc));
             }
         }
 
@@ -1501,6 +1324,7 @@ public class Oaktree {
                 }
                 ClassNode node = new ClassNode();
                 reader.accept(node, 0);
+                classGraph.getSymbols().intern(node);
                 nodes.add(node);
 //                if (node.name.endsWith("or/class_u")) {
 //                    org.objectweb.asm.util.ASMifier asmifier = new org.objectweb.asm.util.ASMifier();
@@ -1508,374 +1332,81 @@ public class Oaktree {
 //                            new org.objectweb.asm.util.TraceClassVisitor(null, asmifier, new java.io.PrintWriter(System.out));
 //                    node.accept(tcv);
 //                }
-                nameToNode.put(node.name, node);
+                classGraph.add(node);
+                referenceSites.index(node);
             }
         });
         System.out.println("Oaktree indexed class files!");
     }
 
+    private static boolean isIteratorCall(AbstractInsnNode insn, String name, String desc) {
+        if (!(insn instanceof MethodInsnNode)) {
+            return false;
+        }
+        MethodInsnNode methodInsn = (MethodInsnNode) insn;
+        return methodInsn.itf // iterator is an interface
+                && methodInsn.owner.equals("java/util/Iterator")
+                && methodInsn.name.equals(name)
+                && methodInsn.desc.equals(desc);
+    }
+
     /**
      * Infers the generics of constructors based on the calls to the constructor.
+     * Unlike {@link #inferGenerics(boolean)} only a single round of inference is performed.
      *
      * @param doLogging Whether to perform any statics logging
      */
     public void inferConstructorGenerics(boolean doLogging) {
         long startTime = System.currentTimeMillis();
-        int guessedConstructorSignatures = 0;
-        int guessedFieldSignatures = 0;
-
-        // Index constructors
-        Map<MethodReference, List<String>> constructors = new HashMap<>();
-        for (ClassNode node : nodes) {
-            for (MethodNode method : node.methods) {
-                if (method.signature != null) {
-                    continue; // No point in guessing the signature if we already know it
-                }
-                if (!method.name.equals("<init>")) {
-                    continue; // Not a constructor
-                }
-                if (method.desc.codePointAt(1) == ')') {
-                    continue; // No arguments to infer stuff from
-                }
-                DescString descString = new DescString(method.desc);
-                while (descString.hasNext()) {
-                    if (ITERABLES.contains(descString.nextType())) {
-                        // The constructor has at least 1 generic-able argument
-                        constructors.put(new MethodReference(node.name, method), null);
-                        break;
-                    }
-                }
-            }
-        }
-
-        // Index references to constructors
-        for (ClassNode node : nodes) {
-            for (MethodNode method : node.methods) {
-                if (method.instructions == null) {
-                    continue; // Abstract method with no body
-                }
-                AbstractInsnNode insn = method.instructions.getFirst();
-                while (insn != null) {
-                    if (insn.getOpcode() == Opcodes.INVOKESPECIAL) {
-                        MethodInsnNode ctorCall = (MethodInsnNode) insn;
-                        if (!ctorCall.name.equals("<init>")) {
-                            insn = insn.getNext();
-                            continue;
-                        }
-                        MethodReference ctorReference = new MethodReference(ctorCall);
-                        if (!constructors.containsKey(ctorReference)) {
-                            // Constructor not indexed, likely because it does not need a signature,
-                            // but it can also be that the constructor is not known because it is not a class that should be deobfuscated
-                            insn = insn.getNext();
-                            continue;
-                        }
-
-                        TypeInsnNode newCall = null;
-                        AbstractInsnNode insn2 = insn.getPrevious();
-
-                        while (insn2 != null) {
-                            if (insn2.getOpcode() == Opcodes.DUP) {
-                                if (insn2.getPrevious().getOpcode() != Opcodes.NEW) {
-                                    break; // While technically not strictly breaking, I'd want to save some time calculating all the stack deltas
-                                }
-                                TypeInsnNode new2 = (TypeInsnNode) insn2.getPrevious();
-                                if (new2.desc.equals(ctorReference.getOwner())) { // Given the other checks nothing else is possible, but we'll have it here anyways for "unit testing"
-                                    newCall = new2;
-                                }
-                                break;
-                            }
-                            if (insn2.getOpcode() != Opcodes.INVOKESTATIC && insn2.getOpcode() != Opcodes.GETSTATIC) {
-                                break; // Technically we could allow non-static variants, but they are a bit harder to compute
-                            }
-                            insn2 = insn2.getPrevious();
-                        }
-
-                        if (newCall == null || insn2 == null) {
-                            insn = insn.getNext();
-                            continue;
-                        }
-
-                        List<String> ourArgs = new ArrayList<>();
-                        insn2 = insn2.getNext();
-
-                        boolean invalidate = false;
-                        while (insn2 != ctorCall) {
-                            if (insn2.getOpcode() == Opcodes.INVOKESTATIC) {
-                                MethodInsnNode invokestaticInsn = (MethodInsnNode) insn2;
-                                if (invokestaticInsn.desc.codePointAt(1) != ')') {
-                                    invalidate = true; // Not a getter-like method, however the method MUST be a getter-like method
-                                    break;
-                                }
-                                if (!ITERABLES.contains(invokestaticInsn.desc.substring(2))) {
-                                    ourArgs.add(null);
-                                    insn2 = insn2.getNext();
-                                    continue;
-                                }
-                                ourArgs.add(""); // I'm too lazy to fetch the generic signature of the method, so we'll leave this blank
-                            } else if (insn2.getOpcode() == Opcodes.GETSTATIC) {
-                                FieldInsnNode getstaticInsn = (FieldInsnNode) insn2;
-                                if (!ITERABLES.contains(getstaticInsn.desc)) {
-                                    ourArgs.add(null);
-                                    insn2 = insn2.getNext();
-                                    continue;
-                                }
-
-                                // Fetch generic signature of the field
-                                ClassNode ownerNode = nameToNode.get(getstaticInsn.owner);
-                                if (ownerNode == null) {
-                                    // Class does not exist for some reason
-                                    ourArgs.add("");
-                                    insn2 = insn2.getNext();
-                                    continue;
-                                }
-
-                                String fetchedSignature = null;
-                                for (FieldNode ownerField : ownerNode.fields) {
-                                    if (ownerField.name.equals(getstaticInsn.name) && ownerField.desc.equals(getstaticInsn.desc)) {
-                                        fetchedSignature = ownerField.signature;
-                                        break;
-                                    }
-                                }
-                                if (fetchedSignature == null) {
-                                    // Unable to fetch signature
-                                    ourArgs.add("");
-                                    insn2 = insn2.getNext();
-                                    continue;
-                                }
-
-                                int startSign = fetchedSignature.indexOf('<');
-                                int endSign = fetchedSignature.indexOf('>');
-                                ourArgs.add(fetchedSignature.substring(startSign, endSign + 1));
-                            }
-                            insn2 = insn2.getNext();
-                        }
-
-                        if (!invalidate) {
-                            List<String> old = constructors.get(ctorReference);
-                            if (old != null) {
-                                // Merge the two lists
-                                if (old.size() != ourArgs.size()) {
-                                    throw new IllegalStateException("Argument sizes do not match.");
-                                }
-                                for (int i = 0; i < old.size(); i++) {
-                                    String oldElement = old.get(i);
-                                    String newElement = ourArgs.get(i);
-                                    if (oldElement == null || newElement == null) {
-                                        ourArgs.set(i, null);
-                                    } else if (newElement.isEmpty()) {
-                                        ourArgs.set(i, oldElement);
-                                    } else if (oldElement.isEmpty()) {
-                                        // Don't do anything
-                                    } else if (!oldElement.equals(newElement)) {
-                                        ourArgs.set(i, null);
-                                    }
-                                }
-                            }
-                            constructors.put(ctorReference, ourArgs);
-                        }
-                    }
-                    insn = insn.getNext();
-                }
-            }
-        }
-
-        Map<FieldReference, String> fieldSignatures = new HashMap<>();
-        // Apply generic signatures on the constructor
-        StringBuilder signatureAssembler = new StringBuilder();
-        for (ClassNode node : nodes) {
-            for (MethodNode method : node.methods) {
-                if (method.signature != null) {
-                    continue; // reduce memory allocation
-                }
-                List<String> argumentSignatures = constructors.get(new MethodReference(node.name, method));
-                if (argumentSignatures == null) {
-                    continue;
-                }
-                // TODO test whether this code really deals with the long/double quirk correctly
-                int[] parameterIndices = new int[argumentSignatures.size() + 1];
-                DescString plainDescriptor = new DescString(method.desc);
-                signatureAssembler.setLength(0);
-                signatureAssembler.append('(');
-                int paramIndex = 1;
-                for (int i = 0; i < argumentSignatures.size(); i++) {
-                    String type = plainDescriptor.nextType();
-                    if (type.codePointAt(0) == 'L') {
-                        parameterIndices[i + 1] = paramIndex++;
-                        signatureAssembler.append(type.substring(0, type.length() - 1));
-                        String argSignature = argumentSignatures.get(i);
-                        if (argSignature != null) {
-                            signatureAssembler.append(argSignature);
-                        }
-                        signatureAssembler.append(';');
-                    } else {
-                        if (type.codePointAt(0) == 'D' || type.codePointAt(0) == 'J') {
-                            parameterIndices[i + 1] = paramIndex;
-                            paramIndex += 2;
-                        } else {
-                            parameterIndices[i + 1] = paramIndex++;
-                        }
-                        signatureAssembler.append(type);
-                    }
-                }
-                if (plainDescriptor.hasNext()) {
-                    System.err.println("Signature for method " + node.name + "." + method.name + method.desc + " could not be completed fully because some parameters are missing.");
-                    continue;
-                }
-                signatureAssembler.append(')');
-                signatureAssembler.append('V');
-                method.signature = signatureAssembler.toString();
-                guessedConstructorSignatures++;
-
-                boolean[] damagedParams = new boolean[argumentSignatures.size() + 1];
-                int[] localToParam = new int[paramIndex];
-                for (int i = 0; i < parameterIndices.length; i++) {
-                    localToParam[parameterIndices[i]] = i;
-                }
-                // The constructor is never static and the `this` local variable is not capable of generics
-                // Not marking it as "damaged" may create issues for us
-                damagedParams[0] = true;
-                AbstractInsnNode insn = method.instructions.getFirst();
-                int loadedParameter = -1;
-
-                // Infer field signatures too
-                while (insn != null) {
-                    if (insn instanceof VarInsnNode) {
-                        VarInsnNode varInsn = (VarInsnNode) insn;
-                        if (OPHelper.isVarLoad(varInsn.getOpcode())) {
-                            // xLoad
-                            if (varInsn.var < localToParam.length) {
-                                loadedParameter = localToParam[varInsn.var];
-                                if (loadedParameter >= damagedParams.length) {
-                                    loadedParameter = -1;
-                                }
-                            } else {
-                                loadedParameter = -1;
-                            }
-                        } else {
-                            // xStore
-                            if (varInsn.var < localToParam.length && localToParam[varInsn.var] < damagedParams.length) {
-                                damagedParams[localToParam[varInsn.var]] = true;
-                            }
-                        }
-                    } else if (insn instanceof FieldInsnNode) {
-                        if (loadedParameter < damagedParams.length && loadedParameter != -1 && !damagedParams[loadedParameter]) {
-                            FieldInsnNode fieldInsn = (FieldInsnNode) insn;
-                            if (fieldInsn.getOpcode() == Opcodes.PUTFIELD || fieldInsn.getOpcode() == Opcodes.PUTSTATIC) {
-                                FieldReference fref = new FieldReference(fieldInsn);
-                                if (fieldSignatures.containsKey(fref)) {
-                                    String oldProposal = fieldSignatures.get(fref);
-                                    String suggested = argumentSignatures.get(loadedParameter - 1);
-                                    if (oldProposal != null && suggested != null && !suggested.isEmpty()) {
-                                        if (!oldProposal.equals(suggested)) {
-                                            fieldSignatures.put(fref, null);
-                                        }
-                                    }
-                                } else {
-                                    fieldSignatures.put(fref, argumentSignatures.get(loadedParameter - 1));
-                                }
-                            }
-                        }
-                    } else {
-                        loadedParameter = -1;
-                    }
-                    insn = insn.getNext();
-                }
-            }
-        }
-
-        for (ClassNode node : nodes) {
-            for (FieldNode field : node.fields) {
-                if (field.signature != null) {
-                    continue;
-                }
-                FieldReference fref = new FieldReference(node.name, field);
-                String suggested = fieldSignatures.get(fref);
-                if (suggested != null) {
-                    signatureAssembler.setLength(0);
-                    signatureAssembler.append(field.desc.substring(0, field.desc.length() - 1)).append(suggested).append(';');
-                    field.signature = signatureAssembler.toString();
-                    guessedFieldSignatures++;
-                }
-            }
-        }
+        GenericInference inference = new GenericInference(nodes, classGraph, referenceSites, frameCache);
+        int guessedConstructorSignatures = inference.inferConstructors(inference.getGenericFields(), inference.getGenericMethods());
+        int guessedFieldSignatures = inference.applyFieldSignatures().size();
+        frameCache.clear();
 
         if (doLogging) {
             System.out.printf("Inferred %d constructor and %d field signatures! (%d ms)%n", guessedConstructorSignatures, guessedFieldSignatures, (System.currentTimeMillis() - startTime));
         }
     }
 
+    /**
+     * Guesses the generics of fields and infers the generics of getters, constructors and the fields assigned by the constructors.
+     * Newly found signatures are used to infer further signatures until no new signatures can be found.
+     * Should be invoked after {@link #fixParameterLVT()}.
+     *
+     * @param doLogging Whether to perform any statics logging
+     */
+    public void inferGenerics(boolean doLogging) {
+        guessFieldGenerics();
+        new GenericInference(nodes, classGraph, referenceSites, frameCache).run(doLogging);
+        // The inference is the last pass that makes use of the frames
+        frameCache.clear();
+    }
+
     /**
      * Infers the generic signatures of methods based on the contents of the method.
+     * Unlike {@link #inferGenerics(boolean)} only a single round of inference is performed.
      *
      * @param doLogging Whether to perform any statics logging
      */
     public void inferMethodGenerics(boolean doLogging) {
-        int addedMethodSignatures = 0;
         long startTime = System.currentTimeMillis();
-
-        // Infer generics of getters
-        Map<FieldReference, List<MethodNode>> getterRefs = new HashMap<>();
-        for (ClassNode classNode : nodes) {
-            for (MethodNode method : classNode.methods) {
-                if (method.signature != null) {
-                    continue; // We already know the signature
-                }
-                if (method.instructions.size() == 0) {
-                    // Abstract method (can also be a method within an interface)
-                    continue;
-                }
-                if (method.desc.codePointAt(1) != ')') {
-                    continue; // not a getter
-                }
-                String returnValue = method.desc.substring(2);
-                int indexOfL = returnValue.indexOf('L');
-                if (indexOfL == -1) {
-                    // We cannot add generics to primitives
-                    continue;
-                }
-                String rawObject = returnValue.substring(indexOfL);
-                if (!ITERABLES.contains(rawObject)) {
-                    continue; // Not something we know can be a generic
-                }
-                AbstractInsnNode insn = method.instructions.getLast().getPrevious();
-                while (insn != null && insn.getOpcode() != Opcodes.ARETURN) {
-                    insn = insn.getPrevious();
-                }
-                if (insn != null) {
-                    continue; // not a straightforward getter
-                }
-                insn = method.instructions.getLast().getPrevious();
-                if (!(insn instanceof FieldInsnNode)) {
-                    continue; // We only accept getters that directly return a field
-                }
-                List<MethodNode> old = getterRefs.get(new FieldReference((FieldInsnNode) insn));
-                if (old == null) {
-                    old = new ArrayList<>();
-                    getterRefs.put(new FieldReference((FieldInsnNode) insn), old);
-                }
-                old.add(method);
-            }
-        }
-
-        // Set the signatures
-        for (ClassNode node : nodes) {
-            for (FieldNode field : node.fields) {
-                if (field.signature != null && ITERABLES.contains(field.desc)) {
-                    List<MethodNode> references = getterRefs.get(new FieldReference(node.name, field));
-                    if (references != null) {
-                        for (MethodNode reference : references) {
-                            // FIXME Casts?
-                            reference.signature = "()" + field.signature;
-                            addedMethodSignatures++;
-                        }
-                    }
-                }
-            }
-        }
+        GenericInference inference = new GenericInference(nodes, classGraph, referenceSites, frameCache);
+        int addedMethodSignatures = inference.inferGetters(inference.getGenericFields()).size();
 
         System.out.printf("Infered %d method signatures! (%d ms)\n", addedMethodSignatures, System.currentTimeMillis() - startTime);
     }
 
+    /**
+     * Sets whether passes that support it should be run on multiple threads. The output of these passes is
+     * identical regardless of whether they are run in parallel or not.
+     * Currently only {@link #fixParameterLVT()} makes use of this.
+     *
+     * @param toggle Whether to process methods in parallel
+     */
+    public void useParallelProcessing(boolean toggle) {
+        parallelProcessing = toggle;
+    }
+
     public void write(OutputStream out) throws IOException {
         System.out.println("Exporting...");
         JarOutputStream jarOut = new JarOutputStream(out);
@@ -0,0 +1,126 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Set of the opcodes that are used by the instructions of a method, which allows passes to skip methods
+ * that cannot match the instruction pattern they are looking for without walking the instructions of the method.
+ * Pseudo-instructions such as labels, frames and line numbers are not recorded.
+ *<p>
+ * The bitmap of a method is computed while the method is indexed (see {@link ReferenceSiteIndex#index(org.objectweb.asm.tree.ClassNode, MethodNode)})
+ * or lazily on the first call to {@link #get(MethodNode)} and is shared by all passes that operate on the same {@link MethodNode} instance.
+ * Instructions that are added or removed are detected through the size of the instruction list and cause the bitmap to be recomputed,
+ * instructions that are replaced by instructions with another opcode need an explicit call to {@link #invalidate(MethodNode)}.
+ */
+public final class OpcodeBitmap {
+
+    private static final Map<MethodNode, OpcodeBitmap> BITMAPS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Obtains the opcode bitmap of a method.
+     *
+     * @param method The method
+     * @return The opcodes used by the instructions of the method
+     */
+    @NotNull
+    public static OpcodeBitmap get(@NotNull MethodNode method) {
+        OpcodeBitmap bitmap = BITMAPS.get(method);
+        if (bitmap == null || bitmap.size != method.instructions.size()) {
+            bitmap = new OpcodeBitmap(method.instructions);
+            BITMAPS.put(method, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Discards the bitmap of a method. This method needs to be called whenever an instruction of the method
+     * is replaced by an instruction with a different opcode.
+     *
+     * @param method The method whose bitmap should be discarded
+     */
+    public static void invalidate(@NotNull MethodNode method) {
+        BITMAPS.remove(method);
+    }
+
+    /**
+     * Creates a bitmap that contains the given opcodes, which is meant to be used as the argument of {@link #containsAll(OpcodeBitmap)}.
+     *
+     * @param opcodes The opcodes
+     * @return The bitmap
+     */
+    @NotNull
+    public static OpcodeBitmap of(int... opcodes) {
+        OpcodeBitmap bitmap = new OpcodeBitmap(-1);
+        for (int opcode : opcodes) {
+            bitmap.add(opcode);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Stores the bitmap of a method that was computed as a by-product of walking the instructions of the method.
+     *
+     * @param method The method
+     * @param bitmap The bitmap of the method
+     */
+    static void put(@NotNull MethodNode method, @NotNull OpcodeBitmap bitmap) {
+        BITMAPS.put(method, bitmap);
+    }
+
+    private final long[] bits = new long[4];
+    private final int size;
+
+    private OpcodeBitmap(InsnList instructions) {
+        this(instructions.size());
+        for (AbstractInsnNode insn : instructions) {
+            add(insn.getOpcode());
+        }
+    }
+
+    /**
+     * Creates an empty bitmap.
+     *
+     * @param size The size of the instruction list the bitmap is computed for
+     */
+    OpcodeBitmap(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Adds an opcode to the bitmap. Negative opcodes (which are used by pseudo-instructions) are ignored.
+     * This method may only be called while the bitmap is computed.
+     *
+     * @param opcode The opcode
+     */
+    void add(int opcode) {
+        if (opcode >= 0) {
+            bits[opcode >>> 6] |= 1L << opcode;
+        }
+    }
+
+    public boolean contains(int opcode) {
+        return opcode >= 0 && (bits[opcode >>> 6] & (1L << opcode)) != 0;
+    }
+
+    /**
+     * Checks whether all opcodes of another bitmap are contained in this bitmap.
+     *
+     * @param opcodes The opcodes, usually created via {@link #of(int...)}
+     * @return True if all opcodes are contained
+     */
+    public boolean containsAll(@NotNull OpcodeBitmap opcodes) {
+        for (int i = 0; i < bits.length; i++) {
+            if ((opcodes.bits[i] & ~bits[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
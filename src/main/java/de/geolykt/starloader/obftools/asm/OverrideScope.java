@@ -0,0 +1,22 @@
+package de.geolykt.starloader.obftools.asm;
+
+import org.objectweb.asm.Opcodes;
+
+enum OverrideScope {
+    ALWAYS,
+    NEVER,
+    PACKAGE;
+
+    public static OverrideScope fromFlags(int accessFlags) {
+        if ((accessFlags & Opcodes.ACC_STATIC) != 0
+                || (accessFlags & Opcodes.ACC_FINAL) != 0
+                || (accessFlags & Opcodes.ACC_PRIVATE) != 0) {
+            return OverrideScope.NEVER;
+        }
+        if ((accessFlags & Opcodes.ACC_PROTECTED) != 0
+                || (accessFlags & Opcodes.ACC_PUBLIC) != 0) {
+            return OverrideScope.ALWAYS;
+        }
+        return OverrideScope.PACKAGE;
+    }
+}
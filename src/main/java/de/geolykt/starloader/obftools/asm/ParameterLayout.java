@@ -0,0 +1,132 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The generated names, the types and the local variable indices of the parameters of a method, as used by
+ * {@link Oaktree#fixParameterLVT()}. The layout only depends on the descriptor of the method and whether the method
+ * is static, so it can be shared between all methods that have the same descriptor - which is rather common
+ * within obfuscated applications.
+ *<p>
+ * Instances are immutable and may be shared between threads.
+ */
+final class ParameterLayout {
+
+    /**
+     * Computes the layout of the parameters of a method.
+     *
+     * @param desc The descriptor of the method
+     * @param isStatic Whether the method is static, in which case the first parameter is stored at local variable index 0
+     * @return The layout
+     */
+    @NotNull
+    static ParameterLayout compute(@NotNull String desc, boolean isStatic) {
+        DescCursor description = new DescCursor(desc);
+        List<String> types = new ArrayList<>();
+        while (description.hasNext()) {
+            description.next();
+            types.add(description.getDescriptor()); // Does not allocate for primitives
+        }
+        Set<String> existingTypes = new HashSet<>();
+        Set<String> duplicateTypes = new HashSet<>();
+        duplicateTypes.add("Ljava/lang/Class;"); // class is a keyword
+        boolean oneArray = false;
+        boolean multipleArrays = false;
+        for (String type : types) {
+            if (type.charAt(0) == '[') {
+                if (oneArray) {
+                    multipleArrays = true;
+                } else {
+                    oneArray = true;
+                }
+            } else {
+                if (!existingTypes.add(type)) {
+                    duplicateTypes.add(type);
+                }
+            }
+        }
+
+        String[] names = new String[types.size()];
+        int[] localIndices = new int[types.size()];
+        int localVariableIndex = isStatic ? 0 : 1;
+        for (int i = 0; i < names.length; i++) {
+            String type = types.get(i);
+            String name = null;
+            switch (type.charAt(0)) {
+            case 'L':
+                int cutOffIndex = Math.max(type.lastIndexOf('/'), type.lastIndexOf('$')) + 1;
+                name = Character.toString(Character.toLowerCase(type.codePointAt(cutOffIndex))) + type.substring(cutOffIndex + 1, type.length() - 1);
+                if (duplicateTypes.contains(type)) {
+                    name += i;
+                }
+                break;
+            case '[':
+                if (multipleArrays) {
+                    name = "arr" + i;
+                } else {
+                    name = "arr";
+                }
+                break;
+            case 'F': // float
+                name = "float" + i;
+                break;
+            case 'D': // double
+                name = "double" + i;
+                break;
+            case 'Z': // boolean
+                name = "boolean" + i;
+                break;
+            case 'B': // byte
+                name = "byte" + i;
+                break;
+            case 'C': // char
+                if (duplicateTypes.contains(type)) {
+                    name = "character" + i;
+                } else {
+                    name = "character";
+                }
+                break;
+            case 'S': // short
+                name = "short" + i;
+                break;
+            case 'I': // integer
+                if (duplicateTypes.contains(type)) {
+                    name = "integer" + i;
+                } else {
+                    name = "integer";
+                }
+                break;
+            case 'J': // long
+                name = "long" + i;
+                break;
+            default:
+                throw new IllegalStateException("Unknown type: " + type);
+            }
+            names[i] = name;
+            localIndices[i] = localVariableIndex;
+            char c = type.charAt(0);
+            if (c == 'D' || c == 'J') {
+                // doubles and longs take two frames on the stack. Makes sense, I know
+                localVariableIndex += 2;
+            } else {
+                localVariableIndex++;
+            }
+        }
+        return new ParameterLayout(names, types.toArray(new String[0]), localIndices);
+    }
+
+    final int[] localIndices;
+    final String[] names;
+    final String[] types;
+
+    private ParameterLayout(String[] names, String[] types, int[] localIndices) {
+        this.names = names;
+        this.types = types;
+        this.localIndices = localIndices;
+    }
+}
@@ -0,0 +1,88 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Factory that hands out a single canonical instance for every distinct {@link MethodReference} and {@link FieldReference}.
+ * If all references of a map-heavy phase are obtained from the same pool, equal references are the same instance,
+ * so lookups succeed on the identity check within {@link Object#equals(Object)} and only a single instance per
+ * member is retained by the maps and sets of the phase.
+ *<p>
+ * References that were not obtained from the pool remain fully usable; they are only compared by their contents.
+ * The pool retains all references it handed out, so it should be scoped to a single phase.
+ */
+public final class ReferencePool {
+
+    private final Map<FieldReference, FieldReference> fields = new ConcurrentHashMap<>();
+    private final Map<MethodReference, MethodReference> methods = new ConcurrentHashMap<>();
+
+    /**
+     * Obtains the canonical instance of a field reference.
+     *
+     * @param reference The reference
+     * @return The canonical reference that is equal to the given reference
+     */
+    @NotNull
+    public FieldReference canonicalize(@NotNull FieldReference reference) {
+        FieldReference canonical = fields.putIfAbsent(reference, reference);
+        return canonical == null ? reference : canonical;
+    }
+
+    /**
+     * Obtains the canonical instance of a method reference.
+     *
+     * @param reference The reference
+     * @return The canonical reference that is equal to the given reference
+     */
+    @NotNull
+    public MethodReference canonicalize(@NotNull MethodReference reference) {
+        MethodReference canonical = methods.putIfAbsent(reference, reference);
+        return canonical == null ? reference : canonical;
+    }
+
+    @NotNull
+    public FieldReference field(@NotNull FieldInsnNode instruction) {
+        return canonicalize(new FieldReference(instruction));
+    }
+
+    @NotNull
+    public FieldReference field(@NotNull String owner, @NotNull FieldNode node) {
+        return canonicalize(new FieldReference(owner, node));
+    }
+
+    @NotNull
+    public FieldReference field(@NotNull String owner, @NotNull String desc, @NotNull String name) {
+        return canonicalize(new FieldReference(owner, desc, name));
+    }
+
+    @NotNull
+    public MethodReference method(@NotNull MethodInsnNode instruction) {
+        return canonicalize(new MethodReference(instruction));
+    }
+
+    @NotNull
+    public MethodReference method(@NotNull String owner, @NotNull MethodNode node) {
+        return canonicalize(new MethodReference(owner, node));
+    }
+
+    @NotNull
+    public MethodReference method(@NotNull String owner, @NotNull String desc, @NotNull String name) {
+        return canonicalize(new MethodReference(owner, desc, name));
+    }
+
+    /**
+     * Obtains the amount of distinct references within the pool.
+     *
+     * @return The amount of references
+     */
+    public int size() {
+        return fields.size() + methods.size();
+    }
+}
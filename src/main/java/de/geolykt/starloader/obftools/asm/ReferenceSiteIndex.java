@@ -0,0 +1,338 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Index that maps field and method references to the instructions that use them (their use sites).
+ * The index is built once while the classes are read (see {@link Oaktree#index(java.util.jar.JarFile)}) and is
+ * queried by the passes that are only interested in a few references, which spares them from scanning
+ * every instruction of the application.
+ *<p>
+ * Passes that change the references of instructions or add new instructions that refer to fields or methods
+ * need to call {@link #index(ClassNode, MethodNode)} for the changed methods. Sites whose instruction was
+ * removed or no longer refers to the queried reference are never returned, so forgetting to do so only means that
+ * new sites are missing. Sites are returned in the order of the methods, followed by the order of the instructions within
+ * the method. The order of a method is the order it was first indexed in and does not change when the method is re-indexed,
+ * so the results do not depend on which methods were re-indexed.
+ *<p>
+ * Removed sites are only marked as removed and are dropped from the lists of their references once a list consists
+ * of mostly removed sites or when the list is queried, which keeps re-indexing a method independent of the amount
+ * of sites of the references it uses.
+ */
+public final class ReferenceSiteIndex {
+
+    /**
+     * A single instruction that refers to a field or method.
+     */
+    public static final class Site {
+
+        @NotNull
+        private final AbstractInsnNode insn;
+        @NotNull
+        private final MethodNode method;
+        private final long order;
+        @NotNull
+        private final ClassNode owner;
+        @NotNull
+        private final Object reference;
+        private boolean removed;
+
+        private Site(@NotNull ClassNode owner, @NotNull MethodNode method, @NotNull AbstractInsnNode insn,
+                @NotNull Object reference, long order) {
+            this.owner = owner;
+            this.method = method;
+            this.insn = insn;
+            this.reference = reference;
+            this.order = order;
+        }
+
+        /**
+         * Obtains the instruction that refers to the field or method.
+         * The instruction is either a {@link FieldInsnNode} or a {@link MethodInsnNode}.
+         *
+         * @return The instruction
+         */
+        @NotNull
+        public AbstractInsnNode getInstruction() {
+            return insn;
+        }
+
+        /**
+         * Obtains the method that contains the instruction.
+         *
+         * @return The method
+         */
+        @NotNull
+        public MethodNode getMethod() {
+            return method;
+        }
+
+        /**
+         * Obtains the class that declares the method that contains the instruction.
+         *
+         * @return The class
+         */
+        @NotNull
+        public ClassNode getOwner() {
+            return owner;
+        }
+
+        private boolean isValid() {
+            if (insn.getPrevious() == null && insn.getNext() == null && method.instructions.getFirst() != insn) {
+                return false; // Removed from the method
+            }
+            if (insn instanceof FieldInsnNode) {
+                FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+                FieldReference ref = (FieldReference) reference;
+                return fieldInsn.name.equals(ref.getName()) && fieldInsn.owner.equals(ref.getOwner()) && fieldInsn.desc.equals(ref.getDesc());
+            } else {
+                MethodInsnNode methodInsn = (MethodInsnNode) insn;
+                MethodReference ref = (MethodReference) reference;
+                return methodInsn.name.equals(ref.getName()) && methodInsn.owner.equals(ref.getOwner()) && methodInsn.desc.equals(ref.getDesc());
+            }
+        }
+    }
+
+    /**
+     * The sites of a single reference.
+     */
+    private static final class SiteList {
+        private int removed;
+        private final List<Site> sites = new ArrayList<>(2);
+        private boolean sorted = true;
+
+        void add(Site site) {
+            if (!sites.isEmpty() && sites.get(sites.size() - 1).order > site.order) {
+                // A method that was indexed before other methods was re-indexed
+                sorted = false;
+            }
+            sites.add(site);
+        }
+
+        /**
+         * Drops the removed sites and restores the order of the sites.
+         */
+        void compact() {
+            if (removed != 0) {
+                sites.removeIf(site -> site.removed);
+                removed = 0;
+            }
+            if (!sorted) {
+                sites.sort(INDEX_ORDER);
+                sorted = true;
+            }
+        }
+
+        /**
+         * Marks a site of the list as removed.
+         *
+         * @return True if the list no longer contains any sites that are not removed
+         */
+        boolean markRemoved() {
+            if (++removed == sites.size()) {
+                return true;
+            }
+            if (removed > sites.size() / 2) {
+                compact();
+            }
+            return false;
+        }
+    }
+
+    private static final Comparator<Site> INDEX_ORDER = (s1, s2) -> Long.compare(s1.order, s2.order);
+
+    private static <K> void add(Map<K, SiteList> sites, K key, Site site) {
+        SiteList list = sites.get(key);
+        if (list == null) {
+            list = new SiteList();
+            sites.put(key, list);
+        }
+        list.add(site);
+    }
+
+    private static <K> List<Site> collect(Map<K, SiteList> sites, Collection<? extends K> keys) {
+        List<Site> out = new ArrayList<>();
+        for (K key : keys) {
+            SiteList list = sites.get(key);
+            if (list == null) {
+                continue;
+            }
+            list.compact();
+            for (Site site : list.sites) {
+                if (site.isValid()) {
+                    out.add(site);
+                }
+            }
+        }
+        if (keys.size() > 1) {
+            out.sort(INDEX_ORDER);
+        }
+        return out;
+    }
+
+    private static <K> void remove(Map<K, SiteList> sites, K key) {
+        SiteList list = sites.get(key);
+        if (list != null && list.markRemoved()) {
+            sites.remove(key);
+        }
+    }
+
+    private final Map<FieldReference, SiteList> fieldSites = new HashMap<>();
+    private final Map<MethodReference, SiteList> methodSites = new HashMap<>();
+    private final Map<String, SiteList> methodSitesByOwner = new HashMap<>();
+    private final Map<MethodNode, Integer> methodOrder = new HashMap<>();
+    private int nextMethodOrder;
+    private final Map<MethodNode, List<Site>> sitesByMethod = new HashMap<>();
+
+    /**
+     * Obtains the sites that refer to the given field.
+     *
+     * @param reference The field
+     * @return The use sites of the field, in index order
+     */
+    @NotNull
+    public List<Site> getFieldSites(@NotNull FieldReference reference) {
+        return collect(fieldSites, Collections.singleton(reference));
+    }
+
+    /**
+     * Obtains the sites that refer to any of the given fields.
+     *
+     * @param references The fields
+     * @return The use sites of the fields, in index order
+     */
+    @NotNull
+    public List<Site> getFieldSites(@NotNull Collection<FieldReference> references) {
+        return collect(fieldSites, references);
+    }
+
+    /**
+     * Obtains the sites that refer to the given method.
+     *
+     * @param reference The method
+     * @return The use sites of the method, in index order
+     */
+    @NotNull
+    public List<Site> getMethodSites(@NotNull MethodReference reference) {
+        return collect(methodSites, Collections.singleton(reference));
+    }
+
+    /**
+     * Obtains the sites that refer to any of the given methods.
+     *
+     * @param references The methods
+     * @return The use sites of the methods, in index order
+     */
+    @NotNull
+    public List<Site> getMethodSites(@NotNull Collection<MethodReference> references) {
+        return collect(methodSites, references);
+    }
+
+    /**
+     * Obtains the sites that refer to any method that is owned by one of the given classes.
+     * The owner is the owner as stated by the instruction, which is not necessarily the class that declares the method.
+     *
+     * @param owners The internal names of the owners
+     * @return The use sites of the methods, in index order
+     */
+    @NotNull
+    public List<Site> getMethodSitesByOwner(@NotNull Collection<String> owners) {
+        return collect(methodSitesByOwner, owners);
+    }
+
+    /**
+     * Indexes all methods of a class. Methods that were already indexed are re-indexed.
+     *
+     * @param node The class to index
+     */
+    public void index(@NotNull ClassNode node) {
+        for (MethodNode method : node.methods) {
+            index(node, method);
+        }
+    }
+
+    /**
+     * Indexes a single method, discarding the sites that were previously indexed for the method.
+     * This method needs to be called whenever instructions that refer to fields or methods are added to the method
+     * or are changed. The {@link OpcodeBitmap} of the method is computed as well.
+     *
+     * @param node The class that declares the method
+     * @param method The method to index
+     */
+    public void index(@NotNull ClassNode node, @NotNull MethodNode method) {
+        remove(method);
+        if (method.instructions == null || method.instructions.size() == 0) {
+            return;
+        }
+        List<Site> sites = new ArrayList<>();
+        OpcodeBitmap opcodes = new OpcodeBitmap(method.instructions.size());
+        // The order of the method is kept when it is re-indexed
+        long nextOrder = (long) methodOrder.computeIfAbsent(method, key -> nextMethodOrder++) << 32;
+        for (AbstractInsnNode insn : method.instructions) {
+            opcodes.add(insn.getOpcode());
+            if (insn instanceof FieldInsnNode) {
+                FieldReference reference = new FieldReference((FieldInsnNode) insn);
+                Site site = new Site(node, method, insn, reference, nextOrder++);
+                add(fieldSites, reference, site);
+                sites.add(site);
+            } else if (insn instanceof MethodInsnNode) {
+                MethodReference reference = new MethodReference((MethodInsnNode) insn);
+                Site site = new Site(node, method, insn, reference, nextOrder++);
+                add(methodSites, reference, site);
+                add(methodSitesByOwner, reference.getOwner(), site);
+                sites.add(site);
+            }
+        }
+        if (!sites.isEmpty()) {
+            sitesByMethod.put(method, sites);
+        }
+        OpcodeBitmap.put(method, opcodes);
+    }
+
+    /**
+     * Removes all sites of a class from the index.
+     *
+     * @param node The class to remove
+     */
+    public void remove(@NotNull ClassNode node) {
+        for (MethodNode method : node.methods) {
+            remove(method);
+            methodOrder.remove(method);
+        }
+    }
+
+    /**
+     * Removes all sites within a method from the index. The method keeps it's order, should it be indexed again.
+     *
+     * @param method The method to remove
+     */
+    public void remove(@NotNull MethodNode method) {
+        List<Site> sites = sitesByMethod.remove(method);
+        if (sites == null) {
+            return;
+        }
+        for (Site site : sites) {
+            site.removed = true;
+            if (site.reference instanceof FieldReference) {
+                remove(fieldSites, (FieldReference) site.reference);
+            } else {
+                MethodReference reference = (MethodReference) site.reference;
+                remove(methodSites, reference);
+                remove(methodSitesByOwner, reference.getOwner());
+            }
+        }
+    }
+}
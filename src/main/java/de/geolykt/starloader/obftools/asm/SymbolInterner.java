@@ -0,0 +1,168 @@
+package de.geolykt.starloader.obftools.asm;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+/**
+ * Symbol table that makes equal class names, member names, descriptors and signatures share a single string instance.
+ * The {@link ClassReader} decodes a new string for every class it reads, which means that for example the owner
+ * and descriptor of every referenced member exists once per class that references it. Interning these strings
+ * greatly reduces the memory footprint of large applications and allows {@link String#equals(Object)} to
+ * succeed on the identity check, which makes lookups using {@link MethodReference} and {@link FieldReference} cheaper.
+ *<p>
+ * Unlike {@link String#intern()} the symbols are only kept alive as long as the table itself, so the table of an application
+ * can be discarded alongside the application. The table is shared via {@link ClassGraph#getSymbols()} and is safe to
+ * use from multiple threads.
+ */
+public final class SymbolInterner {
+
+    private final Map<String, String> symbols = new ConcurrentHashMap<>();
+
+    /**
+     * Interns all names, descriptors and signatures used by a class, including the ones used by the instructions
+     * and local variables of it's methods. Annotations and constants are left alone.
+     *
+     * @param node The class
+     */
+    public void intern(@NotNull ClassNode node) {
+        node.name = intern(node.name);
+        node.superName = intern(node.superName);
+        node.signature = intern(node.signature);
+        internAll(node.interfaces);
+        node.outerClass = intern(node.outerClass);
+        node.outerMethod = intern(node.outerMethod);
+        node.outerMethodDesc = intern(node.outerMethodDesc);
+        node.nestHostClass = intern(node.nestHostClass);
+        internAll(node.nestMembers);
+        internAll(node.permittedSubclasses);
+        for (InnerClassNode innerClass : node.innerClasses) {
+            innerClass.name = intern(innerClass.name);
+            innerClass.outerName = intern(innerClass.outerName);
+            innerClass.innerName = intern(innerClass.innerName);
+        }
+        for (FieldNode field : node.fields) {
+            field.name = intern(field.name);
+            field.desc = intern(field.desc);
+            field.signature = intern(field.signature);
+        }
+        for (MethodNode method : node.methods) {
+            intern(method);
+        }
+    }
+
+    private void intern(@NotNull MethodNode method) {
+        method.name = intern(method.name);
+        method.desc = intern(method.desc);
+        method.signature = intern(method.signature);
+        internAll(method.exceptions);
+        if (method.localVariables != null) {
+            for (LocalVariableNode local : method.localVariables) {
+                local.name = intern(local.name);
+                local.desc = intern(local.desc);
+                local.signature = intern(local.signature);
+            }
+        }
+        for (TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks) {
+            tryCatchBlock.type = intern(tryCatchBlock.type);
+        }
+        for (AbstractInsnNode insn : method.instructions) {
+            switch (insn.getType()) {
+            case AbstractInsnNode.FIELD_INSN:
+                FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+                fieldInsn.owner = intern(fieldInsn.owner);
+                fieldInsn.name = intern(fieldInsn.name);
+                fieldInsn.desc = intern(fieldInsn.desc);
+                break;
+            case AbstractInsnNode.METHOD_INSN:
+                MethodInsnNode methodInsn = (MethodInsnNode) insn;
+                methodInsn.owner = intern(methodInsn.owner);
+                methodInsn.name = intern(methodInsn.name);
+                methodInsn.desc = intern(methodInsn.desc);
+                break;
+            case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+                InvokeDynamicInsnNode indyInsn = (InvokeDynamicInsnNode) insn;
+                indyInsn.name = intern(indyInsn.name);
+                indyInsn.desc = intern(indyInsn.desc);
+                break;
+            case AbstractInsnNode.TYPE_INSN:
+                TypeInsnNode typeInsn = (TypeInsnNode) insn;
+                typeInsn.desc = intern(typeInsn.desc);
+                break;
+            case AbstractInsnNode.MULTIANEWARRAY_INSN:
+                MultiANewArrayInsnNode arrayInsn = (MultiANewArrayInsnNode) insn;
+                arrayInsn.desc = intern(arrayInsn.desc);
+                break;
+            case AbstractInsnNode.FRAME:
+                FrameNode frame = (FrameNode) insn;
+                internTypes(frame.local);
+                internTypes(frame.stack);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * Obtains the shared instance of a string.
+     *
+     * @param symbol The string
+     * @return The shared instance that is equal to the string, or null if the string is null
+     */
+    @Nullable
+    public String intern(@Nullable String symbol) {
+        if (symbol == null) {
+            return null;
+        }
+        String shared = symbols.putIfAbsent(symbol, symbol);
+        return shared == null ? symbol : shared;
+    }
+
+    private void internAll(@Nullable List<String> strings) {
+        if (strings == null) {
+            return;
+        }
+        for (int i = 0; i < strings.size(); i++) {
+            strings.set(i, intern(strings.get(i)));
+        }
+    }
+
+    private void internTypes(@Nullable List<Object> types) {
+        if (types == null) {
+            return;
+        }
+        for (int i = 0; i < types.size(); i++) {
+            Object type = types.get(i);
+            if (type instanceof String) {
+                types.set(i, intern((String) type));
+            }
+        }
+    }
+
+    /**
+     * Obtains the amount of distinct symbols within the table.
+     *
+     * @return The amount of symbols
+     */
+    public int size() {
+        return symbols.size();
+    }
+}
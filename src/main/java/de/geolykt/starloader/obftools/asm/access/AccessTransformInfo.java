@@ -11,6 +11,7 @@ import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.MethodNode;
 
+import de.geolykt.starloader.obftools.asm.MemberIndex;
 import de.geolykt.starloader.obftools.asm.access.AccessFlagModifier.Type;
 
 public final class AccessTransformInfo {
@@ -32,25 +33,17 @@ public final class AccessTransformInfo {
                 node.access = flag.apply(node.access);
                 continue;
             } else if (flag.type == Type.FIELD) {
-                boolean found = false;
-                for (FieldNode field : node.fields) {
-                    if (field.name.equals(flag.name.get()) && field.desc.equals(flag.descriptor.get())) {
-                        found = true;
-                        field.access = flag.apply(field.access);
-                    }
-                }
-                if (!found) {
+                FieldNode field = MemberIndex.findField(node, flag.name.get(), flag.descriptor.get());
+                if (field != null) {
+                    field.access = flag.apply(field.access);
+                } else {
                     warnLogger.accept("Cannot find field required by access widener: " + flag.toAccessWidenerString());
                 }
             } else if (flag.type == Type.METHOD) {
-                boolean found = false;
-                for (MethodNode method : node.methods) {
-                    if (method.name.equals(flag.name.get()) && method.desc.equals(flag.descriptor.get())) {
-                        found = true;
-                        method.access = flag.apply(method.access);
-                    }
-                }
-                if (!found) {
+                MethodNode method = MemberIndex.findMethod(node, flag.name.get(), flag.descriptor.get());
+                if (method != null) {
+                    method.access = flag.apply(method.access);
+                } else {
                     warnLogger.accept("Cannot find method required by access widener: " + flag.toAccessWidenerString());
                 }
             } else {
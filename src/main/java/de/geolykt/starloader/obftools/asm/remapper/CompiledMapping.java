@@ -0,0 +1,137 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A frozen set of class, field and method renames. Unlike the mappings registered in a {@link Remapper} instance,
+ * a compiled mapping cannot be modified after it was created and is not cleared by {@link Remapper#process()}.
+ * This means that it can be applied any number of times and by any amount of threads at the same time,
+ * as long as every thread uses it's own {@link Remapper} instance (see {@link #createRemapper()}).
+ *<p>
+ * Compiled mappings are obtained via {@link Remapper#compile()} or {@link #readTinyV1File(File)}.
+ */
+public final class CompiledMapping {
+
+    /**
+     * Reads a tiny v1 file and compiles it, without having to worry about the intermediary {@link Remapper}.
+     *
+     * @param tinyMap The file to read
+     * @return The compiled mapping that maps from the first namespace to the second namespace of the file
+     * @throws IOException If an IO issue occurred
+     * @see RemapperUtils#readTinyV1File(File, Remapper)
+     */
+    public static CompiledMapping readTinyV1File(File tinyMap) throws IOException {
+        // Compiled mappings are usually large and long-lived
+        Remapper remapper = new Remapper(true);
+        RemapperUtils.readTinyV1File(tinyMap, remapper);
+        return remapper.compile();
+    }
+
+    final Map<String, String> classNames;
+    final FieldRenameMap fieldRenames;
+    final MethodRenameMap methodRenames;
+    private volatile CompiledMapping reversed;
+
+    CompiledMapping(Map<String, String> classNames, FieldRenameMap fieldRenames, MethodRenameMap methodRenames) {
+        this.classNames = Collections.unmodifiableMap(new HashMap<>(classNames));
+        this.fieldRenames = new FieldRenameMap(fieldRenames.isDense());
+        this.methodRenames = new MethodRenameMap(methodRenames.isDense());
+        fieldRenames.forEach((ref, newName) -> {
+            this.fieldRenames.put(ref.getOwner(), ref.getDesc(), ref.getName(), newName);
+        });
+        methodRenames.forEach((ref, newName) -> {
+            try {
+                this.methodRenames.put(ref.getOwner(), ref.getDesc(), ref.getName(), newName);
+            } catch (ConflicitingMappingException e) {
+                throw new IllegalStateException("Duplicate method key in source map", e);
+            }
+        });
+    }
+
+    private CompiledMapping(CompiledMapping source) {
+        Map<String, String> reversedClasses = new HashMap<>();
+        source.classNames.forEach((oldName, newName) -> {
+            String duplicate = reversedClasses.put(newName, oldName);
+            if (duplicate != null) {
+                throw new IllegalStateException("Cannot reverse mapping: Both " + duplicate + " and " + oldName + " are mapped to " + newName);
+            }
+        });
+        this.classNames = Collections.unmodifiableMap(reversedClasses);
+        this.fieldRenames = new FieldRenameMap(source.fieldRenames.isDense());
+        this.methodRenames = new MethodRenameMap(source.methodRenames.isDense());
+        // Owners and descriptors are stored in the source namespace and thus need to be remapped first
+        source.fieldRenames.forEach((ref, newName) -> {
+            String owner = source.classNames.getOrDefault(ref.getOwner(), ref.getOwner());
+            String desc = RemapperUtils.remapSignature(ref.getDesc(), source.classNames);
+            this.fieldRenames.put(owner, desc, newName, ref.getName());
+        });
+        source.methodRenames.forEach((ref, newName) -> {
+            String owner = source.classNames.getOrDefault(ref.getOwner(), ref.getOwner());
+            String desc = RemapperUtils.remapSignature(ref.getDesc(), source.classNames);
+            try {
+                this.methodRenames.put(owner, desc, newName, ref.getName());
+            } catch (ConflicitingMappingException e) {
+                throw new IllegalStateException("Cannot reverse mapping: Two methods are mapped to the same name within the same class", e);
+            }
+        });
+        this.reversed = source;
+    }
+
+    /**
+     * Creates a new remapper instance that makes use of this mapping.
+     * The remapper will not accept any additional renames.
+     *
+     * @return The newly created remapper instance
+     */
+    public Remapper createRemapper() {
+        return new Remapper(this);
+    }
+
+    public int getClassCount() {
+        return classNames.size();
+    }
+
+    public int getFieldCount() {
+        return fieldRenames.size();
+    }
+
+    public int getMethodCount() {
+        return methodRenames.size();
+    }
+
+    /**
+     * Obtains the new name of a class.
+     *
+     * @param internalName The old internal name of the class
+     * @return The new internal name, or the old internal name if the class is not renamed
+     */
+    public String getClassName(String internalName) {
+        return classNames.getOrDefault(internalName, internalName);
+    }
+
+    /**
+     * Obtains the mapping that performs the exact opposite of this mapping.
+     * The reversed mapping is computed once and then cached, so repeated calls are cheap.
+     * Reversing the reversed mapping yields this instance.
+     *
+     * @return The reversed mapping
+     * @throws IllegalStateException If the mapping cannot be reversed as multiple entries share the same new name
+     */
+    public CompiledMapping reverse() {
+        CompiledMapping reversed = this.reversed;
+        if (reversed == null) {
+            synchronized (this) {
+                reversed = this.reversed;
+                if (reversed == null) {
+                    reversed = new CompiledMapping(this);
+                    this.reversed = reversed;
+                }
+            }
+        }
+        return reversed;
+    }
+}
@@ -0,0 +1,520 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Byte-level remapping engine that only supports class renames.
+ * Instead of parsing the entire class file into a tree like {@link Remapper} does, it only locates the places that
+ * reference a class name, descriptor or signature and repoints them to new CONSTANT_Utf8 entries that are appended to the
+ * constant pool. The original UTF8 entries are never modified, as obfuscated class files routinely share a single
+ * UTF8 entry between a class name, member names and string literals. Everything else (instructions, unknown attributes
+ * and so on) is copied as-is.
+ *<p>
+ * Descriptors and signatures are only remapped where the class file format says that they are used, that is within
+ * CONSTANT_NameAndType and CONSTANT_MethodType entries, field, method and record component descriptors, Signature attributes,
+ * local variable tables and annotations. Attributes that are unknown to this class are left untouched.
+ *<p>
+ * Instances of this class do not mutate their state after construction and can be shared between threads.
+ */
+public final class ConstantPoolRemapper {
+
+    /**
+     * Locates the references to class names, descriptors and signatures within a single class file.
+     */
+    private static final class ReferenceCollector {
+
+        private final byte[] classFile;
+        private final String[] decodedNames;
+        private final int[] offsets;
+        private int[] references = new int[64];
+        private int size;
+
+        private ReferenceCollector(byte[] classFile, int[] offsets) {
+            this.classFile = classFile;
+            this.offsets = offsets;
+            this.decodedNames = new String[offsets.length];
+        }
+
+        private void add(int offset, int kind) {
+            if (size == references.length) {
+                references = Arrays.copyOf(references, size * 2);
+            }
+            references[size++] = (offset << 1) | kind;
+        }
+
+        private String getAttributeName(int index) {
+            String name = decodedNames[index];
+            if (name == null) {
+                int entryOffset = offsets[index];
+                name = decodeUtf8(classFile, entryOffset + 3, readUnsignedShort(classFile, entryOffset + 1));
+                decodedNames[index] = name;
+            }
+            return name;
+        }
+
+        private int readAnnotation(int offset) {
+            add(offset, KIND_DESCRIPTOR);
+            int pairs = readUnsignedShort(classFile, offset + 2);
+            offset += 4;
+            for (int i = 0; i < pairs; i++) {
+                offset = readElementValue(offset + 2);
+            }
+            return offset;
+        }
+
+        private int readAnnotations(int offset) {
+            int count = readUnsignedShort(classFile, offset);
+            offset += 2;
+            for (int i = 0; i < count; i++) {
+                offset = readAnnotation(offset);
+            }
+            return offset;
+        }
+
+        private void readAttribute(String name, int offset) {
+            switch (name) {
+            case "Signature":
+                add(offset, KIND_DESCRIPTOR);
+                break;
+            case "Code":
+                offset += 8 + readInt(classFile, offset + 4);
+                offset += 2 + 8 * readUnsignedShort(classFile, offset);
+                readAttributes(offset);
+                break;
+            case "LocalVariableTable":
+            case "LocalVariableTypeTable": {
+                int count = readUnsignedShort(classFile, offset);
+                for (int i = 0; i < count; i++) {
+                    add(offset + 2 + i * 10 + 6, KIND_DESCRIPTOR);
+                }
+                break;
+            }
+            case "RuntimeVisibleAnnotations":
+            case "RuntimeInvisibleAnnotations":
+                readAnnotations(offset);
+                break;
+            case "RuntimeVisibleParameterAnnotations":
+            case "RuntimeInvisibleParameterAnnotations": {
+                int count = classFile[offset] & 0xFF;
+                offset++;
+                for (int i = 0; i < count; i++) {
+                    offset = readAnnotations(offset);
+                }
+                break;
+            }
+            case "RuntimeVisibleTypeAnnotations":
+            case "RuntimeInvisibleTypeAnnotations": {
+                int count = readUnsignedShort(classFile, offset);
+                offset += 2;
+                for (int i = 0; i < count; i++) {
+                    offset = readTypeAnnotation(offset);
+                }
+                break;
+            }
+            case "AnnotationDefault":
+                readElementValue(offset);
+                break;
+            case "Record": {
+                int count = readUnsignedShort(classFile, offset);
+                offset += 2;
+                for (int i = 0; i < count; i++) {
+                    add(offset + 2, KIND_DESCRIPTOR);
+                    offset = readAttributes(offset + 4);
+                }
+                break;
+            }
+            default:
+                // Everything else references class names through CONSTANT_Class entries, if at all
+                break;
+            }
+        }
+
+        private int readAttributes(int offset) {
+            int count = readUnsignedShort(classFile, offset);
+            offset += 2;
+            for (int i = 0; i < count; i++) {
+                String name = getAttributeName(readUnsignedShort(classFile, offset));
+                int length = readInt(classFile, offset + 2);
+                readAttribute(name, offset + 6);
+                offset += 6 + length;
+            }
+            return offset;
+        }
+
+        private void readClass(int offset) {
+            offset += 6;
+            offset += 2 + 2 * readUnsignedShort(classFile, offset);
+            for (int member = 0; member < 2; member++) { // Fields, then methods
+                int count = readUnsignedShort(classFile, offset);
+                offset += 2;
+                for (int i = 0; i < count; i++) {
+                    add(offset + 4, KIND_DESCRIPTOR);
+                    offset = readAttributes(offset + 6);
+                }
+            }
+            readAttributes(offset);
+        }
+
+        private int readElementValue(int offset) {
+            int tag = classFile[offset++];
+            switch (tag) {
+            case 'e':
+                add(offset, KIND_DESCRIPTOR);
+                return offset + 4;
+            case 'c':
+                add(offset, KIND_DESCRIPTOR);
+                return offset + 2;
+            case '@':
+                return readAnnotation(offset);
+            case '[': {
+                int count = readUnsignedShort(classFile, offset);
+                offset += 2;
+                for (int i = 0; i < count; i++) {
+                    offset = readElementValue(offset);
+                }
+                return offset;
+            }
+            default:
+                // Primitive and string constants
+                return offset + 2;
+            }
+        }
+
+        private int readTypeAnnotation(int offset) {
+            int targetType = classFile[offset++] & 0xFF;
+            switch (targetType) {
+            case 0x00:
+            case 0x01:
+            case 0x16:
+                offset += 1;
+                break;
+            case 0x10:
+            case 0x11:
+            case 0x12:
+            case 0x17:
+            case 0x42:
+            case 0x43:
+            case 0x44:
+            case 0x45:
+            case 0x46:
+                offset += 2;
+                break;
+            case 0x13:
+            case 0x14:
+            case 0x15:
+                break;
+            case 0x40:
+            case 0x41:
+                offset += 2 + 6 * readUnsignedShort(classFile, offset);
+                break;
+            case 0x47:
+            case 0x48:
+            case 0x49:
+            case 0x4A:
+            case 0x4B:
+                offset += 3;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown type annotation target type " + targetType);
+            }
+            offset += 1 + 2 * (classFile[offset] & 0xFF); // type_path
+            return readAnnotation(offset);
+        }
+    }
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    /**
+     * The u2 index points to the name of a CONSTANT_Class entry, which is an internal name or an array descriptor.
+     */
+    private static final int KIND_CLASS = 0;
+
+    /**
+     * The u2 index points to a field descriptor, method descriptor or signature.
+     */
+    private static final int KIND_DESCRIPTOR = 1;
+
+    private final Map<String, String> oldToNewClassName;
+
+    /**
+     * Constructor.
+     *
+     * @param oldToNewClassName The old -> new internal class name map. The map is copied.
+     */
+    public ConstantPoolRemapper(Map<String, String> oldToNewClassName) {
+        this.oldToNewClassName = new HashMap<>(Objects.requireNonNull(oldToNewClassName, "The class name map may not be null."));
+    }
+
+    private static String decodeUtf8(byte[] classFile, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (classFile[i] < 0) {
+                return decodeModifiedUtf8(classFile, offset, end);
+            }
+        }
+        return new String(classFile, offset, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static String decodeModifiedUtf8(byte[] classFile, int offset, int end) {
+        StringBuilder sb = new StringBuilder(end - offset);
+        int i = offset;
+        while (i < end) {
+            int b = classFile[i++] & 0xFF;
+            if ((b & 0x80) == 0) {
+                sb.append((char) b);
+            } else if ((b & 0xE0) == 0xC0) {
+                sb.append((char) (((b & 0x1F) << 6) | (classFile[i++] & 0x3F)));
+            } else {
+                int b2 = classFile[i++] & 0x3F;
+                int b3 = classFile[i++] & 0x3F;
+                sb.append((char) (((b & 0x0F) << 12) | (b2 << 6) | b3));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void encodeUtf8(String string, ByteArrayOutputStream out) {
+        int length = string.length();
+        int byteLength = 0;
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c >= 0x01 && c <= 0x7F) {
+                byteLength++;
+            } else if (c <= 0x7FF) {
+                byteLength += 2;
+            } else {
+                byteLength += 3;
+            }
+        }
+        if (byteLength > 0xFFFF) {
+            throw new IllegalStateException("Remapped UTF8 constant is too long: " + string);
+        }
+        out.write(CONSTANT_UTF8);
+        out.write(byteLength >>> 8);
+        out.write(byteLength);
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c >= 0x01 && c <= 0x7F) {
+                out.write(c);
+            } else if (c <= 0x7FF) {
+                out.write(0xC0 | (c >> 6));
+                out.write(0x80 | (c & 0x3F));
+            } else {
+                out.write(0xE0 | (c >> 12));
+                out.write(0x80 | ((c >> 6) & 0x3F));
+                out.write(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static int readInt(byte[] classFile, int offset) {
+        return ((classFile[offset] & 0xFF) << 24) | ((classFile[offset + 1] & 0xFF) << 16)
+                | ((classFile[offset + 2] & 0xFF) << 8) | (classFile[offset + 3] & 0xFF);
+    }
+
+    private static int readUnsignedShort(byte[] classFile, int offset) {
+        return ((classFile[offset] & 0xFF) << 8) | (classFile[offset + 1] & 0xFF);
+    }
+
+    /**
+     * Obtains the new name of a class, or the old name if it is not renamed.
+     *
+     * @param internalName The internal name of the class
+     * @return The remapped internal name
+     */
+    public String getNewName(String internalName) {
+        return oldToNewClassName.getOrDefault(internalName, internalName);
+    }
+
+    /**
+     * Remaps a single class file.
+     *
+     * @param classFile The bytes of the class file. The array is not modified.
+     * @return The remapped class file, or the input array if no changes were performed
+     */
+    public byte[] remap(byte[] classFile) {
+        if (classFile.length < 10 || readUnsignedShort(classFile, 0) != 0xCAFE || readUnsignedShort(classFile, 2) != 0xBABE) {
+            throw new IllegalArgumentException("Not a class file.");
+        }
+        int poolCount = readUnsignedShort(classFile, 8);
+        int[] offsets = new int[poolCount];
+        ReferenceCollector collector = new ReferenceCollector(classFile, offsets);
+        int offset = 10;
+
+        // Pass one: Locate all entries and the references to UTF8 entries that are used as class names or descriptors
+        for (int i = 1; i < poolCount; i++) {
+            offsets[i] = offset;
+            int tag = classFile[offset];
+            switch (tag) {
+            case CONSTANT_UTF8:
+                offset += 3 + readUnsignedShort(classFile, offset + 1);
+                break;
+            case CONSTANT_CLASS:
+                collector.add(offset + 1, KIND_CLASS);
+                offset += 3;
+                break;
+            case CONSTANT_METHOD_TYPE:
+                collector.add(offset + 1, KIND_DESCRIPTOR);
+                offset += 3;
+                break;
+            case CONSTANT_STRING:
+            case CONSTANT_MODULE:
+            case CONSTANT_PACKAGE:
+                offset += 3;
+                break;
+            case CONSTANT_METHOD_HANDLE:
+                offset += 4;
+                break;
+            case CONSTANT_NAME_AND_TYPE:
+                collector.add(offset + 3, KIND_DESCRIPTOR);
+                offset += 5;
+                break;
+            case CONSTANT_INTEGER:
+            case CONSTANT_FLOAT:
+            case CONSTANT_FIELDREF:
+            case CONSTANT_METHODREF:
+            case CONSTANT_INTERFACE_METHODREF:
+            case CONSTANT_DYNAMIC:
+            case CONSTANT_INVOKE_DYNAMIC:
+                offset += 5;
+                break;
+            case CONSTANT_LONG:
+            case CONSTANT_DOUBLE:
+                offset += 9;
+                i++; // Long and doubles take up two slots
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown constant pool tag " + tag + " at index " + i);
+            }
+        }
+        int poolEnd = offset;
+        collector.readClass(poolEnd);
+
+        // Pass two: Compute the new values and repoint the references to appended UTF8 entries
+        int[] targets = new int[poolCount * 2]; // (utf8 index, kind) -> new index; 0 = not computed yet, -1 = unchanged
+        List<String> appended = new ArrayList<>();
+        Map<String, Integer> appendedIndices = new HashMap<>();
+        byte[] patched = null;
+        for (int i = 0; i < collector.size; i++) {
+            int referenceOffset = collector.references[i] >>> 1;
+            int kind = collector.references[i] & 1;
+            int utf8 = readUnsignedShort(classFile, referenceOffset);
+            if (utf8 == 0 || utf8 >= poolCount || offsets[utf8] == 0 || classFile[offsets[utf8]] != CONSTANT_UTF8) {
+                throw new IllegalArgumentException("Index " + utf8 + " at offset " + referenceOffset + " does not point to a UTF8 constant.");
+            }
+            int slot = utf8 * 2 + kind;
+            int target = targets[slot];
+            if (target == 0) {
+                int entryOffset = offsets[utf8];
+                String oldValue = decodeUtf8(classFile, entryOffset + 3, readUnsignedShort(classFile, entryOffset + 1));
+                String newValue;
+                if (kind == KIND_CLASS && (oldValue.isEmpty() || oldValue.charAt(0) != '[')) {
+                    newValue = oldToNewClassName.getOrDefault(oldValue, oldValue);
+                } else {
+                    newValue = RemapperUtils.remapSignature(oldValue, oldToNewClassName);
+                }
+                if (newValue.equals(oldValue)) {
+                    target = -1;
+                } else {
+                    Integer index = appendedIndices.get(newValue);
+                    if (index == null) {
+                        index = poolCount + appended.size();
+                        appendedIndices.put(newValue, index);
+                        appended.add(newValue);
+                    }
+                    target = index;
+                }
+                targets[slot] = target;
+            }
+            if (target != -1) {
+                if (patched == null) {
+                    patched = classFile.clone();
+                }
+                patched[referenceOffset] = (byte) (target >>> 8);
+                patched[referenceOffset + 1] = (byte) target;
+            }
+        }
+
+        if (patched == null) {
+            return classFile;
+        }
+
+        // Pass three: Write the new class file
+        int newPoolCount = poolCount + appended.size();
+        if (newPoolCount > 0xFFFF) {
+            throw new IllegalStateException("Constant pool overflow");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(classFile.length + appended.size() * 32);
+        out.write(patched, 0, 8);
+        out.write(newPoolCount >>> 8);
+        out.write(newPoolCount);
+        out.write(patched, 10, poolEnd - 10);
+        for (String value : appended) {
+            encodeUtf8(value, out);
+        }
+        out.write(patched, poolEnd, patched.length - poolEnd);
+        return out.toByteArray();
+    }
+
+    /**
+     * Remaps all class files within a jar and copies all other resources as-is.
+     * The entries of the class files are renamed alongside the classes themselves.
+     *
+     * @param input The jar to remap
+     * @param output The location to write the remapped jar to
+     * @throws IOException If an IO issue occurred
+     */
+    public void remapJar(File input, File output) throws IOException {
+        try (JarFile inJar = new JarFile(input);
+                JarOutputStream jarOut = new JarOutputStream(new FileOutputStream(output))) {
+            Enumeration<JarEntry> entries = inJar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                byte[] data;
+                try (InputStream is = inJar.getInputStream(entry)) {
+                    data = is.readAllBytes();
+                }
+                String name = entry.getName();
+                if (name.endsWith(".class")) {
+                    data = remap(data);
+                    name = getNewName(name.substring(0, name.length() - 6)) + ".class";
+                }
+                jarOut.putNextEntry(new ZipEntry(name));
+                jarOut.write(data);
+                jarOut.closeEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Compact storage of member renames, which is used by {@link FieldRenameMap} and {@link MethodRenameMap} if they
+ * were created in dense mode. Owners, names and descriptors are assigned dense int ids, which means that every distinct
+ * string is only referenced once regardless of how many members make use of it. The (descriptor, name) pairs are
+ * assigned ids too and the renames are stored in a {@link LongIntTable} that maps (owner, member) pairs to the id of
+ * the new name. Thus no boxing takes place and no objects are allocated per entry.
+ */
+final class DenseRenameTable {
+
+    /**
+     * Assigns dense ids to strings, starting at 0.
+     */
+    private static final class SymbolIds {
+
+        private static int slot(String symbol, int mask) {
+            int hash = symbol.hashCode() * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
+        private int[] ids = new int[32];
+        private String[] slots = new String[32];
+        private String[] symbols = new String[16];
+        private int size;
+
+        int find(String symbol) {
+            if (symbol == null) {
+                return -1;
+            }
+            int mask = slots.length - 1;
+            int slot = slot(symbol, mask);
+            String candidate;
+            while ((candidate = slots[slot]) != null) {
+                if (candidate.equals(symbol)) {
+                    return ids[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        String get(int id) {
+            return symbols[id];
+        }
+
+        int getOrAssign(String symbol) {
+            int mask = slots.length - 1;
+            int slot = slot(symbol, mask);
+            String candidate;
+            while ((candidate = slots[slot]) != null) {
+                if (candidate.equals(symbol)) {
+                    return ids[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            int id = size++;
+            slots[slot] = symbol;
+            ids[slot] = id;
+            if (id == symbols.length) {
+                symbols = Arrays.copyOf(symbols, id * 2);
+            }
+            symbols[id] = symbol;
+            if (size * 2 > slots.length) {
+                rehash();
+            }
+            return id;
+        }
+
+        private void rehash() {
+            String[] oldSlots = slots;
+            int[] oldIds = ids;
+            slots = new String[oldSlots.length * 2];
+            ids = new int[oldSlots.length * 2];
+            int mask = slots.length - 1;
+            for (int i = 0; i < oldSlots.length; i++) {
+                if (oldSlots[i] != null) {
+                    int slot = slot(oldSlots[i], mask);
+                    while (slots[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    slots[slot] = oldSlots[i];
+                    ids[slot] = oldIds[i];
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    static interface Visitor {
+        void accept(String owner, String desc, String name, String newName);
+    }
+
+    private int memberCount;
+    private int[] memberDescs = new int[16];
+    private int[] memberNames = new int[16];
+    private final LongIntTable members = new LongIntTable(); // (desc, name) -> member
+    private final LongIntTable renames = new LongIntTable(); // (owner, member) -> new name
+    private SymbolIds symbols = new SymbolIds();
+
+    /**
+     * Removes all renames. The ids of the symbols and members are discarded too, so the table does not
+     * keep the strings of previous renames alive.
+     */
+    void clear() {
+        renames.clear();
+        members.clear();
+        memberCount = 0;
+        memberDescs = new int[16];
+        memberNames = new int[16];
+        symbols = new SymbolIds();
+    }
+
+    /**
+     * Obtains the key of a member within the rename table without assigning any ids.
+     *
+     * @param owner The owner of the member
+     * @param desc The descriptor of the member
+     * @param name The name of the member
+     * @return The key, or -1 if the member was never renamed. As ids are never negative, -1 is not a valid key
+     */
+    private long findKey(String owner, String desc, String name) {
+        int ownerId = symbols.find(owner);
+        int descId = symbols.find(desc);
+        int nameId = symbols.find(name);
+        if (ownerId == -1 || descId == -1 || nameId == -1) {
+            return -1L;
+        }
+        int member = members.get(LongIntTable.pack(descId, nameId));
+        if (member == -1) {
+            return -1L;
+        }
+        return LongIntTable.pack(ownerId, member);
+    }
+
+    void forEach(Visitor visitor) {
+        renames.forEach((key, newName) -> {
+            int member = (int) key;
+            visitor.accept(symbols.get((int) (key >>> 32)), symbols.get(memberDescs[member]), symbols.get(memberNames[member]), symbols.get(newName));
+        });
+    }
+
+    /**
+     * Obtains the new name of a member.
+     *
+     * @param owner The owner of the member
+     * @param desc The descriptor of the member
+     * @param name The name of the member
+     * @return The new name, or null if the member is not renamed
+     */
+    String get(String owner, String desc, String name) {
+        long key = findKey(owner, desc, name);
+        if (key == -1L) {
+            return null;
+        }
+        int newName = renames.get(key);
+        return newName == -1 ? null : symbols.get(newName);
+    }
+
+    /**
+     * Sets the new name of a member.
+     *
+     * @param owner The owner of the member
+     * @param desc The descriptor of the member
+     * @param name The name of the member
+     * @param newName The new name of the member
+     * @return The previous new name, or null if the member was not renamed before
+     */
+    String put(String owner, String desc, String name, String newName) {
+        int descId = symbols.getOrAssign(desc);
+        int nameId = symbols.getOrAssign(name);
+        long memberKey = LongIntTable.pack(descId, nameId);
+        int member = members.get(memberKey);
+        if (member == -1) {
+            member = memberCount++;
+            members.put(memberKey, member);
+            if (member == memberDescs.length) {
+                memberDescs = Arrays.copyOf(memberDescs, member * 2);
+                memberNames = Arrays.copyOf(memberNames, member * 2);
+            }
+            memberDescs[member] = descId;
+            memberNames[member] = nameId;
+        }
+        int ownerId = symbols.getOrAssign(owner);
+        int old = renames.put(LongIntTable.pack(ownerId, member), symbols.getOrAssign(Objects.requireNonNull(newName, "newName cannot be null.")));
+        return old == -1 ? null : symbols.get(old);
+    }
+
+    void remove(String owner, String desc, String name) {
+        long key = findKey(owner, desc, name);
+        if (key != -1L) {
+            renames.remove(key);
+        }
+    }
+
+    int size() {
+        return renames.size();
+    }
+}
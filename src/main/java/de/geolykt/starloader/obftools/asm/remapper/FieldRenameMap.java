@@ -2,37 +2,79 @@ package de.geolykt.starloader.obftools.asm.remapper;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
 
 import de.geolykt.starloader.obftools.asm.FieldReference;
 
 final class FieldRenameMap {
 
-    private final Map<FieldReference, String> renames = new HashMap<>();
+    private final DenseRenameTable denseRenames;
+    private final Map<FieldReference, String> renames;
 
     public FieldRenameMap() {
+        this(false);
+    }
+
+    /**
+     * Creates an empty rename map.
+     *
+     * @param dense Whether to store the renames in a {@link DenseRenameTable}, which uses far less memory for large mappings
+     */
+    public FieldRenameMap(boolean dense) {
+        this.denseRenames = dense ? new DenseRenameTable() : null;
+        this.renames = dense ? null : new HashMap<>();
     }
 
     public void put(String owner, String descriptor, String name, String newName) {
-        renames.put(new FieldReference(owner, descriptor, name), newName);
+        Objects.requireNonNull(newName, "newName cannot be null.");
+        if (denseRenames != null) {
+            denseRenames.put(owner, descriptor, name, newName);
+        } else {
+            renames.put(new FieldReference(owner, descriptor, name), newName);
+        }
+    }
+
+    public void forEach(BiConsumer<FieldReference, String> action) {
+        if (denseRenames != null) {
+            denseRenames.forEach((owner, desc, name, newName) -> action.accept(new FieldReference(owner, desc, name), newName));
+        } else {
+            renames.forEach(action);
+        }
     }
 
     public String get(String owner, String descriptor, String oldName) {
+        if (denseRenames != null) {
+            return denseRenames.get(owner, descriptor, oldName);
+        }
         return renames.get(new FieldReference(owner, descriptor, oldName));
     }
 
     public String getOrDefault(String owner, String descriptor, String oldName, String defaultValue) {
+        if (denseRenames != null) {
+            String newName = denseRenames.get(owner, descriptor, oldName);
+            return newName == null ? defaultValue : newName;
+        }
         return renames.getOrDefault(new FieldReference(owner, descriptor, oldName), defaultValue);
     }
 
+    boolean isDense() {
+        return denseRenames != null;
+    }
+
     public String optGet(String owner, String descriptor, String oldName) {
-        return renames.getOrDefault(new FieldReference(owner, descriptor, oldName), oldName);
+        return getOrDefault(owner, descriptor, oldName, oldName);
     }
 
     public int size() {
-        return renames.size();
+        return denseRenames != null ? denseRenames.size() : renames.size();
     }
 
     public void clear() {
-        renames.clear();
+        if (denseRenames != null) {
+            denseRenames.clear();
+        } else {
+            renames.clear();
+        }
     }
 }
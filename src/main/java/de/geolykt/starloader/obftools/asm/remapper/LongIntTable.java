@@ -0,0 +1,158 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table that maps primitive longs to non-negative ints, without boxing and without
+ * allocating an object per entry. Collisions are resolved by linear probing and removals shift the following
+ * entries back, so no tombstones are needed.
+ */
+final class LongIntTable {
+
+    @FunctionalInterface
+    static interface Visitor {
+        void accept(long key, int value);
+    }
+
+    private static final int ABSENT = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    static int mix(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    static long pack(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private int[] values;
+
+    LongIntTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, ABSENT);
+        mask = capacity - 1;
+    }
+
+    void clear() {
+        if (size != 0) {
+            allocate(INITIAL_CAPACITY);
+            size = 0;
+        }
+    }
+
+    void forEach(Visitor visitor) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != ABSENT) {
+                visitor.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Obtains the value of a key.
+     *
+     * @param key The key
+     * @return The value, or -1 if the key is not present
+     */
+    int get(long key) {
+        int slot = mix(key) & mask;
+        while (values[slot] != ABSENT) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return ABSENT;
+    }
+
+    /**
+     * Associates a value with a key.
+     *
+     * @param key The key
+     * @param value The value, must not be negative
+     * @return The previous value, or -1 if the key was not present
+     */
+    int put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative values are not supported: " + value);
+        }
+        int slot = mix(key) & mask;
+        while (values[slot] != ABSENT) {
+            if (keys[slot] == key) {
+                int old = values[slot];
+                values[slot] = value;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        // Keep the load factor below 2/3, which keeps the probe sequences short
+        if (++size * 3 > values.length * 2) {
+            rehash();
+        }
+        return ABSENT;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldValues.length * 2);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != ABSENT) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (values[slot] != ABSENT) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @param key The key
+     * @return The value of the key, or -1 if the key was not present
+     */
+    int remove(long key) {
+        int slot = mix(key) & mask;
+        while (values[slot] != ABSENT) {
+            if (keys[slot] == key) {
+                int old = values[slot];
+                // Shift back the following entries of the probe sequence, so that they remain reachable
+                int gap = slot;
+                int next = (gap + 1) & mask;
+                while (values[next] != ABSENT) {
+                    int home = mix(keys[next]) & mask;
+                    // Move the entry into the gap if the gap lies between it's home slot and it's current slot (cyclically)
+                    if (((next - home) & mask) >= ((next - gap) & mask)) {
+                        keys[gap] = keys[next];
+                        values[gap] = values[next];
+                        gap = next;
+                    }
+                    next = (next + 1) & mask;
+                }
+                values[gap] = ABSENT;
+                size--;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return ABSENT;
+    }
+
+    int size() {
+        return size;
+    }
+}
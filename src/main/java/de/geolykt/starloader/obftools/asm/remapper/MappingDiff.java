@@ -0,0 +1,341 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The difference between two versions of a mapping set, for example the intermediary mappings generated for two
+ * versions of the same application. Entries are matched by their name in the source namespace (usually the obfuscated names),
+ * classes whose source name changed can additionally be matched by their {@link de.geolykt.starloader.obftools.asm.ClassFingerprint fingerprint}.
+ * Members are only compared within matched classes, so the members of added or removed classes are not reported individually.
+ *<p>
+ * All lookups are hash joins, so computing the difference takes time linear to the size of both mapping sets.
+ */
+public final class MappingDiff {
+
+    /**
+     * A single difference between the two mapping sets.
+     * For {@link ChangeType#ADDED added} entries the owner and descriptor are in the target namespace of the new mappings,
+     * for all other entries they are in the target namespace of the old mappings.
+     */
+    public static final class Change {
+
+        private final String desc;
+        private final EntryKind kind;
+        private final String newName;
+        private final String oldName;
+        private final String owner;
+        private final ChangeType type;
+
+        Change(ChangeType type, EntryKind kind, String owner, String desc, String oldName, String newName) {
+            this.type = type;
+            this.kind = kind;
+            this.owner = owner;
+            this.desc = desc;
+            this.oldName = oldName;
+            this.newName = newName;
+        }
+
+        /**
+         * Obtains the descriptor of the member.
+         *
+         * @return The descriptor, or null for classes
+         */
+        public String getDesc() {
+            return desc;
+        }
+
+        public EntryKind getKind() {
+            return kind;
+        }
+
+        /**
+         * Obtains the name of the entry in the target namespace of the new mappings.
+         *
+         * @return The new name, or null for removed entries
+         */
+        public String getNewName() {
+            return newName;
+        }
+
+        /**
+         * Obtains the name of the entry in the target namespace of the old mappings.
+         *
+         * @return The old name, or null for added entries
+         */
+        public String getOldName() {
+            return oldName;
+        }
+
+        /**
+         * Obtains the owner of the member.
+         *
+         * @return The owner, or null for classes
+         */
+        public String getOwner() {
+            return owner;
+        }
+
+        public ChangeType getType() {
+            return type;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(type).append(' ').append(kind).append(' ');
+            if (owner != null) {
+                builder.append(owner).append('.');
+            }
+            builder.append(oldName == null ? newName : oldName);
+            if (desc != null) {
+                builder.append(' ').append(desc);
+            }
+            if (type == ChangeType.RENAMED) {
+                builder.append(" -> ").append(newName);
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * State shared between the comparison of the individual classes.
+     */
+    private static final class DiffContext {
+        final List<Change> changes = new ArrayList<>();
+        final MappingTable migration = new MappingTable("old", "new");
+        final Map<String, String> newDescToOldSource = new HashMap<>();
+        final Map<String, String> newDescToTarget = new HashMap<>();
+        final int newSource;
+        final int newTarget;
+        final Map<String, String> oldDescToSource = new HashMap<>();
+        final Map<String, String> oldDescToTarget = new HashMap<>();
+        final int oldSource;
+        final int oldTarget;
+
+        DiffContext(int oldSource, int oldTarget, int newSource, int newTarget) {
+            this.oldSource = oldSource;
+            this.oldTarget = oldTarget;
+            this.newSource = newSource;
+            this.newTarget = newTarget;
+        }
+    }
+
+    public enum ChangeType {
+        ADDED,
+        REMOVED,
+        RENAMED;
+    }
+
+    public enum EntryKind {
+        CLASS,
+        FIELD,
+        METHOD;
+    }
+
+    private static final Comparator<Change> CHANGE_ORDER = Comparator.comparing(Change::getType)
+            .thenComparing(Change::getKind)
+            .thenComparing(change -> change.owner == null ? "" : change.owner)
+            .thenComparing(change -> change.oldName == null ? change.newName : change.oldName)
+            .thenComparing(change -> change.desc == null ? "" : change.desc);
+
+    /**
+     * Computes the difference between two mapping sets, matching classes by their name in the source namespace only.
+     *
+     * @param oldMappings The old mapping set
+     * @param newMappings The new mapping set
+     * @param sourceNamespace The namespace to match entries by, must be present in both sets
+     * @param targetNamespace The namespace to compare, must be present in both sets
+     * @return The difference
+     */
+    public static MappingDiff compute(MappingTable oldMappings, MappingTable newMappings, String sourceNamespace, String targetNamespace) {
+        return compute(oldMappings, newMappings, sourceNamespace, targetNamespace, Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    /**
+     * Computes the difference between two mapping sets. Classes that cannot be matched by their name in the source namespace
+     * are matched by their fingerprint if the fingerprint is unique within both sets of unmatched classes.
+     *
+     * @param oldMappings The old mapping set
+     * @param newMappings The new mapping set
+     * @param sourceNamespace The namespace to match entries by, must be present in both sets
+     * @param targetNamespace The namespace to compare, must be present in both sets
+     * @param oldFingerprints The fingerprints of the old classes, keyed by their name in the source namespace
+     * @param newFingerprints The fingerprints of the new classes, keyed by their name in the source namespace
+     * @return The difference
+     * @see de.geolykt.starloader.obftools.asm.ClassFingerprint#computeAll(java.util.Collection)
+     */
+    public static MappingDiff compute(MappingTable oldMappings, MappingTable newMappings, String sourceNamespace, String targetNamespace,
+            Map<String, Long> oldFingerprints, Map<String, Long> newFingerprints) {
+        int oldSource = oldMappings.getNamespaceIndex(sourceNamespace);
+        int oldTarget = oldMappings.getNamespaceIndex(targetNamespace);
+        int newSource = newMappings.getNamespaceIndex(sourceNamespace);
+        int newTarget = newMappings.getNamespaceIndex(targetNamespace);
+
+        Map<String, MappingTable.ClassEntry> oldBySource = new LinkedHashMap<>();
+        for (MappingTable.ClassEntry entry : oldMappings.classes.values()) {
+            oldBySource.put(entry.getName(oldSource), entry);
+        }
+
+        // Match classes by name
+        Map<MappingTable.ClassEntry, MappingTable.ClassEntry> matches = new IdentityHashMap<>();
+        List<MappingTable.ClassEntry> unmatchedNew = new ArrayList<>();
+        for (MappingTable.ClassEntry entry : newMappings.classes.values()) {
+            MappingTable.ClassEntry match = oldBySource.remove(entry.getName(newSource));
+            if (match == null) {
+                unmatchedNew.add(entry);
+            } else {
+                matches.put(entry, match);
+            }
+        }
+
+        // Match the remaining classes by fingerprint, oldBySource now only contains unmatched classes
+        if (!unmatchedNew.isEmpty() && !oldBySource.isEmpty() && !oldFingerprints.isEmpty() && !newFingerprints.isEmpty()) {
+            Map<Long, MappingTable.ClassEntry> oldByFingerprint = uniqueByFingerprint(oldBySource.values(), oldSource, oldFingerprints);
+            Map<Long, MappingTable.ClassEntry> newByFingerprint = uniqueByFingerprint(unmatchedNew, newSource, newFingerprints);
+            newByFingerprint.forEach((fingerprint, entry) -> {
+                MappingTable.ClassEntry match = oldByFingerprint.get(fingerprint);
+                if (entry != null && match != null) {
+                    matches.put(entry, match);
+                    oldBySource.remove(match.getName(oldSource));
+                }
+            });
+            unmatchedNew.removeIf(matches::containsKey);
+        }
+
+        DiffContext context = new DiffContext(oldSource, oldTarget, newSource, newTarget);
+        // Descriptors are stored in the first namespace of each table and need to be brought into a common namespace
+        // for comparison, which is the source namespace of the old mappings.
+        for (MappingTable.ClassEntry entry : oldMappings.classes.values()) {
+            context.oldDescToSource.put(entry.names[0], entry.getName(oldSource));
+            context.oldDescToTarget.put(entry.names[0], entry.getName(oldTarget));
+        }
+        for (MappingTable.ClassEntry entry : newMappings.classes.values()) {
+            MappingTable.ClassEntry match = matches.get(entry);
+            context.newDescToOldSource.put(entry.names[0], match == null ? entry.getName(newSource) : match.getName(oldSource));
+            context.newDescToTarget.put(entry.names[0], entry.getName(newTarget));
+        }
+
+        List<Change> changes = context.changes;
+        for (MappingTable.ClassEntry newEntry : newMappings.classes.values()) {
+            MappingTable.ClassEntry oldEntry = matches.get(newEntry);
+            String newName = newEntry.getName(newTarget);
+            if (oldEntry == null) {
+                changes.add(new Change(ChangeType.ADDED, EntryKind.CLASS, null, null, null, newName));
+                continue;
+            }
+            String oldName = oldEntry.getName(oldTarget);
+            if (!oldName.equals(newName)) {
+                changes.add(new Change(ChangeType.RENAMED, EntryKind.CLASS, null, null, oldName, newName));
+                context.migration.addClass(oldName, newName);
+            }
+            diffMembers(context, EntryKind.FIELD, oldEntry.fields, newEntry.fields, oldName, newName);
+            diffMembers(context, EntryKind.METHOD, oldEntry.methods, newEntry.methods, oldName, newName);
+        }
+        for (MappingTable.ClassEntry oldEntry : oldBySource.values()) {
+            changes.add(new Change(ChangeType.REMOVED, EntryKind.CLASS, null, null, oldEntry.getName(oldTarget), null));
+        }
+        changes.sort(CHANGE_ORDER);
+        return new MappingDiff(changes, context.migration, matches.size());
+    }
+
+    private static void diffMembers(DiffContext context, EntryKind kind, List<MappingTable.MemberEntry> oldMembers,
+            List<MappingTable.MemberEntry> newMembers, String oldOwner, String newOwner) {
+        Map<String, MappingTable.MemberEntry> oldByKey = new LinkedHashMap<>();
+        for (MappingTable.MemberEntry member : oldMembers) {
+            oldByKey.put(member.getName(context.oldSource) + ' ' + RemapperUtils.remapSignature(member.desc, context.oldDescToSource), member);
+        }
+        for (MappingTable.MemberEntry member : newMembers) {
+            String key = member.getName(context.newSource) + ' ' + RemapperUtils.remapSignature(member.desc, context.newDescToOldSource);
+            MappingTable.MemberEntry match = oldByKey.remove(key);
+            String newName = member.getName(context.newTarget);
+            if (match == null) {
+                String newDesc = RemapperUtils.remapSignature(member.desc, context.newDescToTarget);
+                context.changes.add(new Change(ChangeType.ADDED, kind, newOwner, newDesc, null, newName));
+                continue;
+            }
+            String oldName = match.getName(context.oldTarget);
+            if (!oldName.equals(newName)) {
+                String oldDesc = RemapperUtils.remapSignature(match.desc, context.oldDescToTarget);
+                context.changes.add(new Change(ChangeType.RENAMED, kind, oldOwner, oldDesc, oldName, newName));
+                if (kind == EntryKind.FIELD) {
+                    context.migration.addField(oldOwner, oldDesc, oldName, newName);
+                } else {
+                    context.migration.addMethod(oldOwner, oldDesc, oldName, newName);
+                }
+            }
+        }
+        for (MappingTable.MemberEntry member : oldByKey.values()) {
+            String oldDesc = RemapperUtils.remapSignature(member.desc, context.oldDescToTarget);
+            context.changes.add(new Change(ChangeType.REMOVED, kind, oldOwner, oldDesc, member.getName(context.oldTarget), null));
+        }
+    }
+
+    private static Map<Long, MappingTable.ClassEntry> uniqueByFingerprint(Iterable<MappingTable.ClassEntry> entries, int namespace, Map<String, Long> fingerprints) {
+        Map<Long, MappingTable.ClassEntry> unique = new HashMap<>();
+        for (MappingTable.ClassEntry entry : entries) {
+            Long fingerprint = fingerprints.get(entry.getName(namespace));
+            if (fingerprint == null) {
+                continue;
+            }
+            if (unique.containsKey(fingerprint)) {
+                // Ambiguous fingerprints are worthless, but need to stay in the map so a third class is not matched
+                unique.put(fingerprint, null);
+            } else {
+                unique.put(fingerprint, entry);
+            }
+        }
+        return unique;
+    }
+
+    private final List<Change> changes;
+    private final int matchedClasses;
+    private final MappingTable migration;
+
+    private MappingDiff(List<Change> changes, MappingTable migration, int matchedClasses) {
+        this.changes = Collections.unmodifiableList(changes);
+        this.migration = migration;
+        this.matchedClasses = matchedClasses;
+    }
+
+    /**
+     * Obtains all changes, sorted by type, kind, owner, name and descriptor.
+     *
+     * @return An unmodifiable list of changes
+     */
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    public int getCount(ChangeType type) {
+        int count = 0;
+        for (Change change : changes) {
+            if (change.type == type) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getMatchedClassCount() {
+        return matchedClasses;
+    }
+
+    /**
+     * Obtains the migration mapping, which maps the target namespace of the old mappings ("old") to the target namespace of the
+     * new mappings ("new"). Only renamed entries are included. It can be applied to a {@link Remapper} via
+     * {@link MappingTable#apply(Remapper, String, String)}, for example to migrate access wideners with
+     * {@link Remapper#remapAccesswidener(java.io.InputStream, java.io.OutputStream)} or to rewrite reobfuscation overrides.
+     *
+     * @return The migration mapping
+     */
+    public MappingTable getMigrationMappings() {
+        return migration;
+    }
+}
@@ -0,0 +1,321 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of class, field and method names across any amount of namespaces.
+ * Unlike {@link Remapper} the table is not bound to a direction, so the renames between any two namespaces
+ * can be obtained from a single parsed file via {@link #apply(Remapper, String, String)}.
+ *<p>
+ * Classes are keyed by their name in the first namespace. Member descriptors are always stored in the first namespace,
+ * as it is done by the tiny v2 format. Empty names denote that the name is missing in the namespace,
+ * in which case the name of the first namespace is used.
+ */
+public final class MappingTable {
+
+    static final class ClassEntry {
+        final List<MemberEntry> fields = new ArrayList<>();
+        final List<MemberEntry> methods = new ArrayList<>();
+        String[] names;
+
+        ClassEntry(String[] names) {
+            this.names = names;
+        }
+
+        String getName(int namespace) {
+            String name = names[namespace];
+            return name.isEmpty() ? names[0] : name;
+        }
+    }
+
+    static final class MemberEntry {
+        final String desc;
+        final String[] names;
+
+        MemberEntry(String desc, String[] names) {
+            this.desc = desc;
+            this.names = names;
+        }
+
+        String getName(int namespace) {
+            String name = names[namespace];
+            return name.isEmpty() ? names[0] : name;
+        }
+    }
+
+    /**
+     * Reads a tiny v1 file into a table with the two namespaces declared by the file's header.
+     *
+     * @param tinyMap The file to read
+     * @return The table containing the entries of the file
+     * @throws IOException If an IO issue occurred
+     * @throws IllegalStateException If the file is not a valid tiny v1 file
+     */
+    public static MappingTable readTinyV1File(File tinyMap) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(tinyMap.toPath()));
+        int end = buffer.limit();
+        MappingTable table = new MappingTable(TinyV1Tokenizer.readNamespaces(buffer, end));
+        int start = TinyV1Tokenizer.readHeader(buffer, end);
+        new TinyV1Tokenizer(buffer, start, end, 2).tokenize(new TinyV1Tokenizer.Visitor() {
+            @Override
+            public void visitClass(int lineNr, String oldName, String newName) {
+                table.addClass(oldName, newName);
+            }
+
+            @Override
+            public void visitField(int lineNr, String owner, String desc, String oldName, String newName) {
+                table.addField(owner, desc, oldName, newName);
+            }
+
+            @Override
+            public void visitMethod(int lineNr, String owner, String desc, String oldName, String newName) {
+                table.addMethod(owner, desc, oldName, newName);
+            }
+        });
+        return table;
+    }
+
+    /**
+     * Reads a tiny v2 file. Parameter names, local variable names and comments are skipped.
+     *
+     * @param tinyMap The file to read
+     * @return The table containing the entries of the file
+     * @throws IOException If an IO issue occurred
+     * @throws IllegalStateException If the file is not a valid tiny v2 file
+     */
+    public static MappingTable readTinyV2File(File tinyMap) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(tinyMap.toPath(), StandardCharsets.UTF_8)) {
+            return TinyV2Reader.read(reader);
+        }
+    }
+
+    final Map<String, ClassEntry> classes = new LinkedHashMap<>();
+    private final List<String> namespaces;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param namespaces The names of the namespaces, at least two are required
+     * @throws IllegalArgumentException If less than two or duplicate namespaces were supplied
+     */
+    public MappingTable(String... namespaces) {
+        if (namespaces.length < 2) {
+            throw new IllegalArgumentException("At least two namespaces are required, but got " + namespaces.length);
+        }
+        List<String> list = new ArrayList<>(namespaces.length);
+        for (String namespace : namespaces) {
+            if (list.contains(namespace)) {
+                throw new IllegalArgumentException("Duplicate namespace: " + namespace);
+            }
+            list.add(namespace);
+        }
+        this.namespaces = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Adds a class to the table or replaces the names of the class if it was already added.
+     *
+     * @param names The names of the class, one per namespace
+     * @throws IllegalArgumentException If the amount of names does not match the amount of namespaces
+     */
+    public void addClass(String... names) {
+        checkNames(names);
+        ClassEntry entry = classes.get(names[0]);
+        if (entry == null) {
+            classes.put(names[0], new ClassEntry(names.clone()));
+        } else {
+            entry.names = names.clone();
+        }
+    }
+
+    /**
+     * Adds a field to the table. If the owner was not added yet, it is added with the same name in all namespaces.
+     *
+     * @param owner The name of the owner in the first namespace
+     * @param desc The descriptor of the field in the first namespace
+     * @param names The names of the field, one per namespace
+     * @throws IllegalArgumentException If the amount of names does not match the amount of namespaces
+     */
+    public void addField(String owner, String desc, String... names) {
+        checkNames(names);
+        getOrCreateClass(owner).fields.add(new MemberEntry(desc, names.clone()));
+    }
+
+    /**
+     * Adds a method to the table. If the owner was not added yet, it is added with the same name in all namespaces.
+     *
+     * @param owner The name of the owner in the first namespace
+     * @param desc The descriptor of the method in the first namespace
+     * @param names The names of the method, one per namespace
+     * @throws IllegalArgumentException If the amount of names does not match the amount of namespaces
+     */
+    public void addMethod(String owner, String desc, String... names) {
+        checkNames(names);
+        getOrCreateClass(owner).methods.add(new MemberEntry(desc, names.clone()));
+    }
+
+    /**
+     * Registers the renames that map from one namespace to another namespace to a remapper.
+     * Owners and descriptors are translated to the source namespace, as it is expected by the remapper.
+     *
+     * @param remapper The remapper to register the renames to
+     * @param fromNamespace The namespace the classes to remap are currently in
+     * @param toNamespace The namespace to remap the classes to
+     * @throws ConflicitingMappingException If two methods are mapped to different names within the remapper
+     * @throws IllegalArgumentException If either namespace is not known to this table
+     */
+    public void apply(Remapper remapper, String fromNamespace, String toNamespace) throws ConflicitingMappingException {
+        int from = getNamespaceIndex(fromNamespace);
+        int to = getNamespaceIndex(toNamespace);
+        Map<String, String> descriptorNames = null;
+        if (from != 0) {
+            descriptorNames = new HashMap<>();
+            for (ClassEntry entry : classes.values()) {
+                descriptorNames.put(entry.names[0], entry.getName(from));
+            }
+        }
+        for (ClassEntry entry : classes.values()) {
+            String owner = entry.getName(from);
+            String newOwner = entry.getName(to);
+            if (!owner.equals(newOwner)) {
+                remapper.remapClassName(owner, newOwner);
+            }
+            for (MemberEntry field : entry.fields) {
+                String name = field.getName(from);
+                String newName = field.getName(to);
+                if (!name.equals(newName)) {
+                    String desc = descriptorNames == null ? field.desc : RemapperUtils.remapSignature(field.desc, descriptorNames);
+                    remapper.remapField(owner, desc, name, newName);
+                }
+            }
+            for (MemberEntry method : entry.methods) {
+                String name = method.getName(from);
+                String newName = method.getName(to);
+                if (!name.equals(newName)) {
+                    String desc = descriptorNames == null ? method.desc : RemapperUtils.remapSignature(method.desc, descriptorNames);
+                    remapper.remapMethod(owner, desc, name, newName);
+                }
+            }
+        }
+    }
+
+    private void checkNames(String[] names) {
+        if (names.length != namespaces.size()) {
+            throw new IllegalArgumentException("Expected " + namespaces.size() + " names, but got " + names.length);
+        }
+    }
+
+    public int getClassCount() {
+        return classes.size();
+    }
+
+    /**
+     * Obtains the names of all classes in one namespace, mapped to their names in another namespace.
+     *
+     * @param fromNamespace The namespace of the keys
+     * @param toNamespace The namespace of the values
+     * @return A new map of the class names
+     * @throws IllegalArgumentException If either namespace is not known to this table
+     */
+    public Map<String, String> getClassNames(String fromNamespace, String toNamespace) {
+        int from = getNamespaceIndex(fromNamespace);
+        int to = getNamespaceIndex(toNamespace);
+        Map<String, String> names = new HashMap<>(classes.size() * 2);
+        for (ClassEntry entry : classes.values()) {
+            names.put(entry.getName(from), entry.getName(to));
+        }
+        return names;
+    }
+
+    /**
+     * Obtains the names of the methods of a single class in one namespace, mapped to their names in another namespace.
+     * The keys are the name of the method followed by it's descriptor in the first namespace.
+     *
+     * @param owner The name of the class in the first namespace
+     * @param fromNamespace The namespace of the keys
+     * @param toNamespace The namespace of the values
+     * @return A new map of the method names, which is empty if the class is not known to this table
+     * @throws IllegalArgumentException If either namespace is not known to this table
+     */
+    public Map<String, String> getMethodNames(String owner, String fromNamespace, String toNamespace) {
+        int from = getNamespaceIndex(fromNamespace);
+        int to = getNamespaceIndex(toNamespace);
+        ClassEntry entry = classes.get(owner);
+        if (entry == null) {
+            return new HashMap<>();
+        }
+        Map<String, String> names = new HashMap<>(entry.methods.size() * 2);
+        for (MemberEntry method : entry.methods) {
+            names.put(method.getName(from).concat(method.desc), method.getName(to));
+        }
+        return names;
+    }
+
+    /**
+     * Obtains the index of a namespace within {@link #getNamespaces()}.
+     *
+     * @param namespace The name of the namespace
+     * @return The index of the namespace
+     * @throws IllegalArgumentException If the namespace is not known to this table
+     */
+    public int getNamespaceIndex(String namespace) {
+        int index = namespaces.indexOf(namespace);
+        if (index == -1) {
+            throw new IllegalArgumentException("Unknown namespace \"" + namespace + "\", expected one of " + namespaces);
+        }
+        return index;
+    }
+
+    public List<String> getNamespaces() {
+        return namespaces;
+    }
+
+    private ClassEntry getOrCreateClass(String name) {
+        ClassEntry entry = classes.get(name);
+        if (entry == null) {
+            String[] names = new String[namespaces.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = name;
+            }
+            entry = new ClassEntry(names);
+            classes.put(name, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Writes the table in the tiny v2 format. Classes are written in the order they were added.
+     *
+     * @param writer The writer to write to. The writer is flushed, but not closed
+     * @throws IOException If an IO issue occurred
+     */
+    public void writeTinyV2(Writer writer) throws IOException {
+        TinyV2Writer.write(this, writer);
+        writer.flush();
+    }
+
+    /**
+     * Writes the table to a file in the tiny v2 format, overwriting the file if it already exists.
+     *
+     * @param file The file to write to
+     * @throws IOException If an IO issue occurred
+     */
+    public void writeTinyV2File(File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            TinyV2Writer.write(this, writer);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregated diagnostics about a mapping set. All issues are counted, but only the first few issues are kept in detail,
+ * so that a badly broken mapping set does not result in an equally large report.
+ *
+ * @see MappingValidator
+ */
+public final class MappingValidationReport {
+
+    /**
+     * A single issue within the mapping set.
+     */
+    public static final class Issue {
+
+        private final int lineNr;
+        private final String message;
+        private final String source;
+        private final IssueType type;
+
+        Issue(IssueType type, String source, int lineNr, String message) {
+            this.type = type;
+            this.source = source;
+            this.lineNr = lineNr;
+            this.message = message;
+        }
+
+        /**
+         * Obtains the line in which the issue occurred.
+         *
+         * @return The line number, or -1 if the issue was not found in a file
+         */
+        public int getLineNr() {
+            return lineNr;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * Obtains the name of the file in which the issue occurred.
+         *
+         * @return The name of the file, or null if the issue was not found in a file
+         */
+        public String getSource() {
+            return source;
+        }
+
+        public IssueType getType() {
+            return type;
+        }
+
+        @Override
+        public String toString() {
+            if (source == null) {
+                return type + ": " + message;
+            }
+            if (lineNr == -1) {
+                return source + ": " + type + ": " + message;
+            }
+            return source + ':' + lineNr + ": " + type + ": " + message;
+        }
+    }
+
+    public enum IssueType {
+
+        /**
+         * The same class is renamed to different names.
+         */
+        CONFLICTING_CLASS_RENAME,
+
+        /**
+         * The same field is renamed to different names.
+         */
+        CONFLICTING_FIELD_RENAME,
+
+        /**
+         * The same method is renamed to different names.
+         */
+        CONFLICTING_METHOD_RENAME,
+
+        /**
+         * Multiple classes are renamed to the same name.
+         */
+        DUPLICATE_CLASS_TARGET,
+
+        /**
+         * Multiple members with the same descriptor within the same class are renamed to the same name.
+         */
+        DUPLICATE_MEMBER_TARGET,
+
+        /**
+         * A member is owned by a class that does not exist in the namespace of the member.
+         */
+        DANGLING_OWNER;
+    }
+
+    private final Map<IssueType, Integer> counts = new EnumMap<>(IssueType.class);
+    private final List<Issue> issues = new ArrayList<>();
+    private final int maxIssues;
+
+    /**
+     * Creates an empty report.
+     *
+     * @param maxIssues The maximum amount of issues to keep in detail
+     */
+    public MappingValidationReport(int maxIssues) {
+        this.maxIssues = maxIssues;
+    }
+
+    synchronized void add(IssueType type, String source, int lineNr, String message) {
+        counts.merge(type, 1, Integer::sum);
+        if (issues.size() < maxIssues) {
+            issues.add(new Issue(type, source, lineNr, message));
+        }
+    }
+
+    public synchronized int getCount(IssueType type) {
+        return counts.getOrDefault(type, 0);
+    }
+
+    /**
+     * Obtains the issues that were kept in detail, in the order they were reported.
+     *
+     * @return An unmodifiable copy of the detailed issues
+     */
+    public synchronized List<Issue> getIssues() {
+        return Collections.unmodifiableList(new ArrayList<>(issues));
+    }
+
+    public synchronized int getTotalCount() {
+        int total = 0;
+        for (Integer count : counts.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    public synchronized boolean isEmpty() {
+        return counts.isEmpty();
+    }
+
+    /**
+     * Creates a human-readable summary of the report, which consists of the amount of issues per type
+     * followed by the detailed issues.
+     *
+     * @return The summary
+     */
+    @Override
+    public synchronized String toString() {
+        if (counts.isEmpty()) {
+            return "No mapping issues found.";
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append(getTotalCount()).append(" mapping issue(s) found:");
+        counts.forEach((type, count) -> {
+            builder.append("\n  ").append(type).append(": ").append(count);
+        });
+        for (Issue issue : issues) {
+            builder.append("\n  ").append(issue);
+        }
+        int omitted = getTotalCount() - issues.size();
+        if (omitted > 0) {
+            builder.append("\n  (").append(omitted).append(" more issue(s) omitted)");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,309 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.jetbrains.annotations.Nullable;
+
+import de.geolykt.starloader.obftools.asm.remapper.MappingValidationReport.IssueType;
+
+/**
+ * Checks a whole mapping set for issues before it is applied. The following issues are detected:
+ * <ul>
+ * <li>Classes, fields or methods that are renamed to different names</li>
+ * <li>Multiple classes that are renamed to the same name</li>
+ * <li>Multiple members of the same class with the same descriptor that are renamed to the same name</li>
+ * <li>Members whose owner does not exist in the namespace the member is renamed from</li>
+ * </ul>
+ * The checks group the entries by hash on all available cores, so validating a mapping set is considerably cheaper than
+ * reporting the issues one by one while loading it. The mapping set may consist of multiple files, in which case conflicts
+ * between the files are detected too.
+ */
+public final class MappingValidator {
+
+    private static final class Entry {
+        final String desc;
+        final int index;
+        final MappingDiff.EntryKind kind;
+        final int lineNr;
+        final String name;
+        final String newName;
+        final String owner;
+        final String source;
+
+        Entry(int index, String source, int lineNr, MappingDiff.EntryKind kind, String owner, String desc, String name, String newName) {
+            this.index = index;
+            this.source = source;
+            this.lineNr = lineNr;
+            this.kind = kind;
+            this.owner = owner;
+            this.desc = desc;
+            this.name = name;
+            this.newName = newName;
+        }
+
+        String describe() {
+            if (kind == MappingDiff.EntryKind.CLASS) {
+                return "Class " + name;
+            }
+            return (kind == MappingDiff.EntryKind.FIELD ? "Field " : "Method ") + owner + '.' + name + ' ' + desc;
+        }
+
+        String location() {
+            if (lineNr == -1) {
+                return source == null ? "table" : source;
+            }
+            return (source == null ? "line " : source + ':') + lineNr;
+        }
+    }
+
+    private static final class PendingIssue {
+        final Entry entry;
+        final String message;
+        final IssueType type;
+
+        PendingIssue(IssueType type, Entry entry, String message) {
+            this.type = type;
+            this.entry = entry;
+            this.message = message;
+        }
+    }
+
+    private static void checkUnique(List<Entry> entries, Function<Entry, Object> key, Function<Entry, String> value,
+            IssueType type, boolean sameKey, List<PendingIssue> out) {
+        Map<Object, List<Entry>> groups = entries.parallelStream().collect(Collectors.groupingByConcurrent(key));
+        List<PendingIssue> issues = groups.values().parallelStream()
+                .filter(group -> group.size() > 1)
+                .map(group -> {
+                    group.sort(Comparator.comparingInt(entry -> entry.index));
+                    Entry first = group.get(0);
+                    String firstValue = value.apply(first);
+                    for (Entry entry : group) {
+                        if (!value.apply(entry).equals(firstValue)) {
+                            String message;
+                            if (sameKey) {
+                                message = entry.describe() + " is renamed to both " + firstValue + " (" + first.location() + ") and "
+                                        + value.apply(entry) + " (" + entry.location() + ')';
+                            } else {
+                                message = first.describe() + " (" + first.location() + ") and " + entry.describe() + " (" + entry.location()
+                                        + ") are both renamed to " + entry.newName;
+                            }
+                            return new PendingIssue(type, entry, message);
+                        }
+                    }
+                    return null;
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        out.addAll(issues);
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    private void add(String source, int lineNr, MappingDiff.EntryKind kind, String owner, String desc, String name, String newName) {
+        entries.add(new Entry(entries.size(), source, lineNr, kind, owner, desc, name, newName));
+    }
+
+    /**
+     * Adds the renames that map from one namespace of a table to another namespace.
+     *
+     * @param table The table to add
+     * @param fromNamespace The namespace to map from
+     * @param toNamespace The namespace to map to
+     * @return This instance, for chaining
+     */
+    public MappingValidator addMappings(MappingTable table, String fromNamespace, String toNamespace) {
+        int from = table.getNamespaceIndex(fromNamespace);
+        int to = table.getNamespaceIndex(toNamespace);
+        Map<String, String> descriptorNames = new HashMap<>();
+        for (MappingTable.ClassEntry entry : table.classes.values()) {
+            descriptorNames.put(entry.names[0], entry.getName(from));
+        }
+        for (MappingTable.ClassEntry entry : table.classes.values()) {
+            String owner = entry.getName(from);
+            add(null, -1, MappingDiff.EntryKind.CLASS, null, null, owner, entry.getName(to));
+            for (MappingTable.MemberEntry field : entry.fields) {
+                String desc = RemapperUtils.remapSignature(field.desc, descriptorNames);
+                add(null, -1, MappingDiff.EntryKind.FIELD, owner, desc, field.getName(from), field.getName(to));
+            }
+            for (MappingTable.MemberEntry method : entry.methods) {
+                String desc = RemapperUtils.remapSignature(method.desc, descriptorNames);
+                add(null, -1, MappingDiff.EntryKind.METHOD, owner, desc, method.getName(from), method.getName(to));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds the entries of a tiny v1 file. The entries are interpreted in the same way as
+     * {@link RemapperUtils#readTinyV1File(File, Remapper)} or {@link RemapperUtils#readReversedTinyV1File(File, Remapper)} would,
+     * except that owners and descriptors of reversed files are translated to the namespace that is remapped from.
+     *
+     * @param tinyMap The file to add
+     * @param reversed Whether the file is read in reverse
+     * @return This instance, for chaining
+     * @throws IOException If an IO issue occurred
+     * @throws IllegalStateException If the file is not a valid tiny v1 file
+     */
+    public MappingValidator addTinyV1File(File tinyMap, boolean reversed) throws IOException {
+        String source = tinyMap.getName();
+        int firstEntry = entries.size();
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(tinyMap.toPath()));
+        int end = buffer.limit();
+        int start = TinyV1Tokenizer.readHeader(buffer, end);
+        new TinyV1Tokenizer(buffer, start, end, 2).tokenize(new TinyV1Tokenizer.Visitor() {
+            @Override
+            public void visitClass(int lineNr, String oldName, String newName) {
+                if (reversed) {
+                    add(source, lineNr, MappingDiff.EntryKind.CLASS, null, null, newName, oldName);
+                } else {
+                    add(source, lineNr, MappingDiff.EntryKind.CLASS, null, null, oldName, newName);
+                }
+            }
+
+            @Override
+            public void visitField(int lineNr, String owner, String desc, String oldName, String newName) {
+                if (reversed) {
+                    add(source, lineNr, MappingDiff.EntryKind.FIELD, owner, desc, newName, oldName);
+                } else {
+                    add(source, lineNr, MappingDiff.EntryKind.FIELD, owner, desc, oldName, newName);
+                }
+            }
+
+            @Override
+            public void visitMethod(int lineNr, String owner, String desc, String oldName, String newName) {
+                if (reversed) {
+                    add(source, lineNr, MappingDiff.EntryKind.METHOD, owner, desc, newName, oldName);
+                } else {
+                    add(source, lineNr, MappingDiff.EntryKind.METHOD, owner, desc, oldName, newName);
+                }
+            }
+        });
+        if (reversed) {
+            // Owners and descriptors of a reversed file are in the namespace that is remapped to, translate them
+            // so that all entries are keyed in the namespace that is remapped from
+            Map<String, String> descriptorNames = new HashMap<>();
+            for (int i = firstEntry; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                if (entry.kind == MappingDiff.EntryKind.CLASS) {
+                    descriptorNames.put(entry.newName, entry.name);
+                }
+            }
+            for (int i = firstEntry; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                if (entry.kind != MappingDiff.EntryKind.CLASS) {
+                    entries.set(i, new Entry(i, source, entry.lineNr, entry.kind, descriptorNames.getOrDefault(entry.owner, entry.owner),
+                            RemapperUtils.remapSignature(entry.desc, descriptorNames), entry.name, entry.newName));
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Registers all added entries to a remapper, in the order they were added. Owners and descriptors are registered in the
+     * same namespace the report of {@link #validate(int)} refers to, so for reversed files they are translated too.
+     * Conflicting method renames are skipped, as they are already part of the report; for conflicting field renames the last
+     * entry wins.
+     * This allows to validate and apply a mapping set without reading it twice.
+     *
+     * @param remapper The remapper to register the renames to
+     */
+    public void registerTo(Remapper remapper) {
+        for (Entry entry : entries) {
+            if (entry.kind == MappingDiff.EntryKind.CLASS) {
+                remapper.remapClassName(entry.name, entry.newName);
+            } else if (entry.kind == MappingDiff.EntryKind.FIELD) {
+                remapper.remapField(entry.owner, entry.desc, entry.name, entry.newName);
+            } else {
+                try {
+                    remapper.remapMethod(entry.owner, entry.desc, entry.name, entry.newName);
+                } catch (ConflicitingMappingException e) {
+                    // Reported by #validate
+                }
+            }
+        }
+    }
+
+    /**
+     * Validates all added entries. Without knowing the classes that are going to be remapped, dangling owners can only be
+     * detected if they refer to a class by it's new name instead of it's old name.
+     *
+     * @param maxIssues The maximum amount of issues to keep in detail
+     * @return The report
+     */
+    public MappingValidationReport validate(int maxIssues) {
+        return validate(null, maxIssues);
+    }
+
+    /**
+     * Validates all added entries.
+     *
+     * @param knownClasses The internal names of the classes that are going to be remapped, in the namespace that is
+     * remapped from. Members that belong to other classes are reported as dangling. If null, members are only reported
+     * as dangling if their owner is referred to by it's new name
+     * @param maxIssues The maximum amount of issues to keep in detail
+     * @return The report
+     */
+    public MappingValidationReport validate(@Nullable Set<String> knownClasses, int maxIssues) {
+        List<Entry> classes = new ArrayList<>();
+        List<Entry> fields = new ArrayList<>();
+        List<Entry> methods = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.kind == MappingDiff.EntryKind.CLASS) {
+                classes.add(entry);
+            } else if (entry.kind == MappingDiff.EntryKind.FIELD) {
+                fields.add(entry);
+            } else {
+                methods.add(entry);
+            }
+        }
+
+        List<PendingIssue> issues = new ArrayList<>();
+        checkUnique(classes, entry -> entry.name, entry -> entry.newName, IssueType.CONFLICTING_CLASS_RENAME, true, issues);
+        checkUnique(classes, entry -> entry.newName, entry -> entry.name, IssueType.DUPLICATE_CLASS_TARGET, false, issues);
+        checkUnique(fields, entry -> entry.owner + ' ' + entry.desc + ' ' + entry.name, entry -> entry.newName, IssueType.CONFLICTING_FIELD_RENAME, true, issues);
+        checkUnique(fields, entry -> entry.owner + ' ' + entry.desc + ' ' + entry.newName, entry -> entry.name, IssueType.DUPLICATE_MEMBER_TARGET, false, issues);
+        checkUnique(methods, entry -> entry.owner + ' ' + entry.desc + ' ' + entry.name, entry -> entry.newName, IssueType.CONFLICTING_METHOD_RENAME, true, issues);
+        checkUnique(methods, entry -> entry.owner + ' ' + entry.desc + ' ' + entry.newName, entry -> entry.name, IssueType.DUPLICATE_MEMBER_TARGET, false, issues);
+
+        Set<String> classSources = new HashSet<>();
+        Set<String> classTargets = new HashSet<>();
+        for (Entry entry : classes) {
+            classSources.add(entry.name);
+            classTargets.add(entry.newName);
+        }
+        List<Entry> members = new ArrayList<>(fields);
+        members.addAll(methods);
+        issues.addAll(members.parallelStream()
+                .filter(entry -> {
+                    if (knownClasses != null) {
+                        return !knownClasses.contains(entry.owner);
+                    }
+                    return classTargets.contains(entry.owner) && !classSources.contains(entry.owner);
+                })
+                .map(entry -> new PendingIssue(IssueType.DANGLING_OWNER, entry, entry.describe() + " (" + entry.location()
+                        + ") is owned by " + entry.owner + ", which " + (knownClasses == null ? "is the new name of a class" : "does not exist")))
+                .collect(Collectors.toList()));
+
+        // Report in file order, so the report is the same regardless of the scheduling of the checks
+        issues.sort(Comparator.comparingInt(issue -> issue.entry.index));
+        MappingValidationReport report = new MappingValidationReport(maxIssues);
+        for (PendingIssue issue : issues) {
+            report.add(issue.type, issue.entry.source, issue.entry.lineNr, issue.message);
+        }
+        return report;
+    }
+}
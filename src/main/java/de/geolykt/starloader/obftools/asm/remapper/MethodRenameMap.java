@@ -3,39 +3,79 @@ package de.geolykt.starloader.obftools.asm.remapper;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.BiConsumer;
 
 import de.geolykt.starloader.obftools.asm.MethodReference;
 
 public class MethodRenameMap {
 
-    private final Map<MethodReference, String> renames = new HashMap<>();
+    private final DenseRenameTable denseRenames;
+    private final Map<MethodReference, String> renames;
 
     public MethodRenameMap() {
+        this(false);
+    }
+
+    /**
+     * Creates an empty rename map.
+     *
+     * @param dense Whether to store the renames in a {@link DenseRenameTable}, which does not need an object per rename
+     */
+    public MethodRenameMap(boolean dense) {
+        this.denseRenames = dense ? new DenseRenameTable() : null;
+        this.renames = dense ? null : new HashMap<>();
     }
 
     public void clear() {
-        renames.clear();
+        if (denseRenames != null) {
+            denseRenames.clear();
+        } else {
+            renames.clear();
+        }
+    }
+
+    public void forEach(BiConsumer<MethodReference, String> action) {
+        if (denseRenames != null) {
+            denseRenames.forEach((owner, desc, name, newName) -> action.accept(new MethodReference(owner, desc, name), newName));
+        } else {
+            renames.forEach(action);
+        }
     }
 
     public String get(String owner, String descriptor, String oldName) {
+        if (denseRenames != null) {
+            return denseRenames.get(owner, descriptor, oldName);
+        }
         return renames.get(new MethodReference(owner, descriptor, oldName));
     }
 
     public String getOrDefault(String owner, String descriptor, String oldName, String defaultValue) {
+        if (denseRenames != null) {
+            String newName = denseRenames.get(owner, descriptor, oldName);
+            return newName == null ? defaultValue : newName;
+        }
         return renames.getOrDefault(new MethodReference(owner, descriptor, oldName), defaultValue);
     }
 
+    boolean isDense() {
+        return denseRenames != null;
+    }
+
     public String optGet(String owner, String descriptor, String oldName) {
-        return renames.getOrDefault(new MethodReference(owner, descriptor, oldName), oldName);
+        return getOrDefault(owner, descriptor, oldName, oldName);
     }
 
     public void put(String owner, String descriptor, String name, String newName) throws ConflicitingMappingException {
-        MethodReference ref = new MethodReference(owner, descriptor, name);
-        String oldMapping = renames.get(ref);
+        String oldMapping = get(owner, descriptor, name);
         if (oldMapping == null) {
-            renames.put(ref, Objects.requireNonNull(newName, "newName cannot be null."));
+            Objects.requireNonNull(newName, "newName cannot be null.");
+            if (denseRenames != null) {
+                denseRenames.put(owner, descriptor, name, newName);
+            } else {
+                renames.put(new MethodReference(owner, descriptor, name), newName);
+            }
         } else if (!oldMapping.equals(newName)) {
-            throw new ConflicitingMappingException("Overriding method rename for method " + ref.toString());
+            throw new ConflicitingMappingException("Overriding method rename for method " + new MethodReference(owner, descriptor, name).toString());
         }
     }
 
@@ -49,10 +89,14 @@ public class MethodRenameMap {
      * @param name The name of the method that should not be remapped
      */
     public void remove(String owner, String desc, String name) {
-        renames.remove(new MethodReference(owner, desc, name));
+        if (denseRenames != null) {
+            denseRenames.remove(owner, desc, name);
+        } else {
+            renames.remove(new MethodReference(owner, desc, name));
+        }
     }
 
     public int size() {
-        return renames.size();
+        return denseRenames != null ? denseRenames.size() : renames.size();
     }
 }
@@ -0,0 +1,205 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reader for large tiny v1 files. The file is memory-mapped and split into chunks at line boundaries,
+ * which are tokenized in parallel on a {@link ForkJoinPool}. The entries of each chunk are buffered and
+ * replayed to the target visitor in file order afterwards, so the result (including which of two conflicting
+ * entries wins and which error is reported) is exactly the same as if the file was read sequentially.
+ */
+final class ParallelTinyV1Reader {
+
+    /**
+     * The buffered entries of a single chunk.
+     */
+    private static final class Chunk implements TinyV1Tokenizer.Visitor {
+
+        private static final byte CLASS = 0;
+        private static final byte FIELD = 1;
+        private static final byte INVALID = 2;
+        private static final byte METHOD = 3;
+
+        private String[] columns = new String[64];
+        private int[] lineNumbers = new int[16];
+        private int lineCount;
+        private int size;
+        private byte[] types = new byte[16];
+
+        private void add(byte type, int lineNr, String column0, String column1, String column2, String column3) {
+            if (size == types.length) {
+                types = Arrays.copyOf(types, size * 2);
+                lineNumbers = Arrays.copyOf(lineNumbers, size * 2);
+                columns = Arrays.copyOf(columns, size * 8);
+            }
+            types[size] = type;
+            lineNumbers[size] = lineNr;
+            int base = size * 4;
+            columns[base] = column0;
+            columns[base + 1] = column1;
+            columns[base + 2] = column2;
+            columns[base + 3] = column3;
+            size++;
+        }
+
+        private void replay(TinyV1Tokenizer.Visitor visitor, int lineOffset) {
+            for (int i = 0; i < size; i++) {
+                int lineNr = lineNumbers[i] + lineOffset;
+                int base = i * 4;
+                switch (types[i]) {
+                case CLASS:
+                    visitor.visitClass(lineNr, columns[base], columns[base + 1]);
+                    break;
+                case FIELD:
+                    visitor.visitField(lineNr, columns[base], columns[base + 1], columns[base + 2], columns[base + 3]);
+                    break;
+                case METHOD:
+                    visitor.visitMethod(lineNr, columns[base], columns[base + 1], columns[base + 2], columns[base + 3]);
+                    break;
+                case INVALID:
+                    visitor.visitInvalidEntry(lineNr, columns[base], Integer.parseInt(columns[base + 1]), Integer.parseInt(columns[base + 2]));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown entry type: " + types[i]);
+                }
+            }
+        }
+
+        @Override
+        public void visitClass(int lineNr, String oldName, String newName) {
+            add(CLASS, lineNr, oldName, newName, null, null);
+        }
+
+        @Override
+        public void visitField(int lineNr, String owner, String desc, String oldName, String newName) {
+            add(FIELD, lineNr, owner, desc, oldName, newName);
+        }
+
+        @Override
+        public void visitInvalidEntry(int lineNr, String type, int columns, int expectedColumns) {
+            // Deferred until the replay, as the absolute line number is not known yet
+            add(INVALID, lineNr, type, Integer.toString(columns), Integer.toString(expectedColumns), null);
+        }
+
+        @Override
+        public void visitMethod(int lineNr, String owner, String desc, String oldName, String newName) {
+            add(METHOD, lineNr, owner, desc, oldName, newName);
+        }
+    }
+
+    /**
+     * Tokenizes a range of chunks, splitting the range in half until only a single chunk is left.
+     */
+    private static final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer buffer;
+        private final int[] boundaries;
+        private final Chunk[] chunks;
+        private final int from;
+        private final int to;
+
+        private ChunkTask(ByteBuffer buffer, int[] boundaries, Chunk[] chunks, int from, int to) {
+            this.buffer = buffer;
+            this.boundaries = boundaries;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                Chunk chunk = new Chunk();
+                TinyV1Tokenizer tokenizer = new TinyV1Tokenizer(buffer, boundaries[from], boundaries[from + 1], 1);
+                tokenizer.tokenize(chunk);
+                chunk.lineCount = tokenizer.getLineNr();
+                chunks[from] = chunk;
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ChunkTask(buffer, boundaries, chunks, from, middle), new ChunkTask(buffer, boundaries, chunks, middle, to));
+        }
+    }
+
+    /**
+     * The minimum size of a chunk in bytes. Smaller chunks are not worth the overhead of parallelisation.
+     */
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    private static int[] computeBoundaries(ByteBuffer buffer, int start, int end, int chunkCount) {
+        List<Integer> boundaries = new ArrayList<>(chunkCount + 1);
+        boundaries.add(start);
+        int chunkSize = (end - start) / chunkCount;
+        int position = start;
+        while (end - position > chunkSize) {
+            position += chunkSize;
+            while (position < end && buffer.get(position - 1) != '\n') {
+                position++;
+            }
+            if (position < end) {
+                boundaries.add(position);
+            }
+        }
+        boundaries.add(end);
+        int[] out = new int[boundaries.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = boundaries.get(i);
+        }
+        return out;
+    }
+
+    /**
+     * Reads a tiny v1 file and passes the entries to the visitor in the order they appear in the file.
+     * The visitor is only invoked by the calling thread.
+     *
+     * @param tinyMap The file to read
+     * @param visitor The visitor to pass the entries to
+     * @param pool The pool to tokenize the file on
+     * @throws IOException If an IO issue occurred or the file is too large to be memory-mapped
+     * @throws IllegalStateException If the file is not a valid tiny v1 file
+     */
+    static void read(File tinyMap, TinyV1Tokenizer.Visitor visitor, ForkJoinPool pool) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(tinyMap.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("The tiny file " + tinyMap.getPath() + " is too large (" + size + " bytes) to be memory-mapped.");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        int end = buffer.limit();
+        int start = TinyV1Tokenizer.readHeader(buffer, end);
+        int parallelism = pool.getParallelism();
+        int chunkCount = Math.min(parallelism * 4, (end - start) / MIN_CHUNK_SIZE);
+        if (parallelism < 2 || chunkCount < 2) {
+            // Buffering the entries is only worth it if the chunks are actually processed concurrently
+            new TinyV1Tokenizer(buffer, start, end, 2).tokenize(visitor);
+            return;
+        }
+        int[] boundaries = computeBoundaries(buffer, start, end, chunkCount);
+        Chunk[] chunks = new Chunk[boundaries.length - 1];
+        pool.invoke(new ChunkTask(buffer, boundaries, chunks, 0, chunks.length));
+        int lineOffset = 1; // The header is the first line
+        for (Chunk chunk : chunks) {
+            chunk.replay(visitor, lineOffset);
+            lineOffset += chunk.lineCount;
+        }
+    }
+
+    /**
+     * Static utility class.
+     */
+    private ParallelTinyV1Reader() {
+    }
+}
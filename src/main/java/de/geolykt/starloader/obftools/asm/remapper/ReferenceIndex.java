@@ -0,0 +1,312 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.ModuleVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.RecordComponentVisitor;
+import org.objectweb.asm.TypePath;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.tree.ClassNode;
+
+import de.geolykt.starloader.obftools.asm.FieldReference;
+import de.geolykt.starloader.obftools.asm.MethodReference;
+
+/**
+ * Index that maps class, field and method names to the classes that refer to them.
+ * If set via {@link Remapper#setReferenceIndex(ReferenceIndex)}, the index is kept up to date by the remapper, which
+ * allows {@link Remapper#processIncrementally()} to only process the classes that are affected by a change in the mappings.
+ *<p>
+ * All names stored in the index are the names that are present in the indexed classes, which after remapping are the new names.
+ */
+public final class ReferenceIndex {
+
+    /**
+     * Collects the referenced names by abusing the ASM remapping infrastructure,
+     * which has the nice property of visiting each name exactly where it needs to be remapped.
+     */
+    private static final class ReferenceCollector extends org.objectweb.asm.commons.Remapper {
+
+        private final Set<String> classes = new HashSet<>();
+        private final Set<FieldReference> fields = new HashSet<>();
+        private final Set<MethodReference> methods = new HashSet<>();
+
+        /**
+         * The super class of the class at the time it was indexed, as the class may be remapped in place afterwards.
+         */
+        private String superName;
+
+        @Override
+        public String map(String internalName) {
+            classes.add(internalName);
+            return internalName;
+        }
+
+        @Override
+        public String mapFieldName(String owner, String name, String descriptor) {
+            fields.add(new FieldReference(owner, descriptor, name));
+            return name;
+        }
+
+        @Override
+        public String mapMethodName(String owner, String name, String descriptor) {
+            methods.add(new MethodReference(owner, descriptor, name));
+            return name;
+        }
+    }
+
+    /**
+     * Visitor that does nothing but make sure that the {@link ClassRemapper} descends into every element of the class.
+     */
+    private static final class SinkClassVisitor extends ClassVisitor {
+
+        private static final AnnotationVisitor ANNOTATION_SINK = new AnnotationVisitor(Opcodes.ASM9) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String name, String descriptor) {
+                return this;
+            }
+
+            @Override
+            public AnnotationVisitor visitArray(String name) {
+                return this;
+            }
+        };
+
+        private static final FieldVisitor FIELD_SINK = new FieldVisitor(Opcodes.ASM9) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                return ANNOTATION_SINK;
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                return ANNOTATION_SINK;
+            }
+        };
+
+        private static final MethodVisitor METHOD_SINK = new MethodVisitor(Opcodes.ASM9) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                return ANNOTATION_SINK;
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotationDefault() {
+                return ANNOTATION_SINK;
+            }
+
+            @Override
+            public AnnotationVisitor visitInsnAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                return ANNOTATION_SINK;
+            }
+
+            @Override
+            public AnnotationVisitor visitLocalVariableAnnotation(int typeRef, TypePath typePath, Label[] start, Label[] end,
+                    int[] index, String descriptor, boolean visible) {
+                return ANNOTATION_SINK;
+            }
+
+            @Override
+            public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+                return ANNOTATION_SINK;
+            }
+
+            @Override
+            public AnnotationVisitor visitTryCatchAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                return ANNOTATION_SINK;
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                return ANNOTATION_SINK;
+            }
+        };
+
+        private static final ModuleVisitor MODULE_SINK = new ModuleVisitor(Opcodes.ASM9) {
+        };
+
+        private static final RecordComponentVisitor RECORD_COMPONENT_SINK = new RecordComponentVisitor(Opcodes.ASM9) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                return ANNOTATION_SINK;
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                return ANNOTATION_SINK;
+            }
+        };
+
+        private SinkClassVisitor() {
+            super(Opcodes.ASM9);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            return ANNOTATION_SINK;
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            return FIELD_SINK;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            return METHOD_SINK;
+        }
+
+        @Override
+        public ModuleVisitor visitModule(String name, int access, String version) {
+            return MODULE_SINK;
+        }
+
+        @Override
+        public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+            return RECORD_COMPONENT_SINK;
+        }
+
+        @Override
+        public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+            return ANNOTATION_SINK;
+        }
+    }
+
+    private static final SinkClassVisitor SINK = new SinkClassVisitor();
+
+    private static <K> void addAll(Map<K, Set<ClassNode>> index, Set<K> keys, ClassNode node) {
+        for (K key : keys) {
+            index.computeIfAbsent(key, k -> new HashSet<>()).add(node);
+        }
+    }
+
+    private static <K> void removeAll(Map<K, Set<ClassNode>> index, Set<K> keys, ClassNode node) {
+        for (K key : keys) {
+            Set<ClassNode> referees = index.get(key);
+            if (referees != null) {
+                referees.remove(node);
+                if (referees.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+        }
+    }
+
+    private final Map<String, Set<ClassNode>> classReferences = new HashMap<>();
+    private final Map<FieldReference, Set<ClassNode>> fieldReferences = new HashMap<>();
+    private final Map<ClassNode, ReferenceCollector> indexedClasses = new IdentityHashMap<>();
+    private final Map<MethodReference, Set<ClassNode>> methodReferences = new HashMap<>();
+    private final Map<String, Set<ClassNode>> subclasses = new HashMap<>();
+
+    /**
+     * Clears the index.
+     */
+    public void clear() {
+        classReferences.clear();
+        fieldReferences.clear();
+        indexedClasses.clear();
+        methodReferences.clear();
+        subclasses.clear();
+    }
+
+    /**
+     * Obtains the classes that refer to a given class, including the class itself.
+     *
+     * @param internalName The internal name of the class
+     * @return An unmodifiable view of the classes referring to the class
+     */
+    public Set<ClassNode> getClassReferences(String internalName) {
+        return Collections.unmodifiableSet(classReferences.getOrDefault(internalName, Collections.emptySet()));
+    }
+
+    /**
+     * Obtains the classes that refer to a given field, including the class declaring the field.
+     *
+     * @param owner The internal name of the class that is used as the owner of the field reference
+     * @param desc The descriptor of the field
+     * @param name The name of the field
+     * @return An unmodifiable view of the classes referring to the field
+     */
+    public Set<ClassNode> getFieldReferences(String owner, String desc, String name) {
+        return Collections.unmodifiableSet(fieldReferences.getOrDefault(new FieldReference(owner, desc, name), Collections.emptySet()));
+    }
+
+    /**
+     * Obtains the classes that refer to a given method, including the class declaring the method.
+     *
+     * @param owner The internal name of the class that is used as the owner of the method reference
+     * @param desc The descriptor of the method
+     * @param name The name of the method
+     * @return An unmodifiable view of the classes referring to the method
+     */
+    public Set<ClassNode> getMethodReferences(String owner, String desc, String name) {
+        return Collections.unmodifiableSet(methodReferences.getOrDefault(new MethodReference(owner, desc, name), Collections.emptySet()));
+    }
+
+    /**
+     * Obtains the classes that directly extend a given class.
+     *
+     * @param internalName The internal name of the super class
+     * @return An unmodifiable view of the direct subclasses
+     */
+    public Set<ClassNode> getDirectSubclasses(String internalName) {
+        return Collections.unmodifiableSet(subclasses.getOrDefault(internalName, Collections.emptySet()));
+    }
+
+    /**
+     * Indexes a class. If the class was already indexed, the old entries of the class are discarded beforehand.
+     *
+     * @param node The class to index
+     */
+    public void index(ClassNode node) {
+        remove(node);
+        ReferenceCollector collector = new ReferenceCollector();
+        node.accept(new ClassRemapper(SINK, collector));
+        addAll(classReferences, collector.classes, node);
+        addAll(fieldReferences, collector.fields, node);
+        addAll(methodReferences, collector.methods, node);
+        if (node.superName != null) {
+            subclasses.computeIfAbsent(node.superName, k -> new HashSet<>()).add(node);
+            collector.superName = node.superName;
+        }
+        indexedClasses.put(node, collector);
+    }
+
+    /**
+     * Checks whether a class is present in the index.
+     *
+     * @param node The class to check
+     * @return True if the class was indexed
+     */
+    public boolean isIndexed(ClassNode node) {
+        return indexedClasses.containsKey(node);
+    }
+
+    /**
+     * Removes all entries of a class from the index.
+     *
+     * @param node The class to remove
+     */
+    public void remove(ClassNode node) {
+        ReferenceCollector collector = indexedClasses.remove(node);
+        if (collector == null) {
+            return;
+        }
+        removeAll(classReferences, collector.classes, node);
+        removeAll(fieldReferences, collector.fields, node);
+        removeAll(methodReferences, collector.methods, node);
+        if (collector.superName != null) {
+            removeAll(subclasses, Collections.singleton(collector.superName), node);
+        }
+    }
+}
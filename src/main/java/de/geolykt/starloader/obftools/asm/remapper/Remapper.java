@@ -10,6 +10,7 @@ import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.List;
@@ -17,6 +18,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
@@ -40,6 +42,9 @@ import org.objectweb.asm.tree.RecordComponentNode;
 import org.objectweb.asm.tree.TryCatchBlockNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 
+import de.geolykt.starloader.obftools.asm.ClassGraph;
+import de.geolykt.starloader.obftools.asm.MemberIndex;
+import de.geolykt.starloader.obftools.asm.SymbolInterner;
 import de.geolykt.starloader.obftools.asm.access.AccessFlagModifier;
 
 /**
@@ -52,12 +57,54 @@ import de.geolykt.starloader.obftools.asm.access.AccessFlagModifier;
  */
 public final class Remapper {
 
-    private final FieldRenameMap fieldRenames = new FieldRenameMap();
-    private final MethodRenameMap methodRenames = new MethodRenameMap();
+    private final FieldRenameMap fieldRenames;
+    private final MethodRenameMap methodRenames;
     private final Map<String, ClassNode> nameToNode = new HashMap<>();
-    private final Map<String, String> oldToNewClassName = new HashMap<>();
+    private final Map<String, String> oldToNewClassName;
+    private ClassGraph classGraph;
+    private ReferenceIndex referenceIndex;
+    private SymbolInterner symbols;
     private final List<ClassNode> targets = new ArrayList<>();
 
+    /**
+     * Whether the renames are supplied by a {@link CompiledMapping} and thus shared with other remapper instances.
+     */
+    private final boolean frozen;
+
+    public Remapper() {
+        this(false);
+    }
+
+    /**
+     * Creates a remapper that optionally stores it's field and method renames in dense tables. Dense tables assign
+     * int ids to the owners, names and descriptors and store the renames in primitive tables, which uses far less memory
+     * for large mappings (for example merged game and library mappings) at the cost of slightly slower lookups.
+     * The dense mode is kept by mappings compiled via {@link #compile()}.
+     *
+     * @param denseRenameTables Whether to use dense tables for the member renames
+     */
+    public Remapper(boolean denseRenameTables) {
+        this.fieldRenames = new FieldRenameMap(denseRenameTables);
+        this.methodRenames = new MethodRenameMap(denseRenameTables);
+        this.oldToNewClassName = new HashMap<>();
+        this.frozen = false;
+    }
+
+    /**
+     * Creates a remapper that makes use of the renames of a compiled mapping.
+     * Such a remapper does not accept any additional renames and does not clear the renames after {@link #process()},
+     * which means that it can be used for as many batches as needed.
+     *
+     * @param mapping The mapping to use
+     * @see CompiledMapping#createRemapper()
+     */
+    public Remapper(CompiledMapping mapping) {
+        this.fieldRenames = mapping.fieldRenames;
+        this.methodRenames = mapping.methodRenames;
+        this.oldToNewClassName = mapping.classNames;
+        this.frozen = true;
+    }
+
     /**
      * Adds a single class node to remap
      *
@@ -84,11 +131,28 @@ public final class Remapper {
         });
     }
 
+    private void checkMutable() {
+        if (frozen) {
+            throw new IllegalStateException("This remapper makes use of a compiled mapping and thus cannot accept additional renames.");
+        }
+    }
+
     public void clearTargets() {
         targets.clear();
         nameToNode.clear();
     }
 
+    /**
+     * Creates a frozen copy of all currently registered renames.
+     * The returned mapping is independent of this remapper instance, which means that this instance can be modified
+     * afterwards without affecting the returned mapping.
+     *
+     * @return The compiled mapping
+     */
+    public CompiledMapping compile() {
+        return new CompiledMapping(oldToNewClassName, fieldRenames, methodRenames);
+    }
+
     /**
      * Note: due to the circumstances of how the remapper works, this method call may be not required as the remapper
      * remaps the input ClassNodes without cloning them in any capacity.
@@ -103,121 +167,190 @@ public final class Remapper {
      * Processes all remap orders and clears the remap orders afterwards. The classes that need to be processed remain in the targets
      * list until {@link #clearTargets()} is invoked. This allows for reusability of the same remapper instance.
      * Class names are remapped last.
+     * If the remapper was created from a {@link CompiledMapping}, the remap orders are not cleared.
      */
     public void process() {
         StringBuilder sharedStringBuilder = new StringBuilder();
         IdentityHashMap<ModuleNode, Boolean> remappedModules = new IdentityHashMap<>();
+        Map<String, String> renamedTargets = new HashMap<>();
         for (ClassNode node : targets) {
-            for (FieldNode field : node.fields) {
-                remapField(node.name, field, sharedStringBuilder);
-            }
-            for (InnerClassNode innerClass : node.innerClasses) {
-                // TODO: Should we also remap the inner names?
-                String newOuterName = oldToNewClassName.get(innerClass.outerName);
-                if (newOuterName != null) {
-                    innerClass.outerName = newOuterName;
-                }
-                String newName = oldToNewClassName.get(innerClass.name);
-                if (newName != null) {
-                    innerClass.name = newName;
-                }
+            String oldName = node.name;
+            processTarget(node, sharedStringBuilder, remappedModules);
+            if (referenceIndex != null) {
+                referenceIndex.index(node);
             }
-            for (int i = 0; i < node.interfaces.size(); i++) {
-                String newInterfaceName = oldToNewClassName.get(node.interfaces.get(i));
-                if (newInterfaceName != null) {
-                    node.interfaces.set(i, newInterfaceName);
-                }
+            if (!oldName.equals(node.name)) {
+                renamedTargets.put(oldName, node.name);
             }
-            remapAnnotations(node.invisibleTypeAnnotations, sharedStringBuilder);
-            remapAnnotations(node.invisibleAnnotations, sharedStringBuilder);
-            remapAnnotations(node.visibleTypeAnnotations, sharedStringBuilder);
-            remapAnnotations(node.visibleAnnotations, sharedStringBuilder);
-            for (MethodNode method : node.methods) {
-                remapMethod(node, method, sharedStringBuilder);
-            }
-            ModuleNode module = node.module;
-            if (module != null) {
-                Boolean boole = remappedModules.get(module);
-                if (boole == null) {
-                    remappedModules.put(module, Boolean.TRUE);
-                    remapModule(module, sharedStringBuilder);
+        }
+        updateClassGraph(renamedTargets);
+        if (!frozen) {
+            oldToNewClassName.clear();
+        }
+    }
+
+    /**
+     * Processes all remap orders like {@link #process()}, but only for the targets that are affected by them.
+     * The affected targets are looked up in the {@link ReferenceIndex} set via {@link #setReferenceIndex(ReferenceIndex)},
+     * so all targets must have been indexed beforehand, for example by an earlier call to {@link #process()}.
+     * This is intended for workflows where a small amount of renames is applied to an already remapped set of classes,
+     * in which case the renames need to be registered using the current (already remapped) names.
+     *<p>
+     * Targets that are not known to the index are always processed.
+     *
+     * @return The amount of targets that were processed
+     * @throws IllegalStateException If no reference index was set
+     */
+    public int processIncrementally() {
+        ReferenceIndex index = this.referenceIndex;
+        if (index == null) {
+            throw new IllegalStateException("Incremental processing requires a reference index.");
+        }
+        Set<ClassNode> affected = Collections.newSetFromMap(new IdentityHashMap<>());
+        oldToNewClassName.keySet().forEach(name -> affected.addAll(index.getClassReferences(name)));
+        methodRenames.forEach((ref, newName) -> {
+            affected.addAll(index.getMethodReferences(ref.getOwner(), ref.getDesc(), ref.getName()));
+        });
+        fieldRenames.forEach((ref, newName) -> {
+            affected.addAll(index.getFieldReferences(ref.getOwner(), ref.getDesc(), ref.getName()));
+            // See the javac quirk in #remapMethod(ClassNode, MethodNode, StringBuilder)
+            for (ClassNode child : index.getDirectSubclasses(ref.getOwner())) {
+                affected.addAll(index.getFieldReferences(child.name, ref.getDesc(), ref.getName()));
+            }
+        });
+        StringBuilder sharedStringBuilder = new StringBuilder();
+        IdentityHashMap<ModuleNode, Boolean> remappedModules = new IdentityHashMap<>();
+        Map<String, String> renamedTargets = new HashMap<>();
+        int processed = 0;
+        for (ClassNode node : targets) {
+            if (affected.contains(node) || !index.isIndexed(node)) {
+                String oldName = node.name;
+                processTarget(node, sharedStringBuilder, remappedModules);
+                index.index(node);
+                processed++;
+                if (!oldName.equals(node.name)) {
+                    renamedTargets.put(oldName, node.name);
                 }
             }
-            if (node.nestHostClass != null) {
-                node.nestHostClass = remapInternalName(node.nestHostClass, sharedStringBuilder);
+        }
+        updateClassGraph(renamedTargets);
+        if (!frozen) {
+            oldToNewClassName.clear();
+        }
+        return processed;
+    }
+
+    private void processTarget(ClassNode node, StringBuilder sharedStringBuilder, IdentityHashMap<ModuleNode, Boolean> remappedModules) {
+        // Member names and descriptors are changed in place
+        MemberIndex.invalidate(node);
+        for (FieldNode field : node.fields) {
+            remapField(node.name, field, sharedStringBuilder);
+        }
+        for (InnerClassNode innerClass : node.innerClasses) {
+            // TODO: Should we also remap the inner names?
+            String newOuterName = oldToNewClassName.get(innerClass.outerName);
+            if (newOuterName != null) {
+                innerClass.outerName = newOuterName;
             }
-            if (node.nestMembers != null) {
-                int size = node.nestMembers.size();
-                for (int i = 0; i < size; i++) {
-                    String member = node.nestMembers.get(i);
-                    String remapped = remapInternalName(member, sharedStringBuilder);
-                    if (member != remapped) {
-                        node.nestMembers.set(i, remapped);
-                    }
-                }
+            String newName = oldToNewClassName.get(innerClass.name);
+            if (newName != null) {
+                innerClass.name = newName;
             }
-            if (node.outerClass != null) {
-                if (node.outerMethod != null && node.outerMethodDesc != null) {
-                    node.outerMethod = methodRenames.optGet(node.outerClass, node.outerMethodDesc, node.outerMethod);
-                }
-                node.outerClass = remapInternalName(node.outerClass, sharedStringBuilder);
+        }
+        for (int i = 0; i < node.interfaces.size(); i++) {
+            String newInterfaceName = oldToNewClassName.get(node.interfaces.get(i));
+            if (newInterfaceName != null) {
+                node.interfaces.set(i, newInterfaceName);
             }
-            if (node.outerMethodDesc != null) {
-                sharedStringBuilder.setLength(0);
-                if (remapSignature(node.outerMethodDesc, sharedStringBuilder)) {
-                    node.outerMethodDesc = sharedStringBuilder.toString();
-                }
+        }
+        remapAnnotations(node.invisibleTypeAnnotations, sharedStringBuilder);
+        remapAnnotations(node.invisibleAnnotations, sharedStringBuilder);
+        remapAnnotations(node.visibleTypeAnnotations, sharedStringBuilder);
+        remapAnnotations(node.visibleAnnotations, sharedStringBuilder);
+        for (MethodNode method : node.methods) {
+            remapMethod(node, method, sharedStringBuilder);
+        }
+        ModuleNode module = node.module;
+        if (module != null) {
+            Boolean boole = remappedModules.get(module);
+            if (boole == null) {
+                remappedModules.put(module, Boolean.TRUE);
+                remapModule(module, sharedStringBuilder);
             }
-            if (node.permittedSubclasses != null) {
-                int size = node.permittedSubclasses.size();
-                for (int i = 0; i < size; i++) {
-                    String member = node.permittedSubclasses.get(i);
-                    String remapped = remapInternalName(member, sharedStringBuilder);
-                    if (member != remapped) {
-                        node.permittedSubclasses.set(i, remapped);
-                    }
+        }
+        if (node.nestHostClass != null) {
+            node.nestHostClass = remapInternalName(node.nestHostClass, sharedStringBuilder);
+        }
+        if (node.nestMembers != null) {
+            int size = node.nestMembers.size();
+            for (int i = 0; i < size; i++) {
+                String member = node.nestMembers.get(i);
+                String remapped = remapInternalName(member, sharedStringBuilder);
+                if (member != remapped) {
+                    node.nestMembers.set(i, remapped);
                 }
             }
-            if (node.recordComponents != null) {
-                // This requires eventual testing as I do not make use of codesets with Java9+ features.
-                for (RecordComponentNode record : node.recordComponents) {
-                    sharedStringBuilder.setLength(0);
-                    if (remapSignature(record.descriptor, sharedStringBuilder)) {
-                        record.descriptor = sharedStringBuilder.toString();
-                    }
-                    remapAnnotations(record.invisibleAnnotations, sharedStringBuilder);
-                    remapAnnotations(record.invisibleTypeAnnotations, sharedStringBuilder);
-                    remapAnnotations(record.visibleAnnotations, sharedStringBuilder);
-                    remapAnnotations(record.visibleTypeAnnotations, sharedStringBuilder);
-                    if (record.signature != null) {
-                        sharedStringBuilder.setLength(0);
-                        if (remapSignature(record.signature, sharedStringBuilder)) {
-                            record.signature = sharedStringBuilder.toString();
-                        }
-                    }
+        }
+        if (node.outerClass != null) {
+            if (node.outerMethod != null && node.outerMethodDesc != null) {
+                node.outerMethod = methodRenames.optGet(node.outerClass, node.outerMethodDesc, node.outerMethod);
+            }
+            node.outerClass = remapInternalName(node.outerClass, sharedStringBuilder);
+        }
+        if (node.outerMethodDesc != null) {
+            sharedStringBuilder.setLength(0);
+            if (remapSignature(node.outerMethodDesc, sharedStringBuilder)) {
+                node.outerMethodDesc = toSymbol(sharedStringBuilder);
+            }
+        }
+        if (node.permittedSubclasses != null) {
+            int size = node.permittedSubclasses.size();
+            for (int i = 0; i < size; i++) {
+                String member = node.permittedSubclasses.get(i);
+                String remapped = remapInternalName(member, sharedStringBuilder);
+                if (member != remapped) {
+                    node.permittedSubclasses.set(i, remapped);
                 }
             }
-            if (node.signature != null) {
+        }
+        if (node.recordComponents != null) {
+            // This requires eventual testing as I do not make use of codesets with Java9+ features.
+            for (RecordComponentNode record : node.recordComponents) {
                 sharedStringBuilder.setLength(0);
-                // Class signatures are formatted differently than method or field signatures, but we can just ignore this
-                // caveat here as the method will consider the invalid tokens are primitive objects. (sometimes laziness pays off)
-                if (remapSignature(node.signature, sharedStringBuilder)) {
-                    node.signature = sharedStringBuilder.toString();
+                if (remapSignature(record.descriptor, sharedStringBuilder)) {
+                    record.descriptor = toSymbol(sharedStringBuilder);
+                }
+                remapAnnotations(record.invisibleAnnotations, sharedStringBuilder);
+                remapAnnotations(record.invisibleTypeAnnotations, sharedStringBuilder);
+                remapAnnotations(record.visibleAnnotations, sharedStringBuilder);
+                remapAnnotations(record.visibleTypeAnnotations, sharedStringBuilder);
+                if (record.signature != null) {
+                    sharedStringBuilder.setLength(0);
+                    if (remapSignature(record.signature, sharedStringBuilder)) {
+                        record.signature = toSymbol(sharedStringBuilder);
+                    }
                 }
             }
-            if (node.superName != null) {
-                node.superName = remapInternalName(node.superName, sharedStringBuilder);
-            }
-            // remap the node's name if required
-            String newName = oldToNewClassName.get(node.name);
-            if (newName == null) {
-                continue;
+        }
+        if (node.signature != null) {
+            sharedStringBuilder.setLength(0);
+            // Class signatures are formatted differently than method or field signatures, but we can just ignore this
+            // caveat here as the method will consider the invalid tokens are primitive objects. (sometimes laziness pays off)
+            if (remapSignature(node.signature, sharedStringBuilder)) {
+                node.signature = toSymbol(sharedStringBuilder);
             }
-            nameToNode.remove(node.name);
-            node.name = newName;
-            nameToNode.put(node.name, node);
         }
-        oldToNewClassName.clear();
+        if (node.superName != null) {
+            node.superName = remapInternalName(node.superName, sharedStringBuilder);
+        }
+        // remap the node's name if required
+        String newName = oldToNewClassName.get(node.name);
+        if (newName == null) {
+            return;
+        }
+        nameToNode.remove(node.name);
+        node.name = newName;
+        nameToNode.put(node.name, node);
     }
 
     public void remapAccesswidener(InputStream input, OutputStream output) throws IOException {
@@ -313,7 +446,7 @@ public final class Remapper {
         String internalName = annotation.desc.substring(1, annotation.desc.length() - 1);
         String newInternalName = oldToNewClassName.get(internalName);
         if (newInternalName != null) {
-            annotation.desc = 'L' + newInternalName + ';';
+            annotation.desc = toSymbol('L' + newInternalName + ';');
         }
         if (annotation.values != null) {
             int size = annotation.values.size();
@@ -347,7 +480,7 @@ public final class Remapper {
             enumvals[1] = fieldRenames.optGet(internalName, enumvals[0], enumvals[1]);
             String newInternalName = oldToNewClassName.get(internalName);
             if (newInternalName != null) {
-                enumvals[0] = 'L' + newInternalName + ';';
+                enumvals[0] = toSymbol('L' + newInternalName + ';');
             }
         } else if (value instanceof AnnotationNode) {
             remapAnnotation((AnnotationNode) value, sharedStringBuilder);
@@ -388,7 +521,7 @@ public final class Remapper {
             String desc = handle.getDesc();
             sharedStringBuilder.setLength(0);
             if (remapSignature(desc, sharedStringBuilder)) {
-                desc = sharedStringBuilder.toString();
+                desc = toSymbol(sharedStringBuilder);
                 modified = true;
             }
             if (modified) {
@@ -407,11 +540,39 @@ public final class Remapper {
      *
      * @param oldName The old internal class name of the class to remap
      * @param newName The new internal class name of the class to remap
+     * @throws IllegalStateException If the remapper makes use of a {@link CompiledMapping}
      */
     public void remapClassName(String oldName, String newName) {
+        checkMutable();
         oldToNewClassName.put(oldName, newName);
     }
 
+    /**
+     * Creates a byte-level remapper that applies the class renames registered in this instance.
+     * This is only possible if no field or method renames are registered, as the {@link ConstantPoolRemapper}
+     * is unable to apply them. For such mappings (like the ones produced by
+     * {@link de.geolykt.starloader.obftools.asm.IntermediaryGenerator#remapClassesV2()}) the constant pool remapper is
+     * much faster than {@link #process()} as no class has to be parsed into a tree.
+     *
+     * @return A new {@link ConstantPoolRemapper} instance using a copy of the current class renames
+     * @throws IllegalStateException If member renames are registered
+     */
+    public ConstantPoolRemapper createConstantPoolRemapper() {
+        if (!isClassRenameOnly()) {
+            throw new IllegalStateException("Field or method renames are registered, which cannot be applied by the constant pool remapper.");
+        }
+        return new ConstantPoolRemapper(oldToNewClassName);
+    }
+
+    /**
+     * Checks whether only class renames are registered, in which case {@link #createConstantPoolRemapper()} can be used.
+     *
+     * @return True if no field or method renames are registered
+     */
+    public boolean isClassRenameOnly() {
+        return fieldRenames.size() == 0 && methodRenames.size() == 0;
+    }
+
     private void remapField(String owner, FieldNode field, StringBuilder sharedStringBuilder) {
         field.name = fieldRenames.optGet(owner, field.desc, field.name);
 
@@ -442,16 +603,16 @@ public final class Remapper {
                     }
                     sharedStringBuilder.append(newInternalName);
                     sharedStringBuilder.append(';');
-                    field.desc = sharedStringBuilder.toString();
+                    field.desc = toSymbol(sharedStringBuilder);
                 } else {
-                    field.desc = 'L' + newInternalName + ';';
+                    field.desc = toSymbol('L' + newInternalName + ';');
                 }
             }
             // Remap signature
             if (field.signature != null) {
                 sharedStringBuilder.setLength(0);
                 if (remapSignature(field.signature, sharedStringBuilder)) {
-                    field.signature = sharedStringBuilder.toString();
+                    field.signature = toSymbol(sharedStringBuilder);
                 }
             }
         }
@@ -468,8 +629,10 @@ public final class Remapper {
      * @param oldName The old name of the field
      * @param newName The new name of the field
      * @see Type#getInternalName()
+     * @throws IllegalStateException If the remapper makes use of a {@link CompiledMapping}
      */
     public void remapField(String owner, String desc, String oldName, String newName) {
+        checkMutable();
         fieldRenames.put(owner, desc, oldName, newName);
     }
 
@@ -562,15 +725,15 @@ public final class Remapper {
                             }
                             sharedStringBuilder.append(newInternalName);
                             sharedStringBuilder.append(';');
-                            lvn.desc = sharedStringBuilder.toString();
+                            lvn.desc = toSymbol(sharedStringBuilder);
                         } else {
-                            lvn.desc = 'L' + newInternalName + ';';
+                            lvn.desc = toSymbol('L' + newInternalName + ';');
                         }
                     }
                     if (lvn.signature != null) {
                         sharedStringBuilder.setLength(0);
                         if (remapSignature(lvn.signature, sharedStringBuilder)) {
-                            lvn.signature = sharedStringBuilder.toString();
+                            lvn.signature = toSymbol(sharedStringBuilder);
                         }
                     }
                 }
@@ -589,13 +752,13 @@ public final class Remapper {
         sharedStringBuilder.setLength(0);
         if (remapSignature(method.desc, sharedStringBuilder)) {
             // The field signature and method desc system are similar enough that this works
-            method.desc = sharedStringBuilder.toString();
+            method.desc = toSymbol(sharedStringBuilder);
         }
         if (method.signature != null) {
             sharedStringBuilder.setLength(0);
             if (remapSignature(method.signature, sharedStringBuilder)) {
                 // Method signature and field signature are also similar enough
-                method.signature = sharedStringBuilder.toString();
+                method.signature = toSymbol(sharedStringBuilder);
             }
         }
         if (method.annotationDefault != null && !(method.annotationDefault instanceof Number)) {
@@ -636,7 +799,7 @@ public final class Remapper {
                     }
                     sharedStringBuilder.setLength(0);
                     if (remapSignature(specialisedInsn.desc, sharedStringBuilder)) {
-                        specialisedInsn.desc = sharedStringBuilder.toString();
+                        specialisedInsn.desc = toSymbol(sharedStringBuilder);
                     }
                 } else if (insn instanceof LdcInsnNode) {
                     LdcInsnNode specialisedInsn = (LdcInsnNode) insn;
@@ -656,7 +819,7 @@ public final class Remapper {
                     }
                     sharedStringBuilder.setLength(0);
                     if (remapSignature(instruction.desc, sharedStringBuilder)) {
-                        instruction.desc = sharedStringBuilder.toString();
+                        instruction.desc = toSymbol(sharedStringBuilder);
                     }
                 } else if (insn instanceof MultiANewArrayInsnNode) {
                     MultiANewArrayInsnNode instruction = (MultiANewArrayInsnNode) insn;
@@ -685,8 +848,10 @@ public final class Remapper {
      * @param newName The new name of the method
      * @see Type#getInternalName()
      * @throws ConflicitingMappingException If a mapping error occurs.
+     * @throws IllegalStateException If the remapper makes use of a {@link CompiledMapping}
      */
     public void remapMethod(String owner, String desc, String oldName, String newName) throws ConflicitingMappingException {
+        checkMutable();
         methodRenames.put(owner, desc, oldName, newName);
     }
 
@@ -811,7 +976,7 @@ public final class Remapper {
         }
         sharedBuilder.append(newInternalName);
         sharedBuilder.append(';');
-        return sharedBuilder.toString();
+        return toSymbol(sharedBuilder);
     }
 
     /**
@@ -821,8 +986,65 @@ public final class Remapper {
      * @param owner The class of the method that should not be remapped
      * @param desc The descriptor of the method to not remap
      * @param name The name of the method that should not be remapped
+     * @throws IllegalStateException If the remapper makes use of a {@link CompiledMapping}
      */
     public void removeMethodRemap(String owner, String desc, String name) {
+        checkMutable();
         methodRenames.remove(owner, desc, name);
     }
+
+    /**
+     * Sets the class graph that should be kept up to date with the remapped targets.
+     * Targets that are renamed by {@link #process()} or {@link #processIncrementally()} are renamed within the graph too.
+     *
+     * @param graph The class graph, or null to stop maintaining a graph
+     */
+    public void setClassGraph(ClassGraph graph) {
+        this.classGraph = graph;
+    }
+
+    /**
+     * Sets the index that should be kept up to date with the remapped targets.
+     * Every target processed by {@link #process()} or {@link #processIncrementally()} is (re-)indexed afterwards.
+     *
+     * @param index The reference index, or null to stop maintaining an index
+     */
+    public void setReferenceIndex(ReferenceIndex index) {
+        this.referenceIndex = index;
+    }
+
+    /**
+     * Sets the symbol table that the descriptors and signatures created while remapping are interned in.
+     * Without a symbol table every remapped descriptor is a new string, even if an equal descriptor was created before.
+     *
+     * @param symbols The symbol table, usually {@link ClassGraph#getSymbols()}, or null to not intern anything
+     */
+    public void setSymbols(SymbolInterner symbols) {
+        this.symbols = symbols;
+    }
+
+    private String toSymbol(String symbol) {
+        SymbolInterner symbols = this.symbols;
+        return symbols == null ? symbol : symbols.intern(symbol);
+    }
+
+    private String toSymbol(StringBuilder builder) {
+        return toSymbol(builder.toString());
+    }
+
+    private void updateClassGraph(Map<String, String> renamedTargets) {
+        ClassGraph graph = classGraph;
+        if (graph == null || renamedTargets.isEmpty()) {
+            return;
+        }
+        // Only rename classes that are the processed target, the graph may contain classes of the same name that are not targets
+        Map<String, String> renamedNodes = new HashMap<>();
+        renamedTargets.forEach((oldName, newName) -> {
+            ClassNode node = graph.get(oldName);
+            if (node != null && node.name.equals(newName)) {
+                renamedNodes.put(oldName, newName);
+            }
+        });
+        graph.renameClasses(renamedNodes);
+    }
 }
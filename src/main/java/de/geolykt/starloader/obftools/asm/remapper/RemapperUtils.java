@@ -1,10 +1,11 @@
 package de.geolykt.starloader.obftools.asm.remapper;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.Locale;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 public final class RemapperUtils {
 
@@ -14,120 +15,293 @@ public final class RemapperUtils {
     private RemapperUtils() {
     }
 
-    public static void readTinyV1File(File tinyMap, Remapper remapper) throws IOException {
-        int lineNr = 0;
-        try (BufferedReader br = new BufferedReader(new FileReader(tinyMap))) {
-            // the first line must specify the version of tiny and the namespace.
-            // we are going to ignore the namespace as they just produce too much headache
-            String header = br.readLine();
-            lineNr++;
-            if (header == null || header.isBlank()) {
-                br.close();
-                throw new IllegalStateException("No tiny header present (empty file?).");
-            }
-            String[] headerTokens = header.split("\\s+");
-            if (headerTokens.length != 3) {
-                br.close();
-                throw new IllegalStateException("The tiny header had " + headerTokens.length + " tokens, however it is expected to be exactly 3.");
+    /**
+     * The amount of issues that are reported in detail when reading a mapping file without a caller-supplied report.
+     */
+    private static final int DEFAULT_REPORTED_ISSUES = 10;
+
+    private static TinyV1Tokenizer.Visitor createTinyV1Visitor(Remapper remapper, String source, MappingValidationReport report) {
+        return new TinyV1Tokenizer.Visitor() {
+            @Override
+            public void visitClass(int lineNr, String oldName, String newName) {
+                remapper.remapClassName(oldName, newName);
             }
-            if (!headerTokens[0].equals("v1")) {
-                br.close();
-                throw new IllegalStateException("This method can only read tiny v1 maps.");
+
+            @Override
+            public void visitField(int lineNr, String owner, String desc, String oldName, String newName) {
+                remapper.remapField(owner, desc, oldName, newName);
             }
-            for (String line = br.readLine(); line != null; line = br.readLine()) {
-                lineNr++;
-                if (line.isBlank() || line.charAt(0) == '#') { // fast short-circuiting
-                    continue;
-                }
-                line = line.split("#", 2)[0];
-                if (line.isBlank()) {
-                    continue;
+
+            @Override
+            public void visitMethod(int lineNr, String owner, String desc, String oldName, String newName) {
+                try {
+                    remapper.remapMethod(owner, desc, oldName, newName);
+                } catch (ConflicitingMappingException e) {
+                    report.add(MappingValidationReport.IssueType.CONFLICTING_METHOD_RENAME, source, lineNr, e.getMessage());
                 }
-                String[] colums = line.split("\\s+");
-                String type = colums[0].toUpperCase(Locale.ROOT);
-                if (type.equals("CLASS")) {
-                    // Format: CLASS originalName newName
-                    if (colums.length != 3) {
-                        throw new IllegalStateException("Line " + lineNr + " is of type CLASS, but only " + colums.length + " colums are present, even though it expects 3.");
-                    }
-                    remapper.remapClassName(colums[1], colums[2]);
-                } else if (type.equals("METHOD")) {
-                    // Format: METHOD owner originalName descriptor newName
-                    if (colums.length != 5) {
-                        throw new IllegalStateException("Line " + lineNr + " is of type CLASS, but only " + colums.length + " colums are present, even though it expects 5.");
-                    }
-                    try {
-                        remapper.remapMethod(colums[1], colums[3], colums[2], colums[4]);
-                    } catch (ConflicitingMappingException e) {
-                        e.printStackTrace();
-                    }
-                } else if (type.equals("FIELD")) {
-                    // Format: FIELD owner descriptor originalName newName
-                    if (colums.length != 5) {
-                        throw new IllegalStateException("Line " + lineNr + " is of type CLASS, but only " + colums.length + " colums are present, even though it expects 5.");
-                    }
-                    remapper.remapField(colums[1], colums[2], colums[3], colums[4]);
+            }
+        };
+    }
+
+    private static TinyV1Tokenizer.Visitor createReversedTinyV1Visitor(Remapper remapper, String source, MappingValidationReport report) {
+        return new TinyV1Tokenizer.Visitor() {
+            @Override
+            public void visitClass(int lineNr, String oldName, String newName) {
+                remapper.remapClassName(newName, oldName);
+            }
+
+            @Override
+            public void visitField(int lineNr, String owner, String desc, String oldName, String newName) {
+                remapper.remapField(owner, desc, newName, oldName);
+            }
+
+            @Override
+            public void visitMethod(int lineNr, String owner, String desc, String oldName, String newName) {
+                try {
+                    remapper.remapMethod(owner, desc, newName, oldName);
+                } catch (ConflicitingMappingException e) {
+                    report.add(MappingValidationReport.IssueType.CONFLICTING_METHOD_RENAME, source, lineNr, e.getMessage());
                 }
             }
+        };
+    }
+
+    private static void printIssues(File tinyMap, MappingValidationReport report) {
+        if (!report.isEmpty()) {
+            // Conflicts are not fatal, but they are worth looking into
+            System.err.println("Issues while reading " + tinyMap.getPath() + ": " + report);
         }
     }
 
+    private static void readTinyV1File(File tinyMap, TinyV1Tokenizer.Visitor visitor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(tinyMap.toPath()));
+        int end = buffer.limit();
+        int start = TinyV1Tokenizer.readHeader(buffer, end);
+        new TinyV1Tokenizer(buffer, start, end, 2).tokenize(visitor);
+    }
+
+    /**
+     * Reads a tiny v1 file and registers its renames to a remapper, mapping from the first to the second namespace.
+     * Conflicting renames are skipped and summarised on {@link System#err} once the file was read.
+     *
+     * @param tinyMap The file to read
+     * @param remapper The remapper to register the renames to
+     * @throws IOException If an IO issue occurred
+     * @throws IllegalStateException If the file is not a valid tiny v1 file
+     */
+    public static void readTinyV1File(File tinyMap, Remapper remapper) throws IOException {
+        MappingValidationReport report = new MappingValidationReport(DEFAULT_REPORTED_ISSUES);
+        readTinyV1File(tinyMap, remapper, report);
+        printIssues(tinyMap, report);
+    }
+
+    /**
+     * Reads a tiny v1 file and registers its renames to a remapper, mapping from the first to the second namespace.
+     * Conflicting renames are skipped and added to the report.
+     *
+     * @param tinyMap The file to read
+     * @param remapper The remapper to register the renames to
+     * @param report The report to add conflicts to
+     * @throws IOException If an IO issue occurred
+     * @throws IllegalStateException If the file is not a valid tiny v1 file
+     */
+    public static void readTinyV1File(File tinyMap, Remapper remapper, MappingValidationReport report) throws IOException {
+        readTinyV1File(tinyMap, createTinyV1Visitor(remapper, tinyMap.getName(), report));
+    }
+
+    /**
+     * Reads a tiny v1 file like {@link #readTinyV1File(File, Remapper)}, but tokenizes the file on multiple threads.
+     * This is only beneficial for large files (multiple megabytes), smaller files are read on the calling thread.
+     * The renames are registered in the order they appear in the file, so the outcome is identical to the sequential
+     * variant.
+     *
+     * @param tinyMap The file to read
+     * @param remapper The remapper to register the renames to
+     * @param pool The pool to tokenize the file on, usually {@link ForkJoinPool#commonPool()}
+     * @throws IOException If an IO issue occurred
+     * @throws IllegalStateException If the file is not a valid tiny v1 file
+     */
+    public static void readTinyV1FileParallel(File tinyMap, Remapper remapper, ForkJoinPool pool) throws IOException {
+        MappingValidationReport report = new MappingValidationReport(DEFAULT_REPORTED_ISSUES);
+        ParallelTinyV1Reader.read(tinyMap, createTinyV1Visitor(remapper, tinyMap.getName(), report), pool);
+        printIssues(tinyMap, report);
+    }
+
+    /**
+     * Reads a tiny v1 file and registers its renames to a remapper, mapping from the second to the first namespace.
+     * Owners and descriptors are not translated and thus stay in the namespace of the first column.
+     * Conflicting renames are skipped and summarised on {@link System#err} once the file was read.
+     *
+     * @param tinyMap The file to read
+     * @param remapper The remapper to register the renames to
+     * @throws IOException If an IO issue occurred
+     * @throws IllegalStateException If the file is not a valid tiny v1 file
+     */
     public static void readReversedTinyV1File(File tinyMap, Remapper remapper) throws IOException {
-        int lineNr = 0;
-        try (BufferedReader br = new BufferedReader(new FileReader(tinyMap))) {
-            // the first line must specify the version of tiny and the namespace.
-            // we are going to ignore the namespace as they just produce too much headache
-            String header = br.readLine();
-            lineNr++;
-            if (header == null || header.isBlank()) {
-                br.close();
-                throw new IllegalStateException("No tiny header present (empty file?).");
+        MappingValidationReport report = new MappingValidationReport(DEFAULT_REPORTED_ISSUES);
+        readReversedTinyV1File(tinyMap, remapper, report);
+        printIssues(tinyMap, report);
+    }
+
+    /**
+     * Reads a tiny v1 file like {@link #readReversedTinyV1File(File, Remapper)}, but adds conflicting renames to the report.
+     *
+     * @param tinyMap The file to read
+     * @param remapper The remapper to register the renames to
+     * @param report The report to add conflicts to
+     * @throws IOException If an IO issue occurred
+     * @throws IllegalStateException If the file is not a valid tiny v1 file
+     */
+    public static void readReversedTinyV1File(File tinyMap, Remapper remapper, MappingValidationReport report) throws IOException {
+        readTinyV1File(tinyMap, createReversedTinyV1Visitor(remapper, tinyMap.getName(), report));
+    }
+
+    /**
+     * Reads a tiny v1 file like {@link #readReversedTinyV1File(File, Remapper)}, but tokenizes the file on multiple threads.
+     *
+     * @param tinyMap The file to read
+     * @param remapper The remapper to register the renames to
+     * @param pool The pool to tokenize the file on, usually {@link ForkJoinPool#commonPool()}
+     * @throws IOException If an IO issue occurred
+     * @throws IllegalStateException If the file is not a valid tiny v1 file
+     * @see #readTinyV1FileParallel(File, Remapper, ForkJoinPool)
+     */
+    public static void readReversedTinyV1FileParallel(File tinyMap, Remapper remapper, ForkJoinPool pool) throws IOException {
+        MappingValidationReport report = new MappingValidationReport(DEFAULT_REPORTED_ISSUES);
+        ParallelTinyV1Reader.read(tinyMap, createReversedTinyV1Visitor(remapper, tinyMap.getName(), report), pool);
+        printIssues(tinyMap, report);
+    }
+
+    /**
+     * Remaps all class names within a descriptor or generic signature. Unlike the remapping logic used by
+     * {@link Remapper} this method is standalone and does not require a remapper instance, which makes it usable
+     * by the byte-level remapping tools. The signature is parsed as defined by JVMS 4.7.9.1, with the
+     * exception that any character that is not a reference type is copied as-is.
+     *
+     * @param signature The descriptor or signature to remap
+     * @param classNames The old -> new internal class name map
+     * @return The remapped signature, or the input instance if nothing was remapped or the input is malformed
+     */
+    static String remapSignature(String signature, Map<String, String> classNames) {
+        StringBuilder out = new StringBuilder();
+        try {
+            int[] copiedUntil = new int[1];
+            int length = signature.length();
+            int i = 0;
+            if (length != 0 && signature.charAt(0) == '<') {
+                i = remapFormalTypeParameters(signature, 1, classNames, out, copiedUntil);
             }
-            String[] headerTokens = header.split("\\s+");
-            if (headerTokens.length != 3) {
-                br.close();
-                throw new IllegalStateException("The tiny header had " + headerTokens.length + " tokens, however it is expected to be exactly 3.");
+            while (i < length) {
+                i = remapTypeOrCharacter(signature, i, classNames, out, copiedUntil);
             }
-            if (!headerTokens[0].equals("v1")) {
-                br.close();
-                throw new IllegalStateException("This method can only read tiny v1 maps.");
+            if (copiedUntil[0] == 0) {
+                return signature;
             }
-            for (String line = br.readLine(); line != null; line = br.readLine()) {
-                lineNr++;
-                if (line.charAt(0) == '#') { // fast short-circuiting
-                    continue;
-                }
-                line = line.split("#", 2)[0];
-                if (line.isBlank()) {
-                    continue;
-                }
-                String[] colums = line.split("\\s+");
-                String type = colums[0].toUpperCase(Locale.ROOT);
-                if (type.equals("CLASS")) {
-                    // Format: CLASS originalName newName
-                    if (colums.length != 3) {
-                        throw new IllegalStateException("Line " + lineNr + " is of type CLASS, but only " + colums.length + " colums are present, even though it expects 3.");
-                    }
-                    remapper.remapClassName(colums[2], colums[1]);
-                } else if (type.equals("METHOD")) {
-                    // Format: METHOD owner originalName descriptor newName
-                    if (colums.length != 5) {
-                        throw new IllegalStateException("Line " + lineNr + " is of type CLASS, but only " + colums.length + " colums are present, even though it expects 5.");
+            out.append(signature, copiedUntil[0], length);
+            return out.toString();
+        } catch (IndexOutOfBoundsException e) {
+            // Not a signature - an unterminated class name most likely
+            return signature;
+        }
+    }
+
+    private static int remapClassType(String signature, int start, Map<String, String> classNames, StringBuilder out, int[] copiedUntil) {
+        // start points to the 'L'
+        int segmentStart = start + 1;
+        String fullName = null;
+        int i = segmentStart;
+        while (true) {
+            char c = signature.charAt(i);
+            if (c == ';' || c == '<' || c == '.') {
+                if (segmentStart != -1) {
+                    String segment = signature.substring(segmentStart, i);
+                    String newSegment;
+                    if (fullName == null) {
+                        fullName = segment;
+                        newSegment = classNames.get(segment);
+                    } else {
+                        // Inner classes are only referenced by their simple name, so we have to look up their full name
+                        String outerName = fullName;
+                        fullName = outerName + '$' + segment;
+                        String newInnerName = classNames.get(fullName);
+                        if (newInnerName == null) {
+                            newSegment = null;
+                        } else {
+                            String newOuterPrefix = classNames.getOrDefault(outerName, outerName) + '$';
+                            if (newInnerName.startsWith(newOuterPrefix)) {
+                                newSegment = newInnerName.substring(newOuterPrefix.length());
+                            } else {
+                                newSegment = newInnerName.substring(newInnerName.lastIndexOf('/') + 1);
+                            }
+                        }
                     }
-                    try {
-                        remapper.remapMethod(colums[1], colums[3], colums[4], colums[2]);
-                    } catch (ConflicitingMappingException e) {
-                        e.printStackTrace();
-                        System.err.println("This is NOT a fatal error, but it is worth looking into.");
+                    if (newSegment != null) {
+                        out.append(signature, copiedUntil[0], segmentStart);
+                        out.append(newSegment);
+                        copiedUntil[0] = i;
                     }
-                } else if (type.equals("FIELD")) {
-                    // Format: FIELD owner descriptor originalName newName
-                    if (colums.length != 5) {
-                        throw new IllegalStateException("Line " + lineNr + " is of type CLASS, but only " + colums.length + " colums are present, even though it expects 5.");
+                    segmentStart = -1;
+                }
+                if (c == ';') {
+                    return i + 1;
+                } else if (c == '<') {
+                    i++;
+                    while (signature.charAt(i) != '>') {
+                        i = remapTypeArgument(signature, i, classNames, out, copiedUntil);
                     }
-                    remapper.remapField(colums[1], colums[2], colums[4], colums[3]);
+                    i++;
+                    continue;
+                } else {
+                    // '.': The simple name of a inner class follows
+                    segmentStart = i + 1;
+                }
+            }
+            i++;
+        }
+    }
+
+    private static int remapFormalTypeParameters(String signature, int start, Map<String, String> classNames, StringBuilder out, int[] copiedUntil) {
+        int i = start;
+        while (signature.charAt(i) != '>') {
+            // identifier
+            while (signature.charAt(i) != ':') {
+                i++;
+            }
+            // class bound & interface bounds
+            while (signature.charAt(i) == ':') {
+                i++;
+                char c = signature.charAt(i);
+                if (c == 'L' || c == 'T' || c == '[') {
+                    i = remapTypeOrCharacter(signature, i, classNames, out, copiedUntil);
                 }
             }
         }
+        return i + 1;
+    }
+
+    private static int remapTypeArgument(String signature, int start, Map<String, String> classNames, StringBuilder out, int[] copiedUntil) {
+        char c = signature.charAt(start);
+        if (c == '*') {
+            return start + 1;
+        } else if (c == '+' || c == '-') {
+            start++;
+        }
+        return remapTypeOrCharacter(signature, start, classNames, out, copiedUntil);
+    }
+
+    private static int remapTypeOrCharacter(String signature, int start, Map<String, String> classNames, StringBuilder out, int[] copiedUntil) {
+        char c = signature.charAt(start);
+        if (c == 'L') {
+            return remapClassType(signature, start, classNames, out, copiedUntil);
+        } else if (c == 'T') {
+            int end = signature.indexOf(';', start);
+            if (end == -1) {
+                throw new IndexOutOfBoundsException("Unterminated type variable");
+            }
+            return end + 1;
+        } else {
+            // Primitives, array dimensions and the delimiters of method descriptors
+            return start + 1;
+        }
     }
 }
@@ -0,0 +1,261 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokenizer for the body of tiny v1 files that works directly on the bytes of the file.
+ * Unlike {@link String#split(String)} and friends it does not make use of regular expressions and only creates
+ * strings for the columns that are passed to the {@link Visitor}. The owner of consecutive members is only
+ * created once, which is the common case for sorted mapping files.
+ *<p>
+ * Columns are separated by any amount of ASCII whitespace, lines by '\n' and everything after a '#' is a comment.
+ * The type of a line is case-insensitive, lines with an unknown type are ignored.
+ */
+final class TinyV1Tokenizer {
+
+    /**
+     * Receiver of the entries of a tiny v1 file. The columns are already brought into a uniform order,
+     * regardless of the column order used for the specific entry type within the file.
+     */
+    interface Visitor {
+
+        void visitClass(int lineNr, String oldName, String newName);
+
+        void visitField(int lineNr, String owner, String desc, String oldName, String newName);
+
+        /**
+         * Called for entries that do not have the amount of columns required by their type.
+         * The default implementation aborts the tokenization by throwing an exception.
+         *
+         * @param lineNr The line number of the entry
+         * @param type The type of the entry in uppercase
+         * @param columns The amount of columns present
+         * @param expectedColumns The amount of columns expected for the type
+         */
+        default void visitInvalidEntry(int lineNr, String type, int columns, int expectedColumns) {
+            throw invalidEntry(lineNr, type, columns, expectedColumns);
+        }
+
+        void visitMethod(int lineNr, String owner, String desc, String oldName, String newName);
+    }
+
+    private static final int MAX_COLUMNS = 5;
+
+    static IllegalStateException invalidEntry(int lineNr, String type, int columns, int expectedColumns) {
+        return new IllegalStateException("Line " + lineNr + " is of type " + type + ", but only " + columns + " colums are present, even though it expects " + expectedColumns + ".");
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b >= 0 && b <= ' ' && b != '\n';
+    }
+
+    private static TinyV1Tokenizer parseHeader(ByteBuffer buffer, int end) {
+        TinyV1Tokenizer tokenizer = new TinyV1Tokenizer(buffer, 0, end, 1);
+        int columns = tokenizer.nextLine();
+        if (columns <= 0) {
+            throw new IllegalStateException("No tiny header present (empty file?).");
+        }
+        if (columns != 3) {
+            throw new IllegalStateException("The tiny header had " + columns + " tokens, however it is expected to be exactly 3.");
+        }
+        if (tokenizer.columnEnd[0] - tokenizer.columnStart[0] != 2 || buffer.get(tokenizer.columnStart[0]) != 'v'
+                || buffer.get(tokenizer.columnStart[0] + 1) != '1') {
+            throw new IllegalStateException("This method can only read tiny v1 maps.");
+        }
+        return tokenizer;
+    }
+
+    /**
+     * Validates the header of a tiny v1 file.
+     *
+     * @param buffer The buffer containing the file, starting at index 0
+     * @param end The index after the last byte of the file
+     * @return The index of the first byte after the header line
+     * @throws IllegalStateException If the header is missing or not a tiny v1 header
+     */
+    static int readHeader(ByteBuffer buffer, int end) {
+        return parseHeader(buffer, end).position;
+    }
+
+    /**
+     * Validates the header of a tiny v1 file and obtains the names of the two namespaces declared by it.
+     *
+     * @param buffer The buffer containing the file, starting at index 0
+     * @param end The index after the last byte of the file
+     * @return The namespaces, in the order they are declared
+     * @throws IllegalStateException If the header is missing or not a tiny v1 header
+     */
+    static String[] readNamespaces(ByteBuffer buffer, int end) {
+        TinyV1Tokenizer tokenizer = parseHeader(buffer, end);
+        return new String[] {tokenizer.createString(1), tokenizer.createString(2)};
+    }
+
+    private final ByteBuffer buffer;
+    private final int[] columnEnd = new int[MAX_COLUMNS + 1];
+    private final int[] columnStart = new int[MAX_COLUMNS + 1];
+    private final int end;
+    private int lastOwnerEnd;
+    private String lastOwner;
+    private int lastOwnerStart;
+    private int lineNr;
+    private int position;
+    private byte[] scratch = new byte[256];
+    private final ByteBuffer view;
+
+    /**
+     * Creates a tokenizer for a region of a buffer. The region must start at the beginning of a line.
+     *
+     * @param buffer The buffer to read from. The position and limit of the buffer are not used or modified
+     * @param start The index of the first byte to tokenize
+     * @param end The index after the last byte to tokenize
+     * @param firstLineNr The line number of the first line of the region, used for error reporting
+     */
+    TinyV1Tokenizer(ByteBuffer buffer, int start, int end, int firstLineNr) {
+        this.buffer = buffer;
+        this.view = buffer.duplicate();
+        this.position = start;
+        this.end = end;
+        this.lineNr = firstLineNr - 1;
+    }
+
+    private boolean columnEquals(int column, String upperCaseKeyword) {
+        int start = columnStart[column];
+        int length = upperCaseKeyword.length();
+        if (columnEnd[column] - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            // Clearing bit 5 turns ASCII lowercase letters into uppercase letters
+            if ((buffer.get(start + i) & 0xDF) != upperCaseKeyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String createOwner(int column) {
+        int start = columnStart[column];
+        int length = columnEnd[column] - start;
+        if (lastOwner != null && lastOwnerEnd - lastOwnerStart == length) {
+            int i = 0;
+            while (i < length && buffer.get(start + i) == buffer.get(lastOwnerStart + i)) {
+                i++;
+            }
+            if (i == length) {
+                return lastOwner;
+            }
+        }
+        lastOwner = createString(column);
+        lastOwnerStart = start;
+        lastOwnerEnd = columnEnd[column];
+        return lastOwner;
+    }
+
+    private String createString(int column) {
+        int start = columnStart[column];
+        int length = columnEnd[column] - start;
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        view.position(start);
+        view.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Splits the next line into columns, ignoring any comments.
+     *
+     * @return The amount of columns within the line, which may be larger than the amount of recorded columns; -1 if the end was reached
+     */
+    private int nextLine() {
+        if (position >= end) {
+            return -1;
+        }
+        lineNr++;
+        int columns = 0;
+        int i = position;
+        while (i < end) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                break;
+            } else if (b == '#') {
+                do {
+                    i++;
+                } while (i < end && buffer.get(i) != '\n');
+                break;
+            } else if (isWhitespace(b)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (++i < end) {
+                b = buffer.get(i);
+                if (b == '\n' || b == '#' || isWhitespace(b)) {
+                    break;
+                }
+            }
+            if (columns < columnStart.length) {
+                columnStart[columns] = start;
+                columnEnd[columns] = i;
+            }
+            columns++;
+        }
+        position = i + 1;
+        return columns;
+    }
+
+    /**
+     * Obtains the line number of the line that was read last.
+     *
+     * @return The current line number
+     */
+    int getLineNr() {
+        return lineNr;
+    }
+
+    /**
+     * Reads all entries within the region and passes them to the visitor.
+     *
+     * @param visitor The visitor to pass the entries to
+     * @return The amount of valid entries that were visited
+     * @throws IllegalStateException If an entry has an invalid amount of columns and the visitor does not handle it
+     */
+    int tokenize(Visitor visitor) {
+        int entries = 0;
+        for (int columns = nextLine(); columns != -1; columns = nextLine()) {
+            if (columns == 0) {
+                continue;
+            }
+            if (columnEquals(0, "CLASS")) {
+                // Format: CLASS originalName newName
+                if (columns != 3) {
+                    visitor.visitInvalidEntry(lineNr, "CLASS", columns, 3);
+                    continue;
+                }
+                visitor.visitClass(lineNr, createString(1), createString(2));
+            } else if (columnEquals(0, "METHOD")) {
+                // Format: METHOD owner originalName descriptor newName
+                if (columns != 5) {
+                    visitor.visitInvalidEntry(lineNr, "METHOD", columns, 5);
+                    continue;
+                }
+                visitor.visitMethod(lineNr, createOwner(1), createString(3), createString(2), createString(4));
+            } else if (columnEquals(0, "FIELD")) {
+                // Format: FIELD owner descriptor originalName newName
+                if (columns != 5) {
+                    visitor.visitInvalidEntry(lineNr, "FIELD", columns, 5);
+                    continue;
+                }
+                visitor.visitField(lineNr, createOwner(1), createString(2), createString(3), createString(4));
+            } else {
+                continue;
+            }
+            entries++;
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,145 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Line-by-line reader for the tiny v2 format. Only classes, fields and methods are read, everything else
+ * (properties other than "escaped-names", parameters, local variables and comments) is skipped.
+ */
+final class TinyV2Reader {
+
+    private static String[] columns(String line, int start) {
+        List<String> columns = new ArrayList<>();
+        int columnStart = start;
+        while (true) {
+            int tab = line.indexOf('\t', columnStart);
+            if (tab == -1) {
+                columns.add(line.substring(columnStart));
+                return columns.toArray(new String[0]);
+            }
+            columns.add(line.substring(columnStart, tab));
+            columnStart = tab + 1;
+        }
+    }
+
+    private static int indentation(String line) {
+        int i = 0;
+        while (i < line.length() && line.charAt(i) == '\t') {
+            i++;
+        }
+        return i;
+    }
+
+    static MappingTable read(BufferedReader reader) throws IOException {
+        String header = reader.readLine();
+        if (header == null || header.isEmpty()) {
+            throw new IllegalStateException("No tiny header present (empty file?).");
+        }
+        String[] headerColumns = columns(header, 0);
+        if (headerColumns.length < 5 || !headerColumns[0].equals("tiny") || !headerColumns[1].equals("2")) {
+            throw new IllegalStateException("This method can only read tiny v2 maps.");
+        }
+        String[] namespaces = new String[headerColumns.length - 3];
+        System.arraycopy(headerColumns, 3, namespaces, 0, namespaces.length);
+        MappingTable table = new MappingTable(namespaces);
+        boolean escapedNames = false;
+        boolean inProperties = true;
+        MappingTable.ClassEntry currentClass = null;
+        int lineNr = 1;
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            lineNr++;
+            if (line.isEmpty()) {
+                continue;
+            }
+            int depth = indentation(line);
+            if (depth == 0) {
+                inProperties = false;
+                if (line.startsWith("c\t")) {
+                    String[] names = readNames(columns(line, 2), 0, namespaces.length, escapedNames, lineNr);
+                    table.addClass(names);
+                    currentClass = table.classes.get(names[0]);
+                } else {
+                    currentClass = null;
+                }
+            } else if (depth == 1) {
+                if (inProperties) {
+                    if (line.equals("\tescaped-names") || line.startsWith("\tescaped-names\t")) {
+                        escapedNames = true;
+                    }
+                    continue;
+                }
+                boolean field = line.startsWith("f\t", 1);
+                if (!field && !line.startsWith("m\t", 1)) {
+                    continue; // Comment
+                }
+                if (currentClass == null) {
+                    throw new IllegalStateException("Line " + lineNr + " declares a member outside of a class.");
+                }
+                String[] columns = columns(line, 3);
+                String[] names = readNames(columns, 1, namespaces.length, escapedNames, lineNr);
+                String desc = escapedNames ? unescape(columns[0]) : columns[0];
+                if (field) {
+                    currentClass.fields.add(new MappingTable.MemberEntry(desc, names));
+                } else {
+                    currentClass.methods.add(new MappingTable.MemberEntry(desc, names));
+                }
+            }
+            // Parameters, local variables and their comments are not stored
+        }
+        return table;
+    }
+
+    private static String[] readNames(String[] columns, int offset, int namespaceCount, boolean escaped, int lineNr) {
+        if (columns.length - offset != namespaceCount) {
+            throw new IllegalStateException("Line " + lineNr + " has " + (columns.length - offset) + " names, even though it expects " + namespaceCount + ".");
+        }
+        String[] names = new String[namespaceCount];
+        for (int i = 0; i < namespaceCount; i++) {
+            names[i] = escaped ? unescape(columns[i + offset]) : columns[i + offset];
+        }
+        return names;
+    }
+
+    private static String unescape(String string) {
+        int backslash = string.indexOf('\\');
+        if (backslash == -1) {
+            return string;
+        }
+        StringBuilder builder = new StringBuilder(string.length());
+        builder.append(string, 0, backslash);
+        for (int i = backslash; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c != '\\' || i + 1 == string.length()) {
+                builder.append(c);
+                continue;
+            }
+            c = string.charAt(++i);
+            switch (c) {
+            case 'n':
+                builder.append('\n');
+                break;
+            case 'r':
+                builder.append('\r');
+                break;
+            case 't':
+                builder.append('\t');
+                break;
+            case '0':
+                builder.append('\0');
+                break;
+            default:
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Static utility class.
+     */
+    private TinyV2Reader() {
+    }
+}
@@ -0,0 +1,125 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer for the tiny v2 format. Names are only escaped if at least one name of the table requires it.
+ */
+final class TinyV2Writer {
+
+    private static String escape(String string) {
+        StringBuilder builder = null;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            String replacement;
+            switch (c) {
+            case '\\':
+                replacement = "\\\\";
+                break;
+            case '\n':
+                replacement = "\\n";
+                break;
+            case '\r':
+                replacement = "\\r";
+                break;
+            case '\t':
+                replacement = "\\t";
+                break;
+            case '\0':
+                replacement = "\\0";
+                break;
+            default:
+                if (builder != null) {
+                    builder.append(c);
+                }
+                continue;
+            }
+            if (builder == null) {
+                builder = new StringBuilder(string.length() + 8);
+                builder.append(string, 0, i);
+            }
+            builder.append(replacement);
+        }
+        return builder == null ? string : builder.toString();
+    }
+
+    private static boolean needsEscaping(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c == '\\' || c == '\n' || c == '\r' || c == '\t' || c == '\0') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean needsEscaping(String[] names) {
+        for (String name : names) {
+            if (needsEscaping(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean needsEscaping(MappingTable table) {
+        for (MappingTable.ClassEntry entry : table.classes.values()) {
+            if (needsEscaping(entry.names)) {
+                return true;
+            }
+            for (MappingTable.MemberEntry member : entry.fields) {
+                if (needsEscaping(member.desc) || needsEscaping(member.names)) {
+                    return true;
+                }
+            }
+            for (MappingTable.MemberEntry member : entry.methods) {
+                if (needsEscaping(member.desc) || needsEscaping(member.names)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static void write(MappingTable table, Writer writer) throws IOException {
+        boolean escape = needsEscaping(table);
+        writer.write("tiny\t2\t0");
+        for (String namespace : table.getNamespaces()) {
+            writer.write('\t');
+            writer.write(namespace);
+        }
+        writer.write('\n'); // The tiny format does not make use of system-dependent newlines
+        if (escape) {
+            writer.write("\tescaped-names\n");
+        }
+        for (MappingTable.ClassEntry entry : table.classes.values()) {
+            writer.write('c');
+            writeNames(writer, entry.names, escape);
+            for (MappingTable.MemberEntry field : entry.fields) {
+                writer.write("\tf\t");
+                writer.write(escape ? escape(field.desc) : field.desc);
+                writeNames(writer, field.names, escape);
+            }
+            for (MappingTable.MemberEntry method : entry.methods) {
+                writer.write("\tm\t");
+                writer.write(escape ? escape(method.desc) : method.desc);
+                writeNames(writer, method.names, escape);
+            }
+        }
+    }
+
+    private static void writeNames(Writer writer, String[] names, boolean escape) throws IOException {
+        for (String name : names) {
+            writer.write('\t');
+            writer.write(escape ? escape(name) : name);
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Static utility class.
+     */
+    private TinyV2Writer() {
+    }
+}
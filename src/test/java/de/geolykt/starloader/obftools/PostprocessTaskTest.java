@@ -0,0 +1,71 @@
+package de.geolykt.starloader.obftools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.geolykt.starloader.obftools.asm.remapper.MappingValidationReport;
+import de.geolykt.starloader.obftools.asm.remapper.MappingValidationReport.IssueType;
+
+public class PostprocessTaskTest {
+
+    @TempDir
+    Path tempDir;
+
+    private File write(String name, String contents) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testOverrideConflictsWithReversedMap() throws IOException {
+        File map = write("intermediary.tiny", "v1\tofficial\tintermediary\n"
+                + "CLASS\ta\tclass_1\n"
+                + "CLASS\tb\tclass_2\n"
+                + "FIELD\ta\tLb;\tf\tfield_1\n"
+                + "METHOD\ta\tm\t(Lb;)V\tmethod_1\n");
+        // Overrides are keyed by the intermediary names, which the reversed map needs to be translated to
+        File overrides = write("overrides.tiny", "v1\tintermediary\tofficial\n"
+                + "FIELD\tclass_1\tLclass_2;\tfield_1\tf\n"
+                + "METHOD\tclass_1\tmethod_1\t(Lclass_2;)V\tx\n");
+
+        MappingValidationReport report = PostprocessTask.validateMappings(map, overrides);
+        assertEquals(1, report.getTotalCount(), report::toString);
+        assertEquals(1, report.getCount(IssueType.CONFLICTING_METHOD_RENAME));
+        MappingValidationReport.Issue issue = report.getIssues().get(0);
+        assertEquals("overrides.tiny", issue.getSource());
+        assertEquals(3, issue.getLineNr());
+        assertEquals("Method class_1.method_1 (Lclass_2;)V is renamed to both m (intermediary.tiny:5) and x (overrides.tiny:3)", issue.getMessage());
+
+        assertTrue(PostprocessTask.validateMappings(map, null).isEmpty());
+    }
+
+    @Test
+    public void testReportedIssuesAreTruncated() throws IOException {
+        int conflicts = PostprocessTask.REPORTED_ISSUES + 5;
+        StringBuilder contents = new StringBuilder("v1\tofficial\tintermediary\n");
+        for (int i = 0; i < conflicts; i++) {
+            contents.append("CLASS\tc").append(i).append("\tclass_").append(i).append('\n');
+            contents.append("CLASS\td").append(i).append("\tclass_").append(i).append('\n');
+        }
+        File map = write("intermediary.tiny", contents.toString());
+
+        // Reversed, each pair renames the same intermediary class to two different names
+        MappingValidationReport report = PostprocessTask.validateMappings(map, null);
+        assertEquals(conflicts, report.getCount(IssueType.CONFLICTING_CLASS_RENAME));
+        assertEquals(conflicts, report.getTotalCount());
+        assertEquals(PostprocessTask.REPORTED_ISSUES, report.getIssues().size());
+        assertEquals(3, report.getIssues().get(0).getLineNr());
+        assertEquals(PostprocessTask.REPORTED_ISSUES * 2 + 1, report.getIssues().get(PostprocessTask.REPORTED_ISSUES - 1).getLineNr());
+        assertTrue(report.toString().endsWith("\n  (5 more issue(s) omitted)"), report::toString);
+    }
+}
@@ -0,0 +1,45 @@
+package de.geolykt.starloader.obftools.asm;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.Frame;
+import org.objectweb.asm.tree.analysis.SourceValue;
+
+public class FrameCacheTest {
+
+    @Test
+    public void testOriginThroughDup() {
+        ClassNode node = new ClassNode();
+        node.name = "A";
+        MethodNode method = new MethodNode(Opcodes.ACC_STATIC, "m", "()V", null, null);
+        AbstractInsnNode push = new InsnNode(Opcodes.ICONST_0);
+        AbstractInsnNode dup = new InsnNode(Opcodes.DUP);
+        AbstractInsnNode pop = new InsnNode(Opcodes.POP);
+        method.instructions.add(push);
+        method.instructions.add(dup);
+        method.instructions.add(pop);
+        method.instructions.add(new InsnNode(Opcodes.POP));
+        method.instructions.add(new InsnNode(Opcodes.RETURN));
+        method.maxStack = 2;
+        method.maxLocals = 0;
+
+        FrameCache cache = new FrameCache();
+        Frame<SourceValue> frame = cache.getFrame(node, method, pop);
+        assertNotNull(frame);
+        SourceValue value = frame.getStack(frame.getStackSize() - 1);
+        assertSame(dup, FrameCache.getSource(value));
+        assertSame(push, cache.getOrigin(node, method, value));
+
+        // The method can no longer be analyzed, so the frame of the DUP instruction is not known anymore
+        method.instructions.insert(new InsnNode(Opcodes.POP));
+        assertNull(cache.getOrigin(node, method, value));
+    }
+}
@@ -0,0 +1,184 @@
+package de.geolykt.starloader.obftools.asm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+public class InsnPatternMatcherTest {
+
+    private static final ClassNode OWNER = new ClassNode();
+
+    private static MethodNode createMethod(AbstractInsnNode... insns) {
+        MethodNode method = new MethodNode(Opcodes.ACC_STATIC, "m", "()V", null, null);
+        for (AbstractInsnNode insn : insns) {
+            method.instructions.add(insn);
+        }
+        return method;
+    }
+
+    private static InsnNode insn(int opcode) {
+        return new InsnNode(opcode);
+    }
+
+    /**
+     * Scans a method for a single pattern.
+     *
+     * @return The instructions of the matches, as returned by {@link InsnPattern.Match#get(String)} for the given names
+     */
+    private static List<List<AbstractInsnNode>> scan(InsnPattern pattern, MethodNode method, String... names) {
+        List<List<AbstractInsnNode>> matches = new ArrayList<>();
+        new InsnPatternMatcher().register(pattern, null, (node, m, match) -> {
+            List<AbstractInsnNode> captured = new ArrayList<>();
+            for (String name : names) {
+                captured.add(match.get(name));
+            }
+            matches.add(captured);
+        }).scan(OWNER, method);
+        return matches;
+    }
+
+    @Test
+    public void testOverlappingCandidates() {
+        InsnPattern pattern = InsnPattern.builder()
+                .then("a", Opcodes.ICONST_0)
+                .then("b", Opcodes.ICONST_0)
+                .then("c", Opcodes.POP)
+                .build();
+        InsnNode[] insns = {insn(Opcodes.ICONST_0), insn(Opcodes.ICONST_0), insn(Opcodes.ICONST_0), insn(Opcodes.POP)};
+        // The candidate that begins at the first instruction dies, the one that begins at the second instruction matches
+        assertEquals(List.of(List.of(insns[1], insns[2], insns[3])), scan(pattern, createMethod(insns), "a", "b", "c"));
+
+        // Matches of the same pattern do not overlap
+        InsnPattern pair = InsnPattern.builder()
+                .then("a", Opcodes.ICONST_0)
+                .then("b", Opcodes.ICONST_0)
+                .build();
+        insns = new InsnNode[] {insn(Opcodes.ICONST_0), insn(Opcodes.ICONST_0), insn(Opcodes.ICONST_0), insn(Opcodes.ICONST_0), insn(Opcodes.ICONST_0)};
+        assertEquals(List.of(List.of(insns[0], insns[1]), List.of(insns[2], insns[3])), scan(pair, createMethod(insns), "a", "b"));
+    }
+
+    @Test
+    public void testOverlappingPatterns() {
+        InsnPattern first = InsnPattern.builder().then(null, Opcodes.ICONST_0).then(null, Opcodes.ICONST_1).build();
+        InsnPattern second = InsnPattern.builder().then(null, Opcodes.ICONST_1).then(null, Opcodes.POP).build();
+        List<InsnPattern> matches = new ArrayList<>();
+        new InsnPatternMatcher()
+                .register(first, null, (node, method, match) -> matches.add(match.getPattern()))
+                .register(second, null, (node, method, match) -> matches.add(match.getPattern()))
+                .scan(OWNER, createMethod(insn(Opcodes.ICONST_0), insn(Opcodes.ICONST_1), insn(Opcodes.POP)));
+        // Matches of different patterns may overlap
+        assertEquals(List.of(first, second), matches);
+    }
+
+    @Test
+    public void testSkipAtEndOfMethod() {
+        InsnPattern pattern = InsnPattern.builder()
+                .then("push", Opcodes.ICONST_0)
+                .skipping(InsnPattern.SKIP_PSEUDO_INSNS)
+                .then("pop", Opcodes.POP)
+                .build();
+        LabelNode label = new LabelNode();
+        InsnNode push = insn(Opcodes.ICONST_0);
+        MethodNode method = createMethod(push, label, new LineNumberNode(1, label));
+        assertEquals(List.of(), scan(pattern, method, "pop"));
+        assertNull(pattern.match(push));
+
+        InsnNode pop = insn(Opcodes.POP);
+        method.instructions.add(pop);
+        assertEquals(List.of(List.of(push, pop)), scan(pattern, method, "push", "pop"));
+        assertSame(pop, pattern.match(push).getLast());
+
+        InsnPattern skipWhile = InsnPattern.builder()
+                .then(null, Opcodes.ICONST_0)
+                .skippingWhile((insn, match) -> insn.getOpcode() == Opcodes.ICONST_1)
+                .then(null, Opcodes.POP)
+                .build();
+        assertEquals(List.of(), scan(skipWhile, createMethod(insn(Opcodes.ICONST_0), insn(Opcodes.ICONST_1), insn(Opcodes.ICONST_1))));
+    }
+
+    @Test
+    public void testOptionalFirstStep() {
+        InsnPattern pattern = InsnPattern.builder()
+                .thenOptional("load", (insn, match) -> insn.getOpcode() == Opcodes.ILOAD)
+                .then("return", Opcodes.IRETURN)
+                .build();
+        assertThrows(IllegalArgumentException.class, () -> new InsnPatternMatcher().register(pattern, null, (node, method, match) -> { }));
+
+        VarInsnNode load = new VarInsnNode(Opcodes.ILOAD, 0);
+        InsnNode ret = insn(Opcodes.IRETURN);
+        createMethod(load, ret);
+        InsnPattern.Match match = pattern.match(load);
+        assertNotNull(match);
+        assertSame(load, match.get("load"));
+        assertSame(ret, match.get("return"));
+
+        match = pattern.match(ret);
+        assertNotNull(match);
+        assertNull(match.get("load"));
+        assertSame(ret, match.getLast());
+    }
+
+    @Test
+    public void testCaptures() {
+        InsnPattern pattern = InsnPattern.builder()
+                .then("store", Opcodes.ISTORE)
+                .then("load", (insn, match) -> insn.getOpcode() == Opcodes.ILOAD && ((VarInsnNode) insn).var == match.getVar("store"))
+                .build();
+        VarInsnNode store = new VarInsnNode(Opcodes.ISTORE, 1);
+        VarInsnNode load = new VarInsnNode(Opcodes.ILOAD, 1);
+        MethodNode method = createMethod(new VarInsnNode(Opcodes.ISTORE, 1), new VarInsnNode(Opcodes.ILOAD, 2), store, load);
+        List<InsnPattern.Match> matches = new ArrayList<>();
+        new InsnPatternMatcher().register(pattern, null, (node, m, match) -> matches.add(match)).scan(OWNER, method);
+        assertEquals(1, matches.size());
+        assertSame(store, matches.get(0).get("store"));
+        assertSame(load, matches.get(0).get("load"));
+        assertEquals(1, matches.get(0).getVar("load"));
+        assertThrows(IllegalArgumentException.class, () -> matches.get(0).get("unknown"));
+
+        assertThrows(IllegalArgumentException.class, () -> InsnPattern.builder().then("a", Opcodes.NOP).then("a", Opcodes.NOP));
+    }
+
+    @Test
+    public void testHandlerModifiesInstructions() {
+        InsnPattern pattern = InsnPattern.builder()
+                .then("push", Opcodes.ICONST_0)
+                .then("pop", Opcodes.POP)
+                .build();
+        InsnPattern other = InsnPattern.builder()
+                .then(null, Opcodes.POP)
+                .then(null, Opcodes.RETURN)
+                .build();
+        MethodNode method = createMethod(insn(Opcodes.ICONST_0), insn(Opcodes.POP), insn(Opcodes.ICONST_0), insn(Opcodes.POP), insn(Opcodes.RETURN));
+        int[] counts = new int[2];
+        new InsnPatternMatcher().register(pattern, null, (node, m, match) -> {
+            // Replace the first instruction of the match and insert a label in front of it
+            AbstractInsnNode push = match.get("push");
+            m.instructions.insertBefore(push, new LabelNode());
+            m.instructions.set(push, insn(Opcodes.NOP));
+            counts[0]++;
+        }).register(other, null, (node, m, match) -> counts[1]++).scan(OWNER, method);
+
+        assertEquals(2, counts[0]);
+        assertEquals(1, counts[1]);
+        List<Integer> opcodes = new ArrayList<>();
+        for (AbstractInsnNode insn : method.instructions) {
+            opcodes.add(insn.getOpcode());
+        }
+        assertEquals(List.of(-1, Opcodes.NOP, Opcodes.POP, -1, Opcodes.NOP, Opcodes.POP, Opcodes.RETURN), opcodes);
+    }
+}
@@ -0,0 +1,133 @@
+package de.geolykt.starloader.obftools.asm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+public class MethodGroupsTest {
+
+    private static ClassNode createClass(int access, String name, String superName, String... interfaces) {
+        ClassNode node = new ClassNode();
+        node.version = Opcodes.V11;
+        node.access = access;
+        node.name = name;
+        node.superName = superName;
+        node.interfaces = new ArrayList<>(Arrays.asList(interfaces));
+        return node;
+    }
+
+    private static ClassNode createInterface(String name, String... interfaces) {
+        return createClass(Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, name, "java/lang/Object", interfaces);
+    }
+
+    private static ClassNode addMethod(ClassNode node, int access, String name) {
+        node.methods.add(new MethodNode(access, name, "()V", null, null));
+        return node;
+    }
+
+    private static Map<MethodReference, Set<MethodReference>> compute(ClassNode... nodes) {
+        return MethodGroups.compute(new ClassGraph(Arrays.asList(nodes)), new ReferencePool());
+    }
+
+    /**
+     * Obtains the group of the method "name()V" of a class.
+     *
+     * @return The sorted owners of the methods within the group, or null if the method is not known
+     */
+    private static List<String> group(Map<MethodReference, Set<MethodReference>> groups, String owner, String name) {
+        Set<MethodReference> group = groups.get(new MethodReference(owner, "()V", name));
+        if (group == null) {
+            return null;
+        }
+        List<String> owners = new ArrayList<>();
+        for (MethodReference reference : group) {
+            assertEquals(name, reference.getName());
+            owners.add(reference.getOwner());
+        }
+        owners.sort(null);
+        return owners;
+    }
+
+    @Test
+    public void testPackagePrivateMethodFromOtherPackage() {
+        ClassNode a = addMethod(createClass(Opcodes.ACC_PUBLIC, "p/A", "java/lang/Object"), 0, "m");
+        ClassNode b = addMethod(createClass(Opcodes.ACC_PUBLIC, "q/B", "p/A"), Opcodes.ACC_PUBLIC, "m");
+        ClassNode c = createClass(Opcodes.ACC_PUBLIC, "q/C", "p/A");
+        Map<MethodReference, Set<MethodReference>> groups = compute(a, b, c);
+
+        assertEquals(List.of("p/A"), group(groups, "p/A", "m"));
+        assertEquals(List.of("q/B"), group(groups, "q/B", "m"));
+        // A package-private method of another package cannot be referenced through a class
+        assertNull(group(groups, "q/C", "m"));
+    }
+
+    @Test
+    public void testPackagePrivateMethodRedeclared() {
+        ClassNode a = addMethod(createClass(Opcodes.ACC_PUBLIC, "p/A", "java/lang/Object"), 0, "m");
+        ClassNode b = addMethod(createClass(Opcodes.ACC_PUBLIC, "q/B", "p/A"), Opcodes.ACC_PUBLIC, "m");
+        ClassNode c = addMethod(createClass(Opcodes.ACC_PUBLIC, "q/C", "q/B"), 0, "m");
+        Map<MethodReference, Set<MethodReference>> groups = compute(a, b, c);
+
+        assertEquals(List.of("p/A"), group(groups, "p/A", "m"));
+        assertEquals(List.of("q/B", "q/C"), group(groups, "q/B", "m"));
+    }
+
+    @Test
+    public void testInterfaceDiamond() {
+        ClassNode i = addMethod(createInterface("I"), Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "m");
+        ClassNode j = addMethod(createInterface("J", "I"), Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "m");
+        ClassNode k = createInterface("K", "I");
+        ClassNode l = createClass(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "L", "java/lang/Object", "J", "K");
+        ClassNode m = addMethod(createClass(Opcodes.ACC_PUBLIC, "M", "L"), Opcodes.ACC_PUBLIC, "m");
+        Map<MethodReference, Set<MethodReference>> groups = compute(m, l, k, j, i);
+
+        List<String> expected = List.of("I", "J", "K", "L", "M");
+        assertEquals(expected, group(groups, "I", "m"));
+        assertEquals(expected, group(groups, "K", "m"));
+        assertEquals(expected, group(groups, "M", "m"));
+    }
+
+    @Test
+    public void testInterfaceImplementedBySuperclassMethod() {
+        ClassNode i = addMethod(createInterface("I"), Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "m");
+        // A does not implement I itself, B implements I through the method inherited from A
+        ClassNode a = addMethod(createClass(Opcodes.ACC_PUBLIC, "A", "java/lang/Object"), Opcodes.ACC_PUBLIC, "m");
+        ClassNode b = createClass(Opcodes.ACC_PUBLIC, "B", "A", "I");
+        ClassNode c = createClass(Opcodes.ACC_PUBLIC, "C", "A");
+        Map<MethodReference, Set<MethodReference>> groups = compute(i, a, b, c);
+
+        List<String> expected = List.of("A", "B", "C", "I");
+        assertEquals(expected, group(groups, "A", "m"));
+        assertEquals(expected, group(groups, "I", "m"));
+    }
+
+    @Test
+    public void testStaticMethods() {
+        ClassNode a = createClass(Opcodes.ACC_PUBLIC, "A", "java/lang/Object");
+        addMethod(a, Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "s");
+        addMethod(a, Opcodes.ACC_PUBLIC, "m");
+        // Not valid java, but valid bytecode: B declares static methods with the same name and descriptor as A
+        ClassNode b = createClass(Opcodes.ACC_PUBLIC, "B", "A");
+        addMethod(b, Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "s");
+        addMethod(b, Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "m");
+        ClassNode c = addMethod(createClass(Opcodes.ACC_PUBLIC, "C", "B"), Opcodes.ACC_PUBLIC, "m");
+        Map<MethodReference, Set<MethodReference>> groups = compute(a, b, c);
+
+        assertEquals(List.of("A"), group(groups, "A", "s"));
+        assertEquals(List.of("B"), group(groups, "B", "s"));
+        assertNull(group(groups, "C", "s"));
+        assertEquals(List.of("B"), group(groups, "B", "m"));
+        // The static method of B does not hide A.m() from C
+        assertEquals(List.of("A", "C"), group(groups, "A", "m"));
+    }
+}
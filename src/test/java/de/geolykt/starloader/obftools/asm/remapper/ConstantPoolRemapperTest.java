@@ -0,0 +1,99 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+public class ConstantPoolRemapperTest {
+
+    /**
+     * Creates the class "a" with the field "a" of type "La;", the method "a()V" and the method "b(La;)La;",
+     * which loads the string "a" and invokes "a()V". The class is annotated with "Lb;" with the string value "La;".
+     * The class writer shares a single UTF8 entry for every occurrence of "a" and "La;".
+     */
+    private static byte[] createSharedUtf8Class() {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V11, Opcodes.ACC_PUBLIC, "a", null, "java/lang/Object", null);
+        AnnotationVisitor annotation = writer.visitAnnotation("Lb;", true);
+        annotation.visit("value", "La;");
+        annotation.visitEnd();
+        writer.visitField(Opcodes.ACC_PUBLIC, "a", "La;", null, null).visitEnd();
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "a", "()V", null, null);
+        method.visitCode();
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        method = writer.visitMethod(Opcodes.ACC_PUBLIC, "b", "(La;)La;", null, null);
+        method.visitCode();
+        method.visitLdcInsn("a");
+        method.visitInsn(Opcodes.POP);
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "a", "a", "()V", false);
+        method.visitVarInsn(Opcodes.ALOAD, 1);
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static ClassNode read(byte[] classFile) {
+        ClassNode node = new ClassNode();
+        new ClassReader(classFile).accept(node, 0);
+        return node;
+    }
+
+    @Test
+    public void testSharedUtf8() {
+        ConstantPoolRemapper remapper = new ConstantPoolRemapper(Collections.singletonMap("a", "class_a"));
+        ClassNode node = read(remapper.remap(createSharedUtf8Class()));
+
+        assertEquals("class_a", node.name);
+
+        List<AnnotationNode> annotations = node.visibleAnnotations;
+        assertEquals(1, annotations.size());
+        assertEquals("Lb;", annotations.get(0).desc);
+        assertEquals(List.of("value", "La;"), annotations.get(0).values);
+
+        assertEquals(1, node.fields.size());
+        FieldNode field = node.fields.get(0);
+        assertEquals("a", field.name);
+        assertEquals("Lclass_a;", field.desc);
+
+        MethodNode a = node.methods.get(0);
+        assertEquals("a", a.name);
+        assertEquals("()V", a.desc);
+
+        MethodNode b = node.methods.get(1);
+        assertEquals("b", b.name);
+        assertEquals("(Lclass_a;)Lclass_a;", b.desc);
+        LdcInsnNode ldc = (LdcInsnNode) b.instructions.getFirst();
+        assertEquals("a", ldc.cst);
+        MethodInsnNode invoke = (MethodInsnNode) ldc.getNext().getNext().getNext();
+        assertEquals("class_a", invoke.owner);
+        assertEquals("a", invoke.name);
+        assertEquals("()V", invoke.desc);
+    }
+
+    @Test
+    public void testUnchanged() {
+        byte[] classFile = createSharedUtf8Class();
+        byte[] remapped = new ConstantPoolRemapper(Collections.singletonMap("c", "class_c")).remap(classFile);
+        assertSame(classFile, remapped);
+    }
+}
@@ -0,0 +1,133 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+public class DenseRenameTableTest {
+
+    /**
+     * Classes with a few fields, methods and references between each other that are remapped by the equivalence test.
+     */
+    private static final Class<?>[] SAMPLE_CLASSES = {MappingTable.class, MappingTable.ClassEntry.class, MappingTable.MemberEntry.class,
+            TinyV2Reader.class, TinyV2Writer.class, LongIntTable.class};
+
+    private static Map<String, String> toMap(DenseRenameTable table) {
+        Map<String, String> map = new HashMap<>();
+        table.forEach((owner, desc, name, newName) -> map.put(owner + '.' + name + ' ' + desc, newName));
+        return map;
+    }
+
+    private static List<ClassNode> readSamples() throws IOException {
+        List<ClassNode> nodes = new ArrayList<>();
+        for (Class<?> sample : SAMPLE_CLASSES) {
+            try (InputStream in = sample.getResourceAsStream('/' + sample.getName().replace('.', '/') + ".class")) {
+                ClassNode node = new ClassNode();
+                new ClassReader(in).accept(node, 0);
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    private static List<byte[]> remap(boolean dense) throws IOException, ConflicitingMappingException {
+        List<ClassNode> nodes = readSamples();
+        Remapper remapper = new Remapper(dense);
+        for (ClassNode node : nodes) {
+            remapper.remapClassName(node.name, "remapped/" + node.name.substring(node.name.lastIndexOf('/') + 1));
+            for (FieldNode field : node.fields) {
+                remapper.remapField(node.name, field.desc, field.name, "field_" + field.name);
+            }
+            for (MethodNode method : node.methods) {
+                if (method.name.charAt(0) != '<') {
+                    remapper.remapMethod(node.name, method.desc, method.name, "method_" + method.name);
+                }
+            }
+        }
+        remapper.addTargets(nodes);
+        remapper.process();
+        List<byte[]> out = new ArrayList<>();
+        for (ClassNode node : nodes) {
+            ClassWriter writer = new ClassWriter(0);
+            node.accept(writer);
+            out.add(writer.toByteArray());
+        }
+        return out;
+    }
+
+    @Test
+    public void testClear() {
+        DenseRenameTable table = new DenseRenameTable();
+        table.put("A", "I", "a", "field_1");
+        table.put("A", "J", "b", "field_2");
+        table.put("B", "I", "a", "field_3");
+        assertEquals(3, table.size());
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertNull(table.get("A", "I", "a"));
+        assertEquals(Map.of(), toMap(table));
+
+        // Ids are assigned from scratch, which must not mix up the previous and the new entries
+        assertNull(table.put("C", "J", "c", "field_4"));
+        assertNull(table.put("A", "I", "a", "field_5"));
+        assertNull(table.get("A", "J", "b"));
+        assertNull(table.get("B", "I", "a"));
+        assertEquals(Map.of("C.c J", "field_4", "A.a I", "field_5"), toMap(table));
+    }
+
+    @Test
+    public void testPutAndRemove() {
+        DenseRenameTable table = new DenseRenameTable();
+        assertNull(table.put("A", "I", "a", "field_1"));
+        assertEquals("field_1", table.put("A", "I", "a", "field_2"));
+        assertEquals("field_2", table.get("A", "I", "a"));
+        assertNull(table.get("A", "J", "a"));
+        assertNull(table.get("B", "I", "a"));
+        table.remove("A", "I", "a");
+        table.remove("Unknown", "I", "a");
+        assertNull(table.get("A", "I", "a"));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testNullNames() throws ConflicitingMappingException {
+        for (boolean dense : new boolean[] {false, true}) {
+            Remapper remapper = new Remapper(dense);
+            assertThrows(NullPointerException.class, () -> remapper.remapField("A", "I", "a", null));
+            assertThrows(NullPointerException.class, () -> remapper.remapMethod("A", "()V", "a", null));
+            remapper.remapMethod("A", "()V", "a", "method_1");
+            assertThrows(ConflicitingMappingException.class, () -> remapper.remapMethod("A", "()V", "a", null));
+        }
+    }
+
+    @Test
+    public void testDenseEquivalence() throws IOException, ConflicitingMappingException {
+        List<byte[]> expected = remap(false);
+        List<byte[]> actual = remap(true);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i), SAMPLE_CLASSES[i].getName());
+        }
+        // Make sure that the sample actually was remapped
+        ClassNode node = new ClassNode();
+        new ClassReader(actual.get(0)).accept(node, 0);
+        assertEquals("remapped/MappingTable", node.name);
+        assertEquals("field_classes", node.fields.get(0).name);
+    }
+}
@@ -0,0 +1,122 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class LongIntTableTest {
+
+    /**
+     * Finds keys whose home slot is the given slot within a table of the initial capacity of 16.
+     */
+    private static List<Long> findKeys(int slot, int count) {
+        List<Long> keys = new ArrayList<>();
+        for (long key = 0; keys.size() < count; key++) {
+            if ((LongIntTable.mix(key) & 15) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static Map<Long, Integer> toMap(LongIntTable table) {
+        Map<Long, Integer> map = new HashMap<>();
+        table.forEach((key, value) -> {
+            if (map.put(key, value) != null) {
+                throw new AssertionError("Duplicate key " + key);
+            }
+        });
+        return map;
+    }
+
+    @Test
+    public void testWrapAround() {
+        // Three keys whose home is the last slot occupy the last and the first two slots, the fourth key's home is the first slot
+        List<Long> keys = findKeys(15, 3);
+        keys.add(findKeys(0, 1).get(0));
+        LongIntTable table = new LongIntTable();
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(-1, table.put(keys.get(i), i));
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i, table.get(keys.get(i)));
+        }
+        assertEquals(2, table.put(keys.get(2), 20));
+        assertEquals(20, table.get(keys.get(2)));
+        assertEquals(-1, table.get(findKeys(15, 4).get(3)));
+        assertEquals(4, table.size());
+    }
+
+    @Test
+    public void testRemoveFromProbeChain() {
+        List<Long> keys = findKeys(15, 3);
+        keys.add(findKeys(0, 1).get(0));
+        keys.add(findKeys(1, 1).get(0));
+        for (int removed = 0; removed < keys.size(); removed++) {
+            LongIntTable table = new LongIntTable();
+            for (int i = 0; i < keys.size(); i++) {
+                table.put(keys.get(i), i);
+            }
+            assertEquals(removed, table.remove(keys.get(removed)));
+            assertEquals(-1, table.remove(keys.get(removed)));
+            assertEquals(keys.size() - 1, table.size());
+            for (int i = 0; i < keys.size(); i++) {
+                assertEquals(i == removed ? -1 : i, table.get(keys.get(i)), "Key " + i + " after removing key " + removed);
+            }
+            // The slot of the removed key can be reused
+            table.put(keys.get(removed), 100);
+            assertEquals(100, table.get(keys.get(removed)));
+        }
+    }
+
+    @Test
+    public void testResize() {
+        LongIntTable table = new LongIntTable();
+        for (int i = 0; i < 10_000; i++) {
+            table.put(LongIntTable.pack(i, i * 31), i);
+        }
+        assertEquals(10_000, table.size());
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, table.get(LongIntTable.pack(i, i * 31)));
+        }
+        assertEquals(-1, table.get(LongIntTable.pack(10_000, 0)));
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.get(LongIntTable.pack(0, 0)));
+        assertEquals(Map.of(), toMap(table));
+    }
+
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(50);
+        LongIntTable table = new LongIntTable();
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            // Small key range, so that keys are frequently replaced and removed
+            long key = LongIntTable.pack(random.nextInt(64), random.nextInt(64));
+            if (random.nextInt(3) == 0) {
+                Integer old = expected.remove(key);
+                assertEquals(old == null ? -1 : old, table.remove(key));
+            } else {
+                int value = random.nextInt(Integer.MAX_VALUE);
+                Integer old = expected.put(key, value);
+                assertEquals(old == null ? -1 : old, table.put(key, value));
+            }
+            assertEquals(expected.size(), table.size());
+        }
+        assertEquals(expected, toMap(table));
+    }
+
+    @Test
+    public void testNegativeValues() {
+        assertThrows(IllegalArgumentException.class, () -> new LongIntTable().put(1L, -1));
+    }
+}
@@ -0,0 +1,107 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MappingDiffTest {
+
+    private static final String OLD_MAPPINGS = "v1\tofficial\tintermediary\n"
+            + "CLASS\ta\tclass_1\n"
+            + "CLASS\tb\tclass_2\n"
+            + "CLASS\tc\tclass_3\n"
+            + "FIELD\ta\tI\tx\tfield_1\n"
+            + "FIELD\ta\tLa;\ty\tfield_2\n"
+            + "FIELD\ta\tLb;\tw\tfield_8\n"
+            + "METHOD\ta\tm\t()V\tmethod_1\n"
+            + "METHOD\ta\tr\t(I)V\tmethod_3\n"
+            + "METHOD\tb\tn\t()V\tmethod_5\n";
+
+    private static final String NEW_MAPPINGS = "v1\tofficial\tintermediary\n"
+            + "CLASS\ta\tclass_1\n"
+            + "CLASS\tb\tclass_20\n"
+            + "CLASS\td\tclass_4\n"
+            + "FIELD\ta\tI\tx\tfield_1\n"
+            + "FIELD\ta\tLa;\ty\tfield_22\n"
+            + "FIELD\ta\tLb;\tw\tfield_8\n"
+            + "METHOD\ta\tm\t()V\tmethod_1\n"
+            + "METHOD\ta\tq\t(La;)V\tmethod_9\n"
+            + "METHOD\tb\tn\t()V\tmethod_50\n"
+            + "FIELD\tb\tI\tz\tfield_7\n";
+
+    @TempDir
+    Path tempDir;
+
+    private MappingTable read(String name, String contents) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return MappingTable.readTinyV1File(file);
+    }
+
+    private static List<String> toStrings(MappingDiff diff) {
+        List<String> changes = new ArrayList<>();
+        for (MappingDiff.Change change : diff.getChanges()) {
+            changes.add(change.toString());
+        }
+        return changes;
+    }
+
+    @Test
+    public void testDiff() throws IOException {
+        MappingDiff diff = MappingDiff.compute(read("old.tiny", OLD_MAPPINGS), read("new.tiny", NEW_MAPPINGS), "official", "intermediary");
+        // Field "w" is not reported even though the target name of it's descriptor changed
+        assertEquals(List.of(
+                "ADDED CLASS class_4",
+                "ADDED FIELD class_20.field_7 I",
+                "ADDED METHOD class_1.method_9 (Lclass_1;)V",
+                "REMOVED CLASS class_3",
+                "REMOVED METHOD class_1.method_3 (I)V",
+                "RENAMED CLASS class_2 -> class_20",
+                "RENAMED FIELD class_1.field_2 Lclass_1; -> field_22",
+                "RENAMED METHOD class_2.method_5 ()V -> method_50"), toStrings(diff));
+        assertEquals(3, diff.getCount(MappingDiff.ChangeType.ADDED));
+        assertEquals(2, diff.getCount(MappingDiff.ChangeType.REMOVED));
+        assertEquals(3, diff.getCount(MappingDiff.ChangeType.RENAMED));
+        assertEquals(2, diff.getMatchedClassCount());
+
+        MappingDiff.Change memberOfRenamedClass = diff.getChanges().get(7);
+        assertEquals(MappingDiff.EntryKind.METHOD, memberOfRenamedClass.getKind());
+        assertEquals("class_2", memberOfRenamedClass.getOwner());
+        assertEquals("method_5", memberOfRenamedClass.getOldName());
+        assertEquals("method_50", memberOfRenamedClass.getNewName());
+
+        MappingTable migration = diff.getMigrationMappings();
+        assertEquals("class_20", migration.getClassNames("old", "new").get("class_2"));
+        assertEquals(Map.of("method_5()V", "method_50"), migration.getMethodNames("class_2", "old", "new"));
+    }
+
+    @Test
+    public void testFingerprintMatching() throws IOException {
+        // The obfuscated name of class_3 changed from "c" to "e", but it's fingerprint stayed the same
+        String newMappings = NEW_MAPPINGS.replace("CLASS\td\tclass_4\n", "CLASS\td\tclass_4\nCLASS\te\tclass_3\n");
+        MappingTable oldTable = read("old.tiny", OLD_MAPPINGS);
+        MappingTable newTable = read("new.tiny", newMappings);
+
+        MappingDiff byName = MappingDiff.compute(oldTable, newTable, "official", "intermediary");
+        assertEquals(List.of("ADDED CLASS class_3", "ADDED CLASS class_4"), toStrings(byName).subList(0, 2));
+        assertEquals(4, byName.getCount(MappingDiff.ChangeType.ADDED));
+        assertEquals(2, byName.getCount(MappingDiff.ChangeType.REMOVED));
+
+        MappingDiff byFingerprint = MappingDiff.compute(oldTable, newTable, "official", "intermediary",
+                Map.of("c", 42L, "a", 1L), Map.of("e", 42L, "d", 7L, "a", 1L));
+        assertEquals(3, byFingerprint.getMatchedClassCount());
+        assertEquals(3, byFingerprint.getCount(MappingDiff.ChangeType.ADDED));
+        assertEquals(1, byFingerprint.getCount(MappingDiff.ChangeType.REMOVED));
+        assertEquals("REMOVED METHOD class_1.method_3 (I)V", byFingerprint.getChanges().get(3).toString());
+    }
+}
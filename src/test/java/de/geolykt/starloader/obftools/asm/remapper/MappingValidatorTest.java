@@ -0,0 +1,82 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.geolykt.starloader.obftools.asm.remapper.MappingValidationReport.IssueType;
+
+public class MappingValidatorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private File write(String name, String contents) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<String> toStrings(MappingValidationReport report) {
+        List<String> issues = new ArrayList<>();
+        for (MappingValidationReport.Issue issue : report.getIssues()) {
+            issues.add(issue.toString());
+        }
+        return issues;
+    }
+
+    @Test
+    public void testDuplicateTargets() throws IOException {
+        File map = write("map.tiny", "v1\tofficial\tintermediary\n"
+                + "CLASS\ta\tclass_1\n"
+                + "CLASS\tb\tclass_1\n"
+                + "FIELD\ta\tI\tf\tfield_1\n"
+                + "FIELD\ta\tI\tg\tfield_1\n"
+                + "FIELD\ta\tJ\th\tfield_1\n"
+                + "METHOD\ta\tm\t()V\tmethod_1\n"
+                + "METHOD\ta\tn\t()V\tmethod_1\n"
+                + "METHOD\ta\to\t(I)V\tmethod_1\n");
+        MappingValidationReport report = new MappingValidator().addTinyV1File(map, false).validate(10);
+        // Members with a different descriptor may share the same name
+        assertEquals(List.of(
+                "map.tiny:3: DUPLICATE_CLASS_TARGET: Class a (map.tiny:2) and Class b (map.tiny:3) are both renamed to class_1",
+                "map.tiny:5: DUPLICATE_MEMBER_TARGET: Field a.f I (map.tiny:4) and Field a.g I (map.tiny:5) are both renamed to field_1",
+                "map.tiny:8: DUPLICATE_MEMBER_TARGET: Method a.m ()V (map.tiny:7) and Method a.n ()V (map.tiny:8) are both renamed to method_1"),
+                toStrings(report));
+        assertEquals(1, report.getCount(IssueType.DUPLICATE_CLASS_TARGET));
+        assertEquals(2, report.getCount(IssueType.DUPLICATE_MEMBER_TARGET));
+        assertEquals(3, report.getTotalCount());
+    }
+
+    @Test
+    public void testConflictsBetweenSources() throws IOException {
+        MappingTable table = new MappingTable("official", "intermediary");
+        table.addClass("a", "class_1");
+        table.addField("a", "I", "f", "field_1");
+        File overrides = write("overrides.tiny", "v1\tofficial\tintermediary\n"
+                + "CLASS\ta\tclass_1\n"
+                + "FIELD\ta\tI\tf\tfield_2\n"
+                + "FIELD\tclass_1\tI\tg\tfield_3\n");
+        MappingValidationReport report = new MappingValidator()
+                .addMappings(table, "official", "intermediary")
+                .addTinyV1File(overrides, false)
+                .validate(10);
+        assertEquals(List.of(
+                "overrides.tiny:3: CONFLICTING_FIELD_RENAME: Field a.f I is renamed to both field_1 (table) and field_2 (overrides.tiny:3)",
+                "overrides.tiny:4: DANGLING_OWNER: Field class_1.g I (overrides.tiny:4) is owned by class_1, which is the new name of a class"),
+                toStrings(report));
+
+        report = new MappingValidator().addTinyV1File(overrides, false).validate(Set.of("a", "class_1"), 10);
+        assertEquals(0, report.getCount(IssueType.DANGLING_OWNER));
+    }
+}
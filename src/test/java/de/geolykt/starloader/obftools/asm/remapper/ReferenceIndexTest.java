@@ -0,0 +1,163 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+public class ReferenceIndexTest {
+
+    private static final String[] CLASS_NAMES = {"A", "B", "C", "Z", "java/lang/Object"};
+    private static final String[] FIELD_NAMES = {"f", "g"};
+    private static final String[][] METHODS = {{"x", "()V"}, {"m", "()V"}, {"n", "(LB;)V"}};
+
+    /**
+     * Creates the class "A", which declares the method "x()V".
+     */
+    private static ClassNode createA() {
+        ClassNode node = createClass("A", "java/lang/Object");
+        MethodNode x = new MethodNode(Opcodes.ACC_PUBLIC, "x", "()V", null, null);
+        x.instructions.add(new InsnNode(Opcodes.RETURN));
+        node.methods.add(x);
+        return node;
+    }
+
+    /**
+     * Creates the class "B", which declares the field "f" and the method "m()V". The method reads "f" and
+     * calls "A.x()V" if the class extends "A".
+     */
+    private static ClassNode createB(String superName) {
+        ClassNode node = createClass("B", superName);
+        node.fields.add(new FieldNode(Opcodes.ACC_PUBLIC, "f", "I", null, null));
+        MethodNode m = new MethodNode(Opcodes.ACC_PUBLIC, "m", "()V", null, null);
+        m.instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
+        m.instructions.add(new FieldInsnNode(Opcodes.GETFIELD, "B", "f", "I"));
+        m.instructions.add(new InsnNode(Opcodes.POP));
+        if (superName.equals("A")) {
+            m.instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
+            m.instructions.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "A", "x", "()V"));
+        }
+        m.instructions.add(new InsnNode(Opcodes.RETURN));
+        node.methods.add(m);
+        return node;
+    }
+
+    /**
+     * Creates the class "C", which extends "B" and reads "f" through itself as the owner, as javac does.
+     */
+    private static ClassNode createC() {
+        ClassNode node = createClass("C", "B");
+        MethodNode n = new MethodNode(Opcodes.ACC_PUBLIC, "n", "(LB;)V", null, null);
+        n.instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
+        n.instructions.add(new FieldInsnNode(Opcodes.GETFIELD, "C", "f", "I"));
+        n.instructions.add(new InsnNode(Opcodes.POP));
+        n.instructions.add(new InsnNode(Opcodes.RETURN));
+        node.methods.add(n);
+        return node;
+    }
+
+    private static ClassNode createClass(String name, String superName) {
+        ClassNode node = new ClassNode();
+        node.version = Opcodes.V11;
+        node.access = Opcodes.ACC_PUBLIC;
+        node.name = name;
+        node.superName = superName;
+        return node;
+    }
+
+    private static Map<String, List<String>> snapshot(ReferenceIndex index) {
+        Map<String, List<String>> snapshot = new TreeMap<>();
+        for (String owner : CLASS_NAMES) {
+            snapshot.put("class " + owner, toNames(index.getClassReferences(owner)));
+            snapshot.put("subclasses " + owner, toNames(index.getDirectSubclasses(owner)));
+            for (String field : FIELD_NAMES) {
+                snapshot.put("field " + owner + '.' + field, toNames(index.getFieldReferences(owner, "I", field)));
+            }
+            for (String[] method : METHODS) {
+                snapshot.put("method " + owner + '.' + method[0] + method[1], toNames(index.getMethodReferences(owner, method[1], method[0])));
+            }
+        }
+        return snapshot;
+    }
+
+    private static List<String> toNames(Set<ClassNode> nodes) {
+        List<String> names = new ArrayList<>();
+        for (ClassNode node : nodes) {
+            names.add(node.name);
+        }
+        names.sort(null);
+        return names;
+    }
+
+    private static void remapIncrementally(Remapper remapper) {
+        remapper.remapField("B", "I", "f", "g");
+        remapper.remapClassName("A", "Z");
+        remapper.processIncrementally();
+    }
+
+    private static ReferenceIndex rebuild(ClassNode... nodes) {
+        ReferenceIndex index = new ReferenceIndex();
+        for (ClassNode node : nodes) {
+            index.index(node);
+        }
+        return index;
+    }
+
+    @Test
+    public void testRemoval() {
+        ClassNode a = createA();
+        ClassNode b = createB("A");
+        ClassNode c = createC();
+        ReferenceIndex index = new ReferenceIndex();
+        Remapper remapper = new Remapper();
+        remapper.setReferenceIndex(index);
+        remapper.addTargets(List.of(a, b, c));
+        remapper.process();
+
+        index.remove(c);
+        remapper.clearTargets();
+        remapper.addTargets(List.of(a, b));
+        remapIncrementally(remapper);
+
+        assertEquals("Z", b.superName);
+        assertEquals("g", b.fields.get(0).name);
+        assertEquals(snapshot(rebuild(a, b)), snapshot(index));
+    }
+
+    @Test
+    public void testReplacement() {
+        ClassNode a = createA();
+        ClassNode b = createB("A");
+        ClassNode c = createC();
+        ReferenceIndex index = new ReferenceIndex();
+        Remapper remapper = new Remapper();
+        remapper.setReferenceIndex(index);
+        remapper.addTargets(List.of(a, b, c));
+        remapper.process();
+
+        // The new version of B no longer extends A
+        ClassNode replacement = createB("java/lang/Object");
+        index.remove(b);
+        remapper.clearTargets();
+        remapper.addTargets(List.of(a, replacement, c));
+        remapIncrementally(remapper);
+
+        assertEquals("g", replacement.fields.get(0).name);
+        assertEquals(snapshot(rebuild(a, replacement, c)), snapshot(index));
+        assertEquals(List.of(), toNames(index.getDirectSubclasses("A")));
+        assertEquals(List.of(), toNames(index.getDirectSubclasses("Z")));
+    }
+}
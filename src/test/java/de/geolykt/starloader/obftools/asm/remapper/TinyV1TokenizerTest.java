@@ -0,0 +1,107 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class TinyV1TokenizerTest {
+
+    /**
+     * Tokenizes a tiny v1 file, header included.
+     *
+     * @param map The contents of the file
+     * @return The visited entries, one string per entry with the columns in the order they are passed to the visitor
+     */
+    private static List<String> tokenize(String map) {
+        ByteBuffer buffer = ByteBuffer.wrap(map.getBytes(StandardCharsets.UTF_8));
+        int end = buffer.limit();
+        int start = TinyV1Tokenizer.readHeader(buffer, end);
+        List<String> entries = new ArrayList<>();
+        int count = new TinyV1Tokenizer(buffer, start, end, 2).tokenize(new TinyV1Tokenizer.Visitor() {
+            @Override
+            public void visitClass(int lineNr, String oldName, String newName) {
+                entries.add(lineNr + " CLASS " + oldName + ' ' + newName);
+            }
+
+            @Override
+            public void visitField(int lineNr, String owner, String desc, String oldName, String newName) {
+                entries.add(lineNr + " FIELD " + owner + ' ' + desc + ' ' + oldName + ' ' + newName);
+            }
+
+            @Override
+            public void visitMethod(int lineNr, String owner, String desc, String oldName, String newName) {
+                entries.add(lineNr + " METHOD " + owner + ' ' + desc + ' ' + oldName + ' ' + newName);
+            }
+        });
+        assertEquals(entries.size(), count);
+        return entries;
+    }
+
+    @Test
+    public void testCaseInsensitiveTypes() {
+        List<String> entries = tokenize("v1\tofficial\tintermediary\n"
+                + "class\ta\tclass_a\n"
+                + "FiElD\ta\tI\tb\tfield_b\n"
+                + "Method\ta\tc\t()V\tmethod_c\n"
+                + "PACKAGE\ta\tb\n");
+        assertEquals(List.of("2 CLASS a class_a", "3 FIELD a I b field_b", "4 METHOD a ()V c method_c"), entries);
+    }
+
+    @Test
+    public void testCommentsAndEmptyColumns() {
+        List<String> entries = tokenize("v1\tofficial\tintermediary\n"
+                + "# A comment\n"
+                + "\n"
+                + "   \t\n"
+                + "CLASS\ta\tclass_a\t\n"
+                + "CLASS\tb\t\tclass_b   \n"
+                + "  FIELD a I b field_b # trailing comment\n"
+                + "METHOD\ta\tc\t()V\tmethod_c#no space");
+        assertEquals(List.of("5 CLASS a class_a", "6 CLASS b class_b", "7 FIELD a I b field_b", "8 METHOD a ()V c method_c"), entries);
+    }
+
+    @Test
+    public void testCrlf() {
+        List<String> entries = tokenize("v1\tofficial\tintermediary\r\n"
+                + "CLASS\ta\tclass_a\r\n"
+                + "\r\n"
+                + "FIELD\ta\tI\tb\tfield_b\r\n");
+        assertEquals(List.of("2 CLASS a class_a", "4 FIELD a I b field_b"), entries);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> tokenize("v1\tofficial\tintermediary\r\n"
+                + "CLASS\ta\tclass_a\r\n"
+                + "CLASS\tb\r\n"));
+        assertEquals("Line 3 is of type CLASS, but only 2 colums are present, even though it expects 3.", e.getMessage());
+    }
+
+    @Test
+    public void testInvalidHeader() {
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> tokenize(""));
+        assertEquals("No tiny header present (empty file?).", e.getMessage());
+        e = assertThrows(IllegalStateException.class, () -> tokenize("v1\tofficial\n"));
+        assertEquals("The tiny header had 2 tokens, however it is expected to be exactly 3.", e.getMessage());
+        e = assertThrows(IllegalStateException.class, () -> tokenize("v2\tofficial\tintermediary\n"));
+        assertEquals("This method can only read tiny v1 maps.", e.getMessage());
+    }
+
+    @Test
+    public void testMalformedLines() {
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> tokenize("v1\tofficial\tintermediary\n"
+                + "CLASS\ta\n"));
+        assertEquals("Line 2 is of type CLASS, but only 2 colums are present, even though it expects 3.", e.getMessage());
+        e = assertThrows(IllegalStateException.class, () -> tokenize("v1\tofficial\tintermediary\n"
+                + "CLASS\ta\tclass_a\n"
+                + "FIELD\ta\tI\tb\n"));
+        assertEquals("Line 3 is of type FIELD, but only 4 colums are present, even though it expects 5.", e.getMessage());
+        // Too many columns are rejected as well
+        e = assertThrows(IllegalStateException.class, () -> tokenize("v1\tofficial\tintermediary\n"
+                + "METHOD\ta\tc\t()V\tmethod_c\textra\n"));
+        assertEquals("Line 2 is of type METHOD, but only 6 colums are present, even though it expects 5.", e.getMessage());
+    }
+}
@@ -0,0 +1,98 @@
+package de.geolykt.starloader.obftools.asm.remapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class TinyV2Test {
+
+    private static List<String> dump(MappingTable table) {
+        List<String> entries = new ArrayList<>();
+        entries.add("namespaces " + table.getNamespaces());
+        for (MappingTable.ClassEntry entry : table.classes.values()) {
+            entries.add("c " + Arrays.toString(entry.names));
+            for (MappingTable.MemberEntry field : entry.fields) {
+                entries.add("f " + field.desc + ' ' + Arrays.toString(field.names));
+            }
+            for (MappingTable.MemberEntry method : entry.methods) {
+                entries.add("m " + method.desc + ' ' + Arrays.toString(method.names));
+            }
+        }
+        return entries;
+    }
+
+    private static MappingTable read(String map) throws IOException {
+        return TinyV2Reader.read(new BufferedReader(new StringReader(map)));
+    }
+
+    private static String write(MappingTable table) throws IOException {
+        StringWriter writer = new StringWriter();
+        table.writeTinyV2(writer);
+        return writer.toString();
+    }
+
+    @Test
+    public void testEscapedRoundTrip() throws IOException {
+        MappingTable table = new MappingTable("official", "intermediary", "named");
+        table.addClass("a", "class_1", "tab\tclass");
+        table.addField("a", "I", "b", "field_1", "back\\slash");
+        table.addMethod("a", "()V", "c", "method_1", "new\nline");
+        table.addMethod("a", "(I)V", "c", "method_2", "");
+        table.addClass("d", "class_2", "");
+        table.addField("d", "La;", "e", "field_2", "carriage\rreturn\0");
+
+        String written = write(table);
+        assertTrue(written.startsWith("tiny\t2\t0\tofficial\tintermediary\tnamed\n\tescaped-names\n"));
+        // Every entry including the escaped ones needs to be on it's own line
+        assertEquals(8, written.split("\n").length);
+        assertEquals(dump(table), dump(read(written)));
+    }
+
+    @Test
+    public void testUnescapedRoundTrip() throws IOException {
+        MappingTable table = new MappingTable("official", "intermediary");
+        table.addClass("a", "class_1");
+        table.addField("a", "I", "b", "field_1");
+        table.addMethod("a", "()V", "c", "method_1");
+
+        String written = write(table);
+        assertFalse(written.contains("escaped-names"));
+        assertEquals(dump(table), dump(read(written)));
+    }
+
+    @Test
+    public void testSkipsCommentsAndLocals() throws IOException {
+        String map = "tiny\t2\t0\tofficial\tintermediary\tnamed\n"
+                + "\tescaped-names\n"
+                + "\tmissing-lvt-indices\n"
+                + "c\ta\tclass_1\tsome\\\\Class\n"
+                + "\tc\tA class comment\\twith an escaped tab\n"
+                + "\tf\tI\tb\tfield_1\tsome\\tField\n"
+                + "\t\tc\tA field comment\n"
+                + "\tm\t(I)V\tc\tmethod_1\tsome\\nMethod\n"
+                + "\t\tc\tA method comment\n"
+                + "\t\tp\t1\t\t\tvalue\n"
+                + "\t\t\tc\tA parameter comment\n"
+                + "\t\tv\t2\t3\t\t\t\tlocal\n"
+                + "c\td\tclass_2\t\n";
+        MappingTable table = read(map);
+
+        MappingTable expected = new MappingTable("official", "intermediary", "named");
+        expected.addClass("a", "class_1", "some\\Class");
+        expected.addField("a", "I", "b", "field_1", "some\tField");
+        expected.addMethod("a", "(I)V", "c", "method_1", "some\nMethod");
+        expected.addClass("d", "class_2", "");
+        assertEquals(dump(expected), dump(table));
+        assertEquals(dump(table), dump(read(write(table))));
+    }
+}